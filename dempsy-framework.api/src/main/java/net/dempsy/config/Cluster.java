@@ -38,6 +38,8 @@ import net.dempsy.messages.MessageProcessorLifecycle;
  */
 public class Cluster {
     public static final int DEFAULT_MAX_PENDING_MESSAGES_PER_CONTAINER = -1; // infinite (well, limited by the main queue)
+    public static final int DEFAULT_MAX_MESSAGE_PROCESSORS = -1; // no cap
+    public static final long DEFAULT_MAX_MESSAGE_AGE_MILLIS = -1; // messages never expire
 
     private ClusterId clusterId;
     private MessageProcessorLifecycle<?> mp = null;
@@ -45,11 +47,16 @@ public class Cluster {
     private String routingStrategyId;
     private ClusterId[] destinations = {};
     private int maxPendingMessagesPerContainer = DEFAULT_MAX_PENDING_MESSAGES_PER_CONTAINER;
+    private int maxMessageProcessors = DEFAULT_MAX_MESSAGE_PROCESSORS;
+    private boolean conflateMessages = false;
+    private long maxMessageAgeMillis = DEFAULT_MAX_MESSAGE_AGE_MILLIS;
     private String containerTypeId = null;
 
     private KeySource<?> keySource = null;
     // default to negative cycle time means no eviction cycle runs
     private EvictionFrequency evictionFrequency = new EvictionFrequency(-1L, TimeUnit.DAYS);
+    // default to negative idle time means Mps are never evicted for being idle
+    private IdleEviction idleEviction = new IdleEviction(-1L, TimeUnit.MINUTES);
 
     private Object outputExecutor = null;
 
@@ -63,6 +70,16 @@ public class Cluster {
         }
     }
 
+    public static class IdleEviction {
+        public final long idleTime;
+        public final TimeUnit idleTimeUnit;
+
+        public IdleEviction(final long idleTime, final TimeUnit idleTimeUnit) {
+            this.idleTime = idleTime;
+            this.idleTimeUnit = idleTimeUnit;
+        }
+    }
+
     /**
      * Create a ClusterDefinition from a cluster name. A {@link Cluster} is to be embedded in an {@link ApplicationDefinition} so it only needs to cluster name
      * and not the entire {@link ClusterId}.
@@ -144,6 +161,49 @@ public class Cluster {
         return this;
     }
 
+    /**
+     * Evict any Mp that hasn't been sent a message in the given amount of time. This is independent
+     * of the {@link #evictionFrequency(long, TimeUnit)} cycle and doesn't require the Mp to
+     * support eviction. The Mp will still be passivated.
+     */
+    public Cluster idleEviction(final long idleTime, final TimeUnit timeUnit) {
+        this.idleEviction = new IdleEviction(idleTime, timeUnit);
+        return this;
+    }
+
+    /**
+     * Cap the number of Mps each container in this cluster will hold. When a new Mp takes a container over
+     * the cap the least recently used Mps are passivated (approximately, and only ones not currently handling
+     * a message) regardless of whether the Mp supports eviction. A negative value (the default) means there's
+     * no cap.
+     */
+    public Cluster maxMessageProcessors(final int maxMessageProcessors) {
+        this.maxMessageProcessors = maxMessageProcessors;
+        return this;
+    }
+
+    /**
+     * For latest-value-wins streams. When an Mp is busy, a newly queued message replaces any
+     * message of the same type that's already queued for that Mp but hasn't been processed yet.
+     * The replaced message is disposed of and counted as discarded. This requires a container
+     * that queues messages per Mp.
+     */
+    public Cluster conflateMessages(final boolean conflateMessages) {
+        this.conflateMessages = conflateMessages;
+        return this;
+    }
+
+    /**
+     * For streams where a late result is worthless. A message that has been on the node longer than
+     * this by the time it's about to be delivered to an Mp is discarded rather than processed and counted
+     * as expired. This lets a node that has fallen behind catch back up quickly rather than working through
+     * a backlog of stale messages. A negative value (the default) means messages never expire.
+     */
+    public Cluster maxMessageAge(final long maxMessageAge, final TimeUnit timeUnit) {
+        this.maxMessageAgeMillis = maxMessageAge < 0 ? DEFAULT_MAX_MESSAGE_AGE_MILLIS : timeUnit.toMillis(maxMessageAge);
+        return this;
+    }
+
     public Cluster outputScheduler(final Object outputExecutor) {
         this.outputExecutor = outputExecutor;
         return this;
@@ -169,6 +229,14 @@ public class Cluster {
         this.evictionFrequency = evictionFrequency;
     }
 
+    public IdleEviction getIdleEviction() {
+        return idleEviction;
+    }
+
+    public void setIdleEviction(final IdleEviction idleEviction) {
+        this.idleEviction = idleEviction;
+    }
+
     public int getMaxPendingMessagesPerContainer() {
         return maxPendingMessagesPerContainer;
     }
@@ -177,6 +245,30 @@ public class Cluster {
         maxPendingMessagesPerContainer(maxPendingMessagesPerContainer);
     }
 
+    public int getMaxMessageProcessors() {
+        return maxMessageProcessors;
+    }
+
+    public void setMaxMessageProcessors(final int maxMessageProcessors) {
+        maxMessageProcessors(maxMessageProcessors);
+    }
+
+    public boolean isConflateMessages() {
+        return conflateMessages;
+    }
+
+    public void setConflateMessages(final boolean conflateMessages) {
+        conflateMessages(conflateMessages);
+    }
+
+    public long getMaxMessageAgeMillis() {
+        return maxMessageAgeMillis;
+    }
+
+    public void setMaxMessageAgeMillis(final long maxMessageAgeMillis) {
+        maxMessageAge(maxMessageAgeMillis, TimeUnit.MILLISECONDS);
+    }
+
     private Cluster containerTypeId(final String containerTypeId) {
         this.containerTypeId = containerTypeId;
         return this;
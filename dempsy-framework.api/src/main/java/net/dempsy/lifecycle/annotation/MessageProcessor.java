@@ -19,6 +19,9 @@ package net.dempsy.lifecycle.annotation;
 import static net.dempsy.lifecycle.annotation.internal.MessageUtils.getAllMessageTypeTypeAnnotationValues;
 import static net.dempsy.lifecycle.annotation.internal.MessageUtils.getMatchingMessageTypeTypeAnnotationValues;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -38,6 +41,9 @@ import net.dempsy.DempsyException;
 import net.dempsy.config.Cluster;
 import net.dempsy.config.ClusterId;
 import net.dempsy.lifecycle.annotation.internal.AnnotatedMethodInvoker;
+import net.dempsy.lifecycle.annotation.internal.CompiledMethods;
+import net.dempsy.lifecycle.annotation.internal.CompiledMethods.NoParameterMethod;
+import net.dempsy.lifecycle.annotation.internal.CompiledMethods.OneParameterMethod;
 import net.dempsy.lifecycle.annotation.utils.KeyExtractor;
 import net.dempsy.messages.KeyedMessage;
 import net.dempsy.messages.KeyedMessageWithType;
@@ -46,7 +52,9 @@ import net.dempsy.messages.ResourceManager;
 import net.dempsy.util.SafeString;
 
 /**
- * This class holds the MP prototype, and supports invocation of MP methods on an instance.
+ * This class holds the MP prototype, and supports invocation of MP methods on an instance. The MP's
+ * methods are bound once, when this is constructed, rather than reflectively invoked on every call
+ * (see {@link CompiledMethods}).
  */
 public class MessageProcessor<T> implements MessageProcessorLifecycle<T> {
     static final Logger LOGGER = LoggerFactory.getLogger(MessageProcessor.class);
@@ -57,10 +65,11 @@ public class MessageProcessor<T> implements MessageProcessorLifecycle<T> {
 
     private final String toStringValue;
 
-    private final Method cloneMethod;
+    private final NoParameterMethod cloneMethod;
     private UpToThreeParameterMethod activationMethod;
     private final ZeroParameterMethod<byte[]> passivationMethod;
     private final List<Method> outputMethods;
+    private final List<NoParameterMethod> outputInvokers;
     private final ZeroParameterMethod<Boolean> evictableMethod;
     private final AnnotatedMethodInvoker invocationMethods;
     private final Set<Class<?>> stopTryingToSendTheseTypes = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
@@ -77,7 +86,7 @@ public class MessageProcessor<T> implements MessageProcessorLifecycle<T> {
         this.toStringValue = getClass().getName() + "[" + mpClassName + "]";
 
         validateAsMP();
-        cloneMethod = introspectClone();
+        cloneMethod = CompiledMethods.noParameter(introspectClone());
 
         invocationMethods = new AnnotatedMethodInvoker(mpClass);
         hasBulk = invocationMethods.bulkMethod != null;
@@ -109,6 +118,7 @@ public class MessageProcessor<T> implements MessageProcessorLifecycle<T> {
 
         passivationMethod = findZeroParameterMethod(AnnotatedMethodInvoker.introspectAnnotationSingle(mpClass, Passivation.class), byte[].class);
         outputMethods = AnnotatedMethodInvoker.introspectAnnotationMultiple(mpClass, Output.class, true);
+        outputInvokers = outputMethods.stream().map(CompiledMethods::noParameter).collect(Collectors.toList());
         evictableMethod = findZeroParameterMethod(AnnotatedMethodInvoker.introspectAnnotationSingle(mpClass, Evictable.class), Boolean.class, boolean.class,
             false);
         typesHandled = new HashSet<>(Arrays.asList(getMessageTypesFromMpClass(prototype.getClass())));
@@ -149,17 +159,18 @@ public class MessageProcessor<T> implements MessageProcessorLifecycle<T> {
      */
     @Override
     public List<KeyedMessageWithType> invoke(final T instance, final KeyedMessage message) throws DempsyException {
-        if(!isMessageSupported(message.message))
+        final OneParameterMethod handler = invocationMethods.getHandler(message.message.getClass());
+        if(handler == null)
             throw new IllegalArgumentException(mpClassName + ": no handler for messages of type: " + message.message.getClass().getName());
 
-        final Object returnValue = wrap(() -> invocationMethods.invokeMethod(instance, message.message));
+        final Object returnValue = wrap(() -> handler.invoke(instance, message.message));
         return returnValue == null ? null : convertToKeyedMessage(returnValue);
     }
 
     @Override
     public List<KeyedMessageWithType> invokeBulk(final T instance, final List<KeyedMessage> messages) {
         if(hasBulk) {
-            final Object returnValue = wrap(() -> bulkMethod.invoke(instance, messages.stream()
+            final Object returnValue = wrap(() -> invocationMethods.invokeBulkMethod(instance, messages.stream()
                 .map(m -> m.message)
                 .collect(Collectors.toList())));
             return returnValue == null ? null : convertToKeyedMessage(returnValue);
@@ -192,7 +203,7 @@ public class MessageProcessor<T> implements MessageProcessorLifecycle<T> {
             return emptyKeyedMessageList;
 
         final List<KeyedMessageWithType> ret = new ArrayList<>();
-        for(final Method om: outputMethods) {
+        for(final NoParameterMethod om: outputInvokers) {
             final Object or = wrap(() -> om.invoke(instance));
             if(or != null) {
                 ret.addAll(convertToKeyedMessage(or));
@@ -394,10 +405,11 @@ public class MessageProcessor<T> implements MessageProcessorLifecycle<T> {
                     throw new IllegalStateException(
                         "The method " + method.getName() + " on the class " + method.getDeclaringClass().getName() + " should take no parameters.");
                 final Class<?> methodsReturnType = method.getReturnType();
+                final NoParameterMethod invoker = CompiledMethods.noParameter(method);
                 if(methodsReturnType == null || methodsReturnType == void.class) {
                     if(allowVoid)
                         return i -> {
-                            method.invoke(i);
+                            invoker.invoke(i);
                             return null;
                         };
 
@@ -410,7 +422,7 @@ public class MessageProcessor<T> implements MessageProcessorLifecycle<T> {
                         "The method " + method.getName() + " on the class " + method.getDeclaringClass().getName() + " returns a " + methodsReturnType.getName()
                             + " but is expected to return something assignable to a " + returnType.getName());
 
-                return i -> returnType.cast(method.invoke(i));
+                return i -> returnType.cast(invoker.invoke(i));
             }
             // the method is null, so we stub it out
             return i -> null;
@@ -431,8 +443,10 @@ public class MessageProcessor<T> implements MessageProcessorLifecycle<T> {
 
             final Class<?>[] parameterTypes = method.getParameterTypes();
             final int totalArguments = parameterTypes.length;
-            if(totalArguments == 0)
-                return (i, k, m, s) -> method.invoke(i);
+            if(totalArguments == 0) {
+                final NoParameterMethod invoker = CompiledMethods.noParameter(method);
+                return (i, k, m, s) -> invoker.invoke(i);
+            }
 
             if(totalArguments > 3)
                 throw new IllegalStateException(
@@ -471,6 +485,17 @@ public class MessageProcessor<T> implements MessageProcessorLifecycle<T> {
                 }
             }
 
+            final MethodHandle activationHandle = activationHandle(method, keyPosition, objectPos, byteArrayPos);
+            if(activationHandle != null) {
+                return (i, k, m, s) -> {
+                    try {
+                        activationHandle.invokeExact(i, k, m, s);
+                    } catch(final Throwable th) {
+                        throw new InvocationTargetException(th);
+                    }
+                };
+            }
+
             final int keyPositionF = keyPosition;
             final int objPositionF = objectPos;
             final int byteArrayPosF = byteArrayPos;
@@ -489,6 +514,30 @@ public class MessageProcessor<T> implements MessageProcessorLifecycle<T> {
         }
     }
 
+    // The activation method's parameters can be in any order so it can't be bound like the others. Instead its
+    // MethodHandle is adapted to take (instance, key, message, state) and invoked exactly. Returns null if
+    // the handle can't be created.
+    private static MethodHandle activationHandle(final Method method, final int keyPosition, final int objectPos, final int byteArrayPos) {
+        final MethodHandle handle = CompiledMethods.handle(method);
+        if(handle == null)
+            return null;
+
+        final Class<?>[] adaptedParameters = new Class<?>[method.getParameterCount() + 1];
+        final int[] reorder = new int[adaptedParameters.length];
+        adaptedParameters[0] = Object.class;
+        for(int p = 0; p < method.getParameterCount(); p++) {
+            adaptedParameters[p + 1] = p == byteArrayPos ? byte[].class : Object.class;
+            reorder[p + 1] = p == keyPosition ? 1 : (p == objectPos ? 2 : 3);
+        }
+
+        try {
+            return MethodHandles.permuteArguments(handle.asType(MethodType.methodType(void.class, adaptedParameters)),
+                MethodType.methodType(void.class, Object.class, Object.class, Object.class, byte[].class), reorder);
+        } catch(final RuntimeException e) {
+            return null;
+        }
+    }
+
     // /**
     // * Class to handle method calls for activation and passivation
     // */
@@ -21,6 +21,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -28,6 +29,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import net.dempsy.lifecycle.annotation.BulkMessageHandler;
 import net.dempsy.lifecycle.annotation.MessageHandler;
+import net.dempsy.lifecycle.annotation.internal.CompiledMethods.OneParameterMethod;
 
 /**
  * This class will identify and invoke annotated methods, maintaining a thread-safe cache of those methods.
@@ -50,6 +52,19 @@ import net.dempsy.lifecycle.annotation.MessageHandler;
 public class AnnotatedMethodInvoker {
     private final Map<Class<?>, Method> methods = new ConcurrentHashMap<>();
     public final Method bulkMethod;
+    private final OneParameterMethod bulkInvoker;
+
+    // each handler bound once (see CompiledMethods) ...
+    private final Map<Method, OneParameterMethod> invokers = new HashMap<>();
+
+    // ... and the handler for each message class. The class hierarchy is only walked the first time a class is seen.
+    private final ClassValue<OneParameterMethod> dispatchTable = new ClassValue<>() {
+        @Override
+        protected OneParameterMethod computeValue(final Class<?> valueClass) {
+            final Method method = getInvokableMethodForClass(valueClass);
+            return method == null ? null : invokers.get(method);
+        }
+    };
 
     private static final Class<MessageHandler> MHCLASS = MessageHandler.class;
     private static final Class<BulkMessageHandler> BMHCLASS = BulkMessageHandler.class;
@@ -103,13 +118,25 @@ public class AnnotatedMethodInvoker {
                     "Methods marked with @" + BulkMessageHandler.class.getSimpleName() + " must take a List as a single parameter. The method \""
                         + bulkMethod.getName() + "\" on " + objectKlass.getSimpleName() + " takes a " + argTypes[0].getSimpleName()
                         + " which is not assignable to a List<.>.");
-        } else
+            bulkInvoker = CompiledMethods.oneParameter(bulkMethod);
+        } else {
             bulkMethod = null;
+            bulkInvoker = null;
+        }
+
+        methods.values().forEach(m -> invokers.put(m, CompiledMethods.oneParameter(m)));
     }
 
     public Object invokeBulkMethod(final Object instance, final List<?> value)
         throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
-        return bulkMethod.invoke(instance, value);
+        return bulkInvoker.invoke(instance, value);
+    }
+
+    /**
+     * The bound handler for messages of the given class, <code>null</code> if there isn't one.
+     */
+    public OneParameterMethod getHandler(final Class<?> valueClass) {
+        return dispatchTable.get(valueClass);
     }
 
     /**
@@ -126,14 +153,14 @@ public class AnnotatedMethodInvoker {
     public Object invokeMethod(final Object instance, final Object value)
         throws IllegalArgumentException, IllegalAccessException, InvocationTargetException {
         final Class<?> valueClass = value.getClass();
-        final Method method = getInvokableMethodForClass(valueClass);
-        if(method == null) {
+        final OneParameterMethod handler = getHandler(valueClass);
+        if(handler == null) {
             throw new IllegalArgumentException(
                 "class " + instance.getClass().getName()
                     + " does not have an annotated setter for values of type " + valueClass.getName());
         }
 
-        return method.invoke(instance, value);
+        return handler.invoke(instance, value);
     }
 
     /**
@@ -142,7 +169,7 @@ public class AnnotatedMethodInvoker {
      * catching <code>IllegalArgumentException</code>.
      */
     public boolean isValueSupported(final Object value) {
-        return getInvokableMethodForClass(value.getClass()) != null;
+        return getHandler(value.getClass()) != null;
     }
 
     /**
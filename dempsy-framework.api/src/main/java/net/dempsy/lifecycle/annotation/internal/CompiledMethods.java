@@ -0,0 +1,183 @@
+package net.dempsy.lifecycle.annotation.internal;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * Binds annotated Mp methods, once, into direct calls generated with the {@link LambdaMetafactory} so
+ * invoking them on each message is an ordinary interface call the JIT can inline rather than a
+ * reflective {@link Method#invoke} that checks access and allocates an argument array every time.
+ * </p>
+ *
+ * <p>
+ * The invokers behave like {@link Method#invoke}: anything thrown by the method is wrapped in an
+ * {@link InvocationTargetException} and an instance or argument of the wrong type results in an
+ * {@link IllegalArgumentException}. If a method can't be bound (for example the Mp's package isn't
+ * open to Dempsy) the invoker falls back to reflection.
+ * </p>
+ */
+public class CompiledMethods {
+    private static final MethodType OBJECT_TO_OBJECT = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType OBJECT_TO_VOID = MethodType.methodType(void.class, Object.class);
+    private static final MethodType OBJECTS_TO_OBJECT = MethodType.methodType(Object.class, Object.class, Object.class);
+    private static final MethodType OBJECTS_TO_VOID = MethodType.methodType(void.class, Object.class, Object.class);
+
+    @FunctionalInterface
+    public static interface NoParameterMethod {
+        public Object invoke(Object instance) throws IllegalAccessException, InvocationTargetException;
+    }
+
+    @FunctionalInterface
+    public static interface OneParameterMethod {
+        public Object invoke(Object instance, Object parameter) throws IllegalAccessException, InvocationTargetException;
+    }
+
+    /**
+     * Bind an instance method that takes no parameters. A {@code void} method's invoker returns {@code null}.
+     */
+    @SuppressWarnings("unchecked")
+    public static NoParameterMethod noParameter(final Method method) {
+        final Lookup lookup = lookupFor(method);
+        final MethodHandle handle = lookup == null ? null : unreflect(lookup, method);
+        if(handle != null && method.getParameterCount() == 0) {
+            try {
+                if(method.getReturnType() == void.class) {
+                    final Consumer<Object> consumer = (Consumer<Object>)metafactory(lookup, Consumer.class, "accept", OBJECT_TO_VOID, handle);
+                    return i -> {
+                        try {
+                            consumer.accept(i);
+                            return null;
+                        } catch(final ClassCastException cce) {
+                            throw mistyped(cce, method, i);
+                        } catch(final Throwable th) {
+                            throw new InvocationTargetException(th);
+                        }
+                    };
+                } else {
+                    final Function<Object, Object> function = (Function<Object, Object>)metafactory(lookup, Function.class, "apply", OBJECT_TO_OBJECT, handle);
+                    return i -> {
+                        try {
+                            return function.apply(i);
+                        } catch(final ClassCastException cce) {
+                            throw mistyped(cce, method, i);
+                        } catch(final Throwable th) {
+                            throw new InvocationTargetException(th);
+                        }
+                    };
+                }
+            } catch(final Throwable th) {
+                // fall through to reflection.
+            }
+        }
+        return i -> method.invoke(i);
+    }
+
+    /**
+     * Bind an instance method that takes a single parameter. A {@code void} method's invoker returns {@code null}.
+     */
+    @SuppressWarnings("unchecked")
+    public static OneParameterMethod oneParameter(final Method method) {
+        final Lookup lookup = lookupFor(method);
+        final MethodHandle handle = lookup == null ? null : unreflect(lookup, method);
+        if(handle != null && method.getParameterCount() == 1 && !method.getParameterTypes()[0].isPrimitive()) {
+            try {
+                if(method.getReturnType() == void.class) {
+                    final BiConsumer<Object, Object> consumer = (BiConsumer<Object, Object>)metafactory(lookup, BiConsumer.class, "accept", OBJECTS_TO_VOID,
+                        handle);
+                    return (i, p) -> {
+                        try {
+                            consumer.accept(i, p);
+                            return null;
+                        } catch(final ClassCastException cce) {
+                            throw mistyped(cce, method, i, p);
+                        } catch(final Throwable th) {
+                            throw new InvocationTargetException(th);
+                        }
+                    };
+                } else {
+                    final BiFunction<Object, Object, Object> function = (BiFunction<Object, Object, Object>)metafactory(lookup, BiFunction.class, "apply",
+                        OBJECTS_TO_OBJECT, handle);
+                    return (i, p) -> {
+                        try {
+                            return function.apply(i, p);
+                        } catch(final ClassCastException cce) {
+                            throw mistyped(cce, method, i, p);
+                        } catch(final Throwable th) {
+                            throw new InvocationTargetException(th);
+                        }
+                    };
+                }
+            } catch(final Throwable th) {
+                // fall through to reflection.
+            }
+        }
+        return (i, p) -> method.invoke(i, p);
+    }
+
+    /**
+     * A {@link MethodHandle} for the given method or {@code null} if one can't be created. This is for methods
+     * with signatures that need adapting so can't be bound to one of the invokers above.
+     */
+    public static MethodHandle handle(final Method method) {
+        final Lookup lookup = lookupFor(method);
+        return lookup == null ? null : unreflect(lookup, method);
+    }
+
+    // ----------------------------------------------------------------------------
+    // Internals
+    // ----------------------------------------------------------------------------
+
+    // The generated class is defined alongside the Mp so it has the same access to the method the Mp does.
+    private static Lookup lookupFor(final Method method) {
+        if(Modifier.isStatic(method.getModifiers()))
+            return null;
+        try {
+            return MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup());
+        } catch(final IllegalAccessException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle unreflect(final Lookup lookup, final Method method) {
+        try {
+            return lookup.unreflect(method);
+        } catch(final IllegalAccessException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // The generated invoker casts the instance and argument to the method's types so one of the wrong type shows up
+    // as a ClassCastException. Method#invoke reports that as an IllegalArgumentException so this throws one. Otherwise
+    // the method itself threw it and it's returned wrapped.
+    private static InvocationTargetException mistyped(final ClassCastException cce, final Method method, final Object instance,
+        final Object... parameters) {
+        boolean wrongType = !method.getDeclaringClass().isInstance(instance);
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        for(int i = 0; i < parameters.length && !wrongType; i++)
+            wrongType = parameters[i] != null && !parameterTypes[i].isInstance(parameters[i]);
+        if(wrongType)
+            throw new IllegalArgumentException(cce);
+        return new InvocationTargetException(cce);
+    }
+
+    private static Object metafactory(final Lookup lookup, final Class<?> functionalInterface, final String name, final MethodType erasedType,
+        final MethodHandle handle) throws Throwable {
+        // the parameters are checked against the method's actual types when called and a primitive return value is boxed.
+        final MethodType instantiatedType = erasedType.returnType() == void.class ? handle.type() : handle.type().wrap();
+        final CallSite site = LambdaMetafactory.metafactory(lookup, name, MethodType.methodType(functionalInterface), erasedType, handle,
+            instantiatedType);
+        return site.getTarget().invoke();
+    }
+}
@@ -0,0 +1,112 @@
+package net.dempsy.lifecycle.annotations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+import net.dempsy.lifecycle.annotation.internal.CompiledMethods;
+import net.dempsy.lifecycle.annotation.internal.CompiledMethods.NoParameterMethod;
+import net.dempsy.lifecycle.annotation.internal.CompiledMethods.OneParameterMethod;
+
+public class TestCompiledMethods {
+
+    // deliberately not public
+    private static class Target {
+        int count = 0;
+
+        boolean evictable() {
+            return true;
+        }
+
+        void increment() {
+            count++;
+        }
+
+        String handle(final String message) {
+            return message + count;
+        }
+
+        void fail(final Object message) throws IOException {
+            throw new IOException("failed on " + message);
+        }
+
+        int length(final Object message) {
+            return ((String)message).length();
+        }
+    }
+
+    @Test
+    public void testNoParameter() throws Exception {
+        final Target target = new Target();
+        final NoParameterMethod evictable = CompiledMethods.noParameter(Target.class.getDeclaredMethod("evictable"));
+        final NoParameterMethod increment = CompiledMethods.noParameter(Target.class.getDeclaredMethod("increment"));
+
+        assertEquals(Boolean.TRUE, evictable.invoke(target));
+        assertNull(increment.invoke(target));
+        assertEquals(1, target.count);
+    }
+
+    @Test
+    public void testOneParameter() throws Exception {
+        final Target target = new Target();
+        target.count = 5;
+        final OneParameterMethod handle = CompiledMethods.oneParameter(Target.class.getDeclaredMethod("handle", String.class));
+
+        assertEquals("hello5", handle.invoke(target, "hello"));
+    }
+
+    @Test
+    public void testExceptionIsWrapped() throws Exception {
+        final OneParameterMethod failing = CompiledMethods.oneParameter(Target.class.getDeclaredMethod("fail", Object.class));
+        try {
+            failing.invoke(new Target(), "hello");
+            fail("Should have thrown");
+        } catch(final InvocationTargetException ite) {
+            assertSame(IOException.class, ite.getCause().getClass());
+            assertTrue(ite.getCause().getMessage().contains("hello"));
+        }
+    }
+
+    @Test
+    public void testMistypedArgument() throws Exception {
+        final Method method = Target.class.getDeclaredMethod("handle", String.class);
+        method.setAccessible(true);
+        final OneParameterMethod handle = CompiledMethods.oneParameter(method);
+
+        // the same as reflection.
+        try {
+            method.invoke(new Target(), Integer.valueOf(1));
+            fail("Should have thrown");
+        } catch(final IllegalArgumentException iae) {}
+
+        try {
+            handle.invoke(new Target(), Integer.valueOf(1));
+            fail("Should have thrown");
+        } catch(final IllegalArgumentException iae) {}
+
+        try {
+            handle.invoke(new Object(), "hello");
+            fail("Should have thrown");
+        } catch(final IllegalArgumentException iae) {}
+    }
+
+    @Test
+    public void testClassCastFromTheMethodIsWrapped() throws Exception {
+        final OneParameterMethod length = CompiledMethods.oneParameter(Target.class.getDeclaredMethod("length", Object.class));
+        assertEquals(5, length.invoke(new Target(), "hello"));
+        try {
+            length.invoke(new Target(), Integer.valueOf(1));
+            fail("Should have thrown");
+        } catch(final InvocationTargetException ite) {
+            assertSame(ClassCastException.class, ite.getCause().getClass());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package net.dempsy.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.dempsy.Infrastructure;
+import net.dempsy.cluster.ClusterInfoSession;
+import net.dempsy.config.ClusterId;
+import net.dempsy.config.Node;
+import net.dempsy.monitoring.ClusterStatsCollector;
+import net.dempsy.monitoring.NodeStatsCollector;
+import net.dempsy.monitoring.dummy.DummyClusterStatsCollector;
+import net.dempsy.monitoring.dummy.DummyNodeStatsCollector;
+import net.dempsy.threading.ThreadingModel;
+import net.dempsy.util.executor.AutoDisposeSingleThreadScheduler;
+
+/**
+ * A minimal {@link Infrastructure} for running components outside of a NodeManager. Stats
+ * aren't recorded so that they don't show up in the measurements.
+ */
+public class BenchmarkInfrastructure implements Infrastructure {
+    private final ThreadingModel threading;
+    private final Map<String, String> configuration = new HashMap<>();
+    private final NodeStatsCollector nodeStats = new DummyNodeStatsCollector();
+    private final ThePlug thePlug = () -> {};
+
+    public BenchmarkInfrastructure(final ThreadingModel threading) {
+        this.threading = threading;
+    }
+
+    /**
+     * Add a configuration value for the given class' package.
+     */
+    public BenchmarkInfrastructure conf(final Class<?> clazz, final String key, final String value) {
+        configuration.put(clazz.getPackage().getName() + "." + key, value);
+        return this;
+    }
+
+    @Override
+    public ClusterInfoSession getCollaborator() {
+        return null;
+    }
+
+    @Override
+    public ThePlug getThePlug() {
+        return thePlug;
+    }
+
+    @Override
+    public AutoDisposeSingleThreadScheduler getScheduler() {
+        return null;
+    }
+
+    @Override
+    public RootPaths getRootPaths() {
+        return new RootPaths("benchmark");
+    }
+
+    @Override
+    public ClusterStatsCollector getClusterStatsCollector(final ClusterId clusterId) {
+        return new DummyClusterStatsCollector();
+    }
+
+    @Override
+    public NodeStatsCollector getNodeStatsCollector() {
+        return nodeStats;
+    }
+
+    @Override
+    public Map<String, String> getConfiguration() {
+        return configuration;
+    }
+
+    @Override
+    public String getNodeId() {
+        return "benchmark-node";
+    }
+
+    @Override
+    public ThreadingModel getThreadingModel() {
+        return threading;
+    }
+
+    @Override
+    public Node getNode() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,99 @@
+package net.dempsy.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.dempsy.benchmarks.ContainerFixture.KeyDistribution;
+import net.dempsy.container.Container;
+import net.dempsy.container.Container.Operation;
+import net.dempsy.messages.KeyedMessage;
+
+/**
+ * Measures {@link Container#dispatch(KeyedMessage, Operation, boolean)} called directly from
+ * several threads, the way the threading model's workers call it, for each container
+ * implementation. With a skewed key distribution most of the threads contend on a few message
+ * processors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ContainerDispatchBenchmark {
+    private static final int SEQUENCE_LENGTH = 1 << 16;
+
+    @Param({"locking","altnonlocking","altnonlockingbulk","mpsc"})
+    public String container;
+
+    @Param({"uniform","skewed"})
+    public KeyDistribution distribution;
+
+    @Param({"10000"})
+    public int numKeys;
+
+    private final LongAdder handled = new LongAdder();
+    private final AtomicLong seeds = new AtomicLong(0);
+    private Container c;
+    private KeyedMessage[] messages;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        c = ContainerFixture.start(container, "dispatch", handled, new BenchmarkInfrastructure(null));
+
+        messages = new KeyedMessage[numKeys];
+        for(int i = 0; i < numKeys; i++)
+            messages[i] = new KeyedMessage("key-" + i, "message-" + i);
+
+        // create all of the message processors up front so that instantiation isn't measured.
+        for(final KeyedMessage m: messages)
+            c.dispatch(m, Operation.handle, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        c.stop();
+    }
+
+    /**
+     * Each thread walks its own precomputed sequence of keys.
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+        int[] sequence;
+        int pos = 0;
+
+        @Setup(Level.Trial)
+        public void setup(final ContainerDispatchBenchmark b) {
+            sequence = b.distribution.sequence(b.numKeys, SEQUENCE_LENGTH, b.seeds.incrementAndGet());
+        }
+
+        int next() {
+            final int ret = sequence[pos];
+            pos = (pos + 1) & (SEQUENCE_LENGTH - 1);
+            return ret;
+        }
+    }
+
+    @Benchmark
+    public void dispatch(final Keys keys) {
+        c.dispatch(messages[keys.next()], Operation.handle, true);
+    }
+}
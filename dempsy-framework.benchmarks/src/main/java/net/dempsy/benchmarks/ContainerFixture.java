@@ -0,0 +1,135 @@
+package net.dempsy.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.dempsy.Infrastructure;
+import net.dempsy.KeyspaceChangeListener;
+import net.dempsy.Manager;
+import net.dempsy.config.ClusterId;
+import net.dempsy.container.Container;
+import net.dempsy.lifecycle.simple.MessageProcessor;
+import net.dempsy.lifecycle.simple.Mp;
+import net.dempsy.lifecycle.simple.MpFactory;
+import net.dempsy.messages.Dispatcher;
+import net.dempsy.messages.KeyedMessage;
+import net.dempsy.messages.KeyedMessageWithType;
+import net.dempsy.messages.MessageResourceManager;
+import net.dempsy.router.RoutingStrategy.ContainerAddress;
+import net.dempsy.router.RoutingStrategy.Inbound;
+
+/**
+ * Helpers for standing up a single {@link Container} outside of a NodeManager.
+ */
+public class ContainerFixture {
+    public static final String MESSAGE_TYPE = "benchmark";
+
+    /**
+     * The container implementations keyed by the name used in the benchmark parameters.
+     */
+    public static String containerTypeId(final String name) {
+        switch(name) {
+            case "locking":
+            case "altnonlocking":
+            case "altnonlockingbulk":
+            case "mpsc":
+                return "net.dempsy.container." + name;
+            default:
+                throw new IllegalArgumentException("Unknown container type \"" + name + "\"");
+        }
+    }
+
+    /**
+     * How message keys are chosen.
+     */
+    public static enum KeyDistribution {
+        /**
+         * Every key is equally likely.
+         */
+        uniform,
+
+        /**
+         * Keys follow a Zipf distribution (exponent 1) so a few keys receive most of the messages.
+         */
+        skewed;
+
+        /**
+         * Precompute a sequence of key indices in [0, numKeys) so choosing a key costs nothing while measuring.
+         */
+        public int[] sequence(final int numKeys, final int length, final long seed) {
+            final Random random = new Random(seed);
+            final int[] ret = new int[length];
+            if(this == uniform) {
+                for(int i = 0; i < length; i++)
+                    ret[i] = random.nextInt(numKeys);
+            } else {
+                final double[] cumulative = new double[numKeys];
+                double total = 0.0;
+                for(int i = 0; i < numKeys; i++) {
+                    total += 1.0 / (i + 1);
+                    cumulative[i] = total;
+                }
+                for(int i = 0; i < length; i++) {
+                    final double r = random.nextDouble() * total;
+                    int pos = Arrays.binarySearch(cumulative, r);
+                    if(pos < 0)
+                        pos = -(pos + 1);
+                    ret[i] = Math.min(pos, numKeys - 1);
+                }
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Every key belongs to this node.
+     */
+    public static class OwnsEverything implements Inbound {
+        @Override
+        public void start(final Infrastructure infra) {}
+
+        @Override
+        public void stop() {}
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setContainerDetails(final ClusterId clusterId, final ContainerAddress address, final KeyspaceChangeListener listener) {}
+
+        @Override
+        public boolean doesMessageKeyBelongToNode(final Object messageKey) {
+            return true;
+        }
+    }
+
+    /**
+     * Throws away anything the message processors return.
+     */
+    public static class NullDispatcher extends Dispatcher {
+        @Override
+        public void dispatch(final KeyedMessageWithType message, final MessageResourceManager disposition) {}
+    }
+
+    /**
+     * Create and start a container of the given type whose message processors count what they handle.
+     */
+    public static Container start(final String containerType, final String clusterName, final LongAdder handled, final Infrastructure infra) {
+        final Container container = new Manager<Container>(Container.class).getAssociatedInstance(containerTypeId(containerType))
+            .setMessageProcessor(new MessageProcessor(MpFactory.make(() -> new Mp() {
+                @Override
+                public KeyedMessageWithType[] handle(final KeyedMessage message) {
+                    handled.increment();
+                    return null;
+                }
+            }, MESSAGE_TYPE)))
+            .setClusterId(new ClusterId("benchmark", clusterName));
+        container.setDispatcher(new NullDispatcher());
+        container.setInbound(new OwnsEverything());
+        container.start(infra);
+        return container;
+    }
+}
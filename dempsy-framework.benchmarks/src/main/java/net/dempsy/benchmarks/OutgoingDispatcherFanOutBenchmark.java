@@ -0,0 +1,148 @@
+package net.dempsy.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.dempsy.NodeManager;
+import net.dempsy.cluster.local.LocalClusterSessionFactory;
+import net.dempsy.config.Node;
+import net.dempsy.intern.OutgoingDispatcher;
+import net.dempsy.lifecycle.simple.MessageProcessor;
+import net.dempsy.lifecycle.simple.Mp;
+import net.dempsy.lifecycle.simple.MpFactory;
+import net.dempsy.messages.Adaptor;
+import net.dempsy.messages.Dispatcher;
+import net.dempsy.messages.KeyedMessage;
+import net.dempsy.messages.KeyedMessageWithType;
+import net.dempsy.threading.DefaultThreadingModel;
+import net.dempsy.transport.blockingqueue.BlockingQueueAddress;
+import net.dempsy.transport.blockingqueue.BlockingQueueReceiver;
+
+/**
+ * Measures {@link OutgoingDispatcher#dispatch(KeyedMessageWithType)} from an adaptor when every
+ * message goes to several clusters, each on its own node. The nodes are wired together in process
+ * with the local cluster session and the blocking queue transport.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutgoingDispatcherFanOutBenchmark {
+    private static final String APPLICATION = "fanout-benchmark";
+    private static final long READY_TIMEOUT_MILLIS = 30000;
+
+    @Param({"1","2","4"})
+    public int fanOut;
+
+    @Param({"1000"})
+    public int numKeys;
+
+    private final LongAdder handled = new LongAdder();
+    private final List<NodeManager> nodes = new ArrayList<>();
+    private final List<DefaultThreadingModel> threadingModels = new ArrayList<>();
+    private volatile Dispatcher dispatcher;
+    private KeyedMessageWithType[] messages;
+    private int pos = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        final LocalClusterSessionFactory sessFact = new LocalClusterSessionFactory();
+
+        for(int i = 0; i < fanOut; i++) {
+            startNode(sessFact, new Node.Builder(APPLICATION)
+                .defaultRoutingStrategyId("net.dempsy.router.simple")
+                .receiver(new BlockingQueueReceiver(new ArrayBlockingQueue<>(16 * 1024)))
+                .cluster("mp-" + i)
+                .mp(new MessageProcessor(MpFactory.make(() -> new Mp() {
+                    @Override
+                    public KeyedMessageWithType[] handle(final KeyedMessage message) {
+                        handled.increment();
+                        return null;
+                    }
+                }, ContainerFixture.MESSAGE_TYPE)))
+                .build());
+        }
+
+        startNode(sessFact, new Node.Builder(APPLICATION)
+            .defaultRoutingStrategyId("net.dempsy.router.simple")
+            .receiver(new BlockingQueueReceiver(new ArrayBlockingQueue<>(16 * 1024)))
+            .cluster("adaptor")
+            .adaptor(new Adaptor() {
+                @Override
+                public void setDispatcher(final Dispatcher d) {
+                    dispatcher = d;
+                }
+
+                @Override
+                public void start() {}
+
+                @Override
+                public void stop() {}
+            })
+            .build());
+
+        final long endTime = System.currentTimeMillis() + READY_TIMEOUT_MILLIS;
+        while(dispatcher == null || !nodes.stream().allMatch(n -> n.isReady()) || !allReachable()) {
+            if(System.currentTimeMillis() > endTime)
+                throw new IllegalStateException("The nodes didn't become ready within " + READY_TIMEOUT_MILLIS + " milliseconds.");
+            Thread.sleep(10);
+        }
+
+        messages = new KeyedMessageWithType[numKeys];
+        for(int i = 0; i < numKeys; i++)
+            messages[i] = new KeyedMessageWithType("key-" + i, "message-" + i, ContainerFixture.MESSAGE_TYPE);
+    }
+
+    private boolean allReachable() {
+        final OutgoingDispatcher od = (OutgoingDispatcher)dispatcher;
+        for(int i = 0; i < fanOut; i++) {
+            if(od.allReachable("mp-" + i).isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    private void startNode(final LocalClusterSessionFactory sessFact, final Node node) throws Exception {
+        final DefaultThreadingModel tm = new DefaultThreadingModel("fanout-" + nodes.size());
+        threadingModels.add(tm);
+        nodes.add(new NodeManager()
+            .node(node)
+            .collaborator(sessFact.createSession())
+            .threadingModel(tm.start("fanout-" + nodes.size()))
+            .start());
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        nodes.forEach(n -> n.close());
+        threadingModels.forEach(tm -> tm.close());
+        LocalClusterSessionFactory.completeReset();
+        BlockingQueueAddress.completeReset();
+    }
+
+    @Benchmark
+    public void dispatch() throws InterruptedException {
+        final KeyedMessageWithType message = messages[pos];
+        pos = (pos + 1) % numKeys;
+        dispatcher.dispatch(message);
+    }
+}
@@ -0,0 +1,101 @@
+package net.dempsy.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.dempsy.container.Container;
+import net.dempsy.container.DefaultDeliverMessageJob;
+import net.dempsy.monitoring.NodeStatsCollector;
+import net.dempsy.threading.DefaultThreadingModel;
+import net.dempsy.threading.OrderedPerContainerThreadingModel;
+import net.dempsy.threading.OrderedPerKeyThreadingModel;
+import net.dempsy.threading.ThreadingModel;
+import net.dempsy.transport.RoutedMessage;
+
+/**
+ * Measures the time from submitting a message to the {@link ThreadingModel} to the message
+ * processor handling it. Only one message is in flight at a time so this is latency through an
+ * otherwise idle node.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadingModelLatencyBenchmark {
+    @Param({"default","ordered","keyed"})
+    public String threadingModel;
+
+    @Param({"locking","altnonlocking","mpsc"})
+    public String container;
+
+    @Param({"100"})
+    public int numKeys;
+
+    private final LongAdder handled = new LongAdder();
+    private ThreadingModel tm;
+    private Container c;
+    private Container[] containers;
+    private NodeStatsCollector stats;
+    private RoutedMessage[] messages;
+    private long submitted = 0;
+    private int pos = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        switch(threadingModel) {
+            case "default":
+                tm = new DefaultThreadingModel("benchmark").start("benchmark");
+                break;
+            case "ordered":
+                tm = new OrderedPerContainerThreadingModel("benchmark").start("benchmark");
+                break;
+            case "keyed":
+                tm = new OrderedPerKeyThreadingModel("benchmark").start("benchmark");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown threading model \"" + threadingModel + "\"");
+        }
+
+        final BenchmarkInfrastructure infra = new BenchmarkInfrastructure(tm);
+        stats = infra.getNodeStatsCollector();
+        c = ContainerFixture.start(container, "latency", handled, infra);
+        containers = new Container[] {c};
+
+        messages = new RoutedMessage[numKeys];
+        for(int i = 0; i < numKeys; i++)
+            messages[i] = new RoutedMessage(new int[] {0}, "key-" + i, "message-" + i);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        c.stop();
+        tm.close();
+    }
+
+    @Benchmark
+    public void submitToExecute() {
+        final RoutedMessage message = messages[pos];
+        pos = (pos + 1) % numKeys;
+
+        submitted++;
+        tm.submitLimited(new DefaultDeliverMessageJob(containers, stats, message, true));
+        while(handled.sum() < submitted)
+            Thread.onSpinWait();
+    }
+}
@@ -0,0 +1,131 @@
+package net.dempsy.benchmarks;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.dempsy.DempsyException;
+import net.dempsy.serialization.kryo.KryoSerializer;
+import net.dempsy.threading.DefaultThreadingModel;
+import net.dempsy.transport.Listener;
+import net.dempsy.transport.NodeAddress;
+import net.dempsy.transport.Receiver;
+import net.dempsy.transport.RoutedMessage;
+import net.dempsy.transport.Sender;
+import net.dempsy.transport.SenderFactory;
+import net.dempsy.transport.blockingqueue.BlockingQueueReceiver;
+import net.dempsy.transport.blockingqueue.BlockingQueueSenderFactory;
+import net.dempsy.transport.tcp.nio.NioReceiver;
+import net.dempsy.transport.tcp.nio.NioSenderFactory;
+
+/**
+ * Measures a message going from one receiver to another and being echoed back. The nio transport
+ * goes over the loopback interface.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransportRoundTripBenchmark {
+    @Param({"nio","blockingqueue"})
+    public String transport;
+
+    @Param({"16","1024"})
+    public int messageSize;
+
+    private final AtomicLong echoed = new AtomicLong(0);
+    private DefaultThreadingModel tm;
+    private Receiver ping;
+    private Receiver pong;
+    private SenderFactory pingSenders;
+    private SenderFactory pongSenders;
+    private Sender toPong;
+    private RoutedMessage message;
+    private long sent = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        tm = new DefaultThreadingModel("round-trip").start("round-trip");
+        final BenchmarkInfrastructure infra = new BenchmarkInfrastructure(tm);
+
+        ping = newReceiver();
+        pong = newReceiver();
+        pingSenders = newSenderFactory(infra);
+        pongSenders = newSenderFactory(infra);
+
+        final NodeAddress pingAddress = ping.getAddress(infra);
+        final NodeAddress pongAddress = pong.getAddress(infra);
+
+        ping.start((Listener<RoutedMessage>)msg -> {
+            echoed.incrementAndGet();
+            return true;
+        }, infra);
+
+        final Sender toPing = pongSenders.getSender(pingAddress);
+        pong.start((Listener<RoutedMessage>)msg -> {
+            try {
+                toPing.send(msg);
+            } catch(final InterruptedException ie) {
+                throw new DempsyException(ie, false);
+            }
+            return true;
+        }, infra);
+
+        toPong = pingSenders.getSender(pongAddress);
+
+        final StringBuilder sb = new StringBuilder(messageSize);
+        for(int i = 0; i < messageSize; i++)
+            sb.append((char)('a' + (i % 26)));
+        message = new RoutedMessage(new int[] {0}, "key", sb.toString());
+    }
+
+    private Receiver newReceiver() {
+        switch(transport) {
+            case "nio":
+                return new NioReceiver<>(new KryoSerializer()).useLocalHost(true);
+            case "blockingqueue":
+                return new BlockingQueueReceiver(new ArrayBlockingQueue<>(16 * 1024));
+            default:
+                throw new IllegalArgumentException("Unknown transport \"" + transport + "\"");
+        }
+    }
+
+    private SenderFactory newSenderFactory(final BenchmarkInfrastructure infra) {
+        final SenderFactory ret = "nio".equals(transport) ? new NioSenderFactory() : new BlockingQueueSenderFactory();
+        ret.start(infra);
+        return ret;
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        pingSenders.close();
+        pongSenders.close();
+        ping.close();
+        pong.close();
+        tm.close();
+    }
+
+    @Benchmark
+    public void roundTrip() throws InterruptedException {
+        sent++;
+        toPong.send(message);
+        while(echoed.get() < sent)
+            Thread.onSpinWait();
+    }
+}
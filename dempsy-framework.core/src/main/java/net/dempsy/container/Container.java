@@ -20,9 +20,13 @@ import static net.dempsy.config.ConfigLogger.logConfig;
 import static net.dempsy.util.SafeString.objectDescription;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -51,13 +55,17 @@ import net.dempsy.messages.Dispatcher;
 import net.dempsy.messages.DummyMessageResourceManager;
 import net.dempsy.messages.KeyedMessage;
 import net.dempsy.messages.KeyedMessageWithType;
+import net.dempsy.messages.KeySource;
 import net.dempsy.messages.MessageProcessorLifecycle;
 import net.dempsy.messages.MessageResourceManager;
 import net.dempsy.monitoring.ClusterStatsCollector;
+import net.dempsy.monitoring.ClusterStatsCollector.MessageStage;
 import net.dempsy.monitoring.StatsCollector;
 import net.dempsy.output.OutputInvoker;
 import net.dempsy.router.RoutingStrategy.Inbound;
+import net.dempsy.router.RoutingStrategy.ShardedInbound;
 import net.dempsy.threading.QuartzHelper;
+import net.dempsy.threading.ThreadingModel;
 import net.dempsy.transport.RoutedMessage;
 import net.dempsy.util.OccasionalRunnable;
 import net.dempsy.util.QuietCloseable;
@@ -83,6 +91,19 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
     private static final long DEFAULT_LOG_QUEUE_LEN_MESSAGE_COUNT = 1024;
     private static final String CONFIG_KEY_LOG_QUEUE_LEN_MESSAGE_COUNT = "log_queue_len_message_count";
 
+    /**
+     * An output pass is split into this many chunks per available processor. Each chunk is run
+     * as a single job on the threading model.
+     */
+    public static final String CONFIG_KEY_OUTPUT_CHUNKS_PER_CORE = "output_chunks_per_core";
+    public static final String DEFAULT_OUTPUT_CHUNKS_PER_CORE = "2";
+
+    /**
+     * Passed to {@link #dispatch(KeyedMessage, Operation, ContainerSpecific, boolean, long, long)} when
+     * it's not known when the message arrived.
+     */
+    public static final long NOT_TIMED = Long.MIN_VALUE;
+
     protected long containerNum = containerNumSequence.getAndIncrement();
 
     protected Dispatcher dispatcher;
@@ -93,6 +114,8 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
 
     protected long evictionCycleTime = -1;
     protected TimeUnit evictionTimeUnit = null;
+    protected long idleEvictionTime = -1;
+    protected TimeUnit idleEvictionTimeUnit = null;
     protected final AtomicBoolean isRunning = new AtomicBoolean(false);
     protected boolean isRunningLazy = false;
 
@@ -105,9 +128,33 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
 
     protected AtomicInteger numPending = new AtomicInteger(0);
     protected int maxPendingMessagesPerContainer = Cluster.DEFAULT_MAX_PENDING_MESSAGES_PER_CONTAINER;
+    protected int maxMessageProcessors = Cluster.DEFAULT_MAX_MESSAGE_PROCESSORS;
+    protected boolean conflateMessages = false;
+    protected long maxMessageAgeNanos = -1;
 
     protected long logQueueMessageCount = DEFAULT_LOG_QUEUE_LEN_MESSAGE_COUNT;
     protected Runnable occLogger = () -> {};
+    protected int outputChunksPerCore = Integer.parseInt(DEFAULT_OUTPUT_CHUNKS_PER_CORE);
+
+    protected KeySource<?> keySource = null;
+    private ThreadingModel threadingModel = null;
+
+    // only maintained when the inbound strategy shards the keyspace. The inbound may not know the
+    // number of shards until it's been assigned some so indexedTotalShards is the count the index was
+    // built against and it's rebuilt when that's out of date (see indexShardsIfNecessary).
+    private final ShardedKeyIndex shardIndex = new ShardedKeyIndex();
+    private volatile int indexedTotalShards = 0;
+
+    // The hand is advanced on the thread creating an Mp so it visits at most this many keys each time.
+    private static final int LRU_MAX_VISITS_PER_CALL = 64;
+
+    // The clock hand for passivating the least recently used Mps when there's a maxMessageProcessors
+    // along with the time the hand started its current and previous sweep. Only accessed by the
+    // thread that holds passivatingLru.
+    private final AtomicBoolean passivatingLru = new AtomicBoolean(false);
+    private Iterator<Object> lruHand = null;
+    private long lruSweepStarted = 0;
+    private long lruPrevSweepStarted = 0;
 
     protected Container(final Logger LOGGER) {
         this.LOGGER = LOGGER;
@@ -146,6 +193,45 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
         return maxPendingMessagesPerContainer;
     }
 
+    /**
+     * Cap the number of Mps in the container. When the cap is exceeded the least recently used Mps are
+     * passivated. A negative value (the default) means there's no cap.
+     */
+    public Container setMaxMessageProcessors(final int maxMessageProcessors) {
+        this.maxMessageProcessors = maxMessageProcessors;
+        return this;
+    }
+
+    public int getMaxMessageProcessors() {
+        return maxMessageProcessors;
+    }
+
+    /**
+     * When set, a message queued for a busy Mp replaces any message of the same type that's
+     * queued for that Mp but not yet processed. The replaced message is discarded.
+     */
+    public Container setConflateMessages(final boolean conflateMessages) {
+        this.conflateMessages = conflateMessages;
+        return this;
+    }
+
+    public boolean isConflateMessages() {
+        return conflateMessages;
+    }
+
+    /**
+     * Messages that arrived at the node longer ago than this by the time they're dispatched to the container are
+     * discarded and counted as expired. A negative value (the default) means messages never expire.
+     */
+    public Container setMaxMessageAgeMillis(final long maxMessageAgeMillis) {
+        this.maxMessageAgeNanos = maxMessageAgeMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(maxMessageAgeMillis);
+        return this;
+    }
+
+    public long getMaxMessageAgeMillis() {
+        return maxMessageAgeNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(maxMessageAgeNanos);
+    }
+
     public Container setInbound(final Inbound inbound) {
         this.inbound = inbound;
         return this;
@@ -179,6 +265,20 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
         return clusterId;
     }
 
+    /**
+     * When set, the container will create and activate the Mps for all of the keys from the
+     * {@link KeySource} that belong to this node as soon as the inbound strategy learns
+     * which part of the keyspace this node is responsible for.
+     */
+    public Container setKeySource(final KeySource<?> keySource) {
+        this.keySource = keySource;
+        return this;
+    }
+
+    public KeySource<?> getKeySource() {
+        return keySource;
+    }
+
     // ----------------------------------------------------------------------------
     // Monitoring / Management
     // ----------------------------------------------------------------------------
@@ -215,6 +315,14 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
             }
         }
 
+        if(idleEvictionScheduler != null) {
+            try {
+                idleEvictionScheduler.shutdown(false);
+            } catch(final SchedulerException se) {
+                LOGGER.error("Failed to shut down the scheduler for the idle eviction cycle.");
+            }
+        }
+
         isRunning.set(false);
         isRunningLazy = false;
     }
@@ -234,10 +342,14 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
                     getMessageWorkingCount()));
         }
 
+        outputChunksPerCore = Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_OUTPUT_CHUNKS_PER_CORE, DEFAULT_OUTPUT_CHUNKS_PER_CORE));
+        logConfig(LOGGER, configKey(CONFIG_KEY_OUTPUT_CHUNKS_PER_CORE), outputChunksPerCore, DEFAULT_OUTPUT_CHUNKS_PER_CORE);
+
         isRunningLazy = true;
         isRunning.set(true);
 
         statCollector = infra.getClusterStatsCollector(clusterId);
+        threadingModel = infra.getThreadingModel();
 
         validate();
 
@@ -250,6 +362,26 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
             }
         }
 
+        if(getIdleEvictionMillis() > 0) {
+            if(!containerSupportsIdleEviction())
+                throw new ContainerException("The cluster " + clusterId + " is configured to evict idle Mps but the container "
+                    + this.getClass().getSimpleName() + " doesn't support idle eviction.");
+            try {
+                startIdleEvictionThread();
+            } catch(final SchedulerException e) {
+                LOGGER.error("Failed to start idle eviction scheduler", e);
+                throw new DempsyException("Failed to start idle eviction scheduler", e, false);
+            }
+        }
+
+        if(conflateMessages && !containerSupportsConflation())
+            throw new ContainerException("The cluster " + clusterId + " is configured to conflate messages but the container "
+                + this.getClass().getSimpleName() + " doesn't queue messages per Mp so it can't conflate them.");
+
+        if(maxMessageProcessors > 0 && !containerSupportsIdleEviction())
+            throw new ContainerException("The cluster " + clusterId + " is configured with a maximum number of Mps but the container "
+                + this.getClass().getSimpleName() + " doesn't support idle eviction which is required to passivate the least recently used Mps.");
+
         prototype.start(clusterId);
 
         messageTypes = ((MessageProcessorLifecycle<?>)prototype).messagesTypesHandled();
@@ -263,11 +395,38 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
             LOGGER.info("The container {} supports bulk processing but the message processor for {} does not.", this.getClass().getSimpleName(), clusterId);
     }
 
+    // each chunk of the output pass is timed separately. See outputPass(List, ThreadingModel)
     @Override
     public void invokeOutput() {
-        try(final StatsCollector.TimerContext tctx = statCollector.outputInvokeStarted()) {
-            outputPass();
+        outputPass();
+    }
+
+    @Override
+    public void invokeOutput(final int slice, final int numSlices) {
+        if(numSlices <= 1) {
+            invokeOutput();
+            return;
         }
+
+        if(!prototype.isOutputSupported())
+            return;
+
+        // The keys are sliced once per period (on slice 0) so each slice doesn't need to hash
+        // every key in the container. Mps created during the period get their first output
+        // in the next one.
+        final List<Object> keys;
+        synchronized(outputSliceLock) {
+            if(slice == 0 || outputSlices == null || outputSlices.size() != numSlices) {
+                outputSlices = new ArrayList<>(numSlices);
+                for(int i = 0; i < numSlices; i++)
+                    outputSlices.add(new ArrayList<>());
+                for(final Object key: getMpKeys())
+                    outputSlices.get(OutputInvoker.outputSlice(key, numSlices)).add(key);
+            }
+            keys = outputSlices.set(slice, Collections.emptyList());
+        }
+
+        outputPass(keys, threadingModel);
     }
 
     @Override
@@ -315,6 +474,34 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
 
     public void dispatch(final KeyedMessage message, final Operation op, final ContainerSpecific cs, final boolean justArrived)
         throws IllegalArgumentException, ContainerException {
+        dispatch(message, op, cs, justArrived, NOT_TIMED, NOT_TIMED);
+    }
+
+    /**
+     * Check the age of a message that hasn't been dispatched yet so that an expired message can be dropped
+     * without the cost of deserializing it. If the message is older than the max message age then it's counted
+     * as expired, the container specific data is released and this returns true. The caller still owns the
+     * message (or its serialized form) and is responsible for disposing of it.
+     */
+    public boolean discardIfExpired(final Object message, final ContainerSpecific cs, final long receivedNanos) {
+        if(maxMessageAgeNanos < 0 || receivedNanos == NOT_TIMED || System.nanoTime() - receivedNanos <= maxMessageAgeNanos)
+            return false;
+
+        if(traceEnabled)
+            LOGGER.trace("Message {} expired before it could be delivered to {}", message, clusterId);
+        if(cs != null)
+            cs.messageBeingDiscarded();
+        statCollector.messageExpired(message);
+        return true;
+    }
+
+    /**
+     * Dispatch the message and record how long it took to get here. The times are from {@link System#nanoTime()}
+     * and are when the message arrived at the node and when it was deserialized. Either can be {@link #NOT_TIMED}.
+     * If the message is older than the max message age it's discarded without being delivered to the Mp.
+     */
+    public void dispatch(final KeyedMessage message, final Operation op, final ContainerSpecific cs, final boolean justArrived,
+        final long receivedNanos, final long deserializedNanos) throws IllegalArgumentException, ContainerException {
 
         if(cs != null && Operation.output != op) {
             final int num = numPending.decrementAndGet(); // dec first.
@@ -340,19 +527,126 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
             return;
         }
 
-        dispatch(message, op, justArrived);
+        if(receivedNanos == NOT_TIMED || !op.handlesMessage) {
+            dispatch(message, op, justArrived);
+            return;
+        }
+
+        final long now = System.nanoTime();
+        if(maxMessageAgeNanos >= 0 && now - receivedNanos > maxMessageAgeNanos) {
+            if(traceEnabled)
+                LOGGER.trace("Message {} expired before it could be delivered to {}", message, clusterId);
+            statCollector.messageExpired(message);
+            if(justArrived)
+                disposition.dispose(message.message);
+            return;
+        }
+
+        if(deserializedNanos != NOT_TIMED) {
+            statCollector.messageStageLatency(MessageStage.DESERIALIZE, deserializedNanos - receivedNanos);
+            statCollector.messageStageLatency(MessageStage.QUEUE, now - deserializedNanos);
+        }
+        dispatch(message, op, justArrived, receivedNanos);
     }
 
     // this is called directly from tests but shouldn't be accessed otherwise.
     //
-    // implementations MUST handle the disposition
+    // implementations MUST handle the disposition and MUST NOT create an Mp for an
+    // Operation.output since the Mp may have been evicted since the output pass started.
     public abstract void dispatch(final KeyedMessage message, Operation op, boolean youOwnMessage) throws IllegalArgumentException, ContainerException;
 
+    /**
+     * Dispatch a message that arrived at the node at the given {@link System#nanoTime()} and record the
+     * {@link MessageStage#END_TO_END} latency once it's been handled. Containers that queue messages
+     * internally MUST override this, carry the time along with the queued message, and call
+     * {@link #recordEndToEnd(long)} when the message is actually delivered to the Mp.
+     */
+    protected void dispatch(final KeyedMessage message, final Operation op, final boolean youOwnMessage, final long receivedNanos)
+        throws IllegalArgumentException, ContainerException {
+        dispatch(message, op, youOwnMessage);
+        recordEndToEnd(receivedNanos);
+    }
+
+    /**
+     * Record the {@link MessageStage#END_TO_END} latency of a message that's just been delivered to its Mp.
+     * Does nothing if the message wasn't timed.
+     */
+    protected void recordEndToEnd(final long receivedNanos) {
+        if(receivedNanos != NOT_TIMED)
+            statCollector.messageStageLatency(MessageStage.END_TO_END, System.nanoTime() - receivedNanos);
+    }
+
     protected abstract void doevict(EvictCheck check);
 
+    /**
+     * Run the eviction check over only the Mps for the given keys. Keys for Mps that no longer
+     * exist are ignored. Implementations should override this. The default checks every Mp.
+     */
+    protected void doevict(final EvictCheck check, final Collection<Object> keys) {
+        doevict(check);
+    }
+
     // This method MUST NOT THROW
     protected abstract void outputPass();
 
+    /**
+     * The keys of the Mps currently in the container. This should be a weakly consistent view
+     * that can be iterated while Mps are being added and removed.
+     */
+    protected abstract Collection<Object> getMpKeys();
+
+    private final Object outputSliceLock = new Object();
+    private List<List<Object>> outputSlices = null;
+
+    /**
+     * Invoke the output on the Mps with the given keys. The keys are split into a few chunks per
+     * core and each chunk is run as a single job on the given threading model. This returns when
+     * every chunk has completed or the container is stopped. Keys for Mps that no longer exist
+     * are skipped. This method MUST NOT THROW.
+     */
+    protected void outputPass(final List<Object> keys, final ThreadingModel threadingModel) {
+        final int numKeys = keys.size();
+        if(numKeys == 0)
+            return;
+
+        final int maxChunks = Math.max(1, Runtime.getRuntime().availableProcessors() * outputChunksPerCore);
+        final int chunkSize = (numKeys + maxChunks - 1) / maxChunks;
+        final int numChunks = (numKeys + chunkSize - 1) / chunkSize;
+
+        if(LOGGER.isDebugEnabled())
+            LOGGER.debug("Output pass for {} on {} MPs in {} chunks", clusterId, numKeys, numChunks);
+
+        final CountDownLatch chunksRemaining = new CountDownLatch(numChunks);
+        for(int from = 0; from < numKeys; from += chunkSize) {
+            final List<Object> chunk = keys.subList(from, Math.min(numKeys, from + chunkSize));
+            threadingModel.submitPrioity(new ContainerTaskJob(chunksRemaining, () -> outputChunk(chunk),
+                () -> LOGGER.error("An output cycle job was rejected but this shouldn't be possible.")));
+        }
+
+        try {
+            while(isRunning.get() && !chunksRemaining.await(100, TimeUnit.MILLISECONDS));
+        } catch(final InterruptedException ie) {
+            LOGGER.warn("Interrupted waiting for the output pass on {} to complete.", clusterId);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void outputChunk(final List<Object> keys) {
+        try(StatsCollector.TimerContext tctx = statCollector.outputInvokeStarted();) {
+            for(final Object key: keys) {
+                if(!isRunning.get())
+                    break;
+
+                LOGGER.trace("output executing on {} with key {}", clusterId, key);
+                try {
+                    dispatch(new KeyedMessage(key, dummy), Operation.output, null, false);
+                } catch(final RuntimeException rte) {
+                    LOGGER.warn("Output failed on " + clusterId + " for the Mp with key " + SafeString.objectDescription(key), rte);
+                }
+            }
+        }
+    }
+
     /**
      * This should ONLY be used for testing. It will retrieve the current Mp by key
      * if it exists. No processing stops and the bookeeping of the container is not affected.
@@ -369,11 +663,156 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
 
     public abstract boolean containerSupportsBulkProcessing();
 
+    /**
+     * Containers that queue messages per Mp and can replace a queued message with a newer one
+     * should override this. See {@link #setConflateMessages(boolean)}.
+     */
+    public boolean containerSupportsConflation() {
+        return false;
+    }
+
+    /**
+     * Create and activate the Mp for the given key if it doesn't already exist. This is used
+     * for pre-instantiation so there's no activating message. Implementations need to allow
+     * this to be called concurrently with message dispatch.
+     */
+    protected abstract void instantiateMp(Object key) throws ContainerException;
+
     public void setEvictionCycle(final long evictionCycleTime, final TimeUnit timeUnit) {
         this.evictionCycleTime = evictionCycleTime;
         this.evictionTimeUnit = timeUnit;
     }
 
+    /**
+     * Evict any Mp that hasn't been sent a message in the given amount of time. A negative
+     * idleTime (the default) disables idle eviction.
+     */
+    public void setIdleEviction(final long idleTime, final TimeUnit timeUnit) {
+        this.idleEvictionTime = idleTime;
+        this.idleEvictionTimeUnit = timeUnit;
+    }
+
+    /**
+     * The idle eviction time in milliseconds or -1 if idle eviction isn't enabled.
+     */
+    protected long getIdleEvictionMillis() {
+        return (idleEvictionTime > 0 && idleEvictionTimeUnit != null) ? idleEvictionTimeUnit.toMillis(idleEvictionTime) : -1;
+    }
+
+    /**
+     * Implementations must call this whenever they add a new Mp.
+     */
+    protected void mpCreated(final Object key) {
+        statCollector.messageProcessorCreated(key);
+        final ShardedInbound ib = shardedInbound();
+        if(ib != null && indexedTotalShards > 0 && ib.getTotalShards() == indexedTotalShards)
+            shardIndex.add(ib.determineShard(key), key);
+
+        if(maxMessageProcessors > 0 && getProcessorCount() > maxMessageProcessors)
+            passivateLeastRecentlyUsed();
+    }
+
+    /**
+     * Implementations must call this whenever they remove an Mp.
+     */
+    protected void mpDeleted(final Object key) {
+        statCollector.messageProcessorDeleted(key);
+        final ShardedInbound ib = shardedInbound();
+        if(ib != null && indexedTotalShards > 0 && ib.getTotalShards() == indexedTotalShards)
+            shardIndex.remove(ib.determineShard(key), key);
+    }
+
+    private ShardedInbound shardedInbound() {
+        final Inbound ib = inbound;
+        return (ib instanceof ShardedInbound) ? (ShardedInbound)ib : null;
+    }
+
+    /**
+     * Rebuild the {@link ShardedKeyIndex} from every Mp in the container if it wasn't built against
+     * the inbound's current number of shards. Mps created before the inbound knew how many shards there
+     * are aren't indexed when they're created so this picks them up. It's only called from the keyspace
+     * change thread so the cost is paid once per change in the shard count rather than while dispatching.
+     */
+    private void indexShardsIfNecessary(final ShardedInbound ib) {
+        final int totalShards = ib.getTotalShards();
+        if(totalShards == indexedTotalShards)
+            return;
+
+        shardIndex.clear();
+        // set before walking the keys so any Mp created while we're walking is
+        // either seen by the walk or indexed by mpCreated.
+        indexedTotalShards = totalShards;
+        for(final Object key: getMpKeys())
+            shardIndex.add(ib.determineShard(key), key);
+    }
+
+    /**
+     * Containers that track when each Mp was last sent a message in an {@link IdleEvictionIndex}
+     * should override this along with {@link #evictIdle()} and {@link #passivateIfIdle(Object, long)}.
+     */
+    public boolean containerSupportsIdleEviction() {
+        return false;
+    }
+
+    /**
+     * Passivate and remove the Mp for the given key if it's not currently handling a message and hasn't
+     * been sent one since {@code idleSince}. Returns true if this call removed the Mp.
+     */
+    protected boolean passivateIfIdle(final Object key, final long idleSince) {
+        return false;
+    }
+
+    /**
+     * <p>
+     * Passivate Mps until the container is back down to {@code maxMessageProcessors}. This is an approximate
+     * LRU (the CLOCK algorithm) that uses the last access time the container already keeps for idle eviction
+     * rather than maintaining an ordering on every message. A hand sweeps the keys and an Mp is passivated when
+     * it hasn't been sent a message since the hand started its previous sweep, meaning it's been passed over once
+     * already without being used. Anything used more recently gets a second chance.
+     * </p>
+     *
+     * <p>
+     * This is called on the thread creating an Mp so the work is bounded. Each call visits at most
+     * {@code LRU_MAX_VISITS_PER_CALL} keys and the hand picks up where the last call left off. There's no previous
+     * sweep the first time around so the first sweep passivates anything that hasn't been sent a message since it
+     * started rather than visiting every Mp before it can passivate any of them.
+     * </p>
+     *
+     * <p>
+     * The cap is soft. Only one thread passivates at a time and each call only visits a limited number of Mps so a
+     * container where the Mps are busy can temporarily exceed it.
+     * </p>
+     */
+    protected void passivateLeastRecentlyUsed() {
+        if(!passivatingLru.compareAndSet(false, true))
+            return;
+
+        try {
+            int excess = getProcessorCount() - maxMessageProcessors;
+            for(int toVisit = Math.min(2 * getProcessorCount(), LRU_MAX_VISITS_PER_CALL); excess > 0 && toVisit > 0 && isRunning.get(); toVisit--) {
+                if(lruHand == null || !lruHand.hasNext()) {
+                    lruHand = getMpKeys().iterator();
+                    final long now = System.currentTimeMillis();
+                    lruPrevSweepStarted = lruSweepStarted == 0 ? now : lruSweepStarted;
+                    lruSweepStarted = now;
+                    if(!lruHand.hasNext())
+                        break;
+                }
+
+                // anything used in the same millisecond the previous sweep started counts as used since.
+                final Object key = lruHand.next();
+                if(passivateIfIdle(key, lruPrevSweepStarted - 1)) {
+                    statCollector.messageProcessorForcedPassivation(key);
+                    excess--;
+                }
+            }
+        } catch(final RuntimeException rte) {
+            LOGGER.error("Failed passivating the least recently used Mps for " + clusterId, rte);
+        } finally {
+            passivatingLru.set(false);
+        }
+    }
+
     private class ContainerSpecificInternal implements ContainerSpecific {
         @Override
         public void messageBeingDiscarded() {
@@ -411,8 +850,15 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
         });
     }
 
+    /**
+     * Evict the Mps that haven't been sent a message within the idle eviction time. This is called
+     * periodically when idle eviction is enabled. This method MUST NOT THROW.
+     */
+    protected void evictIdle() {}
+
     // Scheduler to handle eviction thread.
     private Scheduler evictionScheduler = null;
+    private Scheduler idleEvictionScheduler = null;
 
     public static final String EVICTION_CHECK_JOB_NAME = "evictionCheckInvoker";
 
@@ -456,6 +902,35 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
         }
     }
 
+    public static final String IDLE_EVICTION_JOB_NAME = "idleEvictionInvoker";
+
+    public static class IdleEvictionJob implements Job {
+        @Override
+        public void execute(final JobExecutionContext context) throws JobExecutionException {
+            final Container evictInvoker = (Container)context.getJobDetail().getJobDataMap().get(IDLE_EVICTION_JOB_NAME);
+
+            if(evictInvoker != null)
+                evictInvoker.evictIdle();
+            else
+                SLOGGER.warn("idle eviction invoker is NULL");
+        }
+    }
+
+    private void startIdleEvictionThread() throws SchedulerException {
+        // see startEvictionThread
+        synchronized(StdSchedulerFactory.class) {
+            final JobDetail jobDetail = JobBuilder.newJob(IdleEvictionJob.class).build();
+            jobDetail.getJobDataMap().put(IDLE_EVICTION_JOB_NAME, this);
+
+            // check as often as the index is bucketed.
+            final long tickMillis = Math.max(1L, getIdleEvictionMillis() / IdleEvictionIndex.TICKS_PER_IDLE_TIME);
+            final Trigger trigger = QuartzHelper.getSimpleTrigger(TimeUnit.MILLISECONDS, (int)Math.min(Integer.MAX_VALUE, tickMillis), true);
+            idleEvictionScheduler = StdSchedulerFactory.getDefaultScheduler();
+            idleEvictionScheduler.scheduleJob(jobDetail, trigger);
+            idleEvictionScheduler.start();
+        }
+    }
+
     // =======================================================================================
     // Manage keyspace change events.
     private final RunningEventSwitch keyspaceChangeSwitch = new RunningEventSwitch(isRunning);
@@ -475,7 +950,7 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
                     LOGGER.trace("Evicting Mps due to keyspace shrinkage.");
                     try {
                         // First do the contract by evicting all
-                        doevict(new EvictCheck() {
+                        final EvictCheck check = new EvictCheck() {
                             // we shouldEvict if the message key no longer belongs as
                             // part of this container.
                             // strategyInbound can't be null if we're here since this was invoked
@@ -495,15 +970,24 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
                             public boolean shouldStopEvicting() {
                                 return keyspaceChangeSwitch.wasPreempted();
                             }
-                        });
+                        };
+
+                        if(inbound instanceof ShardedInbound && ((ShardedInbound)inbound).getTotalShards() > 0)
+                            evictReleasedShards((ShardedInbound)inbound, check);
+                        else
+                            doevict(check);
                     } catch(final RuntimeException rte) {
                         LOGGER.error("Failed on eviction", rte);
                     }
                 }
 
                 if(grow) {
-                    // TODO: the grow only affect pre-instantiation capable containers
-                    // no grow yet.
+                    LOGGER.trace("Pre-instantiating Mps due to keyspace growth.");
+                    try {
+                        preInstantiate(inbound);
+                    } catch(final RuntimeException rte) {
+                        LOGGER.error("Failed on pre-instantiation", rte);
+                    }
                 }
 
                 grow = shrink = false;
@@ -521,7 +1005,8 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
     @Override
     public void keyspaceChanged(final boolean less, final boolean more) {
 
-        if(less) {
+        // growing the keyspace only matters if we're pre-instantiating Mps.
+        if(less || (more && keySource != null)) {
             // we need to run a special eviction pass.
             synchronized(changer) { // we only want to do this one at a time.
                 keyspaceChangeSwitch.preemptWorkerAndWait(); // if it's already running the stop it so we can restart
@@ -547,6 +1032,105 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
             }
         }
     }
+
+    /**
+     * Evict the Mps in the shards this node no longer owns. Only the keys in those shards are
+     * visited and each shard is handled as a separate job on the threading model. This method
+     * waits for them all to complete. It can be preempted by a subsequent keyspace change.
+     */
+    private void evictReleasedShards(final ShardedInbound inbound, final EvictCheck check) {
+        indexShardsIfNecessary(inbound);
+
+        final List<List<Object>> released = new ArrayList<>();
+        for(final Integer shard: shardIndex.shards()) {
+            final Set<Object> keys = shardIndex.keys(shard);
+            if(keys.size() > 0 && !inbound.doesShardBelongToNode(shard))
+                released.add(new ArrayList<>(keys));
+        }
+
+        if(released.size() == 0)
+            return;
+
+        if(LOGGER.isDebugEnabled())
+            LOGGER.debug("Evicting the Mps from {} released shards for {}", released.size(), clusterId);
+
+        if(threadingModel == null || released.size() == 1) {
+            released.forEach(keys -> doevict(check, keys));
+            return;
+        }
+
+        final CountDownLatch jobsRemaining = new CountDownLatch(released.size());
+        // Unlike pre-instantiation, the eviction can't just be skipped or the Mps would linger in a shard
+        // this node no longer owns so if a job is rejected while we're running it's done on the rejecting thread.
+        released.forEach(keys -> {
+            final Runnable evict = () -> evictReleasedShard(check, keys);
+            threadingModel.submitPrioity(new ContainerTaskJob(jobsRemaining, evict, evict));
+        });
+
+        try {
+            while(isRunning.get() && !jobsRemaining.await(100, TimeUnit.MILLISECONDS));
+        } catch(final InterruptedException ie) {
+            LOGGER.warn("Interrupted waiting for the eviction of the Mps in the released shards of {} to complete.", clusterId);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void evictReleasedShard(final EvictCheck check, final Collection<Object> keys) {
+        try {
+            doevict(check, keys);
+        } catch(final RuntimeException e) {
+            LOGGER.warn("Failed to evict the Mps from a released shard in " + clusterId, e);
+        }
+    }
+
+    /**
+     * Instantiate every Mp from the {@link KeySource} that belongs to this node. The work is spread
+     * over the threading model and this method waits for it to complete. It can be preempted by a
+     * subsequent keyspace change.
+     */
+    private void preInstantiate(final Inbound inbound) {
+        if(keySource == null || !isRunning.get())
+            return;
+
+        if(threadingModel == null) {
+            LOGGER.warn("Cannot pre-instantiate Mps for {} because there's no threading model.", clusterId);
+            return;
+        }
+
+        try(final StatsCollector.TimerContext tctx = statCollector.preInstantiationStarted();) {
+            final List<Object> keys = new ArrayList<>();
+            for(final Object key: keySource.getAllPossibleKeys()) {
+                if(keyspaceChangeSwitch.wasPreempted() || !isRunning.get())
+                    return;
+
+                if(key != null && inbound.doesMessageKeyBelongToNode(key))
+                    keys.add(key);
+            }
+
+            if(LOGGER.isDebugEnabled())
+                LOGGER.debug("Pre-instantiating {} Mps for {}", keys.size(), clusterId);
+
+            final CountDownLatch jobsRemaining = new CountDownLatch(keys.size());
+            keys.forEach(key -> threadingModel.submitPrioity(new ContainerTaskJob(jobsRemaining, () -> preInstantiateMp(key),
+                () -> LOGGER.warn("A pre-instantiation job for {} with key {} was rejected.", clusterId, SafeString.objectDescription(key)))));
+
+            try {
+                while(isRunning.get() && !jobsRemaining.await(100, TimeUnit.MILLISECONDS));
+            } catch(final InterruptedException ie) {
+                LOGGER.warn("Interrupted waiting for the pre-instantiation of the Mps for {} to complete.", clusterId);
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void preInstantiateMp(final Object key) {
+        LOGGER.trace("pre-instantiating on {} with key {}", clusterId, key);
+        try {
+            instantiateMp(key);
+        } catch(final RuntimeException e) {
+            LOGGER.warn("Failed to pre-instantiate the Mp for " + SafeString.objectDescription(key) + " in " + clusterId, e);
+        }
+    }
     // =======================================================================================
 
     // ----------------------------------------------------------------------------
@@ -658,8 +1242,11 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
             if(traceEnabled)
                 LOGGER.trace("invoking \"{}\" for {}", SafeString.valueOf(instance), message);
             statCollector.messageDispatched(numMessages);
+            final long start = System.nanoTime();
             result = resultsCloser.addAll(op == Operation.handle ? prototype.invoke(instance, message)
                 : (op == Operation.bulk ? prototype.invokeBulk(instance, bulk) : prototype.invokeOutput(instance)));
+            if(op.handlesMessage)
+                statCollector.messageStageLatency(MessageStage.HANDLER, System.nanoTime() - start);
             statCollector.messageProcessed(numMessages);
         } catch(final ContainerException e) {
             result = null;
@@ -698,16 +1285,21 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
 
     private static final Object dummy = new Object();
 
-    public class OutputMessageJob implements MessageDeliveryJob {
-
-        final Container container;
-        final KeyedMessage message;
-        final AtomicLong counter;
-
-        public OutputMessageJob(final Container container, final Object key, final AtomicLong counter) {
-            this.container = container;
-            this.message = new KeyedMessage(key, dummy);
-            this.counter = counter;
+    /**
+     * Runs a piece of the container's own work, an output chunk, a released shard eviction or a
+     * pre-instantiation, as a job on the threading model. The latch is counted down once the work
+     * is done or the job is rejected. If it's rejected while the container is still running then
+     * {@code onRejected} is run in place of the work.
+     */
+    private class ContainerTaskJob implements MessageDeliveryJob {
+        private final CountDownLatch latch;
+        private final Runnable work;
+        private final Runnable onRejected;
+
+        private ContainerTaskJob(final CountDownLatch latch, final Runnable work, final Runnable onRejected) {
+            this.latch = latch;
+            this.work = work;
+            this.onRejected = onRejected;
         }
 
         @Override
@@ -717,7 +1309,7 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
 
         @Override
         public ContainerJobMetadata[] containerData() {
-            return new ContainerJobMetadata[] {new ContainerJobMetadata(container, null)};
+            return new ContainerJobMetadata[] {new ContainerJobMetadata(Container.this, null)};
         }
 
         @Override
@@ -725,32 +1317,32 @@ public abstract class Container implements Service, KeyspaceChangeListener, Outp
 
         @Override
         public void rejected(final boolean stopping) {
-            counter.decrementAndGet();
-            if(!stopping)
-                LOGGER.error("An output cycle job was rejected but this shouldn't be possible.");
+            if(stopping)
+                latch.countDown();
+            else
+                run(onRejected);
         }
 
         @Override
         public void executeAllContainers() {
-            LOGGER.trace("output executing on {} with key {}", clusterId, message.key);
-            try(QuietCloseable qc = () -> counter.decrementAndGet();) {
-                container.dispatch(message, Operation.output, null, false);
+            run(work);
+        }
+
+        private void run(final Runnable toRun) {
+            try(QuietCloseable qc = () -> latch.countDown();) {
+                toRun.run();
             }
         }
 
         private class CJ implements ContainerJob {
             @Override
             public void execute(final ContainerJobMetadata jobData) {
-                LOGGER.trace("output executing on {} with key {}", clusterId, message.key);
-                try(QuietCloseable qc = () -> counter.decrementAndGet();) {
-                    jobData.container.dispatch(message, Operation.output, jobData.containerSpecificData, false);
-                }
+                run(work);
             }
 
             @Override
             public void reject(final ContainerJobMetadata jobData) {
-                counter.decrementAndGet();
-                LOGGER.error("An output cycle job was rejected but this shouldn't be possible.");
+                rejected(!isRunning.get());
             }
         }
 
@@ -6,8 +6,19 @@ public final class ContainerJobMetadata {
     public final Container container;
     public final ContainerSpecific containerSpecificData;
 
+    /**
+     * The key of the message being delivered to the container or null if the
+     * job isn't for a single message (e.g. an output or eviction pass).
+     */
+    public final Object messageKey;
+
     public ContainerJobMetadata(final Container c, final ContainerSpecific p) {
+        this(c, p, null);
+    }
+
+    public ContainerJobMetadata(final Container c, final ContainerSpecific p, final Object messageKey) {
         this.container = c;
         this.containerSpecificData = p;
+        this.messageKey = messageKey;
     }
 }
@@ -32,7 +32,7 @@ public class DefaultDeliverMessageJob extends DeliverMessageJob {
         public void execute(final ContainerJobMetadata jobData) {
             final KeyedMessage km = new KeyedMessage(message.key, message.message);
 
-            jobData.container.dispatch(km, Operation.handle, jobData.containerSpecificData, justArrived);
+            jobData.container.dispatch(km, Operation.handle, jobData.containerSpecificData, justArrived, receivedNanos, receivedNanos);
         }
 
         @Override
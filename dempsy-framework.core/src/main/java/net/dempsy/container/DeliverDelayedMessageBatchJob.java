@@ -0,0 +1,120 @@
+package net.dempsy.container;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import net.dempsy.container.Container.Operation;
+import net.dempsy.messages.KeyedMessage;
+import net.dempsy.monitoring.NodeStatsCollector;
+import net.dempsy.transport.RoutedMessage;
+
+/**
+ * Delivers several messages that arrived together (for example, in a single transport frame) as
+ * one job. Like {@link DeliverDelayedMessageJob} the messages aren't deserialized until
+ * {@link #calculateContainers()} is called. When individuated there is one {@link ContainerJob}
+ * per message per destination container, in the order the messages arrived.
+ */
+public class DeliverDelayedMessageBatchJob implements MessageDeliveryJob {
+    private final Supplier<List<RoutedMessage>> messagesSupplier;
+    private final int numMessages;
+    protected final boolean justArrived;
+    protected final NodeStatsCollector statsCollector;
+    final Container[] containers;
+    private final long receivedNanos = System.nanoTime();
+    private long deserializedNanos = Container.NOT_TIMED;
+
+    private List<RoutedMessage> messages = null;
+    private ContainerJobMetadata[] deliveries = null;
+    private List<ContainerJob> individuated = null;
+    private boolean containersCalculated = false;
+
+    public DeliverDelayedMessageBatchJob(final Container[] containers, final NodeStatsCollector statsCollector, final int numMessages,
+        final Supplier<List<RoutedMessage>> messagesSupplier, final boolean justArrived) {
+        this.messagesSupplier = messagesSupplier;
+        this.numMessages = numMessages;
+        this.justArrived = justArrived;
+        this.statsCollector = statsCollector;
+        this.containers = containers;
+    }
+
+    @Override
+    public void executeAllContainers() {
+        for(final RoutedMessage message: messages) {
+            final KeyedMessage km = new KeyedMessage(message.key, message.message);
+            Arrays.stream(message.containers)
+                .forEach(i -> containers[i].dispatch(km, Operation.handle, null, justArrived, receivedNanos, deserializedNanos));
+        }
+    }
+
+    @Override
+    public void rejected(final boolean stopping) {
+        for(int i = 0; i < numMessages; i++)
+            statsCollector.messageDiscarded(messagesSupplier);
+    }
+
+    @Override
+    public synchronized boolean containersCalculated() {
+        return containersCalculated;
+    }
+
+    @Override
+    public ContainerJobMetadata[] containerData() {
+        return deliveries;
+    }
+
+    @Override
+    public void calculateContainers() {
+        try {
+            messages = messagesSupplier.get();
+            deserializedNanos = System.nanoTime();
+            final List<ContainerJobMetadata> cjms = new ArrayList<>();
+            final List<ContainerJob> cjs = new ArrayList<>();
+            for(final RoutedMessage message: messages) {
+                final CJ cj = new CJ(message);
+                for(final int ci: message.containers) {
+                    final Container c = containers[ci];
+                    cjms.add(new ContainerJobMetadata(c, c.prepareMessage(message, justArrived), message.key));
+                    cjs.add(cj);
+                }
+            }
+            deliveries = cjms.toArray(new ContainerJobMetadata[cjms.size()]);
+            individuated = cjs;
+        } finally { // no matter what, if calculateContainers was called, then this must be set.
+            synchronized(this) {
+                containersCalculated = true;
+            }
+        }
+    }
+
+    private class CJ implements ContainerJob {
+        private final RoutedMessage message;
+
+        private CJ(final RoutedMessage message) {
+            this.message = message;
+        }
+
+        @Override
+        public void execute(final ContainerJobMetadata jobData) {
+            final KeyedMessage km = new KeyedMessage(message.key, message.message);
+
+            jobData.container.dispatch(km, Operation.handle, jobData.containerSpecificData, justArrived, receivedNanos,
+                deserializedNanos);
+        }
+
+        @Override
+        public void reject(final ContainerJobMetadata jobData) {
+            if(jobData.containerSpecificData != null)
+                jobData.containerSpecificData.messageBeingDiscarded();
+        }
+    }
+
+    @Override
+    public List<ContainerJob> individuate() {
+        return individuated;
+    }
+
+    @Override
+    public void individuatedJobsComplete() {}
+}
@@ -16,6 +16,8 @@ public class DeliverDelayedMessageJob implements MessageDeliveryJob {
     protected final boolean justArrived;
     protected final NodeStatsCollector statsCollector;
     final Container[] containers;
+    private final long receivedNanos = System.nanoTime();
+    private long deserializedNanos = Container.NOT_TIMED;
 
     private RoutedMessage message = null;
     private ContainerJobMetadata[] deliveries = null;
@@ -35,7 +37,7 @@ public class DeliverDelayedMessageJob implements MessageDeliveryJob {
         Arrays.stream(message.containers)
             .forEach(i ->
 
-            containers[i].dispatch(km, Operation.handle, null, justArrived));
+            containers[i].dispatch(km, Operation.handle, null, justArrived, receivedNanos, deserializedNanos));
     }
 
     @Override
@@ -57,9 +59,10 @@ public class DeliverDelayedMessageJob implements MessageDeliveryJob {
     public void calculateContainers() {
         try {
             message = messageSupplier.get();
+            deserializedNanos = System.nanoTime();
             this.deliveries = Arrays.stream(message.containers)
                 .mapToObj(ci -> containers[ci])
-                .map(c -> new ContainerJobMetadata(c, c.prepareMessage(message, justArrived)))
+                .map(c -> new ContainerJobMetadata(c, c.prepareMessage(message, justArrived), message.key))
                 .toArray(ContainerJobMetadata[]::new);
         } finally { // no matter what, if calculateContainers was called, then this must be set.
             synchronized(this) {
@@ -73,7 +76,8 @@ public class DeliverDelayedMessageJob implements MessageDeliveryJob {
         public void execute(final ContainerJobMetadata jobData) {
             final KeyedMessage km = new KeyedMessage(message.key, message.message);
 
-            jobData.container.dispatch(km, Operation.handle, jobData.containerSpecificData, justArrived);
+            jobData.container.dispatch(km, Operation.handle, jobData.containerSpecificData, justArrived, receivedNanos,
+                deserializedNanos);
         }
 
         @Override
@@ -0,0 +1,134 @@
+package net.dempsy.container;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import net.dempsy.container.Container.Operation;
+import net.dempsy.messages.KeyedMessage;
+import net.dempsy.monitoring.NodeStatsCollector;
+import net.dempsy.transport.LazyPayload;
+import net.dempsy.transport.RoutedMessage;
+
+/**
+ * Delivers a message whose routing information arrived already decoded. The payload isn't deserialized
+ * until the job is running on a worker so a message that's rejected by the threading model, or that's
+ * older than the max message age of the clusters it's going to, is never deserialized at all.
+ */
+public class DeliverLazyMessageJob implements MessageDeliveryJob {
+    private final LazyPayload payload;
+    protected final boolean justArrived;
+    protected final NodeStatsCollector statsCollector;
+    private final Object key;
+    private final long receivedNanos = System.nanoTime();
+    private final ContainerJobMetadata[] deliveries;
+
+    private long deserializedNanos = Container.NOT_TIMED;
+    private KeyedMessage message = null;
+    private boolean payloadReleased = false;
+
+    public DeliverLazyMessageJob(final Container[] allContainers, final NodeStatsCollector statsCollector, final int[] containers, final Object key,
+        final LazyPayload payload, final boolean justArrived) {
+        this.payload = payload;
+        this.justArrived = justArrived;
+        this.statsCollector = statsCollector;
+        this.key = key;
+
+        // the containers only need the routing information.
+        final RoutedMessage routing = new RoutedMessage(containers, key, null);
+        this.deliveries = Arrays.stream(containers)
+            .mapToObj(ci -> allContainers[ci])
+            .map(c -> new ContainerJobMetadata(c, c.prepareMessage(routing, justArrived), key))
+            .toArray(ContainerJobMetadata[]::new);
+    }
+
+    @Override
+    public boolean containersCalculated() {
+        return true;
+    }
+
+    @Override
+    public void calculateContainers() {}
+
+    @Override
+    public ContainerJobMetadata[] containerData() {
+        return deliveries;
+    }
+
+    @Override
+    public void executeAllContainers() {
+        final ContainerJobMetadata[] live = Arrays.stream(deliveries)
+            .filter(d -> !d.container.discardIfExpired(payload, d.containerSpecificData, receivedNanos))
+            .toArray(ContainerJobMetadata[]::new);
+
+        // with nowhere to deliver the message, including when it didn't route to any containers at all, the
+        // payload still has to be released.
+        if(live.length == 0) {
+            discardPayload();
+            return;
+        }
+
+        final KeyedMessage km = message();
+        Arrays.stream(live)
+            .forEach(d -> d.container.dispatch(km, Operation.handle, d.containerSpecificData, justArrived, receivedNanos, deserializedNanos));
+    }
+
+    @Override
+    public void rejected(final boolean stopping) {
+        Arrays.stream(deliveries)
+            .map(d -> d.containerSpecificData)
+            .filter(p -> p != null)
+            .forEach(p -> p.messageBeingDiscarded());
+        statsCollector.messageDiscarded(payload);
+        discardPayload();
+    }
+
+    private class CJ implements ContainerJob {
+        @Override
+        public void execute(final ContainerJobMetadata jobData) {
+            // if it's expired then the payload is discarded in individuatedJobsComplete unless another job deserialized it.
+            if(jobData.container.discardIfExpired(payload, jobData.containerSpecificData, receivedNanos))
+                return;
+            jobData.container.dispatch(message(), Operation.handle, jobData.containerSpecificData, justArrived, receivedNanos, deserializedNanos);
+        }
+
+        @Override
+        public void reject(final ContainerJobMetadata jobData) {
+            if(jobData.containerSpecificData != null)
+                jobData.containerSpecificData.messageBeingDiscarded();
+        }
+    }
+
+    @Override
+    public List<ContainerJob> individuate() {
+        return IntStream.range(0, deliveries.length)
+            .mapToObj(i -> new CJ())
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * If every one of the individuated jobs was rejected or expired then the payload was never deserialized.
+     */
+    @Override
+    public void individuatedJobsComplete() {
+        discardPayload();
+    }
+
+    // The individuated jobs can run concurrently but the payload is only deserialized once.
+    private synchronized KeyedMessage message() {
+        if(message == null) {
+            payloadReleased = true;
+            message = new KeyedMessage(key, payload.get());
+            deserializedNanos = System.nanoTime();
+        }
+        return message;
+    }
+
+    private synchronized void discardPayload() {
+        if(!payloadReleased) {
+            payloadReleased = true;
+            payload.discard();
+        }
+    }
+}
@@ -11,6 +11,7 @@ public abstract class DeliverMessageJob implements MessageDeliveryJob {
     protected final boolean justArrived;
     protected final NodeStatsCollector statsCollector;
     protected final RoutedMessage message;
+    protected final long receivedNanos = System.nanoTime();
 
     protected final ContainerJobMetadata[] deliveries;
     protected boolean executeCalled = false;
@@ -22,7 +23,7 @@ public abstract class DeliverMessageJob implements MessageDeliveryJob {
         this.statsCollector = statsCollector;
         this.deliveries = Arrays.stream(message.containers)
             .mapToObj(ci -> allContainers[ci])
-            .map(c -> new ContainerJobMetadata(c, c.prepareMessage(message, justArrived)))
+            .map(c -> new ContainerJobMetadata(c, c.prepareMessage(message, justArrived), message.key))
             .toArray(ContainerJobMetadata[]::new);
     }
 
@@ -49,7 +50,7 @@ public abstract class DeliverMessageJob implements MessageDeliveryJob {
         final KeyedMessage km = new KeyedMessage(message.key, message.message);
 
         Arrays.stream(deliveries)
-            .forEach(d -> d.container.dispatch(km, Operation.handle, d.containerSpecificData, justArrived));
+            .forEach(d -> d.container.dispatch(km, Operation.handle, d.containerSpecificData, justArrived, receivedNanos, receivedNanos));
     }
 
     protected void handleDiscardAllContainer() {
@@ -41,7 +41,7 @@ public class DeliverResourceJob extends DeliverMessageJob {
         public void execute(final ContainerJobMetadata jobData) {
             try {
                 final KeyedMessage km = new KeyedMessage(message.key, message.message);
-                jobData.container.dispatch(km, Operation.handle, jobData.containerSpecificData, justArrived);
+                jobData.container.dispatch(km, Operation.handle, jobData.containerSpecificData, justArrived, receivedNanos, receivedNanos);
             } finally {
                 disposition.dispose(message.message);
             }
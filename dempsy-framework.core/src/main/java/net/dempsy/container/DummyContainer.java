@@ -1,5 +1,7 @@
 package net.dempsy.container;
 
+import java.util.Collection;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,6 +51,11 @@ public class DummyContainer extends Container {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    protected Collection<Object> getMpKeys() {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public boolean containerInternallyQueuesMessages() {
         return false;
@@ -59,4 +66,9 @@ public class DummyContainer extends Container {
         return false;
     }
 
+    @Override
+    protected void instantiateMp(final Object key) throws ContainerException {
+        throw new UnsupportedOperationException();
+    }
+
 }
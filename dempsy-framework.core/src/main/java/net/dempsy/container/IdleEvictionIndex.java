@@ -0,0 +1,112 @@
+package net.dempsy.container;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * <p>
+ * An index of the Mps that a container may need to evict for being idle. This lets an idle eviction
+ * pass visit only the Mps whose idle time may have expired rather than walking every instance in
+ * the container.
+ * </p>
+ *
+ * <p>
+ * Entries are placed in buckets (a coarse timer wheel) by the time they're due to be checked. The index
+ * is only updated when an Mp is created and is never touched when a message is dispatched. Instead, the container keeps the last access time on the
+ * entry itself and, when a bucket comes due, the {@link Expirer} either evicts the entry or tells the index
+ * when it was last accessed so it can be placed back in the bucket where it will next be due. That means
+ * an entry is visited at most once per idle period regardless of how many messages it receives.
+ * </p>
+ */
+public class IdleEvictionIndex<T> {
+    /**
+     * The number of buckets that span the idle time. This bounds how late past the idle time an entry can
+     * be evicted to 1/TICKS_PER_IDLE_TIME of the idle time.
+     */
+    public static final int TICKS_PER_IDLE_TIME = 16;
+
+    public static interface Expirer<T> {
+        /**
+         * Evict the entry if it hasn't been accessed since {@code idleSince}. Returns the time the
+         * entry was last accessed if it wasn't evicted and should stay in the index, or -1 if the
+         * entry was evicted or no longer belongs in the index.
+         */
+        public long evictIfIdle(T entry, long idleSince);
+    }
+
+    private final long idleMillis;
+    private final long tickMillis;
+    private final ConcurrentSkipListMap<Long, ConcurrentLinkedQueue<T>> buckets = new ConcurrentSkipListMap<>();
+
+    public IdleEvictionIndex(final long idleMillis) {
+        if(idleMillis <= 0)
+            throw new IllegalArgumentException("The idle time for idle eviction must be positive. It was " + idleMillis + " milliseconds.");
+        this.idleMillis = idleMillis;
+        this.tickMillis = Math.max(1L, idleMillis / TICKS_PER_IDLE_TIME);
+    }
+
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    /**
+     * How often {@link #expire(long, Expirer)} should be called.
+     */
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * Add a newly created entry to the index given the time it was last accessed.
+     */
+    public void add(final T entry, final long lastAccess) {
+        schedule(entry, lastAccess + idleMillis);
+    }
+
+    /**
+     * Visit every entry that's due as of {@code now}, evicting the idle ones through the given {@link Expirer}.
+     * Returns the number of entries visited.
+     */
+    public int expire(final long now, final Expirer<T> expirer) {
+        final long idleSince = now - idleMillis;
+        final long nowTick = now / tickMillis;
+        int numVisited = 0;
+
+        for(Map.Entry<Long, ConcurrentLinkedQueue<T>> bucket = buckets.firstEntry(); bucket != null && bucket.getKey() <= nowTick;
+            bucket = buckets.firstEntry()) {
+            // once the bucket is removed under the lock nothing else can be added to it.
+            synchronized(buckets) {
+                buckets.remove(bucket.getKey(), bucket.getValue());
+            }
+            final ConcurrentLinkedQueue<T> due = bucket.getValue();
+            for(T entry = due.poll(); entry != null; entry = due.poll()) {
+                numVisited++;
+                final long lastAccess = expirer.evictIfIdle(entry, idleSince);
+                if(lastAccess >= 0)
+                    // anything not evicted is checked again no sooner than the next tick so this loop terminates.
+                    schedule(entry, Math.max(lastAccess + idleMillis, now + tickMillis));
+            }
+        }
+        return numVisited;
+    }
+
+    /**
+     * The number of entries in the index.
+     */
+    public int size() {
+        return buckets.values().stream().mapToInt(q -> q.size()).sum();
+    }
+
+    public void clear() {
+        buckets.clear();
+    }
+
+    private void schedule(final T entry, final long due) {
+        // round up so an entry is never checked before it's due.
+        final long tick = (due + tickMillis - 1) / tickMillis;
+        synchronized(buckets) {
+            buckets.computeIfAbsent(tick, t -> new ConcurrentLinkedQueue<>()).add(entry);
+        }
+    }
+}
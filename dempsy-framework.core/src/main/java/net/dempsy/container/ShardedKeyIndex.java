@@ -0,0 +1,50 @@
+package net.dempsy.container;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.dempsy.router.RoutingStrategy.Inbound;
+
+/**
+ * The keys of a container's Mps partitioned by the shard they fall in according to the
+ * {@link Inbound} strategy. When the node releases shards the container can find the Mps
+ * it needs to evict without rehashing every key it holds so the cost of a rebalance is
+ * proportional to the number of Mps that moved rather than the total number in the container.
+ */
+public class ShardedKeyIndex {
+    private final ConcurrentHashMap<Integer, Set<Object>> shards = new ConcurrentHashMap<>();
+
+    public void add(final int shard, final Object key) {
+        shards.computeIfAbsent(shard, s -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+
+    public void remove(final int shard, final Object key) {
+        final Set<Object> keys = shards.get(shard);
+        if(keys != null)
+            keys.remove(key);
+    }
+
+    /**
+     * The shards that have ever had a key added. Some may currently be empty.
+     */
+    public Set<Integer> shards() {
+        return shards.keySet();
+    }
+
+    /**
+     * A live view of the keys in the given shard.
+     */
+    public Set<Object> keys(final int shard) {
+        final Set<Object> keys = shards.get(shard);
+        return keys == null ? Collections.emptySet() : keys;
+    }
+
+    public int size() {
+        return shards.values().stream().mapToInt(s -> s.size()).sum();
+    }
+
+    public void clear() {
+        shards.clear();
+    }
+}
@@ -20,6 +20,38 @@ import java.awt.Container;
 
 public interface ClusterStatsCollector extends StatsCollector {
 
+    /**
+     * <p>
+     * The stages of a message's trip through a node that latencies are recorded for.
+     * </p>
+     *
+     * <p>
+     * Whether the time a message spends on the threading model's queue lands in {@link #DESERIALIZE}
+     * or {@link #QUEUE} depends on the threading model. One that deserializes messages as workers
+     * take them off of the queue (like the default) will count it in {@link #DESERIALIZE}. One that
+     * deserializes messages before queuing them will count it in {@link #QUEUE}.
+     * </p>
+     */
+    public static enum MessageStage {
+        /**
+         * From the message arriving at the node until it was deserialized.
+         */
+        DESERIALIZE,
+        /**
+         * From the message being deserialized until a worker delivered it to the container.
+         */
+        QUEUE,
+        /**
+         * The time spent in the message processor's <code>MessageHandler</code>.
+         */
+        HANDLER,
+        /**
+         * From the message arriving at the node until the <code>MessageHandler</code> returned. For containers
+         * that queue messages internally this includes the time the message spent on the Mp's queue.
+         */
+        END_TO_END
+    }
+
     public class Transaction implements AutoCloseable {
         private boolean failed = false;
         private final ClusterStatsCollector ths;
@@ -83,6 +115,12 @@ public interface ClusterStatsCollector extends StatsCollector {
      */
     void messageDiscarded(Object message);
 
+    /**
+     * {@link Container} calls this method when it discards a message because it's older than the cluster's
+     * maximum message age. This is NOT reflected in the messageDiscarded results.
+     */
+    void messageExpired(Object message);
+
     /**
      * The MP manager calls this method when it creates a message processor instance.
      */
@@ -93,6 +131,24 @@ public interface ClusterStatsCollector extends StatsCollector {
      */
     void messageProcessorDeleted(Object key);
 
+    /**
+     * The container calls this method when it passivates a message processor instance because
+     * the cluster has more than its maximum number of message processors. The deletion will also
+     * be reflected in messageProcessorDeleted.
+     */
+    void messageProcessorForcedPassivation(Object key);
+
+    /**
+     * Containers that support bulk delivery call this method with the number of messages
+     * each time they deliver a batch to a message processor.
+     */
+    void messageBatchDelivered(int batchSize);
+
+    /**
+     * {@link Container} calls this method with how long, in nanoseconds, a message spent in the given stage.
+     */
+    void messageStageLatency(MessageStage stage, long nanos);
+
     /**
      * Some stats collectors need to be stopped.
      */
@@ -55,4 +55,21 @@ public interface NodeStatsCollector extends StatsCollector {
      */
     void setMessagesOutPendingGauge(LongSupplier currentMessagesOutPendingGauge);
 
+    /**
+     * If the transport keeps a separate queue of outgoing messages for each destination, then it can optionally supply a Gauge instance
+     * for each destination that provides this metric on demand. Supplying a null Gauge removes the one for that destination.
+     */
+    void setMessagesOutPendingGauge(String destination, LongSupplier currentMessagesOutPendingGauge);
+
+    /**
+     * If the threading model can resize its thread pool, then it can optionally supply a Gauge instance that provides the current size on demand.
+     */
+    void setThreadPoolSizeGauge(LongSupplier currentThreadPoolSizeGauge);
+
+    /**
+     * If the threading model can resize its thread pool, then it can optionally supply a Gauge instance that provides its last decision on demand:
+     * 1 if it grew the pool, -1 if it shrank it and 0 if it left it alone.
+     */
+    void setThreadPoolResizeGauge(LongSupplier lastThreadPoolResizeGauge);
+
 }
@@ -22,12 +22,24 @@ public class DummyClusterStatsCollector implements ClusterStatsCollector {
     @Override
     public void messageDiscarded(final Object message) {}
 
+    @Override
+    public void messageExpired(final Object message) {}
+
     @Override
     public void messageProcessorCreated(final Object key) {}
 
     @Override
     public void messageProcessorDeleted(final Object key) {}
 
+    @Override
+    public void messageProcessorForcedPassivation(final Object key) {}
+
+    @Override
+    public void messageBatchDelivered(final int batchSize) {}
+
+    @Override
+    public void messageStageLatency(final MessageStage stage, final long nanos) {}
+
     @Override
     public void stop() {}
 
@@ -30,6 +30,15 @@ public class DummyNodeStatsCollector implements NodeStatsCollector {
     @Override
     public void setMessagesOutPendingGauge(final LongSupplier currentMessagesOutPendingGauge) {}
 
+    @Override
+    public void setMessagesOutPendingGauge(final String destination, final LongSupplier currentMessagesOutPendingGauge) {}
+
+    @Override
+    public void setThreadPoolSizeGauge(final LongSupplier currentThreadPoolSizeGauge) {}
+
+    @Override
+    public void setThreadPoolResizeGauge(final LongSupplier lastThreadPoolResizeGauge) {}
+
     @Override
     public void stop() {}
 
@@ -34,4 +34,29 @@ public interface OutputInvoker {
      */
     public void invokeOutput();
 
+    /**
+     * <p>
+     * Invoke the @Output methods of the slice of the MPs given by {@code slice}. Each MP is
+     * assigned a stable slice from 0 to numSlices - 1 based on the hash of its key. A scheduler
+     * that calls this with every slice in order, once per period, will invoke each MP's output
+     * once per period while spreading the load across the period.
+     * </p>
+     *
+     * <p>
+     * The default implementation invokes all of the MPs on slice 0 and nothing on the others.
+     * </p>
+     */
+    public default void invokeOutput(final int slice, final int numSlices) {
+        if(slice == 0)
+            invokeOutput();
+    }
+
+    /**
+     * The slice, from 0 to numSlices - 1, that the MP with the given key belongs to.
+     */
+    public static int outputSlice(final Object key, final int numSlices) {
+        final int h = key.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), numSlices);
+    }
+
 }
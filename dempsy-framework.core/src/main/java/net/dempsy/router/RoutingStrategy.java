@@ -172,4 +172,26 @@ public interface RoutingStrategy {
          */
         public default void typeId(final String typeId) {}
     }
+
+    /**
+     * An {@link Inbound} strategy that divides the keyspace into a fixed number of shards. This lets
+     * the container keep track of its Mps by shard so that when shards are released it only needs
+     * to look at the Mps in those shards.
+     */
+    public static interface ShardedInbound extends Inbound {
+        /**
+         * The total number of shards the keyspace is divided into or zero if that's not known yet.
+         * {@link #determineShard(Object)} and {@link #doesShardBelongToNode(int)} won't be called
+         * until this is greater than zero.
+         */
+        public int getTotalShards();
+
+        /**
+         * The shard the given message key falls in. This must be consistent with
+         * {@link #doesMessageKeyBelongToNode(Object)}.
+         */
+        public int determineShard(Object messageKey);
+
+        public boolean doesShardBelongToNode(int shard);
+    }
 }
@@ -0,0 +1,44 @@
+package net.dempsy.threading;
+
+import net.dempsy.container.ContainerJob;
+import net.dempsy.container.ContainerJobMetadata;
+
+/**
+ * The main goal of this class is to represent the individuated instance
+ * that may is on the queue to a single container. This is in contrast
+ * to the MessageDeliveryJobHolder which is the ONE instance that represents
+ * all of the individuated jobs on the individual container queues or potentially
+ * waiting to be put on those queues.
+ */
+class ContainerJobHolder {
+    private final ContainerJob job;
+    private final MessageDeliveryJobHolder wholeJob;
+
+    public ContainerJobHolder(final ContainerJob job, final MessageDeliveryJobHolder jobHolder) {
+        this.job = job;
+        this.wholeJob = jobHolder;
+        wholeJob.preEnqueuedTrackContainerJob();
+    }
+
+    public void process(final ContainerJobMetadata jobData) {
+        wholeJob.preWorkTrackContainerJob();
+        try {
+            job.execute(jobData);
+        } finally {
+            wholeJob.postWorkTrackContainerJob();
+        }
+    }
+
+    public void reject(final ContainerJobMetadata jobData) {
+        wholeJob.preWorkTrackContainerJob();
+        try {
+            job.reject(jobData);
+        } finally {
+            wholeJob.postWorkTrackContainerJob();
+        }
+    }
+
+    public boolean isLimited() {
+        return wholeJob.limited;
+    }
+}
@@ -4,8 +4,16 @@ import static net.dempsy.config.ConfigLogger.logConfig;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 
 import org.slf4j.Logger;
@@ -39,7 +47,34 @@ public class DefaultThreadingModel implements ThreadingModel {
     public static final String CONFIG_KEY_BLOCKING = "blocking";
     public static final String DEFAULT_BLOCKING = "false";
 
-    private SimpleExecutor executor = null;
+    /**
+     * Grow and shrink the pool while running. See {@link #setAdaptive(boolean)}.
+     */
+    public static final String CONFIG_KEY_ADAPTIVE = "adaptive";
+    public static final String DEFAULT_ADAPTIVE = "false";
+
+    /**
+     * The bounds on the size of an adaptive pool. Less than 1 means the bound is derived from the
+     * starting size of the pool (see {@link #setAdaptive(boolean)}).
+     */
+    public static final String CONFIG_KEY_ADAPTIVE_MIN_THREADS = "adaptive_min_threads";
+    public static final String DEFAULT_ADAPTIVE_MIN_THREADS = "-1";
+    public static final String CONFIG_KEY_ADAPTIVE_MAX_THREADS = "adaptive_max_threads";
+    public static final String DEFAULT_ADAPTIVE_MAX_THREADS = "-1";
+
+    /**
+     * How often an adaptive pool reconsiders its size.
+     */
+    public static final String CONFIG_KEY_ADAPTIVE_INTERVAL_MILLIS = "adaptive_interval_millis";
+    public static final String DEFAULT_ADAPTIVE_INTERVAL_MILLIS = "1000";
+
+    /**
+     * An adaptive pool grows while the average time jobs wait on the queue is longer than this.
+     */
+    public static final String CONFIG_KEY_ADAPTIVE_TARGET_WAIT_MICROS = "adaptive_target_wait_micros";
+    public static final String DEFAULT_ADAPTIVE_TARGET_WAIT_MICROS = "1000";
+
+    private JobExecutor executor = null;
     // private LinkedBlockingDeque<Runnable> priorityQueue = null;
 
     private final AtomicLong numLimited = new AtomicLong(0);
@@ -55,6 +90,15 @@ public class DefaultThreadingModel implements ThreadingModel {
     private boolean blocking = Boolean.parseBoolean(DEFAULT_BLOCKING);
     private SubmitLimited submitter = null;
 
+    private boolean adaptive = Boolean.parseBoolean(DEFAULT_ADAPTIVE);
+    private int adaptiveMinThreads = Integer.parseInt(DEFAULT_ADAPTIVE_MIN_THREADS);
+    private int adaptiveMaxThreads = Integer.parseInt(DEFAULT_ADAPTIVE_MAX_THREADS);
+    private long adaptiveIntervalMillis = Long.parseLong(DEFAULT_ADAPTIVE_INTERVAL_MILLIS);
+    private long adaptiveTargetWaitMicros = Long.parseLong(DEFAULT_ADAPTIVE_TARGET_WAIT_MICROS);
+    private PoolStats poolStats = null;
+    private PoolSizeController poolSizeController = null;
+    private ScheduledExecutorService poolSizeAdjuster = null;
+
     private final AtomicLong threadNum = new AtomicLong(0L);
     private final static AtomicLong poolNum = new AtomicLong(0L);
 
@@ -63,7 +107,7 @@ public class DefaultThreadingModel implements ThreadingModel {
 
     private final Runnable occLogger = OccasionalRunnable.staticOccasionalRunnable(LOG_QUEUE_LEN_MESSAGE_COUNT,
         () -> LOGGER.debug("Total messages pending on " + DefaultThreadingModel.class.getSimpleName() + ": {}",
-            executor.getQueue().size()));
+            executor.getQueueSize()));
 
     public DefaultThreadingModel(final String threadNameBase) {
         this(threadNameBase, -1, Integer.parseInt(DEFAULT_MAX_PENDING));
@@ -133,6 +177,59 @@ public class DefaultThreadingModel implements ThreadingModel {
         return this;
     }
 
+    /**
+     * <p>
+     * An adaptive pool starts at the size it would otherwise be fixed at and, every adaptive interval, grows or
+     * shrinks by a thread based on how long jobs waited on the queue and how busy the workers were over the
+     * interval (see {@link PoolSizeController}). This suits message processors that move between being CPU bound
+     * and IO bound where any fixed size is either oversubscribed or idle some of the time.
+     * </p>
+     *
+     * <p>
+     * Unless set, the pool shrinks to no fewer than the number of cores and grows to no more than 4 times its starting size.
+     * </p>
+     */
+    public DefaultThreadingModel setAdaptive(final boolean adaptive) {
+        this.adaptive = adaptive;
+        return this;
+    }
+
+    public DefaultThreadingModel setAdaptiveBounds(final int minThreads, final int maxThreads) {
+        this.adaptiveMinThreads = minThreads;
+        this.adaptiveMaxThreads = maxThreads;
+        return this;
+    }
+
+    public DefaultThreadingModel setAdaptiveIntervalMillis(final long adaptiveIntervalMillis) {
+        this.adaptiveIntervalMillis = adaptiveIntervalMillis;
+        return this;
+    }
+
+    public DefaultThreadingModel setAdaptiveTargetWaitMicros(final long adaptiveTargetWaitMicros) {
+        this.adaptiveTargetWaitMicros = adaptiveTargetWaitMicros;
+        return this;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * The current number of threads in the pool.
+     */
+    public int getThreadPoolSize() {
+        final JobExecutor e = executor;
+        return e == null ? threadPoolSize : e.getPoolSize();
+    }
+
+    /**
+     * The last decision made by an adaptive pool: 1 if it grew, -1 if it shrank and 0 if it stayed the same size.
+     */
+    public int getLastPoolSizeDecision() {
+        final PoolSizeController c = poolSizeController;
+        return c == null ? 0 : c.getLastMove();
+    }
+
     @Override
     public synchronized DefaultThreadingModel start(final String nodeid) {
         logConfig(LOGGER, "Threading Model {} for node: {}", DefaultThreadingModel.class.getName(), nodeid);
@@ -141,6 +238,13 @@ public class DefaultThreadingModel implements ThreadingModel {
         logConfig(LOGGER, configKey(CONFIG_KEY_MAX_PENDING), getMaxNumberOfQueuedLimitedTasks(), DEFAULT_MAX_PENDING);
         logConfig(LOGGER, configKey(CONFIG_KEY_HARD_SHUTDOWN), hardShutdown, DEFAULT_HARD_SHUTDOWN);
         logConfig(LOGGER, configKey(CONFIG_KEY_BLOCKING), blocking, DEFAULT_BLOCKING);
+        logConfig(LOGGER, configKey(CONFIG_KEY_ADAPTIVE), adaptive, DEFAULT_ADAPTIVE);
+        if(adaptive) {
+            logConfig(LOGGER, configKey(CONFIG_KEY_ADAPTIVE_MIN_THREADS), adaptiveMinThreads, DEFAULT_ADAPTIVE_MIN_THREADS);
+            logConfig(LOGGER, configKey(CONFIG_KEY_ADAPTIVE_MAX_THREADS), adaptiveMaxThreads, DEFAULT_ADAPTIVE_MAX_THREADS);
+            logConfig(LOGGER, configKey(CONFIG_KEY_ADAPTIVE_INTERVAL_MILLIS), adaptiveIntervalMillis, DEFAULT_ADAPTIVE_INTERVAL_MILLIS);
+            logConfig(LOGGER, configKey(CONFIG_KEY_ADAPTIVE_TARGET_WAIT_MICROS), adaptiveTargetWaitMicros, DEFAULT_ADAPTIVE_TARGET_WAIT_MICROS);
+        }
 
         if(threadPoolSize == -1) {
             // figure out the number of cores.
@@ -162,21 +266,40 @@ public class DefaultThreadingModel implements ThreadingModel {
         //
         // };
         // executor = new ThreadPoolExecutor(threadPoolSize, threadPoolSize, 0L, TimeUnit.MILLISECONDS, priorityQueue, r -> new Thread(r, nameSupplier.get()));
-        executor = new SimpleExecutor(threadPoolSize, r -> new Thread(r, nameSupplier.get()));
+        if(adaptive) {
+            final int minThreads = adaptiveMinThreads > 0 ? adaptiveMinThreads
+                : Math.min(threadPoolSize, Runtime.getRuntime().availableProcessors());
+            final int maxThreads = adaptiveMaxThreads > 0 ? adaptiveMaxThreads : Math.max(minThreads, threadPoolSize * 4);
+            poolSizeController = new PoolSizeController(minThreads, maxThreads, TimeUnit.MICROSECONDS.toNanos(adaptiveTargetWaitMicros));
+            poolStats = new PoolStats();
+
+            final ResizableExecutor resizable = new ResizableExecutor(Math.max(minThreads, Math.min(maxThreads, threadPoolSize)),
+                r -> new Thread(r, nameSupplier.get()));
+            executor = resizable;
+
+            poolSizeAdjuster = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread t = new Thread(r, nameSupplier.get() + "-adaptive");
+                t.setDaemon(true);
+                return t;
+            });
+            poolSizeAdjuster.scheduleWithFixedDelay(() -> adjustPoolSize(resizable), adaptiveIntervalMillis, adaptiveIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        } else
+            executor = new FixedExecutor(new SimpleExecutor(threadPoolSize, r -> new Thread(r, nameSupplier.get())), threadPoolSize);
 
         if(blocking) {
             if(maxNumWaitingLimitedTasks > 0) // maxNumWaitingLimitedTasks <= 0 means unlimited
-                submitter = new BlockingLimited(numLimited, executor, maxNumWaitingLimitedTasks, stopping);
+                submitter = new BlockingLimited(numLimited, executor, maxNumWaitingLimitedTasks, stopping, poolStats);
             else {
                 LOGGER.warn("You cannot configure \"" + CONFIG_KEY_BLOCKING + "\" and set \"" + CONFIG_KEY_MAX_PENDING
                     + "\" to unbounded at the same time. The queue will be unbounded.");
-                submitter = new NonBlockingUnlimited(executor, stopping);
+                submitter = new NonBlockingUnlimited(executor, stopping, poolStats);
             }
         } else {
             if(maxNumWaitingLimitedTasks > 0) // maxNumWaitingLimitedTasks <= 0 means unlimited
-                submitter = new NonBlockingLimited(numLimited, executor, maxNumWaitingLimitedTasks, stopping);
+                submitter = new NonBlockingLimited(numLimited, executor, maxNumWaitingLimitedTasks, stopping, poolStats);
             else
-                submitter = new NonBlockingUnlimited(executor, stopping);
+                submitter = new NonBlockingUnlimited(executor, stopping, poolStats);
         }
 
         started = true;
@@ -194,9 +317,16 @@ public class DefaultThreadingModel implements ThreadingModel {
         setCoresFactor(Double.parseDouble(getConfigValue(configuration, CONFIG_KEY_CORES_FACTOR, DEFAULT_CORES_FACTOR)));
         setAdditionalThreads(Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_ADDITIONAL_THREADS, DEFAULT_ADDITIONAL_THREADS)));
         setBlocking(Boolean.parseBoolean(getConfigValue(configuration, CONFIG_KEY_BLOCKING, DEFAULT_BLOCKING)));
+        setAdaptive(Boolean.parseBoolean(getConfigValue(configuration, CONFIG_KEY_ADAPTIVE, DEFAULT_ADAPTIVE)));
+        setAdaptiveBounds(Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_ADAPTIVE_MIN_THREADS, DEFAULT_ADAPTIVE_MIN_THREADS)),
+            Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_ADAPTIVE_MAX_THREADS, DEFAULT_ADAPTIVE_MAX_THREADS)));
+        setAdaptiveIntervalMillis(Long.parseLong(getConfigValue(configuration, CONFIG_KEY_ADAPTIVE_INTERVAL_MILLIS, DEFAULT_ADAPTIVE_INTERVAL_MILLIS)));
+        setAdaptiveTargetWaitMicros(
+            Long.parseLong(getConfigValue(configuration, CONFIG_KEY_ADAPTIVE_TARGET_WAIT_MICROS, DEFAULT_ADAPTIVE_TARGET_WAIT_MICROS)));
         return this;
     }
 
+    @Override
     public int getMaxNumberOfQueuedLimitedTasks() {
         return (int)maxNumWaitingLimitedTasks;
     }
@@ -211,6 +341,8 @@ public class DefaultThreadingModel implements ThreadingModel {
         synchronized(this) {
             stopping.set(true);
         }
+        if(poolSizeAdjuster != null)
+            poolSizeAdjuster.shutdownNow();
         if(hardShutdown) {
             if(executor != null) {
                 submitter.skipping(executor.shutdownNow());
@@ -228,7 +360,7 @@ public class DefaultThreadingModel implements ThreadingModel {
 
     @Override
     public void submit(final MessageDeliveryJob r) {
-        final var rejectable = new DefaultRejectable(r, stopping);
+        final var rejectable = new DefaultRejectable(r, stopping, poolStats);
         if(!executor.submit(rejectable)) {
             LOGGER.warn("Regular job submission failed!");
             rejectable.reject();
@@ -237,7 +369,7 @@ public class DefaultThreadingModel implements ThreadingModel {
 
     @Override
     public void submitPrioity(final MessageDeliveryJob r) {
-        final var rejectable = new DefaultRejectable(r, stopping);
+        final var rejectable = new DefaultRejectable(r, stopping, poolStats);
         if(!executor.submitFirst(rejectable)) {
             LOGGER.warn("Priority job submission failed!");
             rejectable.reject();
@@ -251,6 +383,27 @@ public class DefaultThreadingModel implements ThreadingModel {
         submitter.submitLimited(r);
     }
 
+    private void adjustPoolSize(final ResizableExecutor resizable) {
+        try {
+            final long now = System.nanoTime();
+            final long interval = now - poolStats.lastSample;
+            poolStats.lastSample = now;
+            if(interval <= 0)
+                return;
+
+            final int size = resizable.getPoolSize();
+            final int newSize = poolSizeController.decide(size, interval, poolStats.completed.sumThenReset(), poolStats.waitNanos.sumThenReset(),
+                poolStats.busyNanos.sumThenReset(), resizable.getQueueSize());
+            if(newSize != size) {
+                LOGGER.debug("Resizing the thread pool from {} to {}", size, newSize);
+                resizable.resize(newSize);
+            }
+        } catch(final RuntimeException rte) {
+            // an exception would cancel the scheduled adjustments.
+            LOGGER.warn("Failed to adjust the size of the thread pool", rte);
+        }
+    }
+
     private static void doCall(final MessageDeliveryJob r) {
         if(!r.containersCalculated())
             r.calculateContainers();
@@ -261,17 +414,59 @@ public class DefaultThreadingModel implements ThreadingModel {
         public void reject();
     }
 
-    private static class DefaultRejectable implements Rejectable {
+    /**
+     * What an adaptive pool measures over each interval. These are only kept when the pool is adaptive.
+     */
+    private static class PoolStats {
+        final LongAdder completed = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        final LongAdder busyNanos = new LongAdder();
+        long lastSample = System.nanoTime(); // only touched by the thread adjusting the pool
+    }
+
+    /**
+     * Times how long the job waited on the queue and how long it took to run when the pool is adaptive.
+     */
+    private static abstract class MeasuredRejectable implements Rejectable {
+        final PoolStats stats;
+        final long enqueued;
+
+        MeasuredRejectable(final PoolStats stats) {
+            this.stats = stats;
+            this.enqueued = stats == null ? 0L : System.nanoTime();
+        }
+
+        @Override
+        public final void run() {
+            if(stats == null)
+                doRun();
+            else {
+                final long start = System.nanoTime();
+                stats.waitNanos.add(start - enqueued);
+                try {
+                    doRun();
+                } finally {
+                    stats.busyNanos.add(System.nanoTime() - start);
+                    stats.completed.increment();
+                }
+            }
+        }
+
+        protected abstract void doRun();
+    }
+
+    private static class DefaultRejectable extends MeasuredRejectable {
         final MessageDeliveryJob r;
         final AtomicBoolean stopping;
 
-        public DefaultRejectable(final MessageDeliveryJob r, final AtomicBoolean stopping) {
+        public DefaultRejectable(final MessageDeliveryJob r, final AtomicBoolean stopping, final PoolStats stats) {
+            super(stats);
             this.r = r;
             this.stopping = stopping;
         }
 
         @Override
-        public void run() {
+        protected void doRun() {
             doCall(r);
         }
 
@@ -281,14 +476,15 @@ public class DefaultThreadingModel implements ThreadingModel {
         }
     }
 
-    private static class NonBlockingRejectable implements Rejectable {
+    private static class NonBlockingRejectable extends MeasuredRejectable {
         final MessageDeliveryJob r;
         final AtomicLong numLimited;
         final AtomicBoolean stopping;
         final long maxNumWaitingLimitedTasks;
 
         public NonBlockingRejectable(final MessageDeliveryJob r, final AtomicLong numLimited, final AtomicBoolean stopping,
-            final long maxNumWaitingLimitedTasks) {
+            final long maxNumWaitingLimitedTasks, final PoolStats stats) {
+            super(stats);
             this.r = r;
             this.numLimited = numLimited;
             this.stopping = stopping;
@@ -296,7 +492,7 @@ public class DefaultThreadingModel implements ThreadingModel {
         }
 
         @Override
-        public void run() {
+        protected void doRun() {
             final long num = numLimited.decrementAndGet();
             if(num <= maxNumWaitingLimitedTasks)
                 doCall(r);
@@ -317,17 +513,20 @@ public class DefaultThreadingModel implements ThreadingModel {
 
     private static class NonBlockingLimited implements SubmitLimited {
         private final AtomicLong numLimited;
-        private final SimpleExecutor executor;
+        private final JobExecutor executor;
         private final long maxNumWaitingLimitedTasks;
         private final long twiceMaxNumWaitingLimitedTasks;
         private final AtomicBoolean stopping;;
+        private final PoolStats stats;
 
-        NonBlockingLimited(final AtomicLong numLimited, final SimpleExecutor executor, final long maxNumWaitingLimitedTasks, final AtomicBoolean stopping) {
+        NonBlockingLimited(final AtomicLong numLimited, final JobExecutor executor, final long maxNumWaitingLimitedTasks, final AtomicBoolean stopping,
+            final PoolStats stats) {
             this.numLimited = numLimited;
             this.executor = executor;
             this.maxNumWaitingLimitedTasks = maxNumWaitingLimitedTasks;
             this.twiceMaxNumWaitingLimitedTasks = 2 * maxNumWaitingLimitedTasks;
             this.stopping = stopping;
+            this.stats = stats;
         }
 
         @Override
@@ -336,13 +535,13 @@ public class DefaultThreadingModel implements ThreadingModel {
 
             if(curCount > twiceMaxNumWaitingLimitedTasks) {
                 LOGGER.warn("We're at twice the number of acceptable pending messages {}(:{}). The system appears to be thread starved. Rejecting new message.",
-                    curCount, executor.getQueue().size());
+                    curCount, executor.getQueueSize());
                 numLimited.decrementAndGet();
                 r.rejected(stopping.get());
             } else {
                 final boolean submitOk;
                 try {
-                    submitOk = executor.submit(new NonBlockingRejectable(r, numLimited, stopping, maxNumWaitingLimitedTasks));
+                    submitOk = executor.submit(new NonBlockingRejectable(r, numLimited, stopping, maxNumWaitingLimitedTasks, stats));
                 } catch(final RuntimeException rte) {
                     LOGGER.warn("Limited job submission failed!", rte);
                     numLimited.decrementAndGet();
@@ -368,19 +567,20 @@ public class DefaultThreadingModel implements ThreadingModel {
         }
     }
 
-    private static class BlockingRejectable implements Rejectable {
+    private static class BlockingRejectable extends MeasuredRejectable {
         final MessageDeliveryJob r;
         final AtomicLong numLimited;
         final AtomicBoolean stopping;
 
-        public BlockingRejectable(final MessageDeliveryJob r, final AtomicLong numLimited, final AtomicBoolean stopping) {
+        public BlockingRejectable(final MessageDeliveryJob r, final AtomicLong numLimited, final AtomicBoolean stopping, final PoolStats stats) {
+            super(stats);
             this.r = r;
             this.numLimited = numLimited;
             this.stopping = stopping;
         }
 
         @Override
-        public void run() {
+        protected void doRun() {
             numLimited.decrementAndGet();
             doCall(r);
         }
@@ -399,15 +599,18 @@ public class DefaultThreadingModel implements ThreadingModel {
 
     private static class BlockingLimited implements SubmitLimited {
         private final AtomicLong numLimited;
-        private final SimpleExecutor executor;
+        private final JobExecutor executor;
         private final long maxNumWaitingLimitedTasks;
         private final AtomicBoolean stopping;;
+        private final PoolStats stats;
 
-        BlockingLimited(final AtomicLong numLimited, final SimpleExecutor executor, final long maxNumWaitingLimitedTasks, final AtomicBoolean stopping) {
+        BlockingLimited(final AtomicLong numLimited, final JobExecutor executor, final long maxNumWaitingLimitedTasks, final AtomicBoolean stopping,
+            final PoolStats stats) {
             this.numLimited = numLimited;
             this.executor = executor;
             this.maxNumWaitingLimitedTasks = maxNumWaitingLimitedTasks;
             this.stopping = stopping;
+            this.stats = stats;
         }
 
         @Override
@@ -431,7 +634,7 @@ public class DefaultThreadingModel implements ThreadingModel {
                 }
             }
 
-            if(!executor.submit(new BlockingRejectable(r, numLimited, stopping))) {
+            if(!executor.submit(new BlockingRejectable(r, numLimited, stopping, stats))) {
                 numLimited.decrementAndGet();
                 LOGGER.warn("Limited job submission failed!");
                 r.rejected(stopping.get());
@@ -440,17 +643,19 @@ public class DefaultThreadingModel implements ThreadingModel {
     }
 
     private static class NonBlockingUnlimited implements SubmitLimited {
-        private final SimpleExecutor executor;
+        private final JobExecutor executor;
         private final AtomicBoolean stopping;
+        private final PoolStats stats;
 
-        NonBlockingUnlimited(final SimpleExecutor executor, final AtomicBoolean stopping) {
+        NonBlockingUnlimited(final JobExecutor executor, final AtomicBoolean stopping, final PoolStats stats) {
             this.executor = executor;
             this.stopping = stopping;
+            this.stats = stats;
         }
 
         @Override
         public void submitLimited(final MessageDeliveryJob r) {
-            final var rejectable = new DefaultRejectable(r, stopping);
+            final var rejectable = new DefaultRejectable(r, stopping, stats);
             if(!executor.submit(rejectable)) {
                 LOGGER.warn("Limited job submission failed!");
                 rejectable.reject();
@@ -467,4 +672,121 @@ public class DefaultThreadingModel implements ThreadingModel {
                 .forEach(r -> r.reject());
         }
     }
+
+    private static interface JobExecutor {
+        public boolean submit(Runnable r);
+
+        public boolean submitFirst(Runnable r);
+
+        public int getQueueSize();
+
+        public int getPoolSize();
+
+        public void shutdown();
+
+        public List<Runnable> shutdownNow();
+    }
+
+    private static class FixedExecutor implements JobExecutor {
+        private final SimpleExecutor executor;
+        private final int poolSize;
+
+        FixedExecutor(final SimpleExecutor executor, final int poolSize) {
+            this.executor = executor;
+            this.poolSize = poolSize;
+        }
+
+        @Override
+        public boolean submit(final Runnable r) {
+            return executor.submit(r);
+        }
+
+        @Override
+        public boolean submitFirst(final Runnable r) {
+            return executor.submitFirst(r);
+        }
+
+        @Override
+        public int getQueueSize() {
+            return executor.getQueue().size();
+        }
+
+        @Override
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        @Override
+        public void shutdown() {
+            executor.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return executor.shutdownNow();
+        }
+    }
+
+    /**
+     * All of the threads are core threads so they're all started up front and, since none are ever idle
+     * for long enough to time out, jobs put directly on the front of the queue will be picked up.
+     */
+    private static class ResizableExecutor implements JobExecutor {
+        private final LinkedBlockingDeque<Runnable> queue = new LinkedBlockingDeque<>();
+        private final ThreadPoolExecutor executor;
+
+        ResizableExecutor(final int poolSize, final ThreadFactory threadFactory) {
+            executor = new ThreadPoolExecutor(poolSize, poolSize, 1L, TimeUnit.SECONDS, queue, threadFactory);
+            executor.prestartAllCoreThreads();
+        }
+
+        @Override
+        public boolean submit(final Runnable r) {
+            try {
+                executor.execute(r);
+                return true;
+            } catch(final RejectedExecutionException ree) {
+                return false;
+            }
+        }
+
+        @Override
+        public boolean submitFirst(final Runnable r) {
+            if(executor.isShutdown())
+                return false;
+            return queue.offerFirst(r);
+        }
+
+        @Override
+        public int getQueueSize() {
+            return queue.size();
+        }
+
+        @Override
+        public int getPoolSize() {
+            return executor.getCorePoolSize();
+        }
+
+        public synchronized void resize(final int newSize) {
+            // the core size can never be above the max
+            if(newSize > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(newSize);
+                executor.setCorePoolSize(newSize);
+            } else {
+                executor.setCorePoolSize(newSize);
+                executor.setMaximumPoolSize(newSize);
+            }
+            executor.prestartAllCoreThreads();
+        }
+
+        @Override
+        public void shutdown() {
+            executor.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return executor.shutdownNow();
+        }
+    }
 }
@@ -0,0 +1,88 @@
+package net.dempsy.threading;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.dempsy.container.MessageDeliveryJob;
+
+/**
+ * The main goal of this class is to represent the ONE instance
+ * that may be put on multiple container specific queues. The
+ * ContainerJobHolder is the instance that represents the
+ * "individuated" job on the queue to a single container.
+ */
+class MessageDeliveryJobHolder {
+    final MessageDeliveryJob job;
+    final boolean limited;
+    private final AtomicLong numLimited;
+
+    // This is used to track the individuated jobs and decrement
+    // the numLimited when the last one comes off the queue to be
+    // processed or rejected by the container.
+    private final AtomicLong numOfMeEnqueued = new AtomicLong(0L);
+
+    // *******************************************************************
+    // this tracks the number of times THIS JOB is either in the queue for
+    // a specific container OR is being worked by a container. The main goal
+    // of this is to track "individulated" jobs and call individuatedJobsComplete
+    // once all of the containers this message was destined for have been handled
+    // by the containers.
+    private final AtomicLong unfinishedContainerJobs = new AtomicLong(0);
+    // *******************************************************************
+
+    private final AtomicBoolean stopping;
+
+    public MessageDeliveryJobHolder(final MessageDeliveryJob job, final boolean limited, final AtomicLong numLimited, final AtomicBoolean stopping) {
+        this.job = job;
+        this.limited = limited;
+        this.numLimited = numLimited;
+        this.stopping = stopping;
+    }
+
+    public final void reject() {
+        job.rejected(stopping.get());
+    }
+
+    /**
+     * Reject the entire job before it's been individuated. This goes through the same
+     * bookkeeping an individuated job would so the limited count and the
+     * individuatedJobsComplete callback are handled the same way.
+     */
+    public final void vent() {
+        preEnqueuedTrackContainerJob();
+        preWorkTrackContainerJob();
+        reject();
+        postWorkTrackContainerJob();
+    }
+
+    public final boolean areContainersCalculated() {
+        return job.containersCalculated();
+    }
+
+    public final void calculateContainers() {
+        job.calculateContainers();
+    }
+
+    /**
+     * This is called as the job is being placed on the queue
+     * to the container.
+     */
+    public final void preEnqueuedTrackContainerJob() {
+        numOfMeEnqueued.incrementAndGet();
+        unfinishedContainerJobs.incrementAndGet();
+    }
+
+    public final void preWorkTrackContainerJob() {
+        if(numOfMeEnqueued.decrementAndGet() == 0) {
+            if(limited)
+                numLimited.decrementAndGet();
+        }
+    }
+
+    public final void postWorkTrackContainerJob() {
+        if(unfinishedContainerJobs.decrementAndGet() == 0) {
+            // everything with this message is done. decrement any resources.
+            job.individuatedJobsComplete();
+        }
+    }
+}
@@ -39,15 +39,19 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
     // zero, we'll log a message to the logger (as long as the log level is set appropriately).
     private static final long LOG_QUEUE_LEN_MESSAGE_COUNT = (1024 * 4);
 
-    private static final int INTERIM_SPIN_COUNT1 = 100;
-    private static final int INTERIM_SPIN_COUNT2 = 500;
-
     public static final String CONFIG_KEY_MAX_PENDING = "max_pending";
     public static final String DEFAULT_MAX_PENDING = "100000";
 
     public static final String CONFIG_KEY_DESERIALIZATION_THREADS = "deserialization_threads";
     public static final String DEFAULT_DESERIALIZATION_THREADS = "2";
 
+    /**
+     * How the shuttle thread and the container threads wait when they have nothing to do.
+     * See {@link WaitStrategy#fromName(String)}.
+     */
+    public static final String CONFIG_KEY_WAIT_STRATEGY = "wait_strategy";
+    public static final String DEFAULT_WAIT_STRATEGY = WaitStrategy.BACKOFF_PARK;
+
     private static final AtomicLong seq = new AtomicLong(0);
 
     private ExecutorService calcContainersWork = null;
@@ -62,6 +66,8 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
     public final boolean wereLimiting;
 
     private int deserializationThreadCount = Integer.parseInt(DEFAULT_DESERIALIZATION_THREADS);
+    private String waitStrategyName = DEFAULT_WAIT_STRATEGY;
+    private WaitStrategy waitStrategy = WaitStrategy.fromName(DEFAULT_WAIT_STRATEGY);
 
     private final Supplier<String> nameSupplier;
 
@@ -100,121 +106,17 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
         return this;
     }
 
+    public OrderedPerContainerThreadingModel setWaitStrategy(final String waitStrategyName) {
+        this.waitStrategy = WaitStrategy.fromName(waitStrategyName);
+        this.waitStrategyName = waitStrategyName;
+        return this;
+    }
+
     @Override
     public synchronized boolean isStarted() {
         return started;
     }
 
-    /**
-     * The main goal of this class is to represent the individuated instance
-     * that may is on the queue to a single container. This is in contrast
-     * to the MessageDeliveryJobHolder which is the ONE instance that represents
-     * all of the individuated jobs on the individual container queues or potentially
-     * waiting to be put on those queues.
-     */
-    private static class ContainerJobHolder {
-        private final ContainerJob job;
-        private final MessageDeliveryJobHolder wholeJob;
-
-        public ContainerJobHolder(final ContainerJob job, final MessageDeliveryJobHolder jobHolder) {
-            this.job = job;
-            this.wholeJob = jobHolder;
-            wholeJob.preEnqueuedTrackContainerJob();
-        }
-
-        public void process(final ContainerJobMetadata jobData) {
-            wholeJob.preWorkTrackContainerJob();
-            try {
-                job.execute(jobData);
-            } finally {
-                wholeJob.postWorkTrackContainerJob();
-            }
-        }
-
-        public void reject(final ContainerJobMetadata jobData) {
-            wholeJob.preWorkTrackContainerJob();
-            try {
-                job.reject(jobData);
-            } finally {
-                wholeJob.postWorkTrackContainerJob();
-            }
-        }
-
-        public boolean isLimited() {
-            return wholeJob.limited;
-        }
-    }
-
-    /**
-     * The main goal of this class is to represent the ONE instance
-     * that may be put on multiple container specific queues. The
-     * ContainerJobHolder is the instance that represents the
-     * "individuated" job on the queue to a single container.
-     */
-    private static class MessageDeliveryJobHolder {
-        private final MessageDeliveryJob job;
-        private final boolean limited;
-        private final AtomicLong numLimited;
-
-        // This is used to track the individuated jobs and decrement
-        // the numLimited when the last one comes off the queue to be
-        // processed or rejected by the container.
-        private final AtomicLong numOfMeEnqueued = new AtomicLong(0L);
-
-        // *******************************************************************
-        // this tracks the number of times THIS JOB is either in the queue for
-        // a specific container OR is being worked by a container. The main goal
-        // of this is to track "individulated" jobs and call individuatedJobsComplete
-        // once all of the containers this message was destined for have been handled
-        // by the containers.
-        private final AtomicLong unfinishedContainerJobs = new AtomicLong(0);
-        // *******************************************************************
-
-        private final AtomicBoolean stopping;
-
-        public MessageDeliveryJobHolder(final MessageDeliveryJob job, final boolean limited, final AtomicLong numLimited, final AtomicBoolean stopping) {
-            this.job = job;
-            this.limited = limited;
-            this.numLimited = numLimited;
-            this.stopping = stopping;
-        }
-
-        public final void reject() {
-            job.rejected(stopping.get());
-        }
-
-        public final boolean areContainersCalculated() {
-            return job.containersCalculated();
-        }
-
-        public final void calculateContainers() {
-            job.calculateContainers();
-        }
-
-        /**
-         * This is called as the job is being placed on the queue
-         * to the container.
-         */
-        public final void preEnqueuedTrackContainerJob() {
-            numOfMeEnqueued.incrementAndGet();
-            unfinishedContainerJobs.incrementAndGet();
-        }
-
-        public final void preWorkTrackContainerJob() {
-            if(numOfMeEnqueued.decrementAndGet() == 0) {
-                if(limited)
-                    numLimited.decrementAndGet();
-            }
-        }
-
-        public final void postWorkTrackContainerJob() {
-            if(unfinishedContainerJobs.decrementAndGet() == 0) {
-                // everything with this message is done. decrement any resources.
-                job.individuatedJobsComplete();
-            }
-        }
-    }
-
     /**
      * This object is the runnable for the thread that is the container's thread.
      * It has it's own queue which is specific to the container it's managing.
@@ -224,6 +126,7 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
         public final ContainerJobMetadata container;
         public final int maxPendingMessagesPerContainerX2;
         public final boolean shedMode;
+        private final Thread thread;
 
         public ContainerWorker(final ContainerJobMetadata container) {
             this.container = container;
@@ -244,7 +147,7 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
 
             this.queue = new LinkedBlockingDeque<>();
 
-            chain(
+            thread = chain(
                 // this used to use the nameSupplier but the name is too long in `htop`
                 // to understand what's going on so it's been switched to simple "c-"
                 // (for "container") and the name of the cluster.
@@ -273,12 +176,13 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
                 curJobHolder.reject(container);
                 LOGGER.trace("Failed to be queued to container {}. The queue has {} messages in it",
                     container.container.getClusterId(), queue.size());
-            }
+            } else
+                waitStrategy.signal(thread);
         }
 
         @Override
         public void run() {
-            long tryCount = 0;
+            int tryCount = 0;
             while(!isStopped.get()) {
                 try {
                     final ContainerJobHolder job = queue.poll();
@@ -298,11 +202,9 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
                             job.process(container);
                     } else {
                         // spin down
-                        tryCount++;
-                        if(tryCount > INTERIM_SPIN_COUNT2)
-                            ignore(() -> Thread.sleep(1));
-                        else if(tryCount > INTERIM_SPIN_COUNT1)
-                            Thread.yield();
+                        if(tryCount < Integer.MAX_VALUE)
+                            tryCount++;
+                        waitStrategy.idle(tryCount);
                     }
                 } catch(final Throwable th) {
                     LOGGER.error("Completely unexpected exception:", th);
@@ -384,10 +286,7 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
                     // a limited task, we vent it.
                     if(message != null) {
                         if(message.limited && numLimited.get() > maxNumWaitingLimitedTasksX2) {
-                            message.preEnqueuedTrackContainerJob();
-                            message.preWorkTrackContainerJob();
-                            message.reject();
-                            message.postWorkTrackContainerJob();
+                            message.vent();
                         } else {
                             if(LOGGER.isDebugEnabled())
                                 occLogger.run();
@@ -404,7 +303,11 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
                                     message.reject();
                                 else
                                     calcContainersWork.submit(() -> {
-                                        message.calculateContainers();
+                                        try {
+                                            message.calculateContainers();
+                                        } finally {
+                                            waitStrategy.signal(shuttleThread);
+                                        }
                                     });
                             }
                         }
@@ -442,12 +345,9 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
 
                 // If we didn't do anything then spin the lock once.
                 if(!someWorkDone) {
-                    tryCount++;
-                    if(tryCount > INTERIM_SPIN_COUNT2)
-                        ignore(() -> Thread.sleep(1));
-                    else if(tryCount > INTERIM_SPIN_COUNT1) {
-                        Thread.yield();
-                    }
+                    if(tryCount < Integer.MAX_VALUE)
+                        tryCount++;
+                    waitStrategy.idle(tryCount);
                 }
             }
         }
@@ -458,6 +358,7 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
         logConfig(LOGGER, "Threading Model {} for node: {}", OrderedPerContainerThreadingModel.class.getSimpleName(), nodeid);
         logConfig(LOGGER, configKey(CONFIG_KEY_MAX_PENDING), getMaxNumberOfQueuedLimitedTasks(), DEFAULT_MAX_PENDING);
         logConfig(LOGGER, configKey(CONFIG_KEY_DESERIALIZATION_THREADS), deserializationThreadCount, DEFAULT_DESERIALIZATION_THREADS);
+        logConfig(LOGGER, configKey(CONFIG_KEY_WAIT_STRATEGY), waitStrategyName, DEFAULT_WAIT_STRATEGY);
 
         shuttleThread = chain(newThread(new Shuttler(), nameSupplier.get() + "-Shuttle"), t -> t.start());
         // This is the executor that is running the deserialization (usually done in calculateContainers)
@@ -472,9 +373,11 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
     public OrderedPerContainerThreadingModel configure(final Map<String, String> configuration) {
         setMaxNumberOfQueuedLimitedTasks(Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_MAX_PENDING, DEFAULT_MAX_PENDING)));
         setDeserializationThreadCount(Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_DESERIALIZATION_THREADS, DEFAULT_DESERIALIZATION_THREADS)));
+        setWaitStrategy(getConfigValue(configuration, CONFIG_KEY_WAIT_STRATEGY, DEFAULT_WAIT_STRATEGY));
         return this;
     }
 
+    @Override
     public int getMaxNumberOfQueuedLimitedTasks() {
         return (int)maxNumWaitingLimitedTasks;
     }
@@ -511,7 +414,9 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
     @Override
     public void submit(final MessageDeliveryJob job) {
         final MessageDeliveryJobHolder jobh = new MessageDeliveryJobHolder(job, false, numLimited, isStopped);
-        if(!inqueue.offer(jobh)) {
+        if(inqueue.offer(jobh))
+            waitStrategy.signal(shuttleThread);
+        else {
             jobh.reject();
             LOGGER.error("Failed to queue message destined for {}",
                 Optional.ofNullable(job.containerData())
@@ -528,7 +433,9 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
     @Override
     public void submitPrioity(final MessageDeliveryJob job) {
         final MessageDeliveryJobHolder jobh = new MessageDeliveryJobHolder(job, false, numLimited, isStopped);
-        if(!inqueue.offerFirst(jobh)) {
+        if(inqueue.offerFirst(jobh))
+            waitStrategy.signal(shuttleThread);
+        else {
             jobh.reject();
             LOGGER.error("Failed to queue message destined for {}",
                 Optional.ofNullable(job.containerData())
@@ -556,7 +463,9 @@ public class OrderedPerContainerThreadingModel implements ThreadingModel {
                         .map(cid -> cid.toString())
                         .collect(Collectors.toList()))
                     .orElse(List.of("null")));
-        } else
+        } else {
             numLimited.incrementAndGet();
+            waitStrategy.signal(shuttleThread);
+        }
     }
 }
@@ -0,0 +1,363 @@
+package net.dempsy.threading;
+
+import static net.dempsy.config.ConfigLogger.logConfig;
+import static net.dempsy.util.Functional.ignore;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.container.ContainerJob;
+import net.dempsy.container.ContainerJobMetadata;
+import net.dempsy.container.MessageDeliveryJob;
+
+/**
+ * <p>
+ * A {@link ThreadingModel} that keeps the messages for any one message processor in order without
+ * funneling everything through a single thread the way the {@link OrderedPerContainerThreadingModel}
+ * does. There are a fixed number of "lanes," each with its own thread and its own lock-free queue.
+ * Each message is delivered on the lane selected by hashing the container and the message key so
+ * every message for the same message processor is handled, in order, on the same lane while a single
+ * cluster can still use as many cores as there are lanes.
+ * </p>
+ *
+ * <p>
+ * Jobs that have already calculated their containers are placed directly on their lanes from the
+ * submitting thread. Jobs that still need to be deserialized are first queued to a lane selected
+ * by the submitting thread so that messages from the same source are deserialized, and then routed,
+ * in the order they arrived. An idle lane thread waits according to the configured {@link WaitStrategy} and is signaled
+ * by the next submitter.
+ * </p>
+ */
+public class OrderedPerKeyThreadingModel implements ThreadingModel {
+    private static Logger LOGGER = LoggerFactory.getLogger(OrderedPerKeyThreadingModel.class);
+
+    public static final String CONFIG_KEY_MAX_PENDING = "max_pending";
+    public static final String DEFAULT_MAX_PENDING = "100000";
+
+    public static final String CONFIG_KEY_LANES = "lanes";
+    public static final String DEFAULT_LANES = "-1"; // means the number of available processors
+
+    /**
+     * How an idle lane waits for work. See {@link WaitStrategy#fromName(String)}.
+     */
+    public static final String CONFIG_KEY_WAIT_STRATEGY = "wait_strategy";
+    public static final String DEFAULT_WAIT_STRATEGY = WaitStrategy.BACKOFF_PARK;
+
+    private final AtomicBoolean isStopped = new AtomicBoolean(false);
+
+    private final AtomicLong numLimited = new AtomicLong(0);
+    private long maxNumWaitingLimitedTasks;
+    private long maxNumWaitingLimitedTasksX2;
+
+    private int numLanes = Integer.parseInt(DEFAULT_LANES);
+    private Lane[] lanes = null;
+
+    private String waitStrategyName = DEFAULT_WAIT_STRATEGY;
+    private WaitStrategy waitStrategy = WaitStrategy.fromName(DEFAULT_WAIT_STRATEGY);
+
+    private final Supplier<String> nameSupplier;
+
+    private final static AtomicLong threadNum = new AtomicLong();
+    private boolean started = false;
+
+    private OrderedPerKeyThreadingModel(final Supplier<String> nameSupplier, final int maxNumWaitingLimitedTasks) {
+        this.nameSupplier = nameSupplier;
+        setMaxNumberOfQueuedLimitedTasks(maxNumWaitingLimitedTasks);
+    }
+
+    private static Supplier<String> bakedDefaultName(final String threadNameBase) {
+        final long curTmNum = threadNum.getAndIncrement();
+        return () -> threadNameBase + "-" + curTmNum;
+    }
+
+    public OrderedPerKeyThreadingModel(final String threadNameBase) {
+        this(bakedDefaultName(threadNameBase), Integer.parseInt(DEFAULT_MAX_PENDING));
+    }
+
+    /**
+     * Create an OrderedPerKeyThreadingModel while setting the maximum number of limited tasks.
+     */
+    public OrderedPerKeyThreadingModel(final String threadNameBase, final int maxNumWaitingLimitedTasks) {
+        this(bakedDefaultName(threadNameBase), maxNumWaitingLimitedTasks);
+    }
+
+    /**
+     * Set the number of lanes. A value less than 1 means use the number of available processors.
+     */
+    public OrderedPerKeyThreadingModel setNumLanes(final int numLanes) {
+        this.numLanes = numLanes;
+        return this;
+    }
+
+    public OrderedPerKeyThreadingModel setWaitStrategy(final String waitStrategyName) {
+        this.waitStrategy = WaitStrategy.fromName(waitStrategyName);
+        this.waitStrategyName = waitStrategyName;
+        return this;
+    }
+
+    public int getNumLanes() {
+        return numLanes < 1 ? Runtime.getRuntime().availableProcessors() : numLanes;
+    }
+
+    public OrderedPerKeyThreadingModel configure(final Map<String, String> configuration) {
+        setMaxNumberOfQueuedLimitedTasks(Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_MAX_PENDING, DEFAULT_MAX_PENDING)));
+        setNumLanes(Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_LANES, DEFAULT_LANES)));
+        setWaitStrategy(getConfigValue(configuration, CONFIG_KEY_WAIT_STRATEGY, DEFAULT_WAIT_STRATEGY));
+        return this;
+    }
+
+    @Override
+    public int getMaxNumberOfQueuedLimitedTasks() {
+        return (int)maxNumWaitingLimitedTasks;
+    }
+
+    public OrderedPerKeyThreadingModel setMaxNumberOfQueuedLimitedTasks(final long maxNumWaitingLimitedTasks) {
+        this.maxNumWaitingLimitedTasks = maxNumWaitingLimitedTasks;
+        this.maxNumWaitingLimitedTasksX2 = maxNumWaitingLimitedTasks << 1;
+        return this;
+    }
+
+    @Override
+    public synchronized boolean isStarted() {
+        return started;
+    }
+
+    @Override
+    public OrderedPerKeyThreadingModel start(final String nodeid) {
+        logConfig(LOGGER, "Threading Model {} for node: {}", OrderedPerKeyThreadingModel.class.getSimpleName(), nodeid);
+        logConfig(LOGGER, configKey(CONFIG_KEY_MAX_PENDING), getMaxNumberOfQueuedLimitedTasks(), DEFAULT_MAX_PENDING);
+        logConfig(LOGGER, configKey(CONFIG_KEY_LANES), getNumLanes(), DEFAULT_LANES);
+        logConfig(LOGGER, configKey(CONFIG_KEY_WAIT_STRATEGY), waitStrategyName, DEFAULT_WAIT_STRATEGY);
+
+        final int n = getNumLanes();
+        final Lane[] newLanes = new Lane[n];
+        for(int i = 0; i < n; i++)
+            newLanes[i] = new Lane(nameSupplier.get() + "-lane-" + i);
+        lanes = newLanes;
+        for(final Lane lane: lanes)
+            lane.thread.start();
+
+        synchronized(this) {
+            started = true;
+        }
+        return this;
+    }
+
+    @Override
+    public void close() {
+        isStopped.set(true);
+        if(lanes == null)
+            return;
+
+        for(final Lane lane: lanes)
+            LockSupport.unpark(lane.thread);
+        for(final Lane lane: lanes) {
+            ignore(() -> lane.thread.join(10000));
+            if(lane.thread.isAlive())
+                LOGGER.warn("Couldn't stop the lane thread {}.", lane.thread.getName());
+        }
+    }
+
+    @Override
+    public int getNumberLimitedPending() {
+        return numLimited.intValue();
+    }
+
+    @Override
+    public void submit(final MessageDeliveryJob job) {
+        enqueue(new MessageDeliveryJobHolder(job, false, numLimited, isStopped), false);
+    }
+
+    @Override
+    public void submitPrioity(final MessageDeliveryJob job) {
+        enqueue(new MessageDeliveryJobHolder(job, false, numLimited, isStopped), true);
+    }
+
+    @Override
+    public void submitLimited(final MessageDeliveryJob job) {
+        numLimited.incrementAndGet();
+        enqueue(new MessageDeliveryJobHolder(job, true, numLimited, isStopped), false);
+    }
+
+    private boolean limiting() {
+        return maxNumWaitingLimitedTasks >= 0;
+    }
+
+    private void enqueue(final MessageDeliveryJobHolder message, final boolean priority) {
+        // There's no central thread to vent the queue so if we're twice the acceptable
+        // maxNumWaitingLimitedTasks and this is a limited task we vent it right here.
+        if(isStopped.get() || (message.limited && limiting() && numLimited.get() > maxNumWaitingLimitedTasksX2)) {
+            message.vent();
+            return;
+        }
+
+        if(message.areContainersCalculated())
+            route(message, priority);
+        else {
+            // all of the messages from the same submitting thread are deserialized
+            // on the same lane so they are routed in the order they arrived.
+            final Lane lane = lanes[(int)Math.floorMod(Thread.currentThread().getId(), (long)lanes.length)];
+            lane.offer(new CalculateTask(message, priority), priority);
+        }
+    }
+
+    private void route(final MessageDeliveryJobHolder message, final boolean priority) {
+        final ContainerJobMetadata[] deliveries = message.job.containerData();
+
+        if(deliveries != null && deliveries.length > 0) {
+            final List<ContainerJob> containerJobs = message.job.individuate();
+
+            // All of the holders need to be constructed before any are queued or the first one
+            // can finish before the rest are accounted for. See OrderedPerContainerThreadingModel.
+            final ContainerJobHolder[] cjholders = containerJobs.stream().map(cj -> new ContainerJobHolder(cj, message))
+                .toArray(ContainerJobHolder[]::new);
+
+            for(int i = 0; i < cjholders.length; i++) {
+                final ContainerJobMetadata jobData = deliveries[i];
+                // a lane that's already shut down won't drain anything offered to it.
+                if(isStopped.get())
+                    cjholders[i].reject(jobData);
+                else
+                    laneFor(jobData).offer(new ContainerTask(cjholders[i], jobData), priority);
+            }
+        } else {
+            LOGGER.info("Message didn't deserialize correctly.");
+            message.vent();
+        }
+    }
+
+    private Lane laneFor(final ContainerJobMetadata jobData) {
+        final Object key = jobData.messageKey;
+        int h = 31 * jobData.container.hashCode() + (key == null ? 0 : key.hashCode());
+        h ^= (h >>> 16);
+        return lanes[Math.floorMod(h, lanes.length)];
+    }
+
+    private static interface LaneTask {
+        public boolean isLimited();
+
+        public void run();
+
+        public void reject();
+    }
+
+    private class CalculateTask implements LaneTask {
+        private final MessageDeliveryJobHolder message;
+        private final boolean priority;
+
+        private CalculateTask(final MessageDeliveryJobHolder message, final boolean priority) {
+            this.message = message;
+            this.priority = priority;
+        }
+
+        @Override
+        public boolean isLimited() {
+            return message.limited;
+        }
+
+        @Override
+        public void run() {
+            try {
+                message.calculateContainers();
+            } catch(final RuntimeException rte) {
+                LOGGER.error("Failed to calculate the containers for a message.", rte);
+            }
+            route(message, priority);
+        }
+
+        @Override
+        public void reject() {
+            message.vent();
+        }
+    }
+
+    private static class ContainerTask implements LaneTask {
+        private final ContainerJobHolder job;
+        private final ContainerJobMetadata jobData;
+
+        private ContainerTask(final ContainerJobHolder job, final ContainerJobMetadata jobData) {
+            this.job = job;
+            this.jobData = jobData;
+        }
+
+        @Override
+        public boolean isLimited() {
+            return job.isLimited();
+        }
+
+        @Override
+        public void run() {
+            job.process(jobData);
+        }
+
+        @Override
+        public void reject() {
+            job.reject(jobData);
+        }
+    }
+
+    private class Lane implements Runnable {
+        private final Queue<LaneTask> queue = new ConcurrentLinkedQueue<>();
+        private final Queue<LaneTask> priorityQueue = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+        private volatile boolean parked = false;
+
+        private Lane(final String name) {
+            thread = newThread(this, name);
+        }
+
+        private void offer(final LaneTask task, final boolean priority) {
+            (priority ? priorityQueue : queue).offer(task);
+            if(parked)
+                waitStrategy.signal(thread);
+        }
+
+        private LaneTask poll() {
+            final LaneTask ret = priorityQueue.poll();
+            return ret == null ? queue.poll() : ret;
+        }
+
+        @Override
+        public void run() {
+            int tryCount = 0;
+            while(!isStopped.get()) {
+                try {
+                    final LaneTask task = poll();
+                    if(task != null) {
+                        tryCount = 0;
+                        // the "- 1" is because this task is still counted until it's either
+                        // rejected or processed. See OrderedPerContainerThreadingModel.
+                        if(task.isLimited() && limiting() && (numLimited.get() - 1) > maxNumWaitingLimitedTasks)
+                            task.reject();
+                        else
+                            task.run();
+                    } else {
+                        if(tryCount < Integer.MAX_VALUE)
+                            tryCount++;
+                        // advertise that we may park BEFORE checking the queues one last time so
+                        // a task offered in between is either seen here or signals us.
+                        parked = true;
+                        if(queue.isEmpty() && priorityQueue.isEmpty() && !isStopped.get())
+                            waitStrategy.idle(tryCount);
+                        parked = false;
+                    }
+                } catch(final Throwable th) {
+                    LOGGER.error("Completely unexpected exception:", th);
+                }
+            }
+
+            // if we got here then we're shutting down ... we need to account for all of the queued tasks.
+            for(LaneTask task = poll(); task != null; task = poll())
+                task.reject();
+        }
+    }
+}
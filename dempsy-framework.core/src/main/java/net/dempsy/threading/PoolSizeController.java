@@ -0,0 +1,93 @@
+package net.dempsy.threading;
+
+/**
+ * <p>
+ * Decides the size of an adaptive thread pool, one step at a time, from what was measured over the
+ * last interval. See {@link DefaultThreadingModel#setAdaptive(boolean)}.
+ * </p>
+ *
+ * <p>
+ * While jobs are backing up (they waited longer than the target on the queue) the pool is grown. If growing
+ * the pool made throughput worse, which is what happens when the work is CPU bound and there are already
+ * enough threads to keep the cores busy, the step is reversed and the pool isn't grown past that size again
+ * for a while. When jobs aren't backing up and the workers are mostly idle the pool is shrunk.
+ * </p>
+ */
+class PoolSizeController {
+    /**
+     * Below this fraction of the time busy the workers are considered mostly idle.
+     */
+    static final double LOW_UTILIZATION = 0.5;
+
+    /**
+     * A grow that drops throughput by more than this fraction is reversed.
+     */
+    static final double THROUGHPUT_TOLERANCE = 0.05;
+
+    /**
+     * The number of intervals after reversing a grow before growing back to that size is tried again.
+     */
+    static final int RETRY_INTERVALS = 10;
+
+    final int minThreads;
+    final int maxThreads;
+    final long targetWaitNanos;
+
+    private volatile int lastMove = 0;
+    private double lastThroughput = 0.0;
+    private int ceiling = Integer.MAX_VALUE;
+    private int ceilingIntervals = 0;
+
+    PoolSizeController(final int minThreads, final int maxThreads, final long targetWaitNanos) {
+        if(minThreads < 1 || maxThreads < minThreads)
+            throw new IllegalArgumentException("The adaptive thread pool bounds must satisfy 1 <= min (" + minThreads + ") <= max (" + maxThreads + ")");
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.targetWaitNanos = targetWaitNanos;
+    }
+
+    /**
+     * Given the current size and the measurements over the last interval, returns the new size of the pool.
+     *
+     * @param completed
+     *     the number of jobs that finished during the interval.
+     * @param waitNanos
+     *     the total time those jobs spent queued.
+     * @param busyNanos
+     *     the total time the workers spent running jobs.
+     * @param queued
+     *     the number of jobs on the queue at the end of the interval.
+     */
+    int decide(final int size, final long intervalNanos, final long completed, final long waitNanos, final long busyNanos, final int queued) {
+        final double throughput = (double)completed / intervalNanos;
+        final double utilization = (double)busyNanos / ((double)intervalNanos * size);
+        // if nothing finished but there's work queued then every worker is stuck on a job.
+        final boolean backlogged = completed == 0 ? queued > 0 : (waitNanos / completed) > targetWaitNanos;
+
+        if(ceilingIntervals > 0 && --ceilingIntervals == 0)
+            ceiling = Integer.MAX_VALUE;
+
+        int move;
+        if(backlogged) {
+            if(lastMove > 0 && throughput < lastThroughput * (1.0 - THROUGHPUT_TOLERANCE)) {
+                move = -1;
+                ceiling = size;
+                ceilingIntervals = RETRY_INTERVALS;
+            } else
+                move = (size + 1 < ceiling) ? 1 : 0;
+        } else
+            move = utilization < LOW_UTILIZATION ? -1 : 0;
+
+        final int newSize = Math.max(minThreads, Math.min(maxThreads, size + move));
+        lastMove = newSize - size;
+        lastThroughput = throughput;
+        return newSize;
+    }
+
+    /**
+     * The last decision: 1 if the pool was grown, -1 if it was shrunk, 0 if it was left alone.
+     */
+    int getLastMove() {
+        return lastMove;
+    }
+}
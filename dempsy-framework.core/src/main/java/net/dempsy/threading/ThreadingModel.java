@@ -53,6 +53,14 @@ public interface ThreadingModel extends AutoCloseable {
      */
     public int getNumberLimitedPending();
 
+    /**
+     * The number of pending limited tasks beyond which new ones are rejected. A value less than or
+     * equal to zero means there's no limit.
+     */
+    public default int getMaxNumberOfQueuedLimitedTasks() {
+        return -1;
+    }
+
     /**
      * Start up the executor.
      */
@@ -0,0 +1,345 @@
+package net.dempsy.threading;
+
+import static net.dempsy.config.ConfigLogger.logConfig;
+import static net.dempsy.util.Functional.ignore;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.container.MessageDeliveryJob;
+
+/**
+ * <p>
+ * A {@link ThreadingModel} that runs each {@link MessageDeliveryJob} on its own virtual thread so
+ * message processors that block (on a store, a cache, etc.) don't starve a fixed size pool the way
+ * they can with the {@link DefaultThreadingModel}.
+ * </p>
+ *
+ * <p>
+ * Jobs are placed on a deque and a submission starts a new thread, as long as there are fewer than
+ * max_concurrent running, which works off the head of the deque until it's empty. Priority jobs are
+ * placed at the head so they still jump ahead of any backlog. The limited job accounting and the
+ * max_pending shedding are the same as the non-blocking {@link DefaultThreadingModel}.
+ * </p>
+ *
+ * <p>
+ * Virtual threads require Java 21. On an older runtime this falls back to platform threads, and
+ * bounds the concurrency to the number of available processors unless max_concurrent is set.
+ * </p>
+ */
+public class VirtualThreadThreadingModel implements ThreadingModel {
+    private static Logger LOGGER = LoggerFactory.getLogger(VirtualThreadThreadingModel.class);
+
+    public static final String CONFIG_KEY_MAX_PENDING = "max_pending";
+    public static final String DEFAULT_MAX_PENDING = "100000";
+
+    /**
+     * The maximum number of jobs that can be running at once. Zero or less means unbounded.
+     */
+    public static final String CONFIG_KEY_MAX_CONCURRENT = "max_concurrent";
+    public static final String DEFAULT_MAX_CONCURRENT = "-1";
+
+    public static final String CONFIG_KEY_HARD_SHUTDOWN = "hard_shutdown";
+    public static final String DEFAULT_HARD_SHUTDOWN = "true";
+
+    private final ConcurrentLinkedDeque<Rejectable> queue = new ConcurrentLinkedDeque<>();
+    private final AtomicLong numLimited = new AtomicLong(0);
+    private final AtomicBoolean stopping = new AtomicBoolean(false);
+
+    private long maxNumWaitingLimitedTasks;
+    private int maxConcurrent = Integer.parseInt(DEFAULT_MAX_CONCURRENT);
+    private boolean hardShutdown = Boolean.parseBoolean(DEFAULT_HARD_SHUTDOWN);
+
+    private ThreadFactory threadFactory = null;
+    private int concurrencyLimit = Integer.MAX_VALUE;
+    private final AtomicInteger numRunning = new AtomicInteger(0);
+    // the threads that have been started to run jobs and haven't exited yet so close can wait for them.
+    private final Set<Thread> liveThreads = ConcurrentHashMap.newKeySet();
+    private static final long CLOSE_WAIT_MILLIS = 10000;
+
+    private final Supplier<String> nameSupplier;
+    private final static AtomicLong poolNum = new AtomicLong(0L);
+    private boolean started = false;
+
+    public VirtualThreadThreadingModel(final String threadNameBase) {
+        this(threadNameBase, Integer.parseInt(DEFAULT_MAX_PENDING));
+    }
+
+    /**
+     * Create a VirtualThreadThreadingModel while setting the maximum number of limited tasks.
+     */
+    public VirtualThreadThreadingModel(final String threadNameBase, final int maxNumWaitingLimitedTasks) {
+        final long curPoolNum = poolNum.getAndIncrement();
+        this.nameSupplier = () -> threadNameBase + "-" + curPoolNum + "-v-";
+        this.maxNumWaitingLimitedTasks = maxNumWaitingLimitedTasks;
+    }
+
+    public VirtualThreadThreadingModel setMaxConcurrent(final int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+        return this;
+    }
+
+    /**
+     * When closing this ThreadingModel, reject the jobs that haven't started yet rather than letting them run.
+     */
+    public VirtualThreadThreadingModel setHardShutdown(final boolean hardShutdown) {
+        this.hardShutdown = hardShutdown;
+        return this;
+    }
+
+    @Override
+    public int getMaxNumberOfQueuedLimitedTasks() {
+        return (int)maxNumWaitingLimitedTasks;
+    }
+
+    public VirtualThreadThreadingModel setMaxNumberOfQueuedLimitedTasks(final long maxNumWaitingLimitedTasks) {
+        this.maxNumWaitingLimitedTasks = maxNumWaitingLimitedTasks;
+        return this;
+    }
+
+    public VirtualThreadThreadingModel configure(final Map<String, String> configuration) {
+        setMaxNumberOfQueuedLimitedTasks(Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_MAX_PENDING, DEFAULT_MAX_PENDING)));
+        setMaxConcurrent(Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_MAX_CONCURRENT, DEFAULT_MAX_CONCURRENT)));
+        setHardShutdown(Boolean.parseBoolean(getConfigValue(configuration, CONFIG_KEY_HARD_SHUTDOWN, DEFAULT_HARD_SHUTDOWN)));
+        return this;
+    }
+
+    @Override
+    public synchronized VirtualThreadThreadingModel start(final String nodeid) {
+        logConfig(LOGGER, "Threading Model {} for node: {}", VirtualThreadThreadingModel.class.getName(), nodeid);
+        logConfig(LOGGER, configKey(CONFIG_KEY_MAX_PENDING), getMaxNumberOfQueuedLimitedTasks(), DEFAULT_MAX_PENDING);
+        logConfig(LOGGER, configKey(CONFIG_KEY_MAX_CONCURRENT), maxConcurrent, DEFAULT_MAX_CONCURRENT);
+        logConfig(LOGGER, configKey(CONFIG_KEY_HARD_SHUTDOWN), hardShutdown, DEFAULT_HARD_SHUTDOWN);
+
+        threadFactory = virtualThreadFactory(nameSupplier.get());
+        int limit = maxConcurrent;
+        if(threadFactory == null) {
+            if(limit <= 0)
+                limit = Runtime.getRuntime().availableProcessors();
+            LOGGER.warn("Virtual threads aren't supported by this runtime ({}). {} will run at most {} jobs at a time on platform threads.",
+                System.getProperty("java.version"), VirtualThreadThreadingModel.class.getSimpleName(), limit);
+            final AtomicLong threadNum = new AtomicLong(0);
+            final String base = nameSupplier.get();
+            threadFactory = r -> new Thread(r, base + threadNum.getAndIncrement());
+        }
+        concurrencyLimit = limit > 0 ? limit : Integer.MAX_VALUE;
+
+        started = true;
+        return this;
+    }
+
+    @Override
+    public synchronized boolean isStarted() {
+        return started;
+    }
+
+    @Override
+    public void close() {
+        synchronized(this) {
+            stopping.set(true);
+        }
+        if(hardShutdown) {
+            // the threads currently running jobs will find the queue empty and exit.
+            for(Rejectable r = queue.pollFirst(); r != null; r = queue.pollFirst())
+                r.reject();
+        }
+
+        // wait a bounded amount of time for the running jobs (and, if this isn't a hard shutdown, the
+        // rest of the queue) to finish. A job that closes this from one of our threads can't wait on itself.
+        final long deadline = System.currentTimeMillis() + CLOSE_WAIT_MILLIS;
+        for(final Thread thread: liveThreads) {
+            if(thread == Thread.currentThread())
+                continue;
+            final long remaining = deadline - System.currentTimeMillis();
+            if(remaining > 0)
+                ignore(() -> thread.join(remaining));
+            if(thread.isAlive())
+                LOGGER.warn("Couldn't stop the thread {} running jobs.", thread.getName());
+        }
+    }
+
+    @Override
+    public int getNumberLimitedPending() {
+        return numLimited.intValue();
+    }
+
+    @Override
+    public void submit(final MessageDeliveryJob r) {
+        enqueue(new DefaultRejectable(r, stopping), false);
+    }
+
+    @Override
+    public void submitPrioity(final MessageDeliveryJob r) {
+        enqueue(new DefaultRejectable(r, stopping), true);
+    }
+
+    @Override
+    public void submitLimited(final MessageDeliveryJob r) {
+        if(maxNumWaitingLimitedTasks <= 0) { // maxNumWaitingLimitedTasks <= 0 means unlimited
+            enqueue(new DefaultRejectable(r, stopping), false);
+            return;
+        }
+
+        final long curCount = numLimited.incrementAndGet();
+        if(curCount > 2 * maxNumWaitingLimitedTasks) {
+            LOGGER.warn("We're at twice the number of acceptable pending messages {}. The system appears to be thread starved. Rejecting new message.",
+                curCount);
+            numLimited.decrementAndGet();
+            r.rejected(stopping.get());
+        } else
+            enqueue(new LimitedRejectable(r, numLimited, stopping, maxNumWaitingLimitedTasks), false);
+    }
+
+    private void enqueue(final Rejectable r, final boolean priority) {
+        if(stopping.get()) {
+            r.reject();
+            return;
+        }
+
+        if(priority)
+            queue.offerFirst(r);
+        else
+            queue.offerLast(r);
+
+        if(claimThread()) {
+            Thread thread = null;
+            try {
+                thread = threadFactory.newThread(this::runJobs);
+                liveThreads.add(thread);
+                thread.start();
+            } catch(final RuntimeException rte) {
+                LOGGER.warn("Failed to start a thread to run a job.", rte);
+                if(thread != null)
+                    liveThreads.remove(thread);
+                // if there's no other thread to pick the job up then reject one.
+                if(numRunning.decrementAndGet() == 0) {
+                    final Rejectable toReject = queue.pollLast();
+                    if(toReject != null)
+                        toReject.reject();
+                }
+            }
+        }
+    }
+
+    private boolean claimThread() {
+        for(;;) {
+            final int cur = numRunning.get();
+            if(cur >= concurrencyLimit)
+                return false;
+            if(numRunning.compareAndSet(cur, cur + 1))
+                return true;
+        }
+    }
+
+    private void runJobs() {
+        try {
+            for(;;) {
+                final Rejectable r = queue.pollFirst();
+                if(r != null) {
+                    try {
+                        r.run();
+                    } catch(final RuntimeException rte) {
+                        LOGGER.error("Unexpected exception running a job", rte);
+                    }
+                } else {
+                    numRunning.decrementAndGet();
+                    // a job offered between the poll and the decrement may not have been able to
+                    // start its own thread so we check again before leaving.
+                    if(queue.isEmpty() || !claimThread())
+                        return;
+                }
+            }
+        } finally {
+            liveThreads.remove(Thread.currentThread());
+        }
+    }
+
+    /**
+     * This returns null if the runtime doesn't support virtual threads. It's done reflectively so
+     * this compiles and runs on runtimes prior to Java 21.
+     */
+    static ThreadFactory virtualThreadFactory(final String namePrefix) {
+        try {
+            final Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = ofVirtual.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory)ofVirtual.getMethod("factory").invoke(builder);
+        } catch(final ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void doCall(final MessageDeliveryJob r) {
+        if(!r.containersCalculated())
+            r.calculateContainers();
+        r.executeAllContainers();
+    }
+
+    private static interface Rejectable extends Runnable {
+        public void reject();
+    }
+
+    private static class DefaultRejectable implements Rejectable {
+        final MessageDeliveryJob r;
+        final AtomicBoolean stopping;
+
+        public DefaultRejectable(final MessageDeliveryJob r, final AtomicBoolean stopping) {
+            this.r = r;
+            this.stopping = stopping;
+        }
+
+        @Override
+        public void run() {
+            doCall(r);
+        }
+
+        @Override
+        public void reject() {
+            r.rejected(stopping.get());
+        }
+    }
+
+    private static class LimitedRejectable implements Rejectable {
+        final MessageDeliveryJob r;
+        final AtomicLong numLimited;
+        final AtomicBoolean stopping;
+        final long maxNumWaitingLimitedTasks;
+
+        public LimitedRejectable(final MessageDeliveryJob r, final AtomicLong numLimited, final AtomicBoolean stopping,
+            final long maxNumWaitingLimitedTasks) {
+            this.r = r;
+            this.numLimited = numLimited;
+            this.stopping = stopping;
+            this.maxNumWaitingLimitedTasks = maxNumWaitingLimitedTasks;
+        }
+
+        @Override
+        public void run() {
+            final long num = numLimited.decrementAndGet();
+            if(num <= maxNumWaitingLimitedTasks)
+                doCall(r);
+            else
+                r.rejected(stopping.get());
+        }
+
+        @Override
+        public void reject() {
+            numLimited.decrementAndGet();
+            try {
+                r.rejected(stopping.get());
+            } catch(final RuntimeException rte) {
+                LOGGER.warn("Rejecting a job resulted in an exception", rte);
+            }
+        }
+    }
+}
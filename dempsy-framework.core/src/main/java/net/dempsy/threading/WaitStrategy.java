@@ -0,0 +1,173 @@
+package net.dempsy.threading;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * How a thread that polls for work waits when it finds nothing to do. Latency sensitive deployments
+ * can select one of the spinning strategies at the cost of a core per polling thread while a busy
+ * multi-tenant box can select one of the parking strategies.
+ * </p>
+ *
+ * <p>
+ * The polling thread calls {@link #idle(int)} on each pass that finds nothing to do. Whoever hands
+ * that thread work calls {@link #signal(Thread)} so that a parked thread doesn't have to wait for its
+ * park to time out. The implementations are stateless and can be shared between threads.
+ * </p>
+ */
+public interface WaitStrategy {
+    public static final String BUSY_SPIN = "busy-spin";
+    public static final String YIELD = "yield";
+    public static final String BACKOFF_PARK = "backoff-park";
+    public static final String BLOCKING = "blocking";
+
+    /**
+     * Wait a little. The idleCount is the number of consecutive passes, including this one, that
+     * found nothing to do so it starts at 1 and should be reset by the caller once work is found.
+     */
+    public void idle(int idleCount);
+
+    /**
+     * The same as {@link #idle(int)} but {@code parked} is set for as long as the calling thread is parked
+     * so whoever hands it work only needs to {@link #signal(Thread)} it when it's actually parked. The
+     * strategies that never park leave it alone.
+     */
+    public default void idle(final int idleCount, final AtomicBoolean parked) {
+        idle(idleCount);
+    }
+
+    /**
+     * Wake the given thread if it's parked in {@link #idle(int)}. This does nothing for the strategies
+     * that never park.
+     */
+    public default void signal(final Thread waiter) {}
+
+    /**
+     * Look up one of the strategies by name ({@link #BUSY_SPIN}, {@link #YIELD}, {@link #BACKOFF_PARK},
+     * or {@link #BLOCKING}).
+     */
+    public static WaitStrategy fromName(final String name) {
+        switch(name) {
+            case BUSY_SPIN:
+                return BusySpin.INSTANCE;
+            case YIELD:
+                return Yield.INSTANCE;
+            case BACKOFF_PARK:
+                return BackoffPark.INSTANCE;
+            case BLOCKING:
+                return Blocking.INSTANCE;
+            default:
+                throw new IllegalArgumentException("Unknown wait strategy \"" + name + "\". It must be one of \"" + BUSY_SPIN + "\", \"" + YIELD
+                    + "\", \"" + BACKOFF_PARK + "\", or \"" + BLOCKING + "\"");
+        }
+    }
+
+    /**
+     * Never gives up the core.
+     */
+    public static class BusySpin implements WaitStrategy {
+        public static final BusySpin INSTANCE = new BusySpin();
+
+        @Override
+        public void idle(final int idleCount) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Gives up the rest of the time slice on every idle pass.
+     */
+    public static class Yield implements WaitStrategy {
+        public static final Yield INSTANCE = new Yield();
+
+        @Override
+        public void idle(final int idleCount) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Spins, then yields, then parks for exponentially longer periods up to a maximum. This replaces
+     * the fixed sleep(1) that the polling loops used to fall back to.
+     */
+    public static class BackoffPark implements WaitStrategy {
+        public static final BackoffPark INSTANCE = new BackoffPark(100, 500, 1000, 1000000);
+
+        private final int spinTries;
+        private final int yieldTries;
+        private final long minParkNanos;
+        private final long maxParkNanos;
+
+        public BackoffPark(final int spinTries, final int yieldTries, final long minParkNanos, final long maxParkNanos) {
+            this.spinTries = spinTries;
+            this.yieldTries = yieldTries;
+            this.minParkNanos = minParkNanos;
+            this.maxParkNanos = maxParkNanos;
+        }
+
+        @Override
+        public void idle(final int idleCount) {
+            idle(idleCount, null);
+        }
+
+        @Override
+        public void idle(final int idleCount, final AtomicBoolean parked) {
+            if(idleCount <= spinTries)
+                Thread.onSpinWait();
+            else if(idleCount <= yieldTries)
+                Thread.yield();
+            else
+                park(this, Math.min(maxParkNanos, minParkNanos << Math.min(idleCount - yieldTries, 20)), parked);
+        }
+
+        @Override
+        public void signal(final Thread waiter) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * Parks right away and relies on being signaled. The park is still bounded so that a polling
+     * thread without a producer that signals it (or that needs to notice it's being stopped) doesn't
+     * hang.
+     */
+    public static class Blocking implements WaitStrategy {
+        public static final Blocking INSTANCE = new Blocking(10000000);
+
+        private final long maxParkNanos;
+
+        public Blocking(final long maxParkNanos) {
+            this.maxParkNanos = maxParkNanos;
+        }
+
+        @Override
+        public void idle(final int idleCount) {
+            LockSupport.parkNanos(this, maxParkNanos);
+        }
+
+        @Override
+        public void idle(final int idleCount, final AtomicBoolean parked) {
+            park(this, maxParkNanos, parked);
+        }
+
+        @Override
+        public void signal(final Thread waiter) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    private static void park(final Object blocker, final long nanos, final AtomicBoolean parked) {
+        if(parked == null) {
+            LockSupport.parkNanos(blocker, nanos);
+            return;
+        }
+
+        parked.set(true);
+        try {
+            LockSupport.parkNanos(blocker, nanos);
+        } finally {
+            parked.set(false);
+        }
+    }
+}
@@ -0,0 +1,562 @@
+package net.dempsy.threading;
+
+import static net.dempsy.config.ConfigLogger.logConfig;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.container.Container;
+import net.dempsy.container.ContainerJob;
+import net.dempsy.container.ContainerJobMetadata;
+import net.dempsy.container.MessageDeliveryJob;
+
+/**
+ * <p>
+ * A {@link ThreadingModel} with a pool of worker threads, like the {@link DefaultThreadingModel}, but rather
+ * than one queue shared by every cluster on the node, each container gets its own sub-queue. The workers
+ * pick from the sub-queues using deficit round-robin so each cluster with messages waiting gets a share
+ * of the workers proportional to its weight. A cluster that floods the node fills (and sheds from) its own
+ * sub-queue rather than crowding out the messages for every other cluster.
+ * </p>
+ *
+ * <p>
+ * Limited jobs whose containers haven't been calculated (usually meaning they haven't been deserialized
+ * yet) wait on a shared queue until a worker calculates them. That queue takes its turn in the round-robin
+ * like a cluster with a weight of 1. Jobs submitted through {@link #submit(MessageDeliveryJob)}
+ * and {@link #submitPrioity(MessageDeliveryJob)} aren't limited and run ahead of the fair queued messages.
+ * </p>
+ *
+ * <p>
+ * The max_pending limit applies across the node with the same thresholds as the {@link DefaultThreadingModel}
+ * but when the node is over the limit the messages shed are the oldest ones waiting on whichever cluster has
+ * the most waiting, so a flood from one cluster doesn't shed the messages for the others. Each sub-queue can
+ * also be bounded with max_pending_per_cluster. A cluster's weight is set with the configuration key
+ * weight.[cluster name].
+ * </p>
+ */
+public class WeightedFairThreadingModel implements ThreadingModel {
+    private static Logger LOGGER = LoggerFactory.getLogger(WeightedFairThreadingModel.class);
+
+    private static final int minNumThreads = 1;
+
+    public static final String CONFIG_KEY_MAX_PENDING = "max_pending";
+    public static final String DEFAULT_MAX_PENDING = "100000";
+
+    /**
+     * The maximum number of messages that can be waiting on any one cluster's sub-queue. Zero or less
+     * means only the max_pending limit applies.
+     */
+    public static final String CONFIG_KEY_MAX_PENDING_PER_CLUSTER = "max_pending_per_cluster";
+    public static final String DEFAULT_MAX_PENDING_PER_CLUSTER = "-1";
+
+    public static final String CONFIG_KEY_CORES_FACTOR = "cores_factor";
+    public static final String DEFAULT_CORES_FACTOR = "1.0";
+
+    public static final String CONFIG_KEY_ADDITIONAL_THREADS = "additional_threads";
+    public static final String DEFAULT_ADDITIONAL_THREADS = "1";
+
+    public static final String CONFIG_KEY_HARD_SHUTDOWN = "hard_shutdown";
+    public static final String DEFAULT_HARD_SHUTDOWN = "true";
+
+    /**
+     * The number of messages a cluster with a weight of 1 is given each time the workers come around to it.
+     */
+    public static final String CONFIG_KEY_QUANTUM = "quantum";
+    public static final String DEFAULT_QUANTUM = "16";
+
+    /**
+     * A cluster's weight is set with this prefix followed by the cluster name.
+     */
+    public static final String CONFIG_KEY_WEIGHT_PREFIX = "weight.";
+    public static final String DEFAULT_WEIGHT = "1";
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+
+    // jobs submitted through submit and submitPrioity.
+    private final ArrayDeque<MessageDeliveryJob> unlimited = new ArrayDeque<>();
+    // limited jobs that can't be put on a sub-queue until their containers are calculated. When there are
+    // any, the calculating placeholder takes a turn in the active rotation like any other sub-queue.
+    private final ArrayDeque<MessageDeliveryJobHolder> uncalculated = new ArrayDeque<>();
+    private final SubQueue calculating = new SubQueue(null, null, 1);
+    // the sub-queues with messages waiting, and the order the workers will visit them. A sub-queue is
+    // dropped once it's empty.
+    private final Map<Container, SubQueue> subQueues = new HashMap<>();
+    private final ArrayDeque<SubQueue> active = new ArrayDeque<>();
+    // what's been shed for each cluster and what was shed before the cluster was known.
+    private final Map<String, AtomicLong> shedByCluster = new HashMap<>();
+    private final AtomicLong shedUncalculated = new AtomicLong(0);
+
+    private final AtomicLong numLimited = new AtomicLong(0);
+    private long maxNumWaitingLimitedTasks;
+    private int maxPendingPerCluster = Integer.parseInt(DEFAULT_MAX_PENDING_PER_CLUSTER);
+    private int threadPoolSize;
+    private double m = Double.parseDouble(DEFAULT_CORES_FACTOR);
+    private int additionalThreads = Integer.parseInt(DEFAULT_ADDITIONAL_THREADS);
+    private boolean hardShutdown = Boolean.parseBoolean(DEFAULT_HARD_SHUTDOWN);
+    private int quantum = Integer.parseInt(DEFAULT_QUANTUM);
+    private final Map<String, Integer> weights = new HashMap<>();
+
+    private final Supplier<String> nameSupplier;
+    private final AtomicLong threadNum = new AtomicLong(0L);
+    private final static AtomicLong poolNum = new AtomicLong(0L);
+    private final List<Thread> workers = new ArrayList<>();
+
+    private boolean started = false;
+    private final AtomicBoolean stopping = new AtomicBoolean(false);
+
+    public WeightedFairThreadingModel(final String threadNameBase) {
+        this(threadNameBase, -1, Integer.parseInt(DEFAULT_MAX_PENDING));
+    }
+
+    /**
+     * Create a WeightedFairThreadingModel with a fixed number of threads while setting the maximum number of limited tasks.
+     */
+    public WeightedFairThreadingModel(final String threadNameBase, final int threadPoolSize, final int maxNumWaitingLimitedTasks) {
+        final long curPoolNum = poolNum.getAndIncrement();
+        this.nameSupplier = () -> threadNameBase + "-" + curPoolNum + "-" + threadNum.getAndIncrement();
+        this.threadPoolSize = threadPoolSize;
+        this.maxNumWaitingLimitedTasks = maxNumWaitingLimitedTasks;
+    }
+
+    /**
+     * See {@link DefaultThreadingModel#setCoresFactor(double)}.
+     */
+    public WeightedFairThreadingModel setCoresFactor(final double m) {
+        this.m = m;
+        return this;
+    }
+
+    /**
+     * See {@link DefaultThreadingModel#setAdditionalThreads(int)}.
+     */
+    public WeightedFairThreadingModel setAdditionalThreads(final int additionalThreads) {
+        this.additionalThreads = additionalThreads;
+        return this;
+    }
+
+    /**
+     * When closing this ThreadingModel, reject the queued jobs rather than letting the workers finish them.
+     */
+    public WeightedFairThreadingModel setHardShutdown(final boolean hardShutdown) {
+        this.hardShutdown = hardShutdown;
+        return this;
+    }
+
+    public WeightedFairThreadingModel setMaxPendingPerCluster(final int maxPendingPerCluster) {
+        this.maxPendingPerCluster = maxPendingPerCluster;
+        return this;
+    }
+
+    public WeightedFairThreadingModel setQuantum(final int quantum) {
+        if(quantum < 1)
+            throw new IllegalArgumentException("The quantum for the " + WeightedFairThreadingModel.class.getSimpleName() + " must be at least 1.");
+        this.quantum = quantum;
+        return this;
+    }
+
+    /**
+     * Set the weight of the given cluster. A cluster with twice the weight of another gets twice the
+     * share of the workers when both have messages waiting.
+     */
+    public WeightedFairThreadingModel setWeight(final String clusterName, final int weight) {
+        if(weight < 1)
+            throw new IllegalArgumentException("The weight for the cluster \"" + clusterName + "\" must be at least 1.");
+        weights.put(clusterName, weight);
+        return this;
+    }
+
+    @Override
+    public int getMaxNumberOfQueuedLimitedTasks() {
+        return (int)maxNumWaitingLimitedTasks;
+    }
+
+    public WeightedFairThreadingModel setMaxNumberOfQueuedLimitedTasks(final long maxNumWaitingLimitedTasks) {
+        this.maxNumWaitingLimitedTasks = maxNumWaitingLimitedTasks;
+        return this;
+    }
+
+    public WeightedFairThreadingModel configure(final Map<String, String> configuration) {
+        setMaxNumberOfQueuedLimitedTasks(Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_MAX_PENDING, DEFAULT_MAX_PENDING)));
+        setMaxPendingPerCluster(Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_MAX_PENDING_PER_CLUSTER, DEFAULT_MAX_PENDING_PER_CLUSTER)));
+        setHardShutdown(Boolean.parseBoolean(getConfigValue(configuration, CONFIG_KEY_HARD_SHUTDOWN, DEFAULT_HARD_SHUTDOWN)));
+        setCoresFactor(Double.parseDouble(getConfigValue(configuration, CONFIG_KEY_CORES_FACTOR, DEFAULT_CORES_FACTOR)));
+        setAdditionalThreads(Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_ADDITIONAL_THREADS, DEFAULT_ADDITIONAL_THREADS)));
+        setQuantum(Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_QUANTUM, DEFAULT_QUANTUM)));
+
+        final String weightPrefix = configKey(CONFIG_KEY_WEIGHT_PREFIX);
+        configuration.entrySet().stream()
+            .filter(e -> e.getKey().startsWith(weightPrefix))
+            .forEach(e -> setWeight(e.getKey().substring(weightPrefix.length()), Integer.parseInt(e.getValue())));
+        return this;
+    }
+
+    @Override
+    public synchronized WeightedFairThreadingModel start(final String nodeid) {
+        logConfig(LOGGER, "Threading Model {} for node: {}", WeightedFairThreadingModel.class.getName(), nodeid);
+        logConfig(LOGGER, configKey(CONFIG_KEY_CORES_FACTOR), m, DEFAULT_CORES_FACTOR);
+        logConfig(LOGGER, configKey(CONFIG_KEY_ADDITIONAL_THREADS), additionalThreads, DEFAULT_ADDITIONAL_THREADS);
+        logConfig(LOGGER, configKey(CONFIG_KEY_MAX_PENDING), getMaxNumberOfQueuedLimitedTasks(), DEFAULT_MAX_PENDING);
+        logConfig(LOGGER, configKey(CONFIG_KEY_MAX_PENDING_PER_CLUSTER), maxPendingPerCluster, DEFAULT_MAX_PENDING_PER_CLUSTER);
+        logConfig(LOGGER, configKey(CONFIG_KEY_HARD_SHUTDOWN), hardShutdown, DEFAULT_HARD_SHUTDOWN);
+        logConfig(LOGGER, configKey(CONFIG_KEY_QUANTUM), quantum, DEFAULT_QUANTUM);
+        weights.forEach((clusterName, weight) -> logConfig(LOGGER, configKey(CONFIG_KEY_WEIGHT_PREFIX + clusterName), weight, DEFAULT_WEIGHT));
+
+        if(threadPoolSize == -1) {
+            final int cores = Runtime.getRuntime().availableProcessors();
+            threadPoolSize = Math.max((int)Math.ceil(cores * m) + additionalThreads, minNumThreads);
+        }
+
+        for(int i = 0; i < threadPoolSize; i++) {
+            final Thread worker = newThread(this::work, nameSupplier.get());
+            workers.add(worker);
+            worker.start();
+        }
+
+        started = true;
+        return this;
+    }
+
+    @Override
+    public synchronized boolean isStarted() {
+        return started;
+    }
+
+    @Override
+    public void close() {
+        final List<Runnable> toReject = new ArrayList<>();
+        lock.lock();
+        try {
+            stopping.set(true);
+            if(hardShutdown) {
+                unlimited.forEach(j -> toReject.add(() -> j.rejected(true)));
+                unlimited.clear();
+                uncalculated.forEach(j -> toReject.add(() -> j.vent()));
+                uncalculated.clear();
+                for(final SubQueue sq: active) {
+                    sq.queue.forEach(q -> toReject.add(() -> q.holder.reject(q.jobData)));
+                    sq.queue.clear();
+                    sq.deficit = 0;
+                }
+                active.clear();
+                subQueues.clear();
+            }
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        toReject.forEach(r -> {
+            try {
+                r.run();
+            } catch(final RuntimeException rte) {
+                LOGGER.warn("Rejecting a job resulted in an exception", rte);
+            }
+        });
+    }
+
+    @Override
+    public int getNumberLimitedPending() {
+        return numLimited.intValue();
+    }
+
+    /**
+     * The number of messages waiting on the given cluster's sub-queue.
+     */
+    public int getNumberPending(final String clusterName) {
+        lock.lock();
+        try {
+            return subQueues.values().stream().filter(sq -> sq.clusterName.equals(clusterName)).mapToInt(sq -> sq.queue.size()).sum();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of messages for the given cluster that were rejected because either its sub-queue, or the node, was over its limit.
+     */
+    public long getNumberShed(final String clusterName) {
+        lock.lock();
+        try {
+            final AtomicLong shed = shedByCluster.get(clusterName);
+            return shed == null ? 0 : shed.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The total number of messages rejected because a sub-queue, or the node, was over its limit. This
+     * includes messages rejected before it was known which cluster they were for.
+     */
+    public long getNumberShed() {
+        lock.lock();
+        try {
+            return shedUncalculated.get() + shedByCluster.values().stream().mapToLong(AtomicLong::get).sum();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void submit(final MessageDeliveryJob r) {
+        submitUnlimited(r, false);
+    }
+
+    @Override
+    public void submitPrioity(final MessageDeliveryJob r) {
+        submitUnlimited(r, true);
+    }
+
+    @Override
+    public void submitLimited(final MessageDeliveryJob r) {
+        final long curCount = numLimited.incrementAndGet();
+        if(maxNumWaitingLimitedTasks > 0 && curCount > 2 * maxNumWaitingLimitedTasks) {
+            // make room by shedding from the cluster with the most waiting rather than rejecting this
+            // message which may be for a cluster that's been waiting its turn.
+            final Queued shed;
+            lock.lock();
+            try {
+                shed = pollHeaviest();
+            } finally {
+                lock.unlock();
+            }
+
+            if(shed != null)
+                shed.holder.reject(shed.jobData);
+            else {
+                LOGGER.warn("We're at twice the number of acceptable pending messages {}. The system appears to be thread starved. Rejecting new message.",
+                    curCount);
+                numLimited.decrementAndGet();
+                shedUncalculated.incrementAndGet();
+                r.rejected(stopping.get());
+                return;
+            }
+        }
+
+        final MessageDeliveryJobHolder holder = new MessageDeliveryJobHolder(r, true, numLimited, stopping);
+        if(holder.areContainersCalculated())
+            enqueueOnSubQueues(holder);
+        else {
+            lock.lock();
+            try {
+                if(!stopping.get()) {
+                    if(uncalculated.isEmpty())
+                        active.offerLast(calculating);
+                    uncalculated.offerLast(holder);
+                    workAvailable.signal();
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            holder.vent();
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // Internals
+    // ----------------------------------------------------------------------------
+
+    private static class Queued {
+        final ContainerJobHolder holder;
+        final ContainerJobMetadata jobData;
+
+        Queued(final ContainerJobHolder holder, final ContainerJobMetadata jobData) {
+            this.holder = holder;
+            this.jobData = jobData;
+        }
+    }
+
+    private static class SubQueue {
+        final Container container;
+        final String clusterName;
+        final int weight;
+        final ArrayDeque<Queued> queue = new ArrayDeque<>();
+
+        // the number of messages this sub-queue can still have run before the workers move to the next one.
+        long deficit = 0;
+
+        SubQueue(final Container container, final String clusterName, final int weight) {
+            this.container = container;
+            this.clusterName = clusterName;
+            this.weight = weight;
+        }
+    }
+
+    private void submitUnlimited(final MessageDeliveryJob r, final boolean priority) {
+        lock.lock();
+        try {
+            if(!stopping.get()) {
+                if(priority)
+                    unlimited.offerFirst(r);
+                else
+                    unlimited.offerLast(r);
+                workAvailable.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        r.rejected(true);
+    }
+
+    private void enqueueOnSubQueues(final MessageDeliveryJobHolder holder) {
+        final ContainerJobMetadata[] deliveries = holder.job.containerData();
+        if(deliveries == null || deliveries.length == 0) {
+            LOGGER.info("Message didn't deserialize correctly.");
+            holder.vent();
+            return;
+        }
+
+        // the holders need to all be constructed before any are queued. See OrderedPerContainerThreadingModel.
+        final List<ContainerJob> containerJobs = holder.job.individuate();
+        final ContainerJobHolder[] cjholders = containerJobs.stream().map(cj -> new ContainerJobHolder(cj, holder))
+            .toArray(ContainerJobHolder[]::new);
+
+        final List<Queued> toReject = new ArrayList<>();
+        lock.lock();
+        try {
+            for(int i = 0; i < cjholders.length; i++) {
+                final ContainerJobMetadata jobData = deliveries[i];
+                final Queued queued = new Queued(cjholders[i], jobData);
+                final SubQueue sq = subQueues.get(jobData.container);
+                if(stopping.get())
+                    toReject.add(queued);
+                else if(sq != null && maxPendingPerCluster > 0 && sq.queue.size() >= maxPendingPerCluster) {
+                    shed(sq);
+                    toReject.add(queued);
+                } else {
+                    // a sub-queue only exists while it has messages waiting so a new one joins the rotation.
+                    final SubQueue dest = sq == null ? newSubQueue(jobData.container) : sq;
+                    if(sq == null) {
+                        subQueues.put(jobData.container, dest);
+                        active.offerLast(dest);
+                    }
+                    dest.queue.offerLast(queued);
+                    workAvailable.signal();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        toReject.forEach(q -> q.holder.reject(q.jobData));
+    }
+
+    private SubQueue newSubQueue(final Container container) {
+        final String clusterName = container.getClusterId() == null ? "" : container.getClusterId().clusterName;
+        return new SubQueue(container, clusterName, weights.getOrDefault(clusterName, Integer.parseInt(DEFAULT_WEIGHT)));
+    }
+
+    // MUST HOLD THE LOCK
+    private void shed(final SubQueue sq) {
+        shedByCluster.computeIfAbsent(sq.clusterName, cn -> new AtomicLong(0)).incrementAndGet();
+    }
+
+    // MUST HOLD THE LOCK. Take the oldest message from the sub-queue with the most waiting and count it
+    // as shed. Returns null if there's nothing waiting on any sub-queue.
+    private Queued pollHeaviest() {
+        SubQueue heaviest = null;
+        for(final SubQueue sq: active) {
+            if(sq != calculating && (heaviest == null || sq.queue.size() > heaviest.queue.size()))
+                heaviest = sq;
+        }
+        if(heaviest == null)
+            return null;
+
+        final Queued ret = heaviest.queue.pollFirst();
+        shed(heaviest);
+        if(heaviest.queue.isEmpty())
+            retire(heaviest);
+        return ret;
+    }
+
+    // MUST HOLD THE LOCK. The sub-queue is empty so take it out of the rotation and drop it.
+    private void retire(final SubQueue sq) {
+        active.remove(sq);
+        sq.deficit = 0;
+        if(sq != calculating)
+            subQueues.remove(sq.container);
+    }
+
+    private void work() {
+        for(;;) {
+            MessageDeliveryJob unlimitedJob = null;
+            MessageDeliveryJobHolder toCalculate = null;
+            Queued next = null;
+            Queued toShed = null;
+
+            lock.lock();
+            try {
+                while(unlimited.isEmpty() && active.isEmpty()) {
+                    if(stopping.get())
+                        return;
+                    workAvailable.awaitUninterruptibly();
+                }
+
+                // the node is over its limit so shed from the cluster with the most waiting, not the one whose turn
+                // it is. The "- 1" is because the job being shed is still counted until it's rejected. This keeps the
+                // bookkeeping consistent with the DefaultThreadingModel.
+                if(unlimited.isEmpty() && maxNumWaitingLimitedTasks > 0 && (numLimited.get() - 1) > maxNumWaitingLimitedTasks)
+                    toShed = pollHeaviest();
+
+                if(!unlimited.isEmpty())
+                    unlimitedJob = unlimited.pollFirst();
+                else if(toShed == null) {
+                    // deficit round-robin. The sub-queue at the head is topped up when its turn starts and it
+                    // keeps the workers until it's spent its deficit or has nothing left waiting.
+                    final SubQueue nextFrom = active.peekFirst();
+                    if(nextFrom.deficit <= 0)
+                        nextFrom.deficit += (long)quantum * nextFrom.weight;
+                    nextFrom.deficit--;
+                    final boolean empty;
+                    if(nextFrom == calculating) {
+                        toCalculate = uncalculated.pollFirst();
+                        empty = uncalculated.isEmpty();
+                    } else {
+                        next = nextFrom.queue.pollFirst();
+                        empty = nextFrom.queue.isEmpty();
+                    }
+                    if(empty)
+                        retire(nextFrom);
+                    else if(nextFrom.deficit <= 0)
+                        active.offerLast(active.pollFirst());
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                if(unlimitedJob != null) {
+                    if(!unlimitedJob.containersCalculated())
+                        unlimitedJob.calculateContainers();
+                    unlimitedJob.executeAllContainers();
+                } else if(toCalculate != null) {
+                    try {
+                        toCalculate.calculateContainers();
+                    } catch(final RuntimeException rte) {
+                        // there will be no container data so the job is rejected below.
+                        LOGGER.warn("Failed to calculate the containers for a message", rte);
+                    }
+                    enqueueOnSubQueues(toCalculate);
+                } else if(toShed != null)
+                    toShed.holder.reject(toShed.jobData);
+                else
+                    next.holder.process(next.jobData);
+            } catch(final Throwable th) {
+                LOGGER.error("Completely unexpected exception:", th);
+            }
+        }
+    }
+}
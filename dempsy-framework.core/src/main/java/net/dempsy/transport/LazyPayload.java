@@ -0,0 +1,24 @@
+package net.dempsy.transport;
+
+/**
+ * <p>
+ * The still serialized payload of a message whose routing information (the containers and the key)
+ * has already been decoded by the transport. See {@link Listener#onMessage(int[], Object, LazyPayload)}.
+ * </p>
+ *
+ * <p>
+ * Exactly one of {@link #get()} or {@link #discard()} must be called, exactly once, since either one
+ * releases whatever the transport is holding the serialized payload in.
+ * </p>
+ */
+public interface LazyPayload {
+    /**
+     * Deserialize the payload.
+     */
+    public Object get();
+
+    /**
+     * Throw away the payload without deserializing it.
+     */
+    public void discard();
+}
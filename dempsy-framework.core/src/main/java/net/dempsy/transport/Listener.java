@@ -16,6 +16,7 @@
 
 package net.dempsy.transport;
 
+import java.util.List;
 import java.util.function.Supplier;
 
 /**
@@ -39,6 +40,33 @@ public interface Listener<T> extends AutoCloseable {
         return onMessage(supplier.get());
     }
 
+    /**
+     * <p>
+     * Accept several messages that arrived together. The transport knows how many messages there
+     * are but they may not be deserialized until the supplier is called. By default each message
+     * is passed to {@link #onMessage(Object)} individually.
+     * </p>
+     */
+    public default boolean onMessages(final int numMessages, final Supplier<List<T>> supplier) {
+        boolean ret = true;
+        for(final T message: supplier.get())
+            ret &= onMessage(message);
+        return ret;
+    }
+
+    /**
+     * <p>
+     * Accept a {@link RoutedMessage} whose routing information was decoded separately from the payload
+     * so the message can be routed, or shed, without deserializing the payload. The listener must see
+     * that either {@link LazyPayload#get()} or {@link LazyPayload#discard()} is eventually called. By
+     * default the payload is deserialized and passed to {@link #onMessage(Supplier)}.
+     * </p>
+     */
+    @SuppressWarnings("unchecked")
+    public default boolean onMessage(final int[] containers, final Object key, final LazyPayload payload) {
+        return onMessage(() -> (T)new RoutedMessage(containers, key, payload.get()));
+    }
+
     @Override
     public default void close() {}
 
@@ -33,6 +33,19 @@ public interface Sender {
      */
     public void send(Object message) throws MessageTransportException, InterruptedException;
 
+    /**
+     * Sends a message whose payload is shared with other destinations. Transports that can
+     * serialize the payload once for all destinations should override this. The {@link SharedPayload}
+     * must be released exactly once regardless of the outcome.
+     */
+    public default void send(final RoutedMessage message, final SharedPayload shared) throws MessageTransportException, InterruptedException {
+        try {
+            send(message);
+        } finally {
+            shared.release();
+        }
+    }
+
     public void stop(); // this should manage everything related to the SenderFactory
 
     public boolean considerMessageOwnsershipTransfered();
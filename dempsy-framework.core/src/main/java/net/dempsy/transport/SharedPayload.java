@@ -0,0 +1,64 @@
+package net.dempsy.transport;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.dempsy.util.Functional.SupplierThrows;
+
+/**
+ * <p>
+ * When the same message is being sent to several nodes, one of these is handed to each
+ * {@link Sender} along with the {@link RoutedMessage} so that a transport can serialize
+ * the message once and share the results between all of the destinations.
+ * </p>
+ *
+ * <p>
+ * Each destination must call {@link #release()} exactly once when it's completely done
+ * with the serialized form. When the last destination releases it, the serialized form is
+ * closed if it's {@link AutoCloseable}.
+ * </p>
+ */
+public class SharedPayload {
+    public final Object message;
+
+    private final AtomicInteger refs;
+    private Object format = null;
+    private Object serialized = null;
+
+    public SharedPayload(final Object message, final int numDestinations) {
+        this.message = message;
+        this.refs = new AtomicInteger(numDestinations);
+    }
+
+    /**
+     * Retrieve the serialized form of the message, creating it on first access. The serialized form
+     * can only be shared between destinations that use the same format. If it was already created
+     * for a different format then this returns null and the caller needs to serialize the message
+     * itself.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T, E extends Throwable> T serialized(final Object format, final SupplierThrows<T, E> serializer) throws E {
+        if(serialized == null) {
+            serialized = serializer.get();
+            this.format = format;
+        } else if(!this.format.equals(format))
+            return null;
+        return (T)serialized;
+    }
+
+    public void release() {
+        if(refs.decrementAndGet() == 0) {
+            final Object toClose;
+            synchronized(this) {
+                toClose = serialized;
+                serialized = null;
+            }
+            if(toClose instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable)toClose).close();
+                } catch(final Exception e) {
+                    // there's nothing we can do about it and nothing else is using it.
+                }
+            }
+        }
+    }
+}
@@ -64,6 +64,15 @@ public class TestInfrastructure implements Infrastructure, AutoCloseable {
             @Override
             public void setMessagesOutPendingGauge(final LongSupplier currentMessagesOutPendingGauge) {}
 
+            @Override
+            public void setMessagesOutPendingGauge(final String destination, final LongSupplier currentMessagesOutPendingGauge) {}
+
+            @Override
+            public void setThreadPoolSizeGauge(final LongSupplier currentThreadPoolSizeGauge) {}
+
+            @Override
+            public void setThreadPoolResizeGauge(final LongSupplier lastThreadPoolResizeGauge) {}
+
         };
         this.application = testName;
         this.threading = threading;
@@ -0,0 +1,100 @@
+package net.dempsy.container;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestIdleEvictionIndex {
+    private static final long IDLE = 16000;
+
+    private final Map<String, Long> lastAccess = new HashMap<>();
+    private final List<String> evicted = new ArrayList<>();
+    private final List<String> visited = new ArrayList<>();
+
+    private long evictIfIdle(final String key, final long idleSince) {
+        visited.add(key);
+        final long last = lastAccess.get(key);
+        if(last > idleSince)
+            return last;
+        evicted.add(key);
+        lastAccess.remove(key);
+        return -1;
+    }
+
+    private void add(final IdleEvictionIndex<String> ut, final String key, final long time) {
+        lastAccess.put(key, time);
+        ut.add(key, time);
+    }
+
+    @Test
+    public void testNothingDueBeforeIdleTime() {
+        final IdleEvictionIndex<String> ut = new IdleEvictionIndex<>(IDLE);
+        add(ut, "a", 0);
+        add(ut, "b", 0);
+
+        assertEquals(0, ut.expire(IDLE - 1, this::evictIfIdle));
+        assertTrue(evicted.isEmpty());
+        assertEquals(2, ut.size());
+
+        assertEquals(2, ut.expire(IDLE, this::evictIfIdle));
+        assertEquals(2, evicted.size());
+        assertEquals(0, ut.size());
+    }
+
+    @Test
+    public void testOnlyExpiredCandidatesAreVisited() {
+        final IdleEvictionIndex<String> ut = new IdleEvictionIndex<>(IDLE);
+        add(ut, "old", 0);
+        for(int i = 0; i < 100; i++)
+            add(ut, "new" + i, IDLE);
+
+        assertEquals(1, ut.expire(IDLE + ut.getTickMillis(), this::evictIfIdle));
+        assertEquals(List.of("old"), evicted);
+        assertEquals(100, ut.size());
+    }
+
+    @Test
+    public void testAccessedEntryIsRescheduled() {
+        final IdleEvictionIndex<String> ut = new IdleEvictionIndex<>(IDLE);
+        add(ut, "a", 0);
+
+        // a message arrived half way through the idle period.
+        lastAccess.put("a", IDLE / 2);
+        assertEquals(1, ut.expire(IDLE, this::evictIfIdle));
+        assertTrue(evicted.isEmpty());
+        assertEquals(1, ut.size());
+
+        // it's not visited again until it's actually due.
+        visited.clear();
+        assertEquals(0, ut.expire(IDLE + (IDLE / 2) - 1, this::evictIfIdle));
+        assertTrue(visited.isEmpty());
+
+        assertEquals(1, ut.expire(IDLE + (IDLE / 2), this::evictIfIdle));
+        assertEquals(List.of("a"), evicted);
+        assertEquals(0, ut.size());
+    }
+
+    @Test
+    public void testBusyEntryIsCheckedNextTick() {
+        final IdleEvictionIndex<String> ut = new IdleEvictionIndex<>(IDLE);
+        ut.add("busy", 0);
+
+        // an entry that can't be evicted right now but reports an old access time isn't revisited in the same pass.
+        assertEquals(1, ut.expire(IDLE, (k, idleSince) -> 0L));
+        assertEquals(1, ut.size());
+        assertEquals(0, ut.expire(IDLE + ut.getTickMillis() - 1, (k, idleSince) -> 0L));
+        assertEquals(1, ut.expire(IDLE + ut.getTickMillis(), (k, idleSince) -> -1L));
+        assertEquals(0, ut.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveIdleTime() {
+        new IdleEvictionIndex<String>(0);
+    }
+}
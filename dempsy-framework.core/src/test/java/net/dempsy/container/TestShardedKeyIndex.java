@@ -0,0 +1,41 @@
+package net.dempsy.container;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestShardedKeyIndex {
+
+    @Test
+    public void testKeysArePartitionedByShard() {
+        final ShardedKeyIndex ut = new ShardedKeyIndex();
+        for(int i = 0; i < 100; i++)
+            ut.add(i % 4, "key-" + i);
+
+        assertEquals(100, ut.size());
+        assertEquals(Set.of(0, 1, 2, 3), ut.shards());
+        assertEquals(25, ut.keys(2).size());
+        assertTrue(ut.keys(2).contains("key-2"));
+        assertTrue(ut.keys(2).contains("key-98"));
+        assertTrue(ut.keys(7).isEmpty());
+    }
+
+    @Test
+    public void testRemove() {
+        final ShardedKeyIndex ut = new ShardedKeyIndex();
+        ut.add(1, "a");
+        ut.add(1, "b");
+        ut.add(2, "c");
+
+        ut.remove(1, "a");
+        ut.remove(3, "c"); // wrong shard is ignored
+        assertEquals(Set.of("b"), ut.keys(1));
+        assertEquals(Set.of("c"), ut.keys(2));
+
+        ut.clear();
+        assertEquals(0, ut.size());
+    }
+}
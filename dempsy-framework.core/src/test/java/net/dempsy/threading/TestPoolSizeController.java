@@ -0,0 +1,84 @@
+package net.dempsy.threading;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestPoolSizeController {
+    private static final long INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private static final long TARGET_WAIT = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // each of the completed jobs waited this long on the queue.
+    private static long waited(final long completed, final long eachWaitNanos) {
+        return completed * eachWaitNanos;
+    }
+
+    @Test
+    public void testGrowsWhileBacklogged() {
+        final PoolSizeController ut = new PoolSizeController(2, 8, TARGET_WAIT);
+        int size = 4;
+        long completed = 1000;
+        for(int i = 0; i < 4; i++) {
+            // throughput keeps improving so the pool keeps growing, up to the max.
+            size = ut.decide(size, INTERVAL, completed, waited(completed, 10 * TARGET_WAIT), size * INTERVAL, 100);
+            completed += 100;
+        }
+        assertEquals(8, size);
+        assertEquals(1, ut.getLastMove());
+
+        size = ut.decide(size, INTERVAL, completed, waited(completed, 10 * TARGET_WAIT), size * INTERVAL, 100);
+        assertEquals(8, size);
+        assertEquals(0, ut.getLastMove());
+    }
+
+    @Test
+    public void testNoCompletionsWithQueuedWorkGrows() {
+        final PoolSizeController ut = new PoolSizeController(1, 8, TARGET_WAIT);
+        // every worker is stuck on a long job.
+        assertEquals(5, ut.decide(4, INTERVAL, 0, 0, 0, 10));
+        assertEquals(1, ut.getLastMove());
+    }
+
+    @Test
+    public void testReversesGrowThatHurtThroughput() {
+        final PoolSizeController ut = new PoolSizeController(1, 16, TARGET_WAIT);
+        int size = ut.decide(4, INTERVAL, 1000, waited(1000, 10 * TARGET_WAIT), 4 * INTERVAL, 100);
+        assertEquals(5, size);
+
+        // the extra thread made things worse, like it would if the work were CPU bound.
+        size = ut.decide(size, INTERVAL, 800, waited(800, 10 * TARGET_WAIT), 5 * INTERVAL, 100);
+        assertEquals(4, size);
+        assertEquals(-1, ut.getLastMove());
+
+        // still backlogged but it won't try 5 again for a while.
+        for(int i = 1; i < PoolSizeController.RETRY_INTERVALS; i++) {
+            size = ut.decide(size, INTERVAL, 1000, waited(1000, 10 * TARGET_WAIT), 4 * INTERVAL, 100);
+            assertEquals(4, size);
+        }
+
+        // ... and then it does.
+        size = ut.decide(size, INTERVAL, 1000, waited(1000, 10 * TARGET_WAIT), 4 * INTERVAL, 100);
+        assertEquals(5, size);
+    }
+
+    @Test
+    public void testShrinksWhenIdle() {
+        final PoolSizeController ut = new PoolSizeController(2, 8, TARGET_WAIT);
+        int size = 4;
+        for(int i = 0; i < 4; i++)
+            size = ut.decide(size, INTERVAL, 10, 0, INTERVAL / 10, 0);
+        assertEquals(2, size);
+
+        // busy enough and keeping up so it stays put.
+        final PoolSizeController busy = new PoolSizeController(2, 8, TARGET_WAIT);
+        assertEquals(4, busy.decide(4, INTERVAL, 1000, waited(1000, TARGET_WAIT / 2), 3 * INTERVAL, 0));
+        assertEquals(0, busy.getLastMove());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadBounds() {
+        new PoolSizeController(4, 2, TARGET_WAIT);
+    }
+}
@@ -38,7 +38,15 @@ public class TestThreadingModel {
         // threading model, num threads,
         return new Object[][] {
             {dtm,NUM_THREADS,MAX_PENDING},
-            {chain(new OrderedPerContainerThreadingModel(threadNameBase, MAX_PENDING), tm -> tm.start("nodeid")),1,MAX_PENDING}
+            // the bounds keep the pool at the size the test expects while still running on the resizable executor.
+            {chain(new DefaultThreadingModel(threadNameBase, NUM_THREADS, MAX_PENDING).setAdaptive(true).setAdaptiveBounds(NUM_THREADS, NUM_THREADS)
+                .setAdaptiveIntervalMillis(10), tm -> tm.start("nodeid")),NUM_THREADS,MAX_PENDING},
+            {chain(new OrderedPerContainerThreadingModel(threadNameBase, MAX_PENDING), tm -> tm.start("nodeid")),1,MAX_PENDING},
+            // every job is for the same container with no key so they all land on one lane.
+            {chain(new OrderedPerKeyThreadingModel(threadNameBase, MAX_PENDING).setNumLanes(4), tm -> tm.start("nodeid")),1,MAX_PENDING},
+            {chain(new VirtualThreadThreadingModel(threadNameBase, MAX_PENDING).setMaxConcurrent(NUM_THREADS), tm -> tm.start("nodeid")),NUM_THREADS,
+                MAX_PENDING},
+            {chain(new WeightedFairThreadingModel(threadNameBase, NUM_THREADS, MAX_PENDING), tm -> tm.start("nodeid")),NUM_THREADS,MAX_PENDING}
         };
 
     }
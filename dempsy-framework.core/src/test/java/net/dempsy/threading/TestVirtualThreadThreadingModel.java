@@ -0,0 +1,166 @@
+package net.dempsy.threading;
+
+import static net.dempsy.utils.test.ConditionPoll.poll;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import net.dempsy.config.ClusterId;
+import net.dempsy.container.Container;
+import net.dempsy.container.ContainerJob;
+import net.dempsy.container.ContainerJobMetadata;
+import net.dempsy.container.DummyContainer;
+import net.dempsy.container.MessageDeliveryJob;
+
+public class TestVirtualThreadThreadingModel {
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong rejected = new AtomicLong(0);
+    private final AtomicInteger running = new AtomicInteger(0);
+    private final AtomicInteger maxRunning = new AtomicInteger(0);
+
+    private final Container container;
+
+    public TestVirtualThreadThreadingModel() {
+        container = new DummyContainer();
+        container.setClusterId(new ClusterId("app", "cluster"));
+    }
+
+    private MessageDeliveryJob job(final String name, final CountDownLatch waitOn) {
+        return new MessageDeliveryJob() {
+            @Override
+            public boolean containersCalculated() {
+                return true;
+            }
+
+            @Override
+            public ContainerJobMetadata[] containerData() {
+                return new ContainerJobMetadata[] {new ContainerJobMetadata(container, null)};
+            }
+
+            @Override
+            public void calculateContainers() {}
+
+            @Override
+            public void rejected(final boolean stopping) {
+                rejected.incrementAndGet();
+            }
+
+            @Override
+            public void executeAllContainers() {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    if(waitOn != null)
+                        waitOn.await();
+                } catch(final InterruptedException e) {} finally {
+                    executed.add(name);
+                    running.decrementAndGet();
+                }
+            }
+
+            @Override
+            public List<ContainerJob> individuate() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void individuatedJobsComplete() {}
+        };
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        try(final VirtualThreadThreadingModel ut = new VirtualThreadThreadingModel("testConcurrencyLimit").setMaxConcurrent(2).start("nodeid");) {
+            final CountDownLatch release = new CountDownLatch(1);
+            for(int i = 0; i < 10; i++)
+                ut.submit(job("job-" + i, release));
+
+            assertTrue(poll(o -> running.get() == 2));
+            Thread.sleep(100);
+            assertEquals(2, running.get());
+
+            release.countDown();
+            assertTrue(poll(o -> executed.size() == 10));
+            assertEquals(2, maxRunning.get());
+            assertEquals(0, rejected.get());
+        }
+    }
+
+    @Test
+    public void testPriorityGoesToTheHead() throws Exception {
+        try(final VirtualThreadThreadingModel ut = new VirtualThreadThreadingModel("testPriorityGoesToTheHead").setMaxConcurrent(1).start("nodeid");) {
+            // tie up the only thread while the queue fills.
+            final CountDownLatch release = new CountDownLatch(1);
+            ut.submit(job("blocker", release));
+            assertTrue(poll(o -> running.get() == 1));
+
+            ut.submit(job("a", null));
+            ut.submitLimited(job("b", null));
+            ut.submit(job("c", null));
+            ut.submitPrioity(job("priority", null));
+
+            release.countDown();
+            assertTrue(poll(o -> executed.size() == 5));
+            assertEquals(List.of("blocker", "priority", "a", "b", "c"), executed);
+        }
+    }
+
+    @Test
+    public void testRejectsOnClose() throws Exception {
+        final VirtualThreadThreadingModel ut = new VirtualThreadThreadingModel("testRejectsOnClose").setMaxConcurrent(1).start("nodeid");
+
+        final CountDownLatch release = new CountDownLatch(1);
+        ut.submit(job("blocker", release));
+        assertTrue(poll(o -> running.get() == 1));
+        for(int i = 0; i < 5; i++)
+            ut.submit(job("job-" + i, null));
+
+        // close waits for the running job so it needs to be on another thread.
+        final Thread closer = new Thread(() -> ut.close(), "testRejectsOnClose-closer");
+        closer.start();
+
+        // the queued jobs are rejected right away.
+        assertTrue(poll(o -> rejected.get() == 5));
+        assertTrue(closer.isAlive());
+
+        // ... and anything submitted after close is too.
+        ut.submit(job("late", null));
+        assertEquals(6, rejected.get());
+
+        release.countDown();
+        closer.join(10000);
+        assertFalse(closer.isAlive());
+        assertEquals(List.of("blocker"), executed);
+    }
+
+    @Test
+    public void testPlatformThreadFallback() throws Exception {
+        // without virtual thread support the concurrency is bounded by the number of cores.
+        final boolean virtual = VirtualThreadThreadingModel.virtualThreadFactory("testPlatformThreadFallback") != null;
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final int numJobs = cores + 2;
+
+        try(final VirtualThreadThreadingModel ut = new VirtualThreadThreadingModel("testPlatformThreadFallback").start("nodeid");) {
+            final CountDownLatch release = new CountDownLatch(1);
+            for(int i = 0; i < numJobs; i++)
+                ut.submit(job("job-" + i, release));
+
+            final int expected = virtual ? numJobs : cores;
+            assertTrue(poll(o -> running.get() == expected));
+            Thread.sleep(100);
+            assertEquals(expected, running.get());
+
+            release.countDown();
+            assertTrue(poll(o -> executed.size() == numJobs));
+            assertEquals(expected, maxRunning.get());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package net.dempsy.threading;
+
+import static net.dempsy.utils.test.ConditionPoll.poll;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class TestWaitStrategy {
+
+    @Test
+    public void testFromName() {
+        assertEquals(WaitStrategy.BusySpin.class, WaitStrategy.fromName(WaitStrategy.BUSY_SPIN).getClass());
+        assertEquals(WaitStrategy.Yield.class, WaitStrategy.fromName(WaitStrategy.YIELD).getClass());
+        assertEquals(WaitStrategy.BackoffPark.class, WaitStrategy.fromName(WaitStrategy.BACKOFF_PARK).getClass());
+        assertEquals(WaitStrategy.Blocking.class, WaitStrategy.fromName(WaitStrategy.BLOCKING).getClass());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownName() {
+        WaitStrategy.fromName("sleepy");
+    }
+
+    @Test
+    public void testSignalWakesBlocking() throws Exception {
+        // park for much longer than the test will wait so only the signal can wake it.
+        final WaitStrategy ut = new WaitStrategy.Blocking(60L * 1000000000L);
+        final AtomicBoolean parked = new AtomicBoolean(false);
+        final AtomicLong numWakes = new AtomicLong(0);
+
+        final Thread waiter = new Thread(() -> {
+            parked.set(true);
+            ut.idle(1);
+            numWakes.incrementAndGet();
+        }, "test-waiter");
+        waiter.start();
+
+        assertTrue(poll(o -> parked.get()));
+        ut.signal(waiter);
+        assertTrue(poll(o -> numWakes.get() == 1));
+        waiter.join(10000);
+    }
+
+    @Test
+    public void testParkedFlag() throws Exception {
+        final WaitStrategy ut = new WaitStrategy.Blocking(60L * 1000000000L);
+        final AtomicBoolean parked = new AtomicBoolean(false);
+        final AtomicLong numWakes = new AtomicLong(0);
+
+        final Thread waiter = new Thread(() -> {
+            ut.idle(1, parked);
+            numWakes.incrementAndGet();
+        }, "test-waiter");
+        waiter.start();
+
+        // the strategy sets the flag so we only need to signal once it's set.
+        assertTrue(poll(o -> parked.get()));
+        ut.signal(waiter);
+        assertTrue(poll(o -> numWakes.get() == 1));
+        assertFalse(parked.get());
+        waiter.join(10000);
+
+        // the strategies that don't park never set it.
+        WaitStrategy.fromName(WaitStrategy.BUSY_SPIN).idle(1, parked);
+        WaitStrategy.fromName(WaitStrategy.YIELD).idle(1, parked);
+        assertFalse(parked.get());
+    }
+}
@@ -0,0 +1,181 @@
+package net.dempsy.threading;
+
+import static net.dempsy.utils.test.ConditionPoll.poll;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import net.dempsy.config.ClusterId;
+import net.dempsy.container.Container;
+import net.dempsy.container.ContainerJob;
+import net.dempsy.container.ContainerJobMetadata;
+import net.dempsy.container.DummyContainer;
+import net.dempsy.container.MessageDeliveryJob;
+
+public class TestWeightedFairThreadingModel {
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong rejected = new AtomicLong(0);
+
+    private static Container container(final String clusterName) {
+        final Container ret = new DummyContainer();
+        ret.setClusterId(new ClusterId("app", clusterName));
+        return ret;
+    }
+
+    private MessageDeliveryJob job(final Container container, final CountDownLatch waitOn) {
+        return new MessageDeliveryJob() {
+            @Override
+            public boolean containersCalculated() {
+                return true;
+            }
+
+            @Override
+            public ContainerJobMetadata[] containerData() {
+                return new ContainerJobMetadata[] {new ContainerJobMetadata(container, null)};
+            }
+
+            @Override
+            public void calculateContainers() {}
+
+            @Override
+            public void rejected(final boolean stopping) {
+                rejected.incrementAndGet();
+            }
+
+            @Override
+            public void executeAllContainers() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public List<ContainerJob> individuate() {
+                return List.of(new ContainerJob() {
+                    @Override
+                    public void execute(final ContainerJobMetadata jobData) {
+                        if(waitOn != null)
+                            try {
+                                waitOn.await();
+                            } catch(final InterruptedException e) {}
+                        executed.add(jobData.container.getClusterId().clusterName);
+                    }
+
+                    @Override
+                    public void reject(final ContainerJobMetadata jobData) {
+                        rejected.incrementAndGet();
+                    }
+                });
+            }
+
+            @Override
+            public void individuatedJobsComplete() {}
+        };
+    }
+
+    @Test
+    public void testQuietClusterIsNotStarved() throws Exception {
+        final Container noisy = container("noisy");
+        final Container quiet = container("quiet");
+
+        try(final WeightedFairThreadingModel ut = new WeightedFairThreadingModel("testQuietClusterIsNotStarved", 1, 100000)
+            .setQuantum(1)
+            .setWeight("quiet", 2)
+            .start("nodeid");) {
+
+            // tie up the only worker while the queues fill.
+            final CountDownLatch release = new CountDownLatch(1);
+            ut.submitLimited(job(noisy, release));
+            assertTrue(poll(o -> ut.getNumberPending("noisy") == 0));
+
+            for(int i = 0; i < 100; i++)
+                ut.submitLimited(job(noisy, null));
+            for(int i = 0; i < 10; i++)
+                ut.submitLimited(job(quiet, null));
+            assertEquals(100, ut.getNumberPending("noisy"));
+            assertEquals(10, ut.getNumberPending("quiet"));
+
+            release.countDown();
+            assertTrue(poll(o -> executed.size() == 111));
+
+            // with a weight of 2 the quiet cluster's 10 messages are all through by the time 5 of the noisy
+            // cluster's messages are (plus the one that was blocking).
+            final int lastQuiet = executed.lastIndexOf("quiet");
+            assertEquals(10, executed.subList(0, lastQuiet + 1).stream().filter(c -> c.equals("quiet")).count());
+            assertTrue("" + executed, lastQuiet <= 16);
+            assertEquals(0, rejected.get());
+        }
+    }
+
+    @Test
+    public void testPerClusterLimit() throws Exception {
+        final Container noisy = container("noisy");
+        final Container quiet = container("quiet");
+
+        try(final WeightedFairThreadingModel ut = new WeightedFairThreadingModel("testPerClusterLimit", 1, 100000)
+            .setMaxPendingPerCluster(10)
+            .start("nodeid");) {
+
+            final CountDownLatch release = new CountDownLatch(1);
+            ut.submitLimited(job(noisy, release));
+            assertTrue(poll(o -> ut.getNumberPending("noisy") == 0));
+
+            for(int i = 0; i < 100; i++)
+                ut.submitLimited(job(noisy, null));
+            for(int i = 0; i < 10; i++)
+                ut.submitLimited(job(quiet, null));
+
+            // only the noisy cluster sheds.
+            assertEquals(90, ut.getNumberShed("noisy"));
+            assertEquals(0, ut.getNumberShed("quiet"));
+            assertEquals(90, rejected.get());
+
+            release.countDown();
+            assertTrue(poll(o -> executed.size() == 21));
+            assertEquals(10, executed.stream().filter(c -> c.equals("quiet")).count());
+            assertEquals(0, ut.getNumberLimitedPending());
+        }
+    }
+
+    @Test
+    public void testNodeLimitShedsTheNoisyCluster() throws Exception {
+        final Container noisy = container("noisy");
+        final Container quiet = container("quiet");
+
+        try(final WeightedFairThreadingModel ut = new WeightedFairThreadingModel("testNodeLimitShedsTheNoisyCluster", 1, 20)
+            .start("nodeid");) {
+
+            final CountDownLatch release = new CountDownLatch(1);
+            ut.submitLimited(job(noisy, release));
+            assertTrue(poll(o -> ut.getNumberPending("noisy") == 0));
+
+            // fill the node to twice the max pending with the noisy cluster.
+            for(int i = 0; i < 40; i++)
+                ut.submitLimited(job(noisy, null));
+            assertEquals(0, ut.getNumberShed());
+
+            // the quiet cluster's messages are accepted and the noisy cluster pays for them.
+            for(int i = 0; i < 10; i++)
+                ut.submitLimited(job(quiet, null));
+            assertEquals(10, ut.getNumberShed("noisy"));
+            assertEquals(0, ut.getNumberShed("quiet"));
+            assertEquals(10, ut.getNumberPending("quiet"));
+            assertEquals(40, ut.getNumberLimitedPending());
+
+            // once the worker is free the node sheds down to the max pending, again from the noisy cluster.
+            release.countDown();
+            assertTrue(poll(o -> ut.getNumberLimitedPending() == 0));
+            assertTrue(poll(o -> executed.size() == 22));
+            assertEquals(10, executed.stream().filter(c -> c.equals("quiet")).count());
+            assertEquals(0, ut.getNumberShed("quiet"));
+            assertEquals(29, ut.getNumberShed("noisy"));
+            assertEquals(29, ut.getNumberShed());
+            assertEquals(29, rejected.get());
+        }
+    }
+}
@@ -145,7 +145,9 @@ public class NodeManager implements Infrastructure, AutoCloseable {
                 if(containerTypeId == null)
                     containerTypeId = node.getContainerTypeId(); // can't be null
                 final Container con = makeContainer(containerTypeId).setMessageProcessor(c.getMessageProcessor())
-                    .setClusterId(c.getClusterId()).setMaxPendingMessagesPerContainer(c.getMaxPendingMessagesPerContainer());
+                    .setClusterId(c.getClusterId()).setMaxPendingMessagesPerContainer(c.getMaxPendingMessagesPerContainer())
+                    .setMaxMessageProcessors(c.getMaxMessageProcessors()).setConflateMessages(c.isConflateMessages())
+                    .setMaxMessageAgeMillis(c.getMaxMessageAgeMillis()).setKeySource(c.getKeySource());
 
                 // TODO: This is a hack for now.
                 final Manager<RoutingStrategy.Inbound> inboundManager = new RoutingInboundManager();
@@ -212,6 +214,11 @@ public class NodeManager implements Infrastructure, AutoCloseable {
             threading.start(nodeId);
 
         nodeStatsCollector.setMessagesPendingGauge(() -> threading.getNumberLimitedPending());
+        if(threading instanceof DefaultThreadingModel && ((DefaultThreadingModel)threading).isAdaptive()) {
+            final DefaultThreadingModel adaptive = (DefaultThreadingModel)threading;
+            nodeStatsCollector.setThreadPoolSizeGauge(() -> adaptive.getThreadPoolSize());
+            nodeStatsCollector.setThreadPoolResizeGauge(() -> adaptive.getLastPoolSizeDecision());
+        }
 
         final NodeReceiver nodeReciever = receiver == null ? null
             : tr
@@ -276,9 +283,13 @@ public class NodeManager implements Infrastructure, AutoCloseable {
         this.router = new OutgoingDispatcher(rsManager, nodeAddress, nodeId, nodeReciever, tManager, nodeStatsCollector);
 
         // set up containers
-        containers.forEach(pc -> pc.container.setDispatcher(router)
-            .setEvictionCycle(pc.clusterDefinition.getEvictionFrequency().evictionFrequency,
-                pc.clusterDefinition.getEvictionFrequency().evictionTimeUnit));
+        containers.forEach(pc -> {
+            pc.container.setDispatcher(router)
+                .setEvictionCycle(pc.clusterDefinition.getEvictionFrequency().evictionFrequency,
+                    pc.clusterDefinition.getEvictionFrequency().evictionTimeUnit);
+            pc.container.setIdleEviction(pc.clusterDefinition.getIdleEviction().idleTime,
+                pc.clusterDefinition.getIdleEviction().idleTimeUnit);
+        });
 
         // IB routing strategy
         final int numContainers = containers.size();
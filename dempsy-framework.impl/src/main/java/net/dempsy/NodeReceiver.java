@@ -5,12 +5,15 @@ import java.util.function.Supplier;
 
 import net.dempsy.container.Container;
 import net.dempsy.container.DefaultDeliverMessageJob;
+import net.dempsy.container.DeliverDelayedMessageBatchJob;
 import net.dempsy.container.DeliverDelayedMessageJob;
+import net.dempsy.container.DeliverLazyMessageJob;
 import net.dempsy.container.DeliverResourceJob;
 import net.dempsy.container.MessageDeliveryJob;
 import net.dempsy.messages.MessageResourceManager;
 import net.dempsy.monitoring.NodeStatsCollector;
 import net.dempsy.threading.ThreadingModel;
+import net.dempsy.transport.LazyPayload;
 import net.dempsy.transport.Listener;
 import net.dempsy.transport.MessageTransportException;
 import net.dempsy.transport.RoutedMessage;
@@ -43,6 +46,29 @@ public class NodeReceiver implements Listener<RoutedMessage> {
         return true;
     }
 
+    @Override
+    public boolean onMessage(final int[] messageContainers, final Object key, final LazyPayload payload) {
+        statsCollector.messageReceived(payload);
+        final DeliverLazyMessageJob job;
+        try {
+            job = new DeliverLazyMessageJob(containers, statsCollector, messageContainers, key, payload, ON_MESSAGE_JUST_ARRIVED);
+        } catch(final RuntimeException rte) {
+            // the job never took ownership of the payload so it has to be released here.
+            payload.discard();
+            throw rte;
+        }
+        threadModel.submitLimited(job);
+        return true;
+    }
+
+    @Override
+    public boolean onMessages(final int numMessages, final Supplier<List<RoutedMessage>> supplier) {
+        for(int i = 0; i < numMessages; i++)
+            statsCollector.messageReceived(supplier);
+        threadModel.submitLimited(new DeliverDelayedMessageBatchJob(containers, statsCollector, numMessages, supplier, ON_MESSAGE_JUST_ARRIVED));
+        return true;
+    }
+
     /**
      * This passes the message directly to the current node container(s) listed in the message.
      *
@@ -16,17 +16,17 @@
 
 package net.dempsy.container.altnonlocking;
 
-import static net.dempsy.util.Functional.ignore;
 import static net.dempsy.util.SafeString.objectDescription;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.ListIterator;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
@@ -37,9 +37,11 @@ import net.dempsy.DempsyException;
 import net.dempsy.Infrastructure;
 import net.dempsy.container.Container;
 import net.dempsy.container.ContainerException;
+import net.dempsy.container.IdleEvictionIndex;
 import net.dempsy.messages.KeyedMessage;
 import net.dempsy.monitoring.StatsCollector;
 import net.dempsy.threading.ThreadingModel;
+import net.dempsy.threading.WaitStrategy;
 import net.dempsy.util.SafeString;
 import net.dempsy.util.StupidHashMap;
 
@@ -65,6 +67,15 @@ public class NonLockingAltContainer extends Container {
     private static final Logger LOGGER = LoggerFactory.getLogger(NonLockingAltContainer.class);
     // This is a bad idea but only used to gate trace logging the invocation.
 
+    /**
+     * How a thread waits for another thread to hand back a message processor's queue once it's
+     * spun for a while. See {@link WaitStrategy#fromName(String)}. Nothing signals the waiting
+     * thread so the parking strategies wait out their park. The queue is only ever held for a few
+     * instructions so the default is to yield.
+     */
+    public static final String CONFIG_KEY_WAIT_STRATEGY = "wait_strategy";
+    public static final String DEFAULT_WAIT_STRATEGY = WaitStrategy.YIELD;
+
     private static final int SPIN_TRIES = 100;
 
     // message key -> instance that handles messages with this key
@@ -76,6 +87,12 @@ public class NonLockingAltContainer extends Container {
     protected final AtomicInteger numBeingWorked = new AtomicInteger(0);
 
     protected ThreadingModel dempsyThreadingModel = null;
+    private WaitStrategy waitStrategy = WaitStrategy.fromName(DEFAULT_WAIT_STRATEGY);
+
+    // only set when the cluster is configured to evict idle Mps.
+    protected IdleEvictionIndex<InstanceWrapper> idleIndex = null;
+    // Mps only keep their last access time when it's needed for idle eviction or a maxMessageProcessors.
+    protected boolean trackLastAccess = false;
 
     public NonLockingAltContainer() {
         super(LOGGER);
@@ -104,9 +121,14 @@ public class NonLockingAltContainer extends Container {
                 + " container with the maxPendingMessagesPerContainer set for " + clusterId
                 + " This container type does internal queuing. Please use the locking container.");
 
+        final long idleMillis = getIdleEvictionMillis();
+        idleIndex = idleMillis > 0 ? new IdleEvictionIndex<>(idleMillis) : null;
+        trackLastAccess = idleIndex != null || maxMessageProcessors > 0;
+
         super.start(infra);
 
         dempsyThreadingModel = infra.getThreadingModel();
+        waitStrategy = WaitStrategy.fromName(infra.getConfigValue(NonLockingAltContainer.class, CONFIG_KEY_WAIT_STRATEGY, DEFAULT_WAIT_STRATEGY));
 
         isReady.set(true);
     }
@@ -168,15 +190,22 @@ public class NonLockingAltContainer extends Container {
 
     protected static class InstanceWrapper {
         public final Object instance;
+        public final Object key;
         public boolean evicted = false;
+        // only maintained when idle eviction is enabled.
+        public volatile long lastAccess = System.currentTimeMillis();
+        // only used by the bulk container when adaptively batching and only accessed by
+        // the thread that holds the mailbox. Zero means it hasn't been set yet.
+        public int batchSize = 0;
 
         // the mailbox is free when the value is null. NOT the other way around.
         // If there is no current mailbox then nothing is working on this mp so
         // it's open to be worked.
         public final AtomicReference<WorkingQueueHolder> mailbox = new AtomicReference<>(null);
 
-        public InstanceWrapper(final Object o) {
+        public InstanceWrapper(final Object o, final Object key) {
             this.instance = o;
+            this.key = key;
         }
 
         // ----------------------------------------------------------------------------
@@ -199,15 +228,15 @@ public class NonLockingAltContainer extends Container {
     }
 
     private <T> T waitFor(final Supplier<T> condition) {
-        int counter = SPIN_TRIES;
+        int counter = 0;
         do {
             final T ret = condition.get();
             if(ret != null)
                 return ret;
-            if(counter > 0)
-                counter--;
-            else
-                Thread.yield();
+            if(counter < Integer.MAX_VALUE)
+                counter++;
+            if(counter > SPIN_TRIES)
+                waitStrategy.idle(counter - SPIN_TRIES);
         } while(isRunning.get());
         throw new DempsyException("Not running.");
     }
@@ -223,12 +252,44 @@ public class NonLockingAltContainer extends Container {
         return q.removeFirst();
     }
 
+    /**
+     * Add the message to an Mp's queue. When conflating, a message being handled instead replaces the
+     * first queued message of the same type, keeping its place in the queue, and the replaced message
+     * is returned. Since a queue only ever holds messages for one key, conflation is per key.
+     */
+    protected KeyedMessageWithOp enqueue(final LinkedList<KeyedMessageWithOp> q, final KeyedMessageWithOp toQueue) {
+        if(conflateMessages && toQueue.op == Operation.handle) {
+            final Class<?> type = toQueue.message.getClass();
+            for(final ListIterator<KeyedMessageWithOp> iter = q.listIterator(); iter.hasNext();) {
+                final KeyedMessageWithOp queued = iter.next();
+                if(queued.op == Operation.handle && queued.message.getClass() == type) {
+                    iter.set(toQueue);
+                    return queued;
+                }
+            }
+        }
+        q.add(toQueue);
+        return null;
+    }
+
+    /**
+     * Account for a queued message that was replaced by a newer one and will never be processed.
+     */
+    protected void conflated(final KeyedMessageWithOp replaced) {
+        numBeingWorked.decrementAndGet();
+        statCollector.messageDiscarded(replaced.message);
+        disposition.dispose(replaced.message);
+    }
+
     protected static class KeyedMessageWithOp extends KeyedMessage {
         public final Operation op;
+        // when the message arrived at the node or NOT_TIMED.
+        public final long receivedNanos;
 
-        public KeyedMessageWithOp(final Object key, final Object message, final Operation op) {
+        public KeyedMessageWithOp(final Object key, final Object message, final Operation op, final long receivedNanos) {
             super(key, message);
             this.op = op;
+            this.receivedNanos = receivedNanos;
         }
 
     }
@@ -236,6 +297,12 @@ public class NonLockingAltContainer extends Container {
     // this is called directly from tests but shouldn't be accessed otherwise.
     @Override
     public void dispatch(final KeyedMessage keyedMessage, final Operation op, final boolean youOwnMessage) throws IllegalArgumentException, ContainerException {
+        dispatch(keyedMessage, op, youOwnMessage, NOT_TIMED);
+    }
+
+    @Override
+    protected void dispatch(final KeyedMessage keyedMessage, final Operation op, final boolean youOwnMessage, final long receivedNanos)
+        throws IllegalArgumentException, ContainerException {
         if(keyedMessage == null)
             return; // No. We didn't process the null message
 
@@ -272,10 +339,19 @@ public class NonLockingAltContainer extends Container {
         boolean instanceDone = false;
         while(!instanceDone) {
             instanceDone = true;
-            final InstanceWrapper wrapper = getInstanceForKey(messageKey, actualMessage);
+            // an output is only invoked on an Mp that exists. It never creates one.
+            final InstanceWrapper wrapper = op == Operation.output ? getExistingInstanceForKey(messageKey) : getInstanceForKey(messageKey, actualMessage);
+            if(wrapper == null && op == Operation.output) {
+                // the Mp was evicted since the output pass started.
+                numBeingWorked.decrementAndGet();
+                break;
+            }
 
             // wrapper will be null if the activate returns 'false'
             if(wrapper != null) {
+                if(trackLastAccess && op.handlesMessage)
+                    wrapper.lastAccess = System.currentTimeMillis();
+
                 // final MutRef<WorkingQueueHolder> mref = new MutRef<>();
                 boolean messageDone = false;
                 while(!messageDone) {
@@ -290,13 +366,14 @@ public class NonLockingAltContainer extends Container {
                         final LinkedList<KeyedMessageWithOp> q = getQueue(box); // spin until I get the queue
 
                         // if this is an output calculation then assume it's in the front of the queue
-                        KeyedMessageWithOp toProcess = op == Operation.output ? new KeyedMessageWithOp(messageKey, actualMessage, op)
-                            : pushPop(q, new KeyedMessageWithOp(messageKey, actualMessage, op));
+                        final KeyedMessageWithOp toDispatch = new KeyedMessageWithOp(messageKey, actualMessage, op, receivedNanos);
+                        KeyedMessageWithOp toProcess = op == Operation.output ? toDispatch : pushPop(q, toDispatch);
 
                         box.queue.lazySet(q); // put the queue back
 
                         while(toProcess != null) {
                             invokeOperationAndHandleDispose(wrapper.instance, toProcess.op, toProcess);
+                            recordEndToEnd(toProcess.receivedNanos);
                             numBeingWorked.getAndDecrement();
 
                             // get the next message
@@ -319,8 +396,10 @@ public class NonLockingAltContainer extends Container {
                         final LinkedList<KeyedMessageWithOp> q = mailbox.queue.getAndSet(null); // doesn't use getQueue because getQueue waits for the queue.
 
                         if(q != null) { // I got it!
-                            q.add(new KeyedMessageWithOp(messageKey, actualMessage, op));
+                            final KeyedMessageWithOp replaced = enqueue(q, new KeyedMessageWithOp(messageKey, actualMessage, op, receivedNanos));
                             mailbox.queue.lazySet(q);
+                            if(replaced != null)
+                                conflated(replaced);
                         } else {
                             // see if we're evicted.
                             if(wrapper.evicted) {
@@ -353,6 +432,21 @@ public class NonLockingAltContainer extends Container {
         return false;
     }
 
+    @Override
+    public boolean containerSupportsIdleEviction() {
+        return true;
+    }
+
+    @Override
+    public boolean containerSupportsConflation() {
+        return true;
+    }
+
+    @Override
+    protected void instantiateMp(final Object key) throws ContainerException {
+        getInstanceForKey(key, null);
+    }
+
     @Override
     public void stop() {
         super.stop();
@@ -383,16 +477,24 @@ public class NonLockingAltContainer extends Container {
                         if(LOGGER.isDebugEnabled())
                             LOGGER.debug("[{}]: Passivating Mp for {}. {} remaining", clusterId, key, instances.size());
                         wrapper.evicted = true;
-                        statCollector.messageProcessorDeleted(key);
+                        mpDeleted(key);
                     }
                 }
             }
 
         }
+
+        if(idleIndex != null)
+            idleIndex.clear();
     }
 
     @Override
     protected void doevict(final EvictCheck check) {
+        doevict(check, instances.keySet());
+    }
+
+    @Override
+    protected void doevict(final EvictCheck check, final Collection<Object> candidates) {
         if(!check.isGenerallyEvitable() || !isRunning.get())
             return;
 
@@ -400,8 +502,8 @@ public class NonLockingAltContainer extends Container {
         try(final StatsCollector.TimerContext tctx = statCollector.evictionPassStarted();) {
             // we need to make a copy of the instances in order to make sure
             // the eviction check is done at once.
-            final Set<Object> keys = new HashSet<>(instances.size() + 10);
-            keys.addAll(instances.keySet());
+            final Set<Object> keys = new HashSet<>(candidates.size() + 10);
+            keys.addAll(candidates);
 
             while(keys.size() > 0 && instances.size() > 0 && isRunning.get() && !check.shouldStopEvicting()) {
 
@@ -444,18 +546,75 @@ public class NonLockingAltContainer extends Container {
                                 if(LOGGER.isDebugEnabled())
                                     LOGGER.debug("[{}]: Evicting/Actually removing Mp for {}. {} remaining", clusterId, key, instances.size());
                                 wrapper.evicted = true;
-                                statCollector.messageProcessorDeleted(key);
+                                mpDeleted(key);
                             } else {
                                 wrapper.mailbox.set(null); // release the mailbox
                             }
                         } // end - I got the lock. Otherwise it's too busy to evict.
-                    } // end if mp exists. Otherwise the mp is already gone.
+                    } else // the mp is already gone.
+                        keysProcessed.add(key);
                 }
                 keys.removeAll(keysProcessed); // remove the keys we already checked
             }
         }
     }
 
+    @Override
+    protected void evictIdle() {
+        final IdleEvictionIndex<InstanceWrapper> index = idleIndex;
+        if(index == null || !isRunning.get())
+            return;
+
+        try(final StatsCollector.TimerContext tctx = statCollector.evictionPassStarted();) {
+            index.expire(System.currentTimeMillis(), this::evictIfIdle);
+        } catch(final RuntimeException rte) {
+            LOGGER.error("Failed on idle eviction for " + clusterId, rte);
+        }
+    }
+
+    private long evictIfIdle(final InstanceWrapper wrapper, final long idleSince) {
+        // if it's already been removed by some other means then it's no longer in the index.
+        if(wrapper.evicted || instances.get(wrapper.key) != wrapper || !isRunning.get())
+            return -1;
+
+        final long lastAccess = wrapper.lastAccess;
+        if(lastAccess > idleSince)
+            return lastAccess;
+
+        // if we can't get the mailbox then it's currently handling a message so it's not idle.
+        final WorkingQueueHolder mailbox = setIfAbsent(wrapper.mailbox, () -> new WorkingQueueHolder(true));
+        if(mailbox != null)
+            return wrapper.evicted ? -1 : wrapper.lastAccess;
+
+        // a message may have arrived between the check above and getting the mailbox.
+        if(wrapper.lastAccess > idleSince) {
+            wrapper.mailbox.set(null); // release the mailbox
+            return wrapper.lastAccess;
+        }
+
+        // it was created locked so no one else will be able to drop messages in the mailbox.
+        final Object instance = wrapper.instance;
+        try {
+            prototype.passivate(instance);
+        } catch(final Throwable e) {
+            // even if passivate throws an exception we need to remove the instance.
+            LOGGER.warn("Passivating the idle Mp " + SafeString.objectDescription(instance) + " resulted in an exception.", e);
+        }
+
+        instances.remove(wrapper.key);
+        if(LOGGER.isDebugEnabled())
+            LOGGER.debug("[{}]: Evicting idle Mp for {}. {} remaining", clusterId, wrapper.key, instances.size());
+        wrapper.evicted = true;
+        mpDeleted(wrapper.key);
+        return -1;
+    }
+
+    @Override
+    protected boolean passivateIfIdle(final Object key, final long idleSince) {
+        final InstanceWrapper wrapper = instances.get(key);
+        return wrapper != null && evictIfIdle(wrapper, idleSince) < 0;
+    }
+
     // This method MUST NOT THROW
     @Override
     protected void outputPass() {
@@ -463,25 +622,12 @@ public class NonLockingAltContainer extends Container {
             return;
 
         // take a snapshot of the current container state.
-        final ArrayList<Object> toOutput = new ArrayList<>(instances.keySet());
-        if(toOutput.size() == 0)
-            return;
-
-        if(LOGGER.isDebugEnabled())
-            LOGGER.debug("Output pass for {} on {} MPs", clusterId, toOutput.size());
-
-        final AtomicLong numOutputJobs = new AtomicLong(0);
-        for(final Object key: toOutput) {
-            final InstanceWrapper wrapper = instances.get(key);
-            // non-null means it still exists
-            if(wrapper != null) {
-                dempsyThreadingModel.submitPrioity(new OutputMessageJob(this, key, numOutputJobs));
-                numOutputJobs.incrementAndGet();
-            }
-        }
+        outputPass(new ArrayList<>(instances.keySet()), dempsyThreadingModel);
+    }
 
-        while(numOutputJobs.get() > 0 && isRunning.get())
-            ignore(() -> Thread.sleep(1));
+    @Override
+    protected Collection<Object> getMpKeys() {
+        return instances.keySet();
     }
 
     // ----------------------------------------------------------------------------
@@ -490,6 +636,14 @@ public class NonLockingAltContainer extends Container {
 
     ConcurrentHashMap<Object, Boolean> keysBeingWorked = new ConcurrentHashMap<>();
 
+    /**
+     * The wrapper for the Mp with the given key or null if there isn't one. Unlike
+     * {@link #getInstanceForKey(Object, Object)} this never creates the Mp.
+     */
+    protected InstanceWrapper getExistingInstanceForKey(final Object key) {
+        return instances.get(key);
+    }
+
     /**
      * This is required to return non null or throw a ContainerException
      */
@@ -566,12 +720,14 @@ public class NonLockingAltContainer extends Container {
                 // we only want to create a wrapper and place the instance into the container
                 // if the instance activated correctly. If we got here then the above try block
                 // must have been successful.
-                wrapper = new InstanceWrapper(instance); // null check above.
+                wrapper = new InstanceWrapper(instance, key); // null check above.
                 instances.putIfAbsent(key, wrapper); // once it goes into the map, we can remove it from the 'being
                                                      // worked' set
                 keysBeingWorked.remove(key); // remove it from the keysBeingWorked since any subsequent call will get
                 // the newly added one.
-                statCollector.messageProcessorCreated(key);
+                mpCreated(key);
+                if(idleIndex != null)
+                    idleIndex.add(wrapper, wrapper.lastAccess);
             }
             return wrapper;
         }
@@ -16,15 +16,20 @@
 
 package net.dempsy.container.altnonlockingbulk;
 
+import static net.dempsy.config.ConfigLogger.logConfig;
 import static net.dempsy.util.SafeString.objectDescription;
 
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import net.dempsy.Infrastructure;
 import net.dempsy.container.ContainerException;
 import net.dempsy.container.altnonlocking.NonLockingAltContainer;
 import net.dempsy.messages.KeyedMessage;
@@ -51,10 +56,58 @@ import net.dempsy.util.SafeString;
 public class NonLockingAltBulkContainer extends NonLockingAltContainer {
     private static final Logger LOGGER = LoggerFactory.getLogger(NonLockingAltBulkContainer.class);
 
+    /**
+     * The most messages delivered to an Mp in one bulk call. Anything beyond this stays queued
+     * for the next call. A value less than 1 means a bulk takes everything that's queued.
+     */
+    public static final String CONFIG_KEY_MAX_BATCH_SIZE = "max_batch_size";
+    public static final String DEFAULT_MAX_BATCH_SIZE = "-1";
+
+    /**
+     * How long the thread delivering to an Mp will wait for a full batch to accumulate in the Mp's
+     * mailbox before delivering what it has. It only waits while messages are still arriving so an Mp
+     * with nothing queued is never held up. Zero (the default) means it never waits and a batch is
+     * whatever happened to pile up while the Mp was busy.
+     */
+    public static final String CONFIG_KEY_MAX_LINGER_MICROS = "max_linger_micros";
+    public static final String DEFAULT_MAX_LINGER_MICROS = "0";
+
+    /**
+     * When true, each Mp's batch size (and so what a linger waits for) starts at 1 and doubles, up to the
+     * max_batch_size, whenever a batch leaves at least that many messages still queued behind it,
+     * which means queueing delay is growing. It halves when batches come up less than half full.
+     */
+    public static final String CONFIG_KEY_ADAPTIVE_BATCHING = "adaptive_batching";
+    public static final String DEFAULT_ADAPTIVE_BATCHING = "false";
+
+    private static final long LINGER_PARK_NANOS = 50_000;
+
+    private int maxBatchSize = Integer.MAX_VALUE;
+    private long lingerNanos = 0;
+    private boolean adaptiveBatching = false;
+
     public NonLockingAltBulkContainer() {
         super(LOGGER);
     }
 
+    @Override
+    public void start(final Infrastructure infra) {
+        final Map<String, String> configuration = infra.getConfiguration();
+
+        final int configuredMaxBatchSize = Integer.parseInt(getConfigValue(configuration, CONFIG_KEY_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_SIZE));
+        logConfig(LOGGER, configKey(CONFIG_KEY_MAX_BATCH_SIZE), configuredMaxBatchSize, DEFAULT_MAX_BATCH_SIZE);
+        maxBatchSize = configuredMaxBatchSize < 1 ? Integer.MAX_VALUE : configuredMaxBatchSize;
+
+        final long lingerMicros = Long.parseLong(getConfigValue(configuration, CONFIG_KEY_MAX_LINGER_MICROS, DEFAULT_MAX_LINGER_MICROS));
+        logConfig(LOGGER, configKey(CONFIG_KEY_MAX_LINGER_MICROS), lingerMicros, DEFAULT_MAX_LINGER_MICROS);
+        lingerNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, lingerMicros));
+
+        adaptiveBatching = Boolean.parseBoolean(getConfigValue(configuration, CONFIG_KEY_ADAPTIVE_BATCHING, DEFAULT_ADAPTIVE_BATCHING));
+        logConfig(LOGGER, configKey(CONFIG_KEY_ADAPTIVE_BATCHING), adaptiveBatching, DEFAULT_ADAPTIVE_BATCHING);
+
+        super.start(infra);
+    }
+
     @Override
     public boolean containerInternallyQueuesMessages() {
         return true;
@@ -68,6 +121,12 @@ public class NonLockingAltBulkContainer extends NonLockingAltContainer {
     // this is called directly from tests but shouldn't be accessed otherwise.
     @Override
     public void dispatch(final KeyedMessage keyedMessage, final Operation op, final boolean youOwnMessage) throws IllegalArgumentException, ContainerException {
+        dispatch(keyedMessage, op, youOwnMessage, NOT_TIMED);
+    }
+
+    @Override
+    protected void dispatch(final KeyedMessage keyedMessage, final Operation op, final boolean youOwnMessage, final long receivedNanos)
+        throws IllegalArgumentException, ContainerException {
         if(keyedMessage == null)
             return; // No. We didn't process the null message
 
@@ -100,10 +159,19 @@ public class NonLockingAltBulkContainer extends NonLockingAltContainer {
         boolean instanceDone = false;
         while(!instanceDone) {
             instanceDone = true;
-            final InstanceWrapper wrapper = getInstanceForKey(messageKey, actualMessage);
+            // an output is only invoked on an Mp that exists. It never creates one.
+            final InstanceWrapper wrapper = op == Operation.output ? getExistingInstanceForKey(messageKey) : getInstanceForKey(messageKey, actualMessage);
+            if(wrapper == null && op == Operation.output) {
+                // the Mp was evicted since the output pass started.
+                numBeingWorked.decrementAndGet();
+                break;
+            }
 
             // wrapper will be null if the activate returns 'false'
             if(wrapper != null) {
+                if(trackLastAccess && op.handlesMessage)
+                    wrapper.lastAccess = System.currentTimeMillis();
+
                 final MutRef<WorkingQueueHolder> mref = new MutRef<>();
                 boolean messageDone = false;
                 while(!messageDone) {
@@ -118,6 +186,10 @@ public class NonLockingAltBulkContainer extends NonLockingAltContainer {
                         boolean alreadyProcessedDispatched = false;
                         do {
                             {
+                                final int curBatchSize = batchSize(wrapper);
+                                if(lingerNanos > 0 && curBatchSize > 1)
+                                    linger(box, alreadyProcessedDispatched ? curBatchSize : curBatchSize - 1);
+
                                 final LinkedList<KeyedMessageWithOp> q = getQueue(box); // spin until I get the queue
                                 final int queueLen = q.size();
                                 if(queueLen == 0) { // then we're not doing bulk
@@ -129,6 +201,7 @@ public class NonLockingAltBulkContainer extends NonLockingAltContainer {
                                     }
                                     box.queue.lazySet(q); // put the queue back so new messages can begin building
                                     invokeOperationAndHandleDispose(wrapper.instance, op, new KeyedMessage(messageKey, actualMessage));
+                                    recordEndToEnd(receivedNanos);
                                     numBeingWorked.getAndDecrement();
                                 } else if(queueLen == 1 && alreadyProcessedDispatched) {
                                     // in this case we have 1 message to dispatch and it's on the queue.
@@ -136,19 +209,22 @@ public class NonLockingAltBulkContainer extends NonLockingAltContainer {
                                     // put the empty queue back so new messages can begin building
                                     box.queue.lazySet(q);
                                     invokeOperationAndHandleDispose(wrapper.instance, toProcess.op, toProcess);
+                                    recordEndToEnd(toProcess.receivedNanos);
                                     numBeingWorked.getAndDecrement();
                                 } else { // bulk - we'll have at least 2 messages
                                     // =================================================
                                     // copy the queue into toProcess so we can return the queue.
                                     // =================================================
 
-                                    // Set toProcess using the fastest means we can.
+                                    // Set toProcess using the fastest means we can. Take no more than the batch
+                                    // size off of the queue. Anything left is picked up on the next pass.
                                     final KeyedMessageWithOp[] toProcessArr;
                                     KeyedMessageWithOp nextOutput = null;
                                     if(alreadyProcessedDispatched) { // don't add the currently dispatched to the list
                                                                      // since we already did it
-                                        toProcessArr = new KeyedMessageWithOp[queueLen];
-                                        for(int qi = 0; qi < queueLen; qi++) {
+                                        final int numToTake = Math.min(queueLen, curBatchSize);
+                                        toProcessArr = new KeyedMessageWithOp[numToTake];
+                                        for(int qi = 0; qi < numToTake; qi++) {
                                             final KeyedMessageWithOp cur = q.removeFirst();
                                             if(cur.op == Operation.output && nextOutput == null)
                                                 nextOutput = cur;
@@ -156,20 +232,26 @@ public class NonLockingAltBulkContainer extends NonLockingAltContainer {
                                                 toProcessArr[qi] = cur;
                                         }
                                     } else {
-                                        toProcessArr = new KeyedMessageWithOp[queueLen + 1];
-                                        for(int qi = 0; qi < queueLen; qi++) {
+                                        final int numToTake = Math.min(queueLen, curBatchSize - 1);
+                                        toProcessArr = new KeyedMessageWithOp[numToTake + 1];
+                                        for(int qi = 0; qi < numToTake; qi++) {
                                             final KeyedMessageWithOp cur = q.removeFirst();
                                             if(cur.op == Operation.output && nextOutput == null)
                                                 nextOutput = cur;
                                             else
                                                 toProcessArr[qi] = cur;
                                         }
-                                        toProcessArr[queueLen] = new KeyedMessageWithOp(messageKey, actualMessage, op);
+                                        toProcessArr[numToTake] = new KeyedMessageWithOp(messageKey, actualMessage, op, receivedNanos);
                                     }
 
-                                    // before we put the queue back, we're going to re-insert the messages if we have an output to do.
-                                    if(nextOutput != null)
-                                        Arrays.stream(toProcessArr).filter(v -> v != null).forEach(v -> q.add(v));
+                                    // before we put the queue back, we're going to re-insert the messages (in front of anything
+                                    // we didn't take) if we have an output to do.
+                                    if(nextOutput != null) {
+                                        for(int qi = toProcessArr.length - 1; qi >= 0; qi--)
+                                            if(toProcessArr[qi] != null)
+                                                q.addFirst(toProcessArr[qi]);
+                                    } else if(adaptiveBatching)
+                                        adaptBatchSize(wrapper, curBatchSize, toProcessArr.length, q.size());
 
                                     // put the empty queue back so new messages can begin building
                                     box.queue.lazySet(q);
@@ -182,7 +264,10 @@ public class NonLockingAltBulkContainer extends NonLockingAltContainer {
                                         final List<KeyedMessage> toProcess = Arrays.asList(toProcessArr);
                                         // =================================================
 
+                                        statCollector.messageBatchDelivered(toProcess.size());
                                         invokeBulkHandleAndHandleDispose(wrapper.instance, toProcess);
+                                        for(final KeyedMessageWithOp delivered: toProcessArr)
+                                            recordEndToEnd(delivered.receivedNanos);
                                         numBeingWorked.addAndGet(-toProcess.size());
                                     }
                                 }
@@ -211,8 +296,10 @@ public class NonLockingAltBulkContainer extends NonLockingAltContainer {
                         final LinkedList<KeyedMessageWithOp> q = mailbox.queue.getAndSet(null);
 
                         if(q != null) { // I got it!
-                            q.add(new KeyedMessageWithOp(messageKey, actualMessage, op));
+                            final KeyedMessageWithOp replaced = enqueue(q, new KeyedMessageWithOp(messageKey, actualMessage, op, receivedNanos));
                             mailbox.queue.lazySet(q);
+                            if(replaced != null)
+                                conflated(replaced);
                         } else {
                             // see if we're evicted.
                             if(wrapper.evicted) {
@@ -234,4 +321,38 @@ public class NonLockingAltBulkContainer extends NonLockingAltContainer {
         }
 
     }
+
+    // Wait, for no more than the linger time, until the mailbox has the given number of messages in it. This
+    // gives up as soon as a check finds no new messages have arrived since the last one (including when the
+    // mailbox starts out empty) since there's nothing to wait for.
+    private void linger(final WorkingQueueHolder box, final int numMessages) {
+        final long deadline = System.nanoTime() + lingerNanos;
+        int prevQueueLen = 0;
+        for(long remaining = lingerNanos; remaining > 0 && isRunning.get(); remaining = deadline - System.nanoTime()) {
+            final LinkedList<KeyedMessageWithOp> q = getQueue(box);
+            final int queueLen = q.size();
+            box.queue.lazySet(q);
+            if(queueLen >= numMessages || queueLen <= prevQueueLen)
+                return;
+            prevQueueLen = queueLen;
+            LockSupport.parkNanos(Math.min(remaining, LINGER_PARK_NANOS));
+        }
+    }
+
+    // Only called by the thread holding the wrapper's mailbox.
+    private int batchSize(final InstanceWrapper wrapper) {
+        if(!adaptiveBatching)
+            return maxBatchSize;
+        return wrapper.batchSize < 1 ? 1 : wrapper.batchSize;
+    }
+
+    // Grow the Mp's batch size when a batch leaves a full batch's worth of messages queued behind it since
+    // they're waiting longer than it takes to deliver a batch. Shrink it when batches come up short. Only
+    // called by the thread holding the wrapper's mailbox.
+    private void adaptBatchSize(final InstanceWrapper wrapper, final int curBatchSize, final int delivered, final int stillQueued) {
+        if(stillQueued >= curBatchSize && curBatchSize < maxBatchSize)
+            wrapper.batchSize = (int)Math.min((long)curBatchSize << 1, maxBatchSize);
+        else if(delivered < (curBatchSize >> 1))
+            wrapper.batchSize = Math.max(1, curBatchSize >> 1);
+    }
 }
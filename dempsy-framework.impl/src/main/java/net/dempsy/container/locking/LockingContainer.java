@@ -16,19 +16,22 @@
 
 package net.dempsy.container.locking;
 
-import static net.dempsy.util.Functional.ignore;
+import static net.dempsy.config.ConfigLogger.logConfig;
 import static net.dempsy.util.SafeString.objectDescription;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,6 +40,7 @@ import net.dempsy.DempsyException;
 import net.dempsy.Infrastructure;
 import net.dempsy.container.Container;
 import net.dempsy.container.ContainerException;
+import net.dempsy.container.IdleEvictionIndex;
 import net.dempsy.messages.KeyedMessage;
 import net.dempsy.monitoring.StatsCollector;
 import net.dempsy.threading.ThreadingModel;
@@ -64,6 +68,21 @@ public class LockingContainer extends Container {
     private static final Logger LOGGER = LoggerFactory.getLogger(LockingContainer.class);
     // This is a bad idea but only used to gate trace logging the invocation.
 
+    /**
+     * What a thread does when the Mp it's delivering to is busy handling another message.
+     * <ul>
+     * <li>{@value #COLLISION_STRATEGY_BLOCK} - wait for the Mp to be free. This is the default.</li>
+     * <li>{@value #COLLISION_STRATEGY_HANDOFF} - queue the message on the Mp and return immediately. The
+     * thread that holds the Mp delivers it before releasing the Mp so no thread ever waits on a busy Mp. Each
+     * handoff is counted as a collision and, while it's queued, as pending toward the max pending messages so
+     * a handoff beyond that limit is discarded.</li>
+     * </ul>
+     */
+    public static final String CONFIG_KEY_COLLISION_STRATEGY = "collision_strategy";
+    public static final String COLLISION_STRATEGY_BLOCK = "block";
+    public static final String COLLISION_STRATEGY_HANDOFF = "handoff";
+    public static final String DEFAULT_COLLISION_STRATEGY = COLLISION_STRATEGY_BLOCK;
+
     // message key -> instance that handles messages with this key
     // changes to this map will be synchronized; read-only may be concurrent
     private final ConcurrentHashMap<Object, InstanceWrapper> instances = new ConcurrentHashMap<>();
@@ -72,6 +91,12 @@ public class LockingContainer extends Container {
     private final AtomicInteger numBeingWorked = new AtomicInteger(0);
     protected ThreadingModel dempsyThreadingModel = null;
 
+    // only set when the cluster is configured to evict idle Mps.
+    private IdleEvictionIndex<InstanceWrapper> idleIndex = null;
+    // Mps only keep their last access time when it's needed for idle eviction or a maxMessageProcessors.
+    private boolean trackLastAccess = false;
+    private boolean handoffCollisions = false;
+
     public LockingContainer() {
         super(LOGGER);
     }
@@ -90,6 +115,18 @@ public class LockingContainer extends Container {
 
     @Override
     public void start(final Infrastructure infra) {
+        final long idleMillis = getIdleEvictionMillis();
+        idleIndex = idleMillis > 0 ? new IdleEvictionIndex<>(idleMillis) : null;
+        trackLastAccess = idleIndex != null || maxMessageProcessors > 0;
+
+        final String collisionStrategy = getConfigValue(infra.getConfiguration(), CONFIG_KEY_COLLISION_STRATEGY, DEFAULT_COLLISION_STRATEGY);
+        logConfig(LOGGER, configKey(CONFIG_KEY_COLLISION_STRATEGY), collisionStrategy, DEFAULT_COLLISION_STRATEGY);
+        if(COLLISION_STRATEGY_HANDOFF.equals(collisionStrategy))
+            handoffCollisions = true;
+        else if(!COLLISION_STRATEGY_BLOCK.equals(collisionStrategy))
+            throw new ContainerException("Unknown " + configKey(CONFIG_KEY_COLLISION_STRATEGY) + " \"" + collisionStrategy + "\" for " + clusterId
+                + ". It must be either \"" + COLLISION_STRATEGY_BLOCK + "\" or \"" + COLLISION_STRATEGY_HANDOFF + "\".");
+
         super.start(infra);
 
         dempsyThreadingModel = infra.getThreadingModel();
@@ -111,6 +148,10 @@ public class LockingContainer extends Container {
                         mp = iw.getExclusive();
                     } while(mp == null);
 
+                    // nothing is going to deliver these now.
+                    if(handoffCollisions)
+                        rejectHandoffs(iw);
+
                     if(LOGGER.isDebugEnabled())
                         LOGGER.debug("[{}]: Passivating and removing Mp for {}. {} remaining", clusterId, key, instances.size());
 
@@ -123,10 +164,13 @@ public class LockingContainer extends Container {
                             + SafeString.objectDescription(mp) + " resulted in an exception.", e);
                     }
 
-                    statCollector.messageProcessorDeleted(key);
+                    mpDeleted(key);
                 }
             }
         }
+
+        if(idleIndex != null)
+            idleIndex.clear();
     }
 
     @Override
@@ -161,6 +205,16 @@ public class LockingContainer extends Container {
         return false;
     }
 
+    @Override
+    public boolean containerSupportsIdleEviction() {
+        return true;
+    }
+
+    @Override
+    protected void instantiateMp(final Object key) throws ContainerException {
+        getInstanceForKey(key, null);
+    }
+
     // ----------------------------------------------------------------------------
     // Test Hooks
     // ----------------------------------------------------------------------------
@@ -176,14 +230,20 @@ public class LockingContainer extends Container {
 
     protected class InstanceWrapper {
         private final Object instance;
+        private final Object key;
         private final Semaphore lock = new Semaphore(1, true); // basically a mutex
+        // messages handed off by threads that found the Mp busy. Only used with the handoff collision strategy.
+        private final Queue<Handoff> handoffs = handoffCollisions ? new ConcurrentLinkedQueue<>() : null;
         private boolean evicted = false;
+        // only maintained when idle eviction is enabled.
+        private volatile long lastAccess = System.currentTimeMillis();
 
         /**
          * DO NOT CALL THIS WITH NULL OR THE LOCKING LOGIC WON'T WORK
          */
-        public InstanceWrapper(final Object o) {
+        public InstanceWrapper(final Object o, final Object key) {
             this.instance = o;
+            this.key = key;
         }
 
         /**
@@ -254,6 +314,69 @@ public class LockingContainer extends Container {
         }
     }
 
+    private static class Handoff extends KeyedMessage {
+        public final Operation op;
+        // whether or not this is counted in numPending.
+        public final boolean pending;
+
+        public Handoff(final Object key, final Object message, final Operation op, final boolean pending) {
+            super(key, message);
+            this.op = op;
+            this.pending = pending;
+        }
+    }
+
+    /**
+     * Release the lock on the Mp. With the handoff collision strategy a message may have been handed off after
+     * the thread releasing the lock last looked so it needs to check again.
+     */
+    private void unlock(final InstanceWrapper wrapper) {
+        wrapper.releaseLock();
+        if(handoffCollisions)
+            deliverStrandedHandoffs(wrapper);
+    }
+
+    // If there are handoffs and we can get the lock then deliver them. Otherwise whoever has the lock will.
+    private void deliverStrandedHandoffs(final InstanceWrapper wrapper) {
+        while(!wrapper.handoffs.isEmpty() && wrapper.tryLock()) {
+            try {
+                deliverHandoffs(wrapper);
+            } finally {
+                wrapper.releaseLock();
+            }
+        }
+    }
+
+    // MUST HOLD THE LOCK. Messages handed off to an evicted Mp are dispatched again so they go to its replacement.
+    private void deliverHandoffs(final InstanceWrapper wrapper) {
+        for(Handoff handoff = wrapper.handoffs.poll(); handoff != null; handoff = wrapper.handoffs.poll()) {
+            if(handoff.pending)
+                numPending.decrementAndGet();
+            try {
+                if(wrapper.isEvicted())
+                    dispatch(handoff, handoff.op, true);
+                else
+                    invokeOperationAndHandleDispose(wrapper.getInstance(), handoff.op, handoff);
+            } catch(final RuntimeException rte) {
+                LOGGER.warn("Failed delivering a message handed off to the Mp for " + SafeString.objectDescription(handoff.key) + " in " + clusterId, rte);
+            } finally {
+                numBeingWorked.decrementAndGet();
+            }
+        }
+    }
+
+    // Dispose of anything handed off to the Mp without delivering it. Used when the container is stopping.
+    private void rejectHandoffs(final InstanceWrapper wrapper) {
+        for(Handoff handoff = wrapper.handoffs.poll(); handoff != null; handoff = wrapper.handoffs.poll()) {
+            if(handoff.pending)
+                numPending.decrementAndGet();
+            if(handoff.op.handlesMessage)
+                statCollector.messageFailed(1);
+            disposition.dispose(handoff.message);
+            numBeingWorked.decrementAndGet();
+        }
+    }
+
     // this is called directly from tests but shouldn't be accessed otherwise.
     @Override
     public void dispatch(final KeyedMessage keyedMessage, final Operation op, final boolean youOwnMessage) throws IllegalArgumentException, ContainerException {
@@ -292,23 +415,57 @@ public class LockingContainer extends Container {
             do {
                 evictedAndBlocking = false;
 
-                final InstanceWrapper wrapper = getInstanceForKey(messageKey, actualMessage);
+                // an output is only invoked on an Mp that exists. It never creates one.
+                final InstanceWrapper wrapper = op == Operation.output ? instances.get(messageKey) : getInstanceForKey(messageKey, actualMessage);
+                if(wrapper == null && op == Operation.output)
+                    break; // the Mp was evicted since the output pass started.
 
                 // wrapper will be null if the activate returns 'false'
                 if(wrapper != null) {
-                    final Object instance = wrapper.getExclusive();
+                    if(trackLastAccess && op.handlesMessage)
+                        wrapper.lastAccess = System.currentTimeMillis();
+
+                    final Object instance = handoffCollisions ? (wrapper.tryLock() ? wrapper.getInstance() : null) : wrapper.getExclusive();
                     if(instance != null) { // null indicates we didn't get the lock
-                        try(QuietCloseable qc = () -> wrapper.releaseLock();) {
+                        try(QuietCloseable qc = () -> unlock(wrapper);) {
                             if(wrapper.isEvicted()) {
+                                // anything handed off to the evicted Mp goes to its replacement.
+                                if(handoffCollisions)
+                                    deliverHandoffs(wrapper);
                                 // if we're not blocking then we need to just return a failure. Otherwise we want to try
                                 // again because eventually the current Mp will be passivated and removed from the container
                                 // and a subsequent call to getInstanceForDispatch will create a new one.
                                 Thread.yield();
                                 evictedAndBlocking = true; // we're going to try again.
                             } else {
+                                // Handoffs go first. Those handed off before we got the lock were sent before this
+                                // message. Any handed off since were sent concurrently with it so there's no order
+                                // between them and this message to keep.
+                                if(handoffCollisions)
+                                    deliverHandoffs(wrapper);
                                 invokeOperationAndHandleDispose(wrapper.getInstance(), op, new KeyedMessage(messageKey, actualMessage));
                             }
                         }
+                    } else if(handoffCollisions) {
+                        // the Mp is busy. Rather than wait, leave the message for the thread that has it.
+                        statCollector.messageCollision(actualMessage);
+                        final boolean pending = op != Operation.output && maxPendingMessagesPerContainer >= 0;
+                        if(pending && numPending.incrementAndGet() > maxPendingMessagesPerContainer) {
+                            // there's already too much waiting on this container.
+                            numPending.decrementAndGet();
+                            statCollector.messageDiscarded(actualMessage);
+                            if(callDisposition)
+                                disposition.dispose(actualMessage);
+                        } else {
+                            numBeingWorked.incrementAndGet();
+                            wrapper.handoffs.offer(new Handoff(messageKey, actualMessage, op, pending));
+                            if(isRunning.get())
+                                // the thread that had it may have released it before the message was queued.
+                                deliverStrandedHandoffs(wrapper);
+                            else
+                                // the container may have stopped before the message was queued.
+                                rejectHandoffs(wrapper);
+                        }
                     } else { // ... we didn't get the lock
                         if(LOGGER.isTraceEnabled())
                             LOGGER.trace("the container for " + clusterId + " failed to obtain lock on " + SafeString.valueOf(prototype));
@@ -334,6 +491,11 @@ public class LockingContainer extends Container {
 
     @Override
     protected void doevict(final EvictCheck check) {
+        doevict(check, instances.keySet());
+    }
+
+    @Override
+    protected void doevict(final EvictCheck check, final Collection<Object> candidates) {
         if(!check.isGenerallyEvitable() || !isRunning.get())
             return;
 
@@ -341,8 +503,12 @@ public class LockingContainer extends Container {
 
             // we need to make a copy of the instances in order to make sure
             // the eviction check is done at once.
-            final Map<Object, InstanceWrapper> instancesToEvict = new HashMap<>(instances.size() + 10);
-            instancesToEvict.putAll(instances);
+            final Map<Object, InstanceWrapper> instancesToEvict = new HashMap<>(candidates.size() + 10);
+            for(final Object key: candidates) {
+                final InstanceWrapper wrapper = instances.get(key);
+                if(wrapper != null)
+                    instancesToEvict.put(key, wrapper);
+            }
 
             while(instancesToEvict.size() > 0 && instances.size() > 0 && isRunning.get() && !check.shouldStopEvicting()) {
                 // store off anything that passes for later removal. This is to avoid a
@@ -390,12 +556,12 @@ public class LockingContainer extends Container {
                                 if(LOGGER.isTraceEnabled())
                                     LOGGER.trace("Evicting Mp with key " + SafeString.objectDescription(key) + " from " + clusterId.toString());
                                 instances.remove(key);
-                                statCollector.messageProcessorDeleted(key);
+                                mpDeleted(key);
                             }
                         }
                     } finally {
                         if(gotLock)
-                            wrapper.releaseLock();
+                            unlock(wrapper);
                     }
 
                 }
@@ -408,39 +574,79 @@ public class LockingContainer extends Container {
         }
     }
 
-    // This method MUST NOT THROW
     @Override
-    protected void outputPass() {
-        if(!prototype.isOutputSupported())
+    protected void evictIdle() {
+        final IdleEvictionIndex<InstanceWrapper> index = idleIndex;
+        if(index == null || !isRunning.get())
             return;
 
-        // take a snapshot of the current container state.
-        final ArrayList<Object> toOutput = new ArrayList<>(instances.keySet());
-        if(toOutput.size() == 0)
-            return;
+        try(final StatsCollector.TimerContext tctx = statCollector.evictionPassStarted()) {
+            index.expire(System.currentTimeMillis(), this::evictIfIdle);
+        } catch(final RuntimeException rte) {
+            LOGGER.error("Failed on idle eviction for " + clusterId, rte);
+        }
+    }
 
-        if(LOGGER.isDebugEnabled())
-            LOGGER.debug("Output pass for {} on {} MPs", clusterId, toOutput.size());
+    private long evictIfIdle(final InstanceWrapper wrapper, final long idleSince) {
+        // if we can't get the lock then it's currently handling a message so it's not idle.
+        if(!wrapper.tryLock())
+            return wrapper.lastAccess;
 
-        final AtomicLong numOutputJobs = new AtomicLong(0);
-        for(final Object key: toOutput) {
-            final InstanceWrapper wrapper = instances.get(key);
-            // non-null means it still exists
-            if(wrapper != null) {
-                dempsyThreadingModel.submitPrioity(new OutputMessageJob(this, key, numOutputJobs));
-                numOutputJobs.incrementAndGet();
+        try {
+            // it's already been removed by some other means.
+            if(wrapper.isEvicted() || instances.get(wrapper.key) != wrapper || !isRunning.get())
+                return -1;
+
+            final long lastAccess = wrapper.lastAccess;
+            if(lastAccess > idleSince)
+                return lastAccess;
+
+            wrapper.markEvicted();
+            try {
+                prototype.passivate(wrapper.getInstance());
+            } catch(final Throwable e) {
+                // even if passivate throws an exception we need to remove the instance.
+                LOGGER.warn("Passivating the idle Mp " + SafeString.objectDescription(wrapper.getInstance()) + " resulted in an exception.", e);
             }
+
+            if(LOGGER.isTraceEnabled())
+                LOGGER.trace("Evicting idle Mp with key " + SafeString.objectDescription(wrapper.key) + " from " + clusterId.toString());
+            instances.remove(wrapper.key);
+            mpDeleted(wrapper.key);
+            return -1;
+        } finally {
+            unlock(wrapper);
         }
+    }
+
+    @Override
+    protected boolean passivateIfIdle(final Object key, final long idleSince) {
+        final InstanceWrapper wrapper = instances.get(key);
+        return wrapper != null && evictIfIdle(wrapper, idleSince) < 0;
+    }
+
+    // This method MUST NOT THROW
+    @Override
+    protected void outputPass() {
+        if(!prototype.isOutputSupported())
+            return;
 
-        while(numOutputJobs.get() > 0)
-            ignore(() -> Thread.sleep(1));
+        // take a snapshot of the current container state.
+        outputPass(new ArrayList<>(instances.keySet()), dempsyThreadingModel);
+    }
+
+    @Override
+    protected Collection<Object> getMpKeys() {
+        return instances.keySet();
     }
 
     // ----------------------------------------------------------------------------
     // Internals
     // ----------------------------------------------------------------------------
 
-    ConcurrentHashMap<Object, Boolean> keysBeingWorked = new ConcurrentHashMap<>();
+    // These are j.u.c locks rather than monitors so that a message processor's activate
+    // blocking doesn't pin the carrier thread when running on virtual threads.
+    ConcurrentHashMap<Object, ReentrantLock> keysBeingWorked = new ConcurrentHashMap<>();
 
     /**
      * This is required to return non null or throw a ContainerException
@@ -452,13 +658,11 @@ public class LockingContainer extends Container {
             return wrapper;
 
         // otherwise we will be working to get one.
-        final Boolean tmplock = Boolean.TRUE;
-        Boolean lock = keysBeingWorked.putIfAbsent(key, tmplock);
-        if(lock == null)
-            lock = tmplock;
+        final ReentrantLock lock = keysBeingWorked.computeIfAbsent(key, k -> new ReentrantLock());
 
         // otherwise we'll do an atomic check-and-update
-        synchronized(lock) {
+        lock.lock();
+        try {
             wrapper = instances.get(key); // double checked lock?????
             if(wrapper != null)
                 return wrapper;
@@ -512,13 +716,17 @@ public class LockingContainer extends Container {
                 // we only want to create a wrapper and place the instance into the container
                 // if the instance activated correctly. If we got here then the above try block
                 // must have been successful.
-                wrapper = new InstanceWrapper(instance); // null check above.
+                wrapper = new InstanceWrapper(instance, key); // null check above.
                 instances.put(key, wrapper); // once it goes into the map, we can remove it from the 'being worked' set
                 keysBeingWorked.remove(key); // remove it from the keysBeingWorked since any subsequent call will get
                 // the newly added one.
-                statCollector.messageProcessorCreated(key);
+                mpCreated(key);
+                if(idleIndex != null)
+                    idleIndex.add(wrapper, wrapper.lastAccess);
             }
             return wrapper;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -0,0 +1,70 @@
+package net.dempsy.container.longkey;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.container.mpsc.InstanceMap;
+import net.dempsy.container.mpsc.MpscContainer;
+
+/**
+ * <p>
+ * An {@link MpscContainer} for clusters whose message keys are integral (a {@code long}, {@code int},
+ * {@code short} or {@code byte}). The Mps are kept in a {@link LongKeyInstanceMap}, an open-addressing
+ * table keyed on the primitive value, rather than in a general purpose hash map so a lookup never calls
+ * {@code hashCode} or {@code equals} on the key and the table itself is a pair of flat arrays.
+ * </p>
+ *
+ * <p>
+ * The Mps for any other key type are kept in the same general purpose map the {@link MpscContainer} uses
+ * so they work but don't get any benefit from this container.
+ * </p>
+ */
+public class LongKeyContainer extends MpscContainer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LongKeyContainer.class);
+
+    public LongKeyContainer() {
+        super(LOGGER, new IntegralOrHashed<>());
+    }
+
+    private static class IntegralOrHashed<V> implements InstanceMap<V> {
+        private final LongKeyInstanceMap<V> integral = new LongKeyInstanceMap<>();
+        private final InstanceMap<V> hashed = InstanceMap.hashed();
+
+        private InstanceMap<V> map(final Object key) {
+            return LongKeyInstanceMap.isIntegral(key) ? integral : hashed;
+        }
+
+        @Override
+        public V get(final Object key) {
+            return map(key).get(key);
+        }
+
+        @Override
+        public V putIfAbsent(final Object key, final V value) {
+            return map(key).putIfAbsent(key, value);
+        }
+
+        @Override
+        public V remove(final Object key) {
+            return map(key).remove(key);
+        }
+
+        @Override
+        public int size() {
+            return integral.size() + hashed.size();
+        }
+
+        @Override
+        public Collection<Object> keySet() {
+            final Collection<Object> others = hashed.keySet();
+            if(others.isEmpty())
+                return integral.keySet();
+            final Collection<Object> ret = new ArrayList<>(integral.keySet());
+            ret.addAll(others);
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package net.dempsy.container.longkey;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.dempsy.container.ContainerException;
+import net.dempsy.container.mpsc.InstanceMap;
+
+/**
+ * <p>
+ * An open-addressing (linear probing) {@link InstanceMap} keyed on the primitive value of an integral
+ * key. The keys are held in a {@code long[]} so a lookup unboxes the key once and then only compares
+ * primitives.
+ * </p>
+ *
+ * <p>
+ * Changes are made under a lock. Reads are lock-free: a slot's key is written before its value is published
+ * and, since a removed slot is left as a tombstone that's never reused until the table is rebuilt, a slot's key
+ * never changes once a reader can see it. The table is rebuilt (which also drops the tombstones) when the
+ * occupied slots reach half of its capacity.
+ * </p>
+ *
+ * <p>
+ * The key an entry was added with is retained and is what's returned from {@link #keySet()} so the keys handed back
+ * to the container route the same way as the keys on the messages.
+ * </p>
+ */
+public class LongKeyInstanceMap<V> implements InstanceMap<V> {
+    private static final int MIN_CAPACITY = 64;
+    private static final Object TOMBSTONE = new Object();
+
+    private static class Table {
+        final int mask;
+        final long[] keys;
+        final Object[] originalKeys;
+        final AtomicReferenceArray<Object> values;
+
+        Table(final int capacity) {
+            mask = capacity - 1;
+            keys = new long[capacity];
+            originalKeys = new Object[capacity];
+            values = new AtomicReferenceArray<>(capacity);
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+
+        int index(final long key) {
+            final long h = key * 0x9E3779B97F4A7C15L;
+            return (int)(h ^ (h >>> 32)) & mask;
+        }
+    }
+
+    private volatile Table table = new Table(MIN_CAPACITY);
+    private volatile int size = 0;
+    // live entries plus tombstones. Only accessed under the lock.
+    private int occupied = 0;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(final Object key) {
+        final long k = toLong(key);
+        final Table t = table;
+        for(int i = t.index(k);; i = (i + 1) & t.mask) {
+            final Object v = t.values.get(i);
+            if(v == null)
+                return null;
+            if(v != TOMBSTONE && t.keys[i] == k)
+                return (V)v;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized V putIfAbsent(final Object key, final V value) {
+        final long k = toLong(key);
+        final int existing = find(table, k);
+        if(existing >= 0)
+            return (V)table.values.get(existing);
+
+        if((occupied + 1) * 2 > table.capacity())
+            rebuild();
+
+        final Table t = table;
+        int i = t.index(k);
+        while(t.values.get(i) != null)
+            i = (i + 1) & t.mask;
+        t.keys[i] = k;
+        t.originalKeys[i] = key;
+        t.values.set(i, value); // publishes the key.
+        occupied++;
+        size++;
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(final Object key) {
+        final Table t = table;
+        final int i = find(t, toLong(key));
+        if(i < 0)
+            return null;
+        final Object ret = t.values.getAndSet(i, TOMBSTONE);
+        t.originalKeys[i] = null;
+        size--;
+        return (V)ret;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * A snapshot of the keys in the map.
+     */
+    @Override
+    public Collection<Object> keySet() {
+        final Table t = table;
+        final List<Object> ret = new ArrayList<>(size + 10);
+        for(int i = 0; i < t.capacity(); i++) {
+            final Object v = t.values.get(i);
+            if(v != null && v != TOMBSTONE) {
+                final Object key = t.originalKeys[i];
+                if(key != null)
+                    ret.add(key);
+            }
+        }
+        return ret;
+    }
+
+    private static int find(final Table t, final long k) {
+        for(int i = t.index(k);; i = (i + 1) & t.mask) {
+            final Object v = t.values.get(i);
+            if(v == null)
+                return -1;
+            if(v != TOMBSTONE && t.keys[i] == k)
+                return i;
+        }
+    }
+
+    // called under the lock. Size the new table so it's at most a quarter full.
+    private void rebuild() {
+        final Table old = table;
+        final Table t = new Table(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, size + 1) * 4 - 1) << 1));
+        for(int j = 0; j < old.capacity(); j++) {
+            final Object v = old.values.get(j);
+            if(v != null && v != TOMBSTONE) {
+                int i = t.index(old.keys[j]);
+                while(t.values.get(i) != null)
+                    i = (i + 1) & t.mask;
+                t.keys[i] = old.keys[j];
+                t.originalKeys[i] = old.originalKeys[j];
+                t.values.lazySet(i, v);
+            }
+        }
+        occupied = size;
+        table = t; // publishes the new table.
+    }
+
+    static boolean isIntegral(final Object key) {
+        return key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte;
+    }
+
+    static long toLong(final Object key) {
+        if(isIntegral(key))
+            return ((Number)key).longValue();
+        throw new ContainerException("The " + LongKeyInstanceMap.class.getSimpleName() + " requires integral message keys (long, int, short or byte) but was given "
+            + (key == null ? "a null key" : ("a key of type " + key.getClass().getName())) + ".");
+    }
+}
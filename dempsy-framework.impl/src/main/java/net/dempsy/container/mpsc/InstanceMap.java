@@ -0,0 +1,60 @@
+package net.dempsy.container.mpsc;
+
+import java.util.Collection;
+
+import net.dempsy.util.StupidHashMap;
+
+/**
+ * The map from message key to Mp instance used by the {@link MpscContainer}. Changes to the map
+ * are always made while the container holds the lock on the key but reads may be concurrent with
+ * changes so implementations must support lock-free reads.
+ */
+public interface InstanceMap<V> {
+
+    public V get(Object key);
+
+    public V putIfAbsent(Object key, V value);
+
+    public V remove(Object key);
+
+    public int size();
+
+    /**
+     * A weakly consistent view (or snapshot) of the keys in the map.
+     */
+    public Collection<Object> keySet();
+
+    /**
+     * The general purpose {@link InstanceMap} that supports any key type.
+     */
+    public static <V> InstanceMap<V> hashed() {
+        final StupidHashMap<Object, V> map = new StupidHashMap<>();
+        return new InstanceMap<V>() {
+
+            @Override
+            public V get(final Object key) {
+                return map.get(key);
+            }
+
+            @Override
+            public V putIfAbsent(final Object key, final V value) {
+                return map.putIfAbsent(key, value);
+            }
+
+            @Override
+            public V remove(final Object key) {
+                return map.remove(key);
+            }
+
+            @Override
+            public int size() {
+                return map.size();
+            }
+
+            @Override
+            public Collection<Object> keySet() {
+                return map.keySet();
+            }
+        };
+    }
+}
@@ -0,0 +1,695 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.dempsy.container.mpsc;
+
+import static net.dempsy.util.SafeString.objectDescription;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.DempsyException;
+import net.dempsy.Infrastructure;
+import net.dempsy.container.Container;
+import net.dempsy.container.ContainerException;
+import net.dempsy.container.IdleEvictionIndex;
+import net.dempsy.messages.KeyedMessage;
+import net.dempsy.monitoring.StatsCollector;
+import net.dempsy.threading.ThreadingModel;
+import net.dempsy.util.SafeString;
+
+/**
+ * <p>
+ * The {@link MpscContainer} manages the lifecycle of message processors for the node that it's instantiated
+ * in.
+ * </p>
+ *
+ * <p>
+ * Each Mp has a lock-free multi-producer/single-consumer mailbox. The thread that finds the Mp idle
+ * becomes its (only) consumer and processes its own message without ever allocating a queue node.
+ * Any thread that finds the Mp busy links exactly one node onto the mailbox and returns immediately
+ * leaving the consumer to deliver it.
+ * </p>
+ *
+ * <p>
+ * Behavior:
+ * </p>
+ * <ul>
+ * <li>Can't set maxPendingMessagesPerContainer</li>
+ * <li>Internally queues messages (unlimited queue!)</li>
+ * <li>DOESN'T handle bulk processing</li>
+ * <li>Guarantee's order in submission of outgoing responses</li>
+ * <li>Never spins or blocks a dispatching thread on a busy Mp</li>
+ * </ul>
+ */
+public class MpscContainer extends Container {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MpscContainer.class);
+
+    // message key -> instance that handles messages with this key
+    // changes to this map will be synchronized; read-only may be concurrent
+    private final InstanceMap<InstanceWrapper> instances;
+
+    private final AtomicBoolean isReady = new AtomicBoolean(false);
+    protected final AtomicInteger numBeingWorked = new AtomicInteger(0);
+
+    protected ThreadingModel dempsyThreadingModel = null;
+
+    // only set when the cluster is configured to evict idle Mps.
+    private IdleEvictionIndex<InstanceWrapper> idleIndex = null;
+    // Mps only keep their last access time when it's needed for idle eviction or a maxMessageProcessors.
+    private boolean trackLastAccess = false;
+
+    public MpscContainer() {
+        this(LOGGER);
+    }
+
+    protected MpscContainer(final Logger logger) {
+        this(logger, InstanceMap.hashed());
+    }
+
+    protected MpscContainer(final Logger logger, final InstanceMap<InstanceWrapper> instances) {
+        super(logger);
+        this.instances = instances;
+    }
+
+    // ----------------------------------------------------------------------------
+    // Operation
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public void start(final Infrastructure infra) {
+        if(maxPendingMessagesPerContainer >= 0)
+            throw new IllegalStateException("Cannot use a " + MpscContainer.class.getPackage()
+                + " container with the maxPendingMessagesPerContainer set for " + clusterId
+                + " This container type does internal queuing. Please use the locking container.");
+
+        final long idleMillis = getIdleEvictionMillis();
+        idleIndex = idleMillis > 0 ? new IdleEvictionIndex<>(idleMillis) : null;
+        trackLastAccess = idleIndex != null || maxMessageProcessors > 0;
+
+        super.start(infra);
+
+        dempsyThreadingModel = infra.getThreadingModel();
+
+        isReady.set(true);
+    }
+
+    @Override
+    public boolean isReady() {
+        return isReady.get();
+    }
+
+    // ----------------------------------------------------------------------------
+    // Monitoring and Management
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns the number of message processors controlled by this manager.
+     */
+    @Override
+    public int getProcessorCount() {
+        return instances.size();
+    }
+
+    @Override
+    public int getMessageWorkingCount() {
+        return numBeingWorked.get();
+    }
+
+    @Override
+    public boolean containerInternallyQueuesMessages() {
+        return true;
+    }
+
+    @Override
+    public boolean containerSupportsBulkProcessing() {
+        return false;
+    }
+
+    @Override
+    public boolean containerSupportsIdleEviction() {
+        return true;
+    }
+
+    @Override
+    protected void instantiateMp(final Object key) throws ContainerException {
+        getInstanceForKey(key, null);
+    }
+
+    // ----------------------------------------------------------------------------
+    // Test Hooks
+    // ----------------------------------------------------------------------------
+    @Override
+    public Object getMp(final Object key) {
+        final InstanceWrapper iw = instances.get(key);
+        return iw == null ? null : iw.instance;
+    }
+
+    // ----------------------------------------------------------------------------
+    // Internals
+    // ----------------------------------------------------------------------------
+
+    /**
+     * A single entry in an Mp's mailbox. The node is only ever written by the producer
+     * that links it and read by the Mp's current consumer.
+     */
+    protected static final class Node {
+        Object message;
+        Operation op;
+        final long receivedNanos;
+        volatile Node next = null;
+
+        Node(final Object message, final Operation op, final long receivedNanos) {
+            this.message = message;
+            this.op = op;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+
+    private static final AtomicIntegerFieldUpdater<InstanceWrapper> PENDING = AtomicIntegerFieldUpdater
+        .newUpdater(InstanceWrapper.class, "pending");
+    private static final AtomicReferenceFieldUpdater<InstanceWrapper, Node> TAIL = AtomicReferenceFieldUpdater
+        .newUpdater(InstanceWrapper.class, Node.class, "tail");
+
+    /**
+     * <p>
+     * The mailbox is a Vyukov style intrusive queue guarded by the {@code pending} count. The thread
+     * that moves {@code pending} off of zero owns the Mp and is the only one allowed to touch {@code head}.
+     * Every other thread simply links a {@link Node} onto {@code tail}. The owner keeps draining until it
+     * manages to bring {@code pending} back down to zero.
+     * </p>
+     *
+     * <p>
+     * The field updaters are used rather than Atomic* instances since there can be many millions
+     * of these.
+     * </p>
+     */
+    protected static class InstanceWrapper {
+        public final Object instance;
+        public final Object key;
+        public volatile boolean evicted = false;
+        // only maintained when idle eviction is enabled.
+        volatile long lastAccess = System.currentTimeMillis();
+
+        // the number of messages handed to this Mp that haven't been completely processed. This
+        // includes the one currently being worked. The mailbox is free when this is zero.
+        volatile int pending = 0;
+        volatile Node tail;
+        private Node head; // only accessed by the thread that owns the mailbox.
+
+        public InstanceWrapper(final Object o, final Object key) {
+            this.instance = o;
+            this.key = key;
+            this.head = this.tail = new Node(null, null, NOT_TIMED);
+        }
+
+        /**
+         * @return true if the caller now owns the Mp and must process the message itself.
+         */
+        private boolean tryOwn() {
+            return PENDING.getAndIncrement(this) == 0;
+        }
+
+        /**
+         * Take ownership only if the Mp is idle. Used for eviction and shutdown.
+         */
+        private boolean tryOwnIdle() {
+            return PENDING.compareAndSet(this, 0, 1);
+        }
+
+        /**
+         * @return true if the caller still owns the Mp and there's at least one more message to take.
+         */
+        private boolean moreWork() {
+            return PENDING.decrementAndGet(this) != 0;
+        }
+
+        /**
+         * This never spins. It's a single atomic swap and a volatile write.
+         */
+        private void offer(final Node node) {
+            final Node prev = TAIL.getAndSet(this, node);
+            prev.next = node;
+        }
+
+        /**
+         * Only called by the owner and only when {@code pending} says there's another message. The
+         * message may have been counted but not yet linked by a producer that's between its two
+         * instructions so there can be a very brief wait here.
+         */
+        private Node take() {
+            Node next = head.next;
+            for(int spin = 0; next == null; spin++) {
+                if(spin < 100)
+                    Thread.onSpinWait();
+                else
+                    Thread.yield();
+                next = head.next;
+            }
+            head = next;
+            return next;
+        }
+
+        // ----------------------------------------------------------------------------
+        // Test access
+        // ----------------------------------------------------------------------------
+        protected Object getInstance() {
+            return instance;
+        }
+    }
+
+    // this is called directly from tests but shouldn't be accessed otherwise.
+    @Override
+    public void dispatch(final KeyedMessage keyedMessage, final Operation op, final boolean youOwnMessage) throws IllegalArgumentException, ContainerException {
+        dispatch(keyedMessage, op, youOwnMessage, NOT_TIMED);
+    }
+
+    @Override
+    protected void dispatch(final KeyedMessage keyedMessage, final Operation op, final boolean youOwnMessage, final long receivedNanos)
+        throws IllegalArgumentException, ContainerException {
+        if(keyedMessage == null)
+            return; // No. We didn't process the null message
+
+        if(keyedMessage.message == null)
+            throw new IllegalArgumentException("the container for " + clusterId + " attempted to dispatch null message.");
+
+        // we only use message disposition if we don't own the message (if the message just arrived,
+        // then we do own the message) the AND we're actually handling a message (as opposed to
+        // running an output cycle or an eviction).
+        final boolean callDisposition = !youOwnMessage && op.handlesMessage;
+
+        final Object actualMessage = callDisposition ? disposition.replicate(keyedMessage.message) : keyedMessage.message;
+        final Object messageKey = keyedMessage.key;
+
+        if(messageKey == null) {
+            if(callDisposition)
+                disposition.dispose(actualMessage);
+            throw new ContainerException("Message " + objectDescription(actualMessage) + " contains no key.");
+        }
+
+        if(!inbound.doesMessageKeyBelongToNode(messageKey)) {
+            if(callDisposition)
+                disposition.dispose(actualMessage);
+            if(LOGGER.isDebugEnabled())
+                LOGGER.debug("Message with key " + SafeString.objectDescription(messageKey) + " sent to wrong container. ");
+
+            if(Operation.output != op)
+                statCollector.messageFailed(1);
+            return;
+        }
+
+        numBeingWorked.incrementAndGet();
+
+        deliver(messageKey, actualMessage, op, callDisposition, receivedNanos);
+    }
+
+    /**
+     * Hand the message to the Mp for the given key. The message has already been counted in
+     * {@code numBeingWorked} and has been replicated if necessary.
+     */
+    private void deliver(final Object messageKey, final Object actualMessage, final Operation op, final boolean callDisposition,
+        final long receivedNanos) {
+        final InstanceWrapper wrapper;
+        try {
+            // an output is only invoked on an Mp that exists. It never creates one.
+            wrapper = op == Operation.output ? instances.get(messageKey) : getInstanceForKey(messageKey, actualMessage);
+        } catch(final RuntimeException rte) {
+            if(callDisposition)
+                disposition.dispose(actualMessage);
+            numBeingWorked.decrementAndGet();
+            throw rte;
+        }
+
+        // wrapper will be null if the activate returns 'false'
+        if(wrapper == null) {
+            // if we got here then either the Mp was evicted since the output pass started or
+            // the activate on the Mp explicitly returned 'false'
+            if(op != Operation.output && LOGGER.isDebugEnabled())
+                LOGGER.debug("the container for " + clusterId + " failed to activate the Mp for " + SafeString.valueOf(prototype));
+            if(callDisposition)
+                disposition.dispose(actualMessage);
+            numBeingWorked.decrementAndGet();
+            // we consider this "processed"
+            return;
+        }
+
+        if(trackLastAccess && op.handlesMessage)
+            wrapper.lastAccess = System.currentTimeMillis();
+
+        if(wrapper.tryOwn()) {
+            try {
+                // the Mp was idle so we process our own message without queuing it ...
+                handle(wrapper, actualMessage, op, callDisposition, receivedNanos);
+            } finally {
+                // ... and then anything that showed up while we were busy. This has to happen even if
+                // our own message failed or the mailbox would never be released.
+                drain(wrapper);
+            }
+        } else
+            // someone else is working the Mp. They'll pick this up.
+            wrapper.offer(new Node(actualMessage, op, receivedNanos));
+    }
+
+    /**
+     * Must only be called by the thread that owns the mailbox. Processes messages until the
+     * mailbox is empty at which point ownership is released. This never throws.
+     */
+    private void drain(final InstanceWrapper wrapper) {
+        while(wrapper.moreWork()) {
+            final Node node = wrapper.take();
+            final Object message = node.message;
+            final Operation op = node.op;
+            node.message = null; // the node stays behind as the head so don't hang onto the message.
+            try {
+                handle(wrapper, message, op, op.handlesMessage, node.receivedNanos);
+            } catch(final RuntimeException rte) {
+                // The thread that queued this message is long gone so there's no one to pass this to. Log
+                // it and make sure the rest of the mailbox still gets delivered.
+                LOGGER.warn("[{}]: Failed to deliver a queued message to the Mp for {}", clusterId, SafeString.objectDescription(wrapper.key), rte);
+            }
+        }
+    }
+
+    private void handle(final InstanceWrapper wrapper, final Object message, final Operation op, final boolean callDisposition,
+        final long receivedNanos) {
+        if(wrapper.evicted) {
+            // The Mp is gone. If we're still running then the message goes to its replacement.
+            if(isRunning.get())
+                deliver(wrapper.key, message, op, callDisposition, receivedNanos);
+            else {
+                if(callDisposition)
+                    disposition.dispose(message);
+                if(op.handlesMessage)
+                    statCollector.messageFailed(1);
+                numBeingWorked.decrementAndGet();
+            }
+        } else {
+            try {
+                invokeOperationAndHandleDispose(wrapper.instance, op, new KeyedMessage(wrapper.key, message));
+                recordEndToEnd(receivedNanos);
+            } finally {
+                numBeingWorked.decrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+
+        while(instances.size() > 0) {
+            final Set<Object> keys = new HashSet<>(instances.size() + 10);
+            keys.addAll(instances.keySet());
+
+            boolean gotOne = false;
+            for(final Object key: keys) {
+                final InstanceWrapper wrapper = instances.get(key);
+
+                if(wrapper != null && wrapper.tryOwnIdle()) { // this means I got it.
+                    gotOne = true;
+                    final Object instance = wrapper.instance;
+                    try {
+                        prototype.passivate(instance);
+                    } catch(final RuntimeException e) {
+                        LOGGER.warn("Passivating of the Mp " + SafeString.objectDescription(instance) +
+                            " resulted in an exception.", e.getCause());
+                    }
+
+                    wrapper.evicted = true;
+                    instances.remove(key);
+                    if(LOGGER.isDebugEnabled())
+                        LOGGER.debug("[{}]: Passivating Mp for {}. {} remaining", clusterId, key, instances.size());
+                    mpDeleted(key);
+
+                    // anything that snuck in gets failed since we're no longer running.
+                    drain(wrapper);
+                }
+            }
+
+            if(!gotOne)
+                Thread.yield();
+        }
+
+        if(idleIndex != null)
+            idleIndex.clear();
+    }
+
+    @Override
+    protected void evictIdle() {
+        final IdleEvictionIndex<InstanceWrapper> index = idleIndex;
+        if(index == null || !isRunning.get())
+            return;
+
+        try(final StatsCollector.TimerContext tctx = statCollector.evictionPassStarted();) {
+            index.expire(System.currentTimeMillis(), this::evictIfIdle);
+        } catch(final RuntimeException rte) {
+            LOGGER.error("Failed on idle eviction for " + clusterId, rte);
+        }
+    }
+
+    private long evictIfIdle(final InstanceWrapper wrapper, final long idleSince) {
+        // if it's already been removed by some other means then it's no longer in the index.
+        if(wrapper.evicted || instances.get(wrapper.key) != wrapper || !isRunning.get())
+            return -1;
+
+        final long lastAccess = wrapper.lastAccess;
+        if(lastAccess > idleSince)
+            return lastAccess;
+
+        // if we can't own it then it's currently handling a message so it's not idle.
+        if(!wrapper.tryOwnIdle())
+            return wrapper.lastAccess;
+
+        // Anyone trying to deliver messages will now simply add them to the mailbox so if a message
+        // arrived after the check above it's still safe to evict. It will go to a new instance.
+        final Object instance = wrapper.instance;
+        try {
+            prototype.passivate(instance);
+        } catch(final Throwable e) {
+            // even if passivate throws an exception we need to remove the instance.
+            LOGGER.warn("Passivating the idle Mp " + SafeString.objectDescription(instance) + " resulted in an exception.", e);
+        }
+
+        wrapper.evicted = true;
+        instances.remove(wrapper.key);
+        if(LOGGER.isDebugEnabled())
+            LOGGER.debug("[{}]: Evicting idle Mp for {}. {} remaining", clusterId, wrapper.key, instances.size());
+        mpDeleted(wrapper.key);
+
+        // release the mailbox. Anything queued while we held it goes to a new instance.
+        drain(wrapper);
+        return -1;
+    }
+
+    @Override
+    protected void doevict(final EvictCheck check) {
+        doevict(check, instances.keySet());
+    }
+
+    @Override
+    protected void doevict(final EvictCheck check, final Collection<Object> candidates) {
+        if(!check.isGenerallyEvitable() || !isRunning.get())
+            return;
+
+        try(final StatsCollector.TimerContext tctx = statCollector.evictionPassStarted();) {
+            // we need to make a copy of the instances in order to make sure
+            // the eviction check is done at once.
+            final Set<Object> keys = new HashSet<>(candidates.size() + 10);
+            keys.addAll(candidates);
+
+            while(keys.size() > 0 && instances.size() > 0 && isRunning.get() && !check.shouldStopEvicting()) {
+
+                // store off anything that passes for later removal. This is to avoid a
+                // ConcurrentModificationException.
+                final Set<Object> keysProcessed = new HashSet<>();
+
+                for(final Object key: keys) {
+                    final InstanceWrapper wrapper = instances.get(key);
+
+                    if(wrapper == null) { // the MP is already gone.
+                        keysProcessed.add(key);
+                        continue;
+                    }
+
+                    if(wrapper.tryOwnIdle()) { // this means I got it.
+                        keysProcessed.add(key); // mark this to remove it from the set of keys later since we've
+                                                // dealing with it
+
+                        // Anyone trying to deliver messages will now simply add them to the mailbox.
+                        final Object instance = wrapper.instance;
+                        boolean evictMe;
+                        try {
+                            evictMe = check.shouldEvict(key, instance);
+                        } catch(final RuntimeException e) {
+                            LOGGER.warn("Checking the eviction status/passivating of the Mp " + SafeString.objectDescription(instance) +
+                                " resulted in an exception.", e.getCause());
+                            evictMe = false;
+                        }
+
+                        if(evictMe) {
+                            try {
+                                prototype.passivate(instance);
+                            } catch(final Throwable e) {
+                                // even if passivate throws an exception, if the eviction check returned 'true' then
+                                // we need to remove the instance.
+                                LOGGER.warn("Checking the eviction status/passivating of the Mp "
+                                    + SafeString.objectDescription(instance) + " resulted in an exception.", e);
+                            }
+
+                            wrapper.evicted = true;
+                            instances.remove(key);
+                            if(LOGGER.isDebugEnabled())
+                                LOGGER.debug("[{}]: Evicting/Actually removing Mp for {}. {} remaining", clusterId, key, instances.size());
+                            mpDeleted(key);
+                        }
+
+                        // release the mailbox. If anything was queued while we held it then it's ours to
+                        // deliver. When the Mp was evicted it will go to a new instance.
+                        drain(wrapper);
+                    } // end - I got the mailbox. Otherwise it's too busy to evict.
+                }
+                keys.removeAll(keysProcessed); // remove the keys we already checked
+
+                if(keysProcessed.size() == 0)
+                    Thread.yield(); // everything left is busy.
+            }
+        }
+    }
+
+    @Override
+    protected boolean passivateIfIdle(final Object key, final long idleSince) {
+        final InstanceWrapper wrapper = instances.get(key);
+        return wrapper != null && evictIfIdle(wrapper, idleSince) < 0;
+    }
+
+    // This method MUST NOT THROW
+    @Override
+    protected void outputPass() {
+        if(!prototype.isOutputSupported())
+            return;
+
+        // take a snapshot of the current container state.
+        outputPass(new ArrayList<>(instances.keySet()), dempsyThreadingModel);
+    }
+
+    @Override
+    protected Collection<Object> getMpKeys() {
+        return instances.keySet();
+    }
+
+    // ----------------------------------------------------------------------------
+    // Internals
+    // ----------------------------------------------------------------------------
+
+    ConcurrentHashMap<Object, Boolean> keysBeingWorked = new ConcurrentHashMap<>();
+
+    /**
+     * This is required to return non null or throw a ContainerException
+     */
+    protected InstanceWrapper getInstanceForKey(final Object key, final Object actualMessage) throws ContainerException {
+        // common case has "no" contention
+        InstanceWrapper wrapper = instances.get(key);
+        if(wrapper != null)
+            return wrapper;
+
+        // otherwise we will be working to get one.
+        final Boolean tmplock = Boolean.TRUE;
+        Boolean lock = keysBeingWorked.putIfAbsent(key, tmplock);
+        if(lock == null)
+            lock = tmplock;
+
+        // otherwise we'll do an atomic check-and-update
+        synchronized(lock) {
+            wrapper = instances.get(key); // double checked lock?????
+            if(wrapper != null)
+                return wrapper;
+
+            Object instance = null;
+            try {
+                instance = prototype.newInstance();
+            } catch(final DempsyException e) {
+                if(e.userCaused()) {
+                    LOGGER.warn("The message processor prototype " + SafeString.valueOf(prototype)
+                        + " threw an exception when trying to create a new message processor for they key " + SafeString.objectDescription(key), e.userCause);
+                    statCollector.messageFailed(1);
+                    instance = null;
+                } else
+                    throw new ContainerException("the container for " + clusterId + " failed to create a new instance of " +
+                        SafeString.valueOf(prototype) + " for the key " + SafeString.objectDescription(key) +
+                        " because the clone method threw an exception.", e);
+            } catch(final RuntimeException e) {
+                throw new ContainerException("the container for " + clusterId + " failed to create a new instance of " +
+                    SafeString.valueOf(prototype) + " for the key " + SafeString.objectDescription(key) +
+                    " because the clone invocation resulted in an unknown exception.", e);
+            }
+
+            if(instance == null)
+                throw new ContainerException("the container for " + clusterId + " failed to create a new instance of " +
+                    SafeString.valueOf(prototype) + " for the key " + SafeString.objectDescription(key) +
+                    ". The value returned from the clone call appears to be null.");
+
+            // activate
+            boolean activateSuccessful = false;
+            try {
+                if(LOGGER.isTraceEnabled())
+                    LOGGER.trace("the container for " + clusterId + " is activating instance " + String.valueOf(instance)
+                        + " via " + SafeString.valueOf(prototype) + " for " + SafeString.valueOf(key));
+                prototype.activate(instance, key, actualMessage);
+                activateSuccessful = true;
+            } catch(final DempsyException e) {
+                if(e.userCaused()) {
+                    LOGGER.warn("The message processor " + SafeString.objectDescription(instance) + " activate call threw an exception.", e.userCause);
+                    statCollector.messageFailed(1);
+                    instance = null;
+                } else
+                    throw new ContainerException(
+                        "the container for " + clusterId + " failed to invoke the activate method of " + SafeString.valueOf(prototype)
+                            + ". Is the active method accessible - the class is public and the method is public?",
+                        e);
+            } catch(final RuntimeException e) {
+                throw new ContainerException(
+                    "the container for " + clusterId + " failed to invoke the activate method of " + SafeString.valueOf(prototype) +
+                        " because of an unknown exception.",
+                    e);
+            }
+
+            if(activateSuccessful) {
+                // we only want to create a wrapper and place the instance into the container
+                // if the instance activated correctly. If we got here then the above try block
+                // must have been successful.
+                wrapper = new InstanceWrapper(instance, key); // null check above.
+                instances.putIfAbsent(key, wrapper); // once it goes into the map, we can remove it from the 'being
+                                                     // worked' set
+                keysBeingWorked.remove(key); // remove it from the keysBeingWorked since any subsequent call will get
+                // the newly added one.
+                mpCreated(key);
+                if(idleIndex != null)
+                    idleIndex.add(wrapper, wrapper.lastAccess);
+            }
+            return wrapper;
+        }
+    }
+}
@@ -30,6 +30,7 @@ import net.dempsy.router.RoutingStrategyManager;
 import net.dempsy.transport.NodeAddress;
 import net.dempsy.transport.RoutedMessage;
 import net.dempsy.transport.Sender;
+import net.dempsy.transport.SharedPayload;
 import net.dempsy.transport.TransportManager;
 import net.dempsy.util.QuietCloseable;
 import net.dempsy.util.SafeString;
@@ -157,40 +158,63 @@ public class OutgoingDispatcher extends Dispatcher implements Service {
                         SafeString.objectDescription(message.message));
             }
 
-            for(final Map.Entry<NodeAddress, ContainerAddress> e: containerByNodeAddress.entrySet()) {
-                final NodeAddress curNode = e.getKey();
-                final ContainerAddress curAddr = e.getValue();
-
-                // If we're local then just send this message directly back to our own node.
-                if(curNode.equals(thisNode)) {
-                    if(traceEnabled)
-                        LOGGER.trace("Sending local {}", message);
-
-                    // if the message is a resource then the disposer will be used to dispose of the message
-                    // but it needs an additional replicate. See propogateMessageToNode javadoc.
-                    nodeReciever.propogateMessageToNode(
-                        new RoutedMessage(curAddr.clusters, messageKey,
-                            disposer == null ? message.message : disposer.replicate(message.message)),
-                        false, // this shouldn't count since Router is an OUTGOING class
-                        disposer);
-                    messageSentSomewhere = true;
-                } else {
-                    if(traceEnabled)
-                        LOGGER.trace("Sending {} to {}", message, curNode);
-
-                    final Sender sender = cur.getSender(curNode);
-                    if(sender == null) {
-                        // router update is probably behind the routing strategy update
-                        if(isRunning.get())
-                            LOGGER.error("[{}] Couldn't send message to " + curNode + " from " + thisNodeId + " because there's no "
-                                + Sender.class.getSimpleName(), thisNodeId);
-                    } else {
-                        sender.send(new RoutedMessage(curAddr.clusters, messageKey,
-                            sender.considerMessageOwnsershipTransfered() ? (disposer == null ? message.message : disposer.replicate(message.message))
-                                : message.message));
+            // when the message is going to more than one remote node the transport can share the serialized payload.
+            final int numRemote = containerByNodeAddress.size() - (containerByNodeAddress.containsKey(thisNode) ? 1 : 0);
+            final SharedPayload shared = numRemote > 1 ? new SharedPayload(message.message, numRemote) : null;
+
+            int numRemoteHandedOff = 0;
+            try {
+                for(final Map.Entry<NodeAddress, ContainerAddress> e: containerByNodeAddress.entrySet()) {
+                    final NodeAddress curNode = e.getKey();
+                    final ContainerAddress curAddr = e.getValue();
+
+                    // If we're local then just send this message directly back to our own node.
+                    if(curNode.equals(thisNode)) {
+                        if(traceEnabled)
+                            LOGGER.trace("Sending local {}", message);
+
+                        // if the message is a resource then the disposer will be used to dispose of the message
+                        // but it needs an additional replicate. See propogateMessageToNode javadoc.
+                        nodeReciever.propogateMessageToNode(
+                            new RoutedMessage(curAddr.clusters, messageKey,
+                                disposer == null ? message.message : disposer.replicate(message.message)),
+                            false, // this shouldn't count since Router is an OUTGOING class
+                            disposer);
                         messageSentSomewhere = true;
+                    } else {
+                        if(traceEnabled)
+                            LOGGER.trace("Sending {} to {}", message, curNode);
+
+                        final Sender sender = cur.getSender(curNode);
+                        if(sender == null) {
+                            numRemoteHandedOff++;
+                            if(shared != null)
+                                shared.release();
+                            // router update is probably behind the routing strategy update
+                            if(isRunning.get())
+                                LOGGER.error("[{}] Couldn't send message to " + curNode + " from " + thisNodeId + " because there's no "
+                                    + Sender.class.getSimpleName(), thisNodeId);
+                        } else {
+                            final RoutedMessage toSend = new RoutedMessage(curAddr.clusters, messageKey,
+                                sender.considerMessageOwnsershipTransfered()
+                                    ? (disposer == null ? message.message : disposer.replicate(message.message))
+                                    : message.message);
+                            // the sender releases this destination's reference to the shared payload even if it fails.
+                            numRemoteHandedOff++;
+                            if(shared != null)
+                                sender.send(toSend, shared);
+                            else
+                                sender.send(toSend);
+                            messageSentSomewhere = true;
+                        }
                     }
                 }
+            } finally {
+                // if something failed part way through, the destinations we never got to still hold references.
+                if(shared != null) {
+                    for(int i = numRemoteHandedOff; i < numRemote; i++)
+                        shared.release();
+                }
             }
         } finally {
             if(!messageSentSomewhere) {
@@ -1,9 +1,12 @@
 package net.dempsy.monitoring.dropwizard;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingTimeWindowArrayReservoir;
 import com.codahale.metrics.Timer;
 
 import net.dempsy.config.ClusterId;
@@ -18,12 +21,25 @@ public class DropwizardClusterStatsCollector implements ClusterStatsCollector {
     public static final String MESSAGES_FAILED = "messages-failed";
     public static final String MESSAGES_COLLISION = "messages-collision";
     public static final String MESSAGES_DISCARDED = "messages-discarded";
+    public static final String MESSAGES_EXPIRED = "messages-expired";
     public static final String MESSAGES_PENDING = "messages-pending";
     public static final String MESSAGES_PROCESSOR_CREATED = "messages-processor-created";
     public static final String MESSAGES_PROCESSOR_DELETED = "messages-processor-deleted";
+    public static final String MESSAGES_PROCESSOR_FORCED_PASSIVATION = "messages-processor-forced-passivation";
+    public static final String MESSAGES_PROCESSOR_COUNT = "messages-processor-count";
+    public static final String MESSAGE_BATCH_SIZE = "message-batch-size";
     public static final String OUTPUT_INVOKE_STARTED_TIMER = "output-invoke-started-timer";
     public static final String EVICTION_PASS_STARTED_TIMER = "eviction-pass-started-timer";
     public static final String PRE_INSTANTIATION_STARTED_TIMER = "pre-instantiation-started-timer";
+    public static final String MESSAGE_DESERIALIZE_LATENCY = "message-deserialize-latency";
+    public static final String MESSAGE_QUEUE_LATENCY = "message-queue-latency";
+    public static final String MESSAGE_HANDLER_LATENCY = "message-handler-latency";
+    public static final String MESSAGE_END_TO_END_LATENCY = "message-end-to-end-latency";
+
+    /**
+     * The window, in seconds, over which the message stage latencies are kept.
+     */
+    public static final long STAGE_LATENCY_WINDOW_SECONDS = 60;
 
     public static final String[] METRIC_NAMES = new String[] {
         MESSAGES_DISPATCHED,
@@ -31,12 +47,20 @@ public class DropwizardClusterStatsCollector implements ClusterStatsCollector {
         MESSAGES_FAILED,
         MESSAGES_COLLISION,
         MESSAGES_DISCARDED,
+        MESSAGES_EXPIRED,
         MESSAGES_PROCESSOR_CREATED,
         MESSAGES_PROCESSOR_DELETED,
+        MESSAGES_PROCESSOR_FORCED_PASSIVATION,
+        MESSAGES_PROCESSOR_COUNT,
+        MESSAGE_BATCH_SIZE,
         OUTPUT_INVOKE_STARTED_TIMER,
         EVICTION_PASS_STARTED_TIMER,
         PRE_INSTANTIATION_STARTED_TIMER,
-        MESSAGES_PENDING
+        MESSAGES_PENDING,
+        MESSAGE_DESERIALIZE_LATENCY,
+        MESSAGE_QUEUE_LATENCY,
+        MESSAGE_HANDLER_LATENCY,
+        MESSAGE_END_TO_END_LATENCY
     };
 
     private static class DropwizardTimerContext implements StatsCollector.TimerContext {
@@ -62,10 +86,15 @@ public class DropwizardClusterStatsCollector implements ClusterStatsCollector {
     private final Meter messageFailed;
     private final Meter messageCollision;
     private final Meter messageDiscarded;
+    private final Meter messageExpired;
     private final Meter messageProcessorCreated;
     private final Meter messageProcessorDeleted;
+    private final Meter messageProcessorForcedPassivation;
+    private final Histogram messageBatchSize;
+    private final Timer[] messageStageLatency; // indexed by MessageStage ordinal
 
     private final AtomicLong inProcessMessages = new AtomicLong();
+    private final AtomicLong numberOfMps = new AtomicLong();
 
     public DropwizardClusterStatsCollector(final ClusterId clusterId) {
         super();
@@ -78,9 +107,18 @@ public class DropwizardClusterStatsCollector implements ClusterStatsCollector {
         messageFailed = registry.meter(getName(MESSAGES_FAILED));
         messageCollision = registry.meter(getName(MESSAGES_COLLISION));
         messageDiscarded = registry.meter(getName(MESSAGES_DISCARDED));
+        messageExpired = registry.meter(getName(MESSAGES_EXPIRED));
         messageProcessorCreated = registry.meter(getName(MESSAGES_PROCESSOR_CREATED));
         messageProcessorDeleted = registry.meter(getName(MESSAGES_PROCESSOR_DELETED));
+        messageProcessorForcedPassivation = registry.meter(getName(MESSAGES_PROCESSOR_FORCED_PASSIVATION));
+        messageBatchSize = registry.histogram(getName(MESSAGE_BATCH_SIZE));
+        messageStageLatency = new Timer[MessageStage.values().length];
+        messageStageLatency[MessageStage.DESERIALIZE.ordinal()] = stageTimer(MESSAGE_DESERIALIZE_LATENCY);
+        messageStageLatency[MessageStage.QUEUE.ordinal()] = stageTimer(MESSAGE_QUEUE_LATENCY);
+        messageStageLatency[MessageStage.HANDLER.ordinal()] = stageTimer(MESSAGE_HANDLER_LATENCY);
+        messageStageLatency[MessageStage.END_TO_END.ordinal()] = stageTimer(MESSAGE_END_TO_END_LATENCY);
         registry.gauge(getName(MESSAGES_PENDING), () -> () -> inProcessMessages.get());
+        registry.gauge(getName(MESSAGES_PROCESSOR_COUNT), () -> () -> numberOfMps.get());
     }
 
     @Override
@@ -111,14 +149,36 @@ public class DropwizardClusterStatsCollector implements ClusterStatsCollector {
         messageDiscarded.mark();
     }
 
+    @Override
+    public void messageExpired(final Object message) {
+        messageExpired.mark();
+    }
+
     @Override
     public void messageProcessorCreated(final Object key) {
         messageProcessorCreated.mark();
+        numberOfMps.incrementAndGet();
     }
 
     @Override
     public void messageProcessorDeleted(final Object key) {
         messageProcessorDeleted.mark();
+        numberOfMps.decrementAndGet();
+    }
+
+    @Override
+    public void messageProcessorForcedPassivation(final Object key) {
+        messageProcessorForcedPassivation.mark();
+    }
+
+    @Override
+    public void messageBatchDelivered(final int batchSize) {
+        messageBatchSize.update(batchSize);
+    }
+
+    @Override
+    public void messageStageLatency(final MessageStage stage, final long nanos) {
+        messageStageLatency[stage.ordinal()].update(nanos, TimeUnit.NANOSECONDS);
     }
 
     @Override
@@ -144,6 +204,11 @@ public class DropwizardClusterStatsCollector implements ClusterStatsCollector {
         return new DropwizardTimerContext(registry, getName(EVICTION_PASS_STARTED_TIMER));
     }
 
+    // These are updated for every message so they use a reservoir that doesn't lock on update.
+    private Timer stageTimer(final String key) {
+        return registry.timer(getName(key), () -> new Timer(new SlidingTimeWindowArrayReservoir(STAGE_LATENCY_WINDOW_SECONDS, TimeUnit.SECONDS)));
+    }
+
     // protected access for testing purposes
     protected String getName(final String key) {
         return MetricRegistry.name(DropwizardClusterStatsCollector.class, "cluster", clusterId.applicationName, clusterId.clusterName, key);
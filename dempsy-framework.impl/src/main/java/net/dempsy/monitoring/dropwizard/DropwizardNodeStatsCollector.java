@@ -2,6 +2,8 @@ package net.dempsy.monitoring.dropwizard;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.LongSupplier;
 
 import com.codahale.metrics.Meter;
@@ -18,6 +20,8 @@ public class DropwizardNodeStatsCollector implements NodeStatsCollector {
     public static final String MESSAGE_NOT_SENT = "message-not-sent";
     public static final String MESSAGES_PENDING_GAUGE = "messages-pending-gauge";
     public static final String MESSAGES_OUT_PENDING_GAUGE = "messages-out-pending-gauge";
+    public static final String THREAD_POOL_SIZE_GAUGE = "thread-pool-size-gauge";
+    public static final String THREAD_POOL_RESIZE_GAUGE = "thread-pool-resize-gauge";
 
     public static final String[] METRIC_NAMES = new String[] {
         MESSAGE_RECEIVED,
@@ -25,7 +29,9 @@ public class DropwizardNodeStatsCollector implements NodeStatsCollector {
         MESSAGE_SENT,
         MESSAGE_NOT_SENT,
         MESSAGES_PENDING_GAUGE,
-        MESSAGES_OUT_PENDING_GAUGE
+        MESSAGES_OUT_PENDING_GAUGE,
+        THREAD_POOL_SIZE_GAUGE,
+        THREAD_POOL_RESIZE_GAUGE
     };
 
     private List<DropwizardReporterRegistrar> reporters = new ArrayList<>();
@@ -38,6 +44,7 @@ public class DropwizardNodeStatsCollector implements NodeStatsCollector {
     private final Meter messageDiscarded;
     private final Meter messageSent;
     private final Meter messageNotSent;
+    private final Set<String> outPendingDestinations = ConcurrentHashMap.newKeySet();
 
     public DropwizardNodeStatsCollector() {
         registry = MetricUtils.getMetricsRegistry();
@@ -67,6 +74,9 @@ public class DropwizardNodeStatsCollector implements NodeStatsCollector {
         for(final String m: METRIC_NAMES) {
             registry.remove(getName(m));
         }
+        for(final String destination: outPendingDestinations)
+            registry.remove(getName(MESSAGES_OUT_PENDING_GAUGE, destination));
+        outPendingDestinations.clear();
     }
 
     @Override
@@ -117,9 +127,59 @@ public class DropwizardNodeStatsCollector implements NodeStatsCollector {
         }
     }
 
+    @Override
+    public void setMessagesOutPendingGauge(final String destination, final LongSupplier currentMessagesOutPendingGauge) {
+        final String gaugeName = getName(MESSAGES_OUT_PENDING_GAUGE, destination);
+        // a destination that's reconnected replaces its previous gauge.
+        registry.remove(gaugeName);
+        if(currentMessagesOutPendingGauge == null)
+            outPendingDestinations.remove(destination);
+        else {
+            outPendingDestinations.add(destination);
+            registry.register(gaugeName, new com.codahale.metrics.Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return currentMessagesOutPendingGauge.getAsLong();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void setThreadPoolSizeGauge(final LongSupplier currentThreadPoolSizeGauge) {
+        final String gaugeName = getName(THREAD_POOL_SIZE_GAUGE);
+        // If the registry doesn't already have this gauge, then add it.
+        if(!registry.getGauges().containsKey(gaugeName)) {
+            registry.register(gaugeName, new com.codahale.metrics.Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return currentThreadPoolSizeGauge.getAsLong();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void setThreadPoolResizeGauge(final LongSupplier lastThreadPoolResizeGauge) {
+        final String gaugeName = getName(THREAD_POOL_RESIZE_GAUGE);
+        // If the registry doesn't already have this gauge, then add it.
+        if(!registry.getGauges().containsKey(gaugeName)) {
+            registry.register(gaugeName, new com.codahale.metrics.Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return lastThreadPoolResizeGauge.getAsLong();
+                }
+            });
+        }
+    }
+
     // protected access for testing purposes
     protected String getName(final String key) {
         return MetricRegistry.name(DropwizardNodeStatsCollector.class, "node", key);
     }
 
+    protected String getName(final String key, final String destination) {
+        return MetricRegistry.name(DropwizardNodeStatsCollector.class, "node", key, destination);
+    }
+
 }
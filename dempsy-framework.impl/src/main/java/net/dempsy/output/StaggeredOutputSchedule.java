@@ -0,0 +1,148 @@
+package net.dempsy.output;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobBuilder;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.impl.StdSchedulerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.Infrastructure;
+import net.dempsy.threading.QuartzHelper;
+
+/**
+ * <p>
+ * Like the {@link RelativeOutputSchedule}, this invokes the @Output method of each MP once per interval
+ * but rather than invoking every MP at the same instant, the interval is divided into slices and each
+ * MP's output is invoked on its slice. An MP's slice is fixed by the hash of its key (see
+ * {@link OutputInvoker#outputSlice(Object, int)}) so the time between its outputs is still the interval.
+ * </p>
+ *
+ * <p>
+ * This flattens the burst of output messages that otherwise hits downstream clusters all at once
+ * every interval.
+ * </p>
+ */
+public class StaggeredOutputSchedule implements OutputScheduler {
+    private static Logger LOGGER = LoggerFactory.getLogger(StaggeredOutputSchedule.class);
+
+    public static final String STAGGERED_OUTPUT_JOB_NAME = "staggeredOutputSchedule";
+
+    /**
+     * When the number of slices isn't given, the interval is divided into slices of this length ...
+     */
+    public static final long DEFAULT_SLICE_MILLIS = 100;
+
+    /**
+     * ... up to this many slices.
+     */
+    public static final int DEFAULT_MAX_SLICES = 100;
+
+    private final long interval;
+    private final TimeUnit timeUnit;
+    private final int numSlices;
+    private final AtomicInteger nextSlice = new AtomicInteger(0);
+
+    private OutputInvoker outputInvoker = null;
+    private Scheduler scheduler = null;
+
+    public StaggeredOutputSchedule(final long interval, final TimeUnit timeUnit) {
+        this(interval, timeUnit, (int)Math.max(1, Math.min(DEFAULT_MAX_SLICES, timeUnit.toMillis(interval) / DEFAULT_SLICE_MILLIS)));
+    }
+
+    public StaggeredOutputSchedule(final long interval, final TimeUnit timeUnit, final int numSlices) {
+        if(numSlices < 1)
+            throw new IllegalArgumentException("The number of slices for a " + StaggeredOutputSchedule.class.getSimpleName() + " must be at least 1.");
+        if(timeUnit.toMillis(interval) < numSlices)
+            throw new IllegalArgumentException("The interval for a " + StaggeredOutputSchedule.class.getSimpleName() + " must be at least "
+                + numSlices + " milliseconds to be divided into " + numSlices + " slices.");
+        this.interval = interval;
+        this.timeUnit = timeUnit;
+        this.numSlices = numSlices;
+    }
+
+    public int getNumSlices() {
+        return numSlices;
+    }
+
+    @Override
+    public void setOutputInvoker(final OutputInvoker outputInvoker) {
+        if(this.outputInvoker != null) {
+            LOGGER.error("Cannot supply a second output invoker to a " + StaggeredOutputSchedule.class.getSimpleName()
+                + ". Do you have the same instance of the " + StaggeredOutputSchedule.class.getSimpleName() + " being used in more than one container?");
+            throw new IllegalStateException("Cannot supply a second output invoker to a " + StaggeredOutputSchedule.class.getSimpleName()
+                + ". Do you have the same instance of the " + StaggeredOutputSchedule.class.getSimpleName() + " being used in more than one container?");
+        }
+        this.outputInvoker = outputInvoker;
+    }
+
+    @Override
+    public void start(final Infrastructure infra) {
+        LOGGER.info("Starting staggered output scheduler with {} slices for {}", numSlices, outputInvoker);
+        // There seems to be a bug in Quartz where getting the default scheduler causes a failure
+        // when done in parallel.
+        synchronized(StdSchedulerFactory.class) {
+            try {
+                final JobDetail jobDetail = JobBuilder.newJob(StaggeredOutputJob.class).build();
+                jobDetail.getJobDataMap().put(STAGGERED_OUTPUT_JOB_NAME, this);
+
+                final long sliceMillis = timeUnit.toMillis(interval) / numSlices;
+                final Trigger trigger = QuartzHelper.getSimpleTrigger(TimeUnit.MILLISECONDS, (int)Math.min(Integer.MAX_VALUE, sliceMillis));
+                scheduler = StdSchedulerFactory.getDefaultScheduler();
+                scheduler.scheduleJob(jobDetail, trigger);
+                scheduler.start();
+                LOGGER.info("Started staggered output scheduler for " + outputInvoker);
+            } catch(final SchedulerException se) {
+                LOGGER.error("Error occurred while starting the staggered scheduler : " + se.getMessage(), se);
+            }
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        try {
+            if(scheduler != null)
+                // gracefully shutting down
+                scheduler.shutdown(false);
+        } catch(final SchedulerException se) {
+            LOGGER.error("Error occurred while stopping the staggered scheduler : " + se.getMessage(), se);
+        }
+    }
+
+    /**
+     * Invoke the output for the next slice. The slices are invoked in order and wrap
+     * around once per interval.
+     */
+    void invokeNextSlice() {
+        final int slice = nextSlice.getAndUpdate(s -> (s + 1) % numSlices);
+        outputInvoker.invokeOutput(slice, numSlices);
+    }
+
+    // a slice that takes longer than its share of the interval delays the next one rather than overlapping it.
+    @DisallowConcurrentExecution
+    public static class StaggeredOutputJob implements Job {
+        @Override
+        public void execute(final JobExecutionContext context) throws JobExecutionException {
+            final StaggeredOutputSchedule schedule = (StaggeredOutputSchedule)context.getJobDetail().getJobDataMap().get(STAGGERED_OUTPUT_JOB_NAME);
+
+            if(schedule != null && schedule.outputInvoker != null)
+                schedule.invokeNextSlice();
+            else
+                LOGGER.warn("outputInvoker is NULL");
+        }
+    }
+}
@@ -16,7 +16,7 @@ import net.dempsy.Infrastructure;
 import net.dempsy.KeyspaceChangeListener;
 import net.dempsy.config.ClusterId;
 import net.dempsy.router.RoutingStrategy.ContainerAddress;
-import net.dempsy.router.RoutingStrategy.Inbound;
+import net.dempsy.router.RoutingStrategy.ShardedInbound;
 import net.dempsy.router.group.intern.GroupDetails;
 import net.dempsy.router.shardutils.Leader;
 import net.dempsy.router.shardutils.Subscriber;
@@ -38,7 +38,7 @@ public class ClusterGroupInbound {
 
     private static final Map<NodeAddress, Map<String, ClusterGroupInbound>> current = new HashMap<>();
 
-    public static class Proxy implements Inbound {
+    public static class Proxy implements ShardedInbound {
         ClusterGroupInbound proxied = null;
 
         private ClusterId clusterId = null;
@@ -96,6 +96,21 @@ public class ClusterGroupInbound {
             return subscriber.doIOwnShard(shardNum);
         }
 
+        @Override
+        public int getTotalShards() {
+            return utils == null ? 0 : mask + 1;
+        }
+
+        @Override
+        public int determineShard(final Object messageKey) {
+            return utils.determineShard(messageKey, mask);
+        }
+
+        @Override
+        public boolean doesShardBelongToNode(final int shard) {
+            return subscriber.doIOwnShard(shard);
+        }
+
         // called back from ClusterGroupInbound once it's fully started.
         private void setup(final Subscriber<GroupDetails> subscriber, final Utils<GroupDetails> utils, final int mask) {
             this.mask = mask;
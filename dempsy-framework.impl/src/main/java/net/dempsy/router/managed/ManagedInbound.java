@@ -6,12 +6,12 @@ import net.dempsy.Infrastructure;
 import net.dempsy.KeyspaceChangeListener;
 import net.dempsy.config.ClusterId;
 import net.dempsy.router.RoutingStrategy.ContainerAddress;
-import net.dempsy.router.RoutingStrategy.Inbound;
+import net.dempsy.router.RoutingStrategy.ShardedInbound;
 import net.dempsy.router.shardutils.Leader;
 import net.dempsy.router.shardutils.Subscriber;
 import net.dempsy.router.shardutils.Utils;
 
-public class ManagedInbound implements Inbound {
+public class ManagedInbound implements ShardedInbound {
     private Leader<ContainerAddress> leader;
     private Subscriber<ContainerAddress> subscriber;
     private Utils<ContainerAddress> utils;
@@ -64,4 +64,19 @@ public class ManagedInbound implements Inbound {
         final int shardNum = utils.determineShard(messageKey, mask);
         return subscriber.doIOwnShard(shardNum);
     }
+
+    @Override
+    public int getTotalShards() {
+        return utils == null ? 0 : mask + 1;
+    }
+
+    @Override
+    public int determineShard(final Object messageKey) {
+        return utils.determineShard(messageKey, mask);
+    }
+
+    @Override
+    public boolean doesShardBelongToNode(final int shard) {
+        return subscriber.doIOwnShard(shard);
+    }
 }
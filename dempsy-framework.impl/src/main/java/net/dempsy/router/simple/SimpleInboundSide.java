@@ -25,6 +25,7 @@ public class SimpleInboundSide implements RoutingStrategy.Inbound {
     private ContainerAddress address;
     private PersistentTask registerer;
     private ClusterInfoSession session;
+    private KeyspaceChangeListener listener;
     private String rootDir;
     private String actualDir = null;
     private final AtomicBoolean isRunning = new AtomicBoolean(false);
@@ -45,7 +46,7 @@ public class SimpleInboundSide implements RoutingStrategy.Inbound {
                     if (actualDir != null) {
                         // is actualDir still there?
                         if (session.exists(actualDir, null)) {
-                            isReady.set(true);
+                            ready();
                             return true;
                         }
                     }
@@ -53,7 +54,7 @@ public class SimpleInboundSide implements RoutingStrategy.Inbound {
                     actualDir = session.mkdir(rootDir + "/" + SIMPLE_SUBDIR, address, DirMode.EPHEMERAL_SEQUENTIAL);
                     session.exists(actualDir, this);
                     LOGGER.debug("Registed " + SimpleInboundSide.class.getSimpleName() + " at " + actualDir);
-                    isReady.set(true);
+                    ready();
                     return true;
                 } catch (final ClusterInfoException e) {
                     final String message = "Failed to register " + SimpleInboundSide.class.getSimpleName() + " for cluster " + clusterId
@@ -76,6 +77,19 @@ public class SimpleInboundSide implements RoutingStrategy.Inbound {
         registerer.process();
     }
 
+    // The simple strategy owns the entire keyspace so the first time we're registered
+    // the container is told the keyspace grew.
+    private void ready() {
+        if (!isReady.getAndSet(true) && listener != null) {
+            try {
+                listener.keyspaceChanged(false, true);
+            } catch (final RuntimeException rte) {
+                LOGGER.error("Exception while notifying " + KeyspaceChangeListener.class.getSimpleName() + " that " + clusterId
+                        + " gained the keyspace", rte);
+            }
+        }
+    }
+
     @Override
     public void stop() {
         isRunning.set(false);
@@ -87,9 +101,10 @@ public class SimpleInboundSide implements RoutingStrategy.Inbound {
     }
 
     @Override
-    public void setContainerDetails(final ClusterId clusterId, final ContainerAddress address, final KeyspaceChangeListener nothing) {
+    public void setContainerDetails(final ClusterId clusterId, final ContainerAddress address, final KeyspaceChangeListener listener) {
         this.clusterId = clusterId;
         this.address = address;
+        this.listener = listener;
     }
 
     public String getAddressSubdirectory() {
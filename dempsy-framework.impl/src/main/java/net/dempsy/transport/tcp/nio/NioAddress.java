@@ -7,11 +7,56 @@ import net.dempsy.transport.tcp.TcpAddress;
 public class NioAddress extends TcpAddress {
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Whether or not the receiver at this address understands frames where the payload
+     * is serialized separately from the routing information. Addresses registered by
+     * older receivers will have this set to false.
+     */
+    public final boolean sharedPayloadFrames;
+
+    /**
+     * Whether or not the receiver at this address understands frames carrying several
+     * messages. Addresses registered by older receivers will have this set to false.
+     */
+    public final boolean batchedFrames;
+
+    /**
+     * Whether or not the receiver at this address understands frames where the routing
+     * information precedes the payload in a fixed header. Addresses registered by older
+     * receivers will have this set to false.
+     */
+    public final boolean routedFrames;
+
+    /**
+     * Whether or not the receiver at this address grants credits to senders that ask for them.
+     * Addresses registered by older receivers will have this set to false.
+     */
+    public final boolean flowControl;
+
     public NioAddress(final InetAddress inetAddress, final int port, final String serializerId, final int recvBufferSize, final long messageSizeLimit) {
+        this(inetAddress, port, serializerId, recvBufferSize, messageSizeLimit, false, false, false, false);
+    }
+
+    public NioAddress(final InetAddress inetAddress, final int port, final String serializerId, final int recvBufferSize, final long messageSizeLimit,
+        final boolean sharedPayloadFrames, final boolean batchedFrames) {
+        this(inetAddress, port, serializerId, recvBufferSize, messageSizeLimit, sharedPayloadFrames, batchedFrames, false, false);
+    }
+
+    public NioAddress(final InetAddress inetAddress, final int port, final String serializerId, final int recvBufferSize, final long messageSizeLimit,
+        final boolean sharedPayloadFrames, final boolean batchedFrames, final boolean routedFrames, final boolean flowControl) {
         super(inetAddress, port, serializerId, recvBufferSize, messageSizeLimit);
+        this.sharedPayloadFrames = sharedPayloadFrames;
+        this.batchedFrames = batchedFrames;
+        this.routedFrames = routedFrames;
+        this.flowControl = flowControl;
     }
 
     @SuppressWarnings("unused")
-    private NioAddress() {}
+    private NioAddress() {
+        sharedPayloadFrames = false;
+        batchedFrames = false;
+        routedFrames = false;
+        flowControl = false;
+    }
 
 }
@@ -1,6 +1,7 @@
 package net.dempsy.transport.tcp.nio;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.BindException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
@@ -13,10 +14,13 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -29,12 +33,15 @@ import net.dempsy.Infrastructure.ThePlug;
 import net.dempsy.serialization.Serializer;
 import net.dempsy.threading.ThreadingModel;
 import net.dempsy.transport.DisruptableRecevier;
+import net.dempsy.transport.LazyPayload;
 import net.dempsy.transport.Listener;
 import net.dempsy.transport.MessageTransportException;
 import net.dempsy.transport.NodeAddress;
 import net.dempsy.transport.RoutedMessage;
 import net.dempsy.transport.tcp.AbstractTcpReceiver;
 import net.dempsy.transport.tcp.TcpUtils;
+import net.dempsy.transport.tcp.nio.internal.ByteBufferInputStream;
+import net.dempsy.transport.tcp.nio.internal.DirectBufferPool;
 import net.dempsy.transport.tcp.nio.internal.NioUtils;
 import net.dempsy.transport.tcp.nio.internal.NioUtils.ReturnableBufferOutput;
 import net.dempsy.util.QuietCloseable;
@@ -45,6 +52,39 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
 
     public static final String CONFIG_KEY_RECEIVER_NETWORK_IF_NAME = "reciever_network_if";
 
+    /**
+     * When set to true, each reader reads messages into a slab of pooled direct buffers and
+     * the messages are deserialized straight out of those buffers rather than being copied
+     * into (and grown within) heap buffers. Each reader allocates
+     * {@link #CONFIG_KEY_RECEIVER_DIRECT_BUFFER_COUNT} buffers of
+     * {@link #CONFIG_KEY_RECEIVER_DIRECT_BUFFER_SIZE} bytes. A message larger than a pooled
+     * buffer, or one that arrives while all of the reader's buffers are in use, is read into a
+     * heap buffer allocated just for it.
+     */
+    public static final String CONFIG_KEY_RECEIVER_DIRECT_BUFFERS = "receiver_direct_buffers";
+    public static final String DEFAULT_RECEIVER_DIRECT_BUFFERS = "false";
+
+    public static final String CONFIG_KEY_RECEIVER_DIRECT_BUFFER_SIZE = "receiver_direct_buffer_size";
+    public static final String DEFAULT_RECEIVER_DIRECT_BUFFER_SIZE = "16384";
+
+    public static final String CONFIG_KEY_RECEIVER_DIRECT_BUFFER_COUNT = "receiver_direct_buffer_count";
+    public static final String DEFAULT_RECEIVER_DIRECT_BUFFER_COUNT = "256";
+
+    /**
+     * The most credits a sender that asked for flow control can have outstanding. Beyond that,
+     * credits are only granted as the threading model has room for the limited jobs the messages
+     * become. The free room is shared between all of the flow controlled connections.
+     */
+    public static final String CONFIG_KEY_RECEIVER_FLOW_CONTROL_WINDOW = "receiver_flow_control_window";
+    public static final String DEFAULT_RECEIVER_FLOW_CONTROL_WINDOW = "256";
+
+    /**
+     * How often the readers check whether they can grant more credits to a sender that's waiting
+     * on them.
+     */
+    public static final String CONFIG_KEY_RECEIVER_FLOW_CONTROL_INTERVAL_MILLIS = "receiver_flow_control_interval_millis";
+    public static final String DEFAULT_RECEIVER_FLOW_CONTROL_INTERVAL_MILLIS = "10";
+
     private final AtomicBoolean isRunning = new AtomicBoolean(true);
 
     private NioAddress internal = null;
@@ -109,7 +149,7 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
                 if(bindAddr == null)
                     bindAddr = binding.bound.getAddress(); // this will be the wildcard address.
 
-                internal = new NioAddress(bindAddr, internalPort, serId, binding.recvBufferSize, this.maxMessageSize);
+                internal = new NioAddress(bindAddr, internalPort, serId, binding.recvBufferSize, this.maxMessageSize, true, true, true, true);
 
                 address = resolver.getExternalAddresses(internal);
             } catch(final BindException be) {
@@ -132,16 +172,31 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
         if(binding == null)
             getAddress(infra); // sets binding via side affect.
 
+        final boolean directBuffers = Boolean
+            .parseBoolean(infra.getConfigValue(NioReceiver.class, CONFIG_KEY_RECEIVER_DIRECT_BUFFERS, DEFAULT_RECEIVER_DIRECT_BUFFERS));
+        final int directBufferSize = Integer
+            .parseInt(infra.getConfigValue(NioReceiver.class, CONFIG_KEY_RECEIVER_DIRECT_BUFFER_SIZE, DEFAULT_RECEIVER_DIRECT_BUFFER_SIZE));
+        final int directBufferCount = Integer
+            .parseInt(infra.getConfigValue(NioReceiver.class, CONFIG_KEY_RECEIVER_DIRECT_BUFFER_COUNT, DEFAULT_RECEIVER_DIRECT_BUFFER_COUNT));
+        final int flowControlWindow = Integer
+            .parseInt(infra.getConfigValue(NioReceiver.class, CONFIG_KEY_RECEIVER_FLOW_CONTROL_WINDOW, DEFAULT_RECEIVER_FLOW_CONTROL_WINDOW));
+        final long flowControlIntervalMillis = Long
+            .parseLong(infra.getConfigValue(NioReceiver.class, CONFIG_KEY_RECEIVER_FLOW_CONTROL_INTERVAL_MILLIS,
+                DEFAULT_RECEIVER_FLOW_CONTROL_INTERVAL_MILLIS));
+
+        final ThreadingModel threadingModel = infra.getThreadingModel();
+        final FlowControl flowControl = new FlowControl(threadingModel, flowControlWindow, flowControlIntervalMillis);
+
         // before starting the acceptor, make sure we have Readers created.
         try {
             for(int i = 0; i < readers.length; i++)
-                readers[i] = new Reader<T>(isRunning, address, (Listener<T>)listener, serializer, maxMessageSize, thePlug);
+                readers[i] = new Reader<T>(isRunning, address, (Listener<T>)listener, serializer, maxMessageSize, thePlug,
+                    directBuffers ? new DirectBufferPool(directBufferSize, directBufferCount) : null, flowControl);
         } catch(final IOException ioe) {
             LOGGER.error(address.toString() + " failed to start up readers", ioe);
             throw new MessageTransportException(address.toString() + " failed to start up readers", ioe);
         }
 
-        final ThreadingModel threadingModel = infra.getThreadingModel();
         // now start the readers.
         for(int i = 0; i < readers.length; i++)
             threadingModel.runDaemon(readers[i], "nio-reader-" + i + "-" + address);
@@ -299,21 +354,70 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
     }
     // =============================================================================
 
+    // =============================================================================
+    // Decides how many credits each flow controlled connection should have outstanding.
+    // =============================================================================
+    private static class FlowControl {
+        final ThreadingModel threadingModel;
+        final int window;
+        final long intervalMillis;
+        final AtomicInteger numConnections = new AtomicInteger(0);
+
+        FlowControl(final ThreadingModel threadingModel, final int window, final long intervalMillis) {
+            this.threadingModel = threadingModel;
+            this.window = window;
+            this.intervalMillis = intervalMillis;
+        }
+
+        int target() {
+            final int max = threadingModel.getMaxNumberOfQueuedLimitedTasks();
+            if(max <= 0)
+                return window;
+            final int free = max - threadingModel.getNumberLimitedPending();
+            if(free <= 0)
+                return 0;
+            // every connection gets at least one credit so none of them is starved while there's room.
+            return Math.max(1, Math.min(window, free / Math.max(1, numConnections.get())));
+        }
+    }
+
     // =============================================================================
     // A Client instance is attached to each socket in the selector's register
     // =============================================================================
     private static class Client<T> {
         ReturnableBufferOutput partialRead = null;
+        // the marker that started the frame being read (see NioUtils) or 0 for a plain frame.
+        short partialReadFrame = 0;
         private final NioAddress thisNode;
         private final Listener<T> typedListener;
         private final Serializer serializer;
         private final int maxMessageSize;
 
-        private Client(final NioAddress thisNode, final Listener<T> listener, final Serializer serializer, final int maxMessageSize) {
+        // these are only used once the sender has asked for flow control.
+        private final FlowControl flowControl;
+        private boolean flowControlled = false;
+        private long outstandingCredits = 0;
+        private final ByteBuffer grant = ByteBuffer.allocate(4);
+
+        // these are only used when reading into direct buffers
+        private final DirectBufferPool directPool;
+        private final ByteBuffer header;
+        private ByteBuffer partialBody = null;
+
+        private Client(final NioAddress thisNode, final Listener<T> listener, final Serializer serializer, final int maxMessageSize,
+            final DirectBufferPool directPool, final FlowControl flowControl) {
             this.thisNode = thisNode;
             this.typedListener = listener;
             this.serializer = serializer;
             this.maxMessageSize = maxMessageSize;
+            this.directPool = directPool;
+            this.flowControl = flowControl;
+            grant.limit(0); // nothing waiting to be written
+            if(directPool != null) {
+                header = ByteBuffer.allocate(6);
+                header.limit(2); // set it to read the short for size initially
+            } else
+                header = null;
         }
 
         /**
@@ -334,7 +438,20 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
             if(bb.position() >= 2) { // we read the full short in
                 final short ssize = bb.getShort(0); // read the short.
 
-                if(ssize == -1) { // we need to read the int ... indication that an int size is there.
+                if(ssize == NioUtils.FLOW_CONTROL_FRAME) {
+                    // the sender wants credits. There's nothing else to the frame so start reading the next one.
+                    if(!flowControlled) {
+                        flowControlled = true;
+                        flowControl.numConnections.incrementAndGet();
+                    }
+                    bb.position(0);
+                    bb.limit(2);
+                    return readSize(channel, bb);
+                }
+
+                // -1 is an indication that an int size is there. Shared payload, batch and routed frames always have an int size.
+                if(ssize == -1 || ssize == NioUtils.SHARED_PAYLOAD_FRAME || ssize == NioUtils.BATCH_FRAME || ssize == NioUtils.ROUTED_FRAME) {
+                    partialReadFrame = ssize == -1 ? 0 : ssize;
                     if(bb.position() < 6) {
                         bb.limit(6); // set the limit to read the int.
                         if(channel.read(bb) == -1) // read 4 more bytes.
@@ -358,6 +475,18 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
             return size;
         }
 
+        // if the size is less than zero or WAY to big, we need to assume a corrupt channel.
+        private boolean checkSize(final int size, final SocketChannel channel, final SelectionKey key) {
+            if(size <= 0 || size > maxMessageSize) {
+                // assume the channel is corrupted and close us out.
+                LOGGER.warn(thisNode + " received what appears to be a corrupt message because it's size is " + size + " which is greater than the max ("
+                    + maxMessageSize + ")");
+                closeup(channel, key);
+                return false;
+            }
+            return true;
+        }
+
         private void closeup(final SocketChannel channel, final SelectionKey key) {
             final Socket socket = channel.socket();
             final SocketAddress remoteAddr = socket.getRemoteSocketAddress();
@@ -368,9 +497,24 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
                 LOGGER.error(thisNode + " failed to close the receiver channel receiving data from " + remoteAddr + ". Ingoring", ioe);
             }
             key.cancel();
+
+            if(flowControlled) {
+                flowControlled = false;
+                flowControl.numConnections.decrementAndGet();
+            }
+
+            if(partialBody != null) {
+                directPool.release(partialBody);
+                partialBody = null;
+            }
         }
 
         private void read(final SelectionKey key) throws IOException {
+            if(directPool != null) {
+                readDirect(key);
+                return;
+            }
+
             final SocketChannel channel = (SocketChannel)key.channel();
             final ReturnableBufferOutput buf;
             if(partialRead == null) {
@@ -390,14 +534,8 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
                 if(size == -1) { // we didn't read the size yet so just go back.
                     return;
                 }
-                // if the results are less than zero or WAY to big, we need to assume a corrupt channel.
-                if(size <= 0 || size > maxMessageSize) {
-                    // assume the channel is corrupted and close us out.
-                    LOGGER.warn(thisNode + " received what appears to be a corrupt message because it's size is " + size + " which is greater than the max ("
-                        + maxMessageSize + ")");
-                    closeup(channel, key);
+                if(!checkSize(size, channel, key))
                     return;
-                }
 
                 final int limit = bb.limit();
                 if(bb.capacity() < limit + size) {
@@ -423,12 +561,82 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
 
             // otherwise we have a message ready to go.
             final ReturnableBufferOutput toGo = partialRead;
+            final short frameType = partialReadFrame;
             partialRead = null;
+            partialReadFrame = 0;
+
+            deliver(new HeapFrame(toGo), frameType);
+        }
+
+        // The size header is read into a small heap buffer. Once the size is known the body is read into
+        // a buffer from the reader's pool so it never needs to grow. The message is deserialized straight
+        // out of that buffer which is then returned to the pool.
+        private void readDirect(final SelectionKey key) throws IOException {
+            final SocketChannel channel = (SocketChannel)key.channel();
+
+            if(partialBody == null) { // we haven't read the size yet.
+                final int size = readSize(channel, header);
+                if(size == -2) { // indication we hit an eof
+                    closeup(channel, key);
+                    return; // we're done
+                }
+                if(size == -1) { // we didn't read the size yet so just go back.
+                    return;
+                }
+                if(!checkSize(size, channel, key))
+                    return;
+
+                partialBody = directPool.acquire(size);
+            }
+
+            if(partialBody.hasRemaining()) {
+                // continue reading
+                if(channel.read(partialBody) == -1) {
+                    closeup(channel, key);
+                    return;
+                }
+            }
+
+            if(partialBody.hasRemaining())
+                return; // we need to wait for more data.
+
+            // otherwise we have a message ready to go.
+            final ByteBuffer toGo = partialBody;
+            final short frameType = partialReadFrame;
+            partialBody = null;
+            partialReadFrame = 0;
+            header.clear();
+            header.limit(2);
+
+            deliver(new DirectFrame(toGo, directPool), frameType);
+        }
+
+        private void deliver(final Frame toGo, final short frameType) {
+            if(flowControlled)
+                outstandingCredits -= (frameType == NioUtils.BATCH_FRAME) ? toGo.getInt(0) : 1;
+
+            if(frameType == NioUtils.ROUTED_FRAME || frameType == NioUtils.SHARED_PAYLOAD_FRAME) {
+                deliverRouted(toGo, frameType == NioUtils.ROUTED_FRAME);
+                return;
+            }
+
+            if(frameType == NioUtils.BATCH_FRAME) {
+                final int numMessages = toGo.getInt(0);
+                typedListener.onMessages(numMessages, () -> {
+                    try(final Frame frame = toGo;) {
+                        return deserializeBatch(frame, numMessages);
+                    } catch(final IOException ioe) {
+                        LOGGER.error(thisNode + " failed on deserialization", ioe);
+                        throw new DempsyException(ioe, false);
+                    }
+                });
+                return;
+            }
+
             typedListener.onMessage(() -> {
-                try(final ReturnableBufferOutput mbo = toGo;
-                    final MessageBufferInput mbi = new MessageBufferInput(mbo.getBuffer(), mbo.messageStart, mbo.getBb().position());) {
+                try(final Frame frame = toGo;) {
                     @SuppressWarnings("unchecked")
-                    final T rm = (T)serializer.deserialize(mbi, RoutedMessage.class);
+                    final T rm = (T)deserialize(frame, 0, frame.size());
                     return rm;
                 } catch(final IOException ioe) {
                     LOGGER.error(thisNode + " failed on deserialization", ioe);
@@ -436,6 +644,178 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
                 }
             });
         }
+
+        private RoutedMessage deserialize(final Frame frame, final int start, final int end) throws IOException {
+            try(final InputStream is = frame.stream(start, end);) {
+                return serializer.deserialize(is, RoutedMessage.class);
+            }
+        }
+
+        // Top the sender's credits back up to what the threading model has room for. Credits are granted in
+        // chunks so the sender isn't written to for every message it sends.
+        private void grantCredits(final SocketChannel channel) throws IOException {
+            if(!flowControlled)
+                return;
+
+            if(grant.hasRemaining()) { // a previous grant wasn't completely written.
+                channel.write(grant);
+                if(grant.hasRemaining())
+                    return;
+            }
+
+            final int target = flowControl.target();
+            final long toGrant = target - outstandingCredits;
+            if(toGrant <= 0 || (outstandingCredits > 0 && toGrant < (target + 1) / 2))
+                return;
+
+            outstandingCredits += toGrant;
+            grant.clear();
+            grant.putInt((int)toGrant);
+            grant.flip();
+            channel.write(grant);
+        }
+
+        // The routing information and the payload were serialized separately. See SenderHolder. The routing
+        // information is decoded here, on the reader's thread, so the message can be routed (or shed) before
+        // the payload is deserialized.
+        private void deliverRouted(final Frame toGo, final boolean routedFrame) {
+            final int[] containers;
+            final Object key;
+            final int payloadStart;
+            try {
+                if(routedFrame) {
+                    final int numContainers = toGo.getInt(0);
+                    if(numContainers < 0 || 8 + (4L * numContainers) > toGo.size())
+                        throw new IOException("The routed frame claims to have " + numContainers + " containers but is only " + toGo.size() + " bytes");
+                    containers = new int[numContainers];
+                    for(int i = 0; i < numContainers; i++)
+                        containers[i] = toGo.getInt(4 + (4 * i));
+                    final int keyStart = 8 + (4 * numContainers);
+                    payloadStart = keyStart + toGo.getInt(keyStart - 4);
+                    key = deserialize(toGo, keyStart, payloadStart).key;
+                } else {
+                    payloadStart = 4 + toGo.getInt(0);
+                    final RoutedMessage routing = deserialize(toGo, 4, payloadStart);
+                    containers = routing.containers;
+                    key = routing.key;
+                }
+            } catch(final IOException | RuntimeException e) {
+                toGo.close();
+                LOGGER.error(thisNode + " failed on deserialization of the routing information", e);
+                return;
+            }
+
+            typedListener.onMessage(containers, key, new FramePayload(toGo, payloadStart));
+        }
+
+        private class FramePayload implements LazyPayload {
+            private final Frame frame;
+            private final int payloadStart;
+
+            FramePayload(final Frame frame, final int payloadStart) {
+                this.frame = frame;
+                this.payloadStart = payloadStart;
+            }
+
+            @Override
+            public Object get() {
+                try(final Frame f = frame;) {
+                    return deserialize(f, payloadStart, f.size()).message;
+                } catch(final IOException ioe) {
+                    LOGGER.error(thisNode + " failed on deserialization", ioe);
+                    throw new DempsyException(ioe, false);
+                }
+            }
+
+            @Override
+            public void discard() {
+                frame.close();
+            }
+        }
+
+        // Several messages, each preceded by its size, following the count. See SenderHolder.
+        @SuppressWarnings("unchecked")
+        private List<T> deserializeBatch(final Frame frame, final int numMessages) throws IOException {
+            final List<T> ret = new ArrayList<>(numMessages);
+            int pos = 4;
+            for(int i = 0; i < numMessages; i++) {
+                final int size = frame.getInt(pos);
+                pos += 4;
+                ret.add((T)deserialize(frame, pos, pos + size));
+                pos += size;
+            }
+            return ret;
+        }
+    }
+
+    // =============================================================================
+    // A complete frame, not including the size header, waiting to be deserialized.
+    // Offsets are from the start of the frame.
+    // =============================================================================
+    private static abstract class Frame implements QuietCloseable {
+        abstract int size();
+
+        abstract int getInt(int offset);
+
+        abstract InputStream stream(int start, int end);
+    }
+
+    private static class HeapFrame extends Frame {
+        private final ReturnableBufferOutput mbo;
+
+        HeapFrame(final ReturnableBufferOutput mbo) {
+            this.mbo = mbo;
+        }
+
+        @Override
+        int size() {
+            return mbo.getBb().position() - mbo.messageStart;
+        }
+
+        @Override
+        int getInt(final int offset) {
+            return mbo.getBb().getInt(mbo.messageStart + offset);
+        }
+
+        @Override
+        InputStream stream(final int start, final int end) {
+            return new MessageBufferInput(mbo.getBuffer(), mbo.messageStart + start, mbo.messageStart + end);
+        }
+
+        @Override
+        public void close() {
+            mbo.close();
+        }
+    }
+
+    private static class DirectFrame extends Frame {
+        private final ByteBuffer bb;
+        private final DirectBufferPool pool;
+
+        DirectFrame(final ByteBuffer bb, final DirectBufferPool pool) {
+            this.bb = bb;
+            this.pool = pool;
+        }
+
+        @Override
+        int size() {
+            return bb.limit();
+        }
+
+        @Override
+        int getInt(final int offset) {
+            return bb.getInt(offset);
+        }
+
+        @Override
+        InputStream stream(final int start, final int end) {
+            return new ByteBufferInputStream(bb, start, end);
+        }
+
+        @Override
+        public void close() {
+            pool.release(bb);
+        }
     }
 
     public static class Reader<T> implements Runnable {
@@ -449,9 +829,11 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
         private final AtomicBoolean done = new AtomicBoolean(false);
         private final AtomicReference<CloseCommand> clientToClose = new AtomicReference<CloseCommand>(null);
         private final ThePlug thePlug;
+        private final DirectBufferPool directPool;
+        private final FlowControl flowControl;
 
         public Reader(final AtomicBoolean isRunning, final NioAddress thisNode, final Listener<T> typedListener, final Serializer serializer,
-            final int maxMessageSize, final ThePlug thePlug) throws IOException {
+            final int maxMessageSize, final ThePlug thePlug, final DirectBufferPool directPool, final FlowControl flowControl) throws IOException {
             selector = Selector.open();
             this.isRunning = isRunning;
             this.thisNode = thisNode;
@@ -459,6 +841,8 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
             this.serializer = serializer;
             this.maxMessageSize = maxMessageSize;
             this.thePlug = thePlug;
+            this.directPool = directPool;
+            this.flowControl = flowControl;
         }
 
         @Override
@@ -466,7 +850,9 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
             try {
                 while(isRunning.get()) {
                     try {
-                        final int numKeysSelected = selector.select();
+                        // a sender waiting on credits won't send anything to wake us up so check periodically.
+                        final int numKeysSelected = flowControl.numConnections.get() > 0 ? selector.select(flowControl.intervalMillis)
+                            : selector.select();
 
                         if(numKeysSelected > 0) {
                             final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
@@ -493,7 +879,7 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
                                 final SocketAddress remote = socket.getRemoteSocketAddress();
                                 LOGGER.debug(thisNode + " received connection from " + remote);
                                 newClient.register(selector, SelectionKey.OP_READ,
-                                    new Client<T>(thisNode, typedListener, serializer, maxMessageSize));
+                                    new Client<T>(thisNode, typedListener, serializer, maxMessageSize, directPool, flowControl));
                             } else if(clientToClose.get() != null) {
                                 final NioAddress addr = clientToClose.get().addrToClose;
                                 final Object[] toClose = selector.keys().stream()
@@ -514,6 +900,9 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
                                     clientToClose.set(null);
                             }
                         }
+
+                        if(flowControl.numConnections.get() > 0)
+                            grantCredits();
                     } catch(final IOException ioe) {
                         LOGGER.error("Failed during reader loop.", ioe);
                     } catch(final RuntimeException rte) {
@@ -532,6 +921,21 @@ public class NioReceiver<T> extends AbstractTcpReceiver<NioAddress, NioReceiver<
             }
         }
 
+        private void grantCredits() {
+            for(final SelectionKey key: selector.keys()) {
+                if(!key.isValid())
+                    continue;
+                final Client<?> client = (Client<?>)key.attachment();
+                final SocketChannel channel = (SocketChannel)key.channel();
+                try {
+                    client.grantCredits(channel);
+                } catch(final IOException ioe) {
+                    LOGGER.debug(thisNode + " failed to grant credits to " + channel.socket().getRemoteSocketAddress(), ioe);
+                    client.closeup(channel, key);
+                }
+            }
+        }
+
         private static class CloseCommand {
             public final NioAddress addrToClose;
             public volatile boolean done;
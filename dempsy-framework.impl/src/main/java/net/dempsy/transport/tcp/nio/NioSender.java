@@ -4,11 +4,13 @@ import static net.dempsy.transport.tcp.nio.internal.NioUtils.dontInterrupt;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -17,8 +19,11 @@ import org.slf4j.LoggerFactory;
 import net.dempsy.monitoring.NodeStatsCollector;
 import net.dempsy.serialization.Serializer;
 import net.dempsy.transport.MessageTransportException;
+import net.dempsy.transport.RoutedMessage;
 import net.dempsy.transport.Sender;
+import net.dempsy.transport.SharedPayload;
 import net.dempsy.transport.tcp.TcpAddress;
+import net.dempsy.transport.tcp.nio.NioSenderFactory.OverflowPolicy;
 import net.dempsy.transport.tcp.nio.internal.NioUtils;
 
 public final class NioSender implements Sender {
@@ -29,6 +34,20 @@ public final class NioSender implements Sender {
 
     private final NioSenderFactory owner;
     private final NodeStatsCollector statsCollector;
+    private final OverflowPolicy overflowPolicy;
+    private final boolean sharePayload;
+
+    // read from SenderHolder. 1 means don't batch.
+    final int batchMaxMessages;
+
+    // read from SenderHolder.
+    final boolean routingHeader;
+
+    // Credits granted by the receiver when flow controlled. These are only touched by the
+    // sending thread that currently has this sender.
+    private final boolean flowControl;
+    private long credits = 0;
+    private final ByteBuffer grants = ByteBuffer.allocate(64);
 
     public final Serializer serializer;
 
@@ -42,29 +61,105 @@ public final class NioSender implements Sender {
     BlockingQueue<Object> messages;
     boolean running = true;
 
+    // A message that was taken off of the queue but has to be the next one sent. This is only
+    // set by the sending thread that currently has this sender.
+    private volatile Object pushedBack = null;
+
     NioSender(final TcpAddress addr, final NioSenderFactory parent) {
         this.owner = parent;
         this.addr = addr;
         serializer = parent.serializerManager.getAssociatedInstance(addr.serializerId);
         this.statsCollector = parent.statsCollector;
         this.nodeId = parent.nodeId;
+        this.overflowPolicy = parent.overflowPolicy;
+        this.sharePayload = parent.sharePayload && (addr instanceof NioAddress) && ((NioAddress)addr).sharedPayloadFrames;
+        this.batchMaxMessages = (parent.batchFrames && (addr instanceof NioAddress) && ((NioAddress)addr).batchedFrames)
+            ? Math.max(1, parent.batchMaxMessages)
+            : 1;
+        this.routingHeader = parent.routingHeader && (addr instanceof NioAddress) && ((NioAddress)addr).routedFrames;
+        this.flowControl = parent.flowControl && (addr instanceof NioAddress) && ((NioAddress)addr).flowControl;
 
-        // messages = new LinkedBlockingQueue<>();
-        messages = new ArrayBlockingQueue<>(2);
+        // a non-positive max means unbounded.
+        messages = parent.maxNumberOfQueuedOutgoing > 0 ? new ArrayBlockingQueue<>(parent.maxNumberOfQueuedOutgoing) : new LinkedBlockingQueue<>();
+        statsCollector.setMessagesOutPendingGauge(addr.getGuid(), () -> getNumberQueued());
         makeChannel();
     }
 
     @Override
     public void send(final Object message) throws MessageTransportException, InterruptedException {
+        enqueue(message);
+    }
+
+    @Override
+    public void send(final RoutedMessage message, final SharedPayload shared) throws MessageTransportException, InterruptedException {
+        if(!sharePayload) {
+            Sender.super.send(message, shared);
+            return;
+        }
+
+        boolean queued = false;
+        try {
+            queued = enqueue(new SharedFrame(message, shared));
+        } finally {
+            if(!queued)
+                shared.release();
+        }
+    }
+
+    private boolean enqueue(final Object message) throws InterruptedException {
         boolean done = false;
-        while(running && !done) {
-            if(running) {
-                // let's not try forever in case we're locked up and shutting down.
-                done = messages.offer(message, 1, TimeUnit.SECONDS);
-            }
-            // if(!done && Thread.interrupted())
-            // throw new InterruptedException();
+        switch(overflowPolicy) {
+            case drop_newest:
+                done = running && messages.offer(message);
+                break;
+            case drop_oldest:
+                while(running && !done) {
+                    done = messages.offer(message);
+                    if(!done) {
+                        final Object oldest = messages.poll();
+                        if(oldest instanceof StopMessage) { // we're shutting down. Put it back and give up.
+                            messages.offer(oldest);
+                            break;
+                        }
+                        if(oldest != null)
+                            discarded(oldest);
+                    }
+                }
+                break;
+            case block:
+            default:
+                while(running && !done) {
+                    if(running) {
+                        // let's not try forever in case we're locked up and shutting down.
+                        done = messages.offer(message, 1, TimeUnit.SECONDS);
+                    }
+                    // if(!done && Thread.interrupted())
+                    // throw new InterruptedException();
+                }
+                break;
         }
+
+        if(done)
+            owner.wakeSendingThreads();
+        else
+            statsCollector.messageNotSent();
+        return done;
+    }
+
+    // account for a message that was queued but will never be sent.
+    private void discarded(final Object message) {
+        if(message instanceof StopMessage)
+            return;
+        if(message instanceof SharedFrame)
+            ((SharedFrame)message).payload.release();
+        statsCollector.messageNotSent();
+    }
+
+    /**
+     * The number of messages currently queued for this destination.
+     */
+    public int getNumberQueued() {
+        return messages.size();
     }
 
     @Override
@@ -106,7 +201,8 @@ public final class NioSender implements Sender {
             }
         }
 
-        drainTo.forEach(o -> statsCollector.messageNotSent());
+        drainTo.forEach(o -> discarded(o));
+        statsCollector.setMessagesOutPendingGauge(addr.getGuid(), null);
         owner.idleSenders.remove(this);
         owner.imDone(addr);
 
@@ -131,6 +227,20 @@ public final class NioSender implements Sender {
 
     static class StopMessage {}
 
+    /**
+     * Queued in place of the {@link RoutedMessage} when the payload is serialized once and
+     * shared between destinations.
+     */
+    static class SharedFrame {
+        final RoutedMessage routing;
+        final SharedPayload payload;
+
+        SharedFrame(final RoutedMessage routing, final SharedPayload payload) {
+            this.routing = routing;
+            this.payload = payload;
+        }
+    }
+
     void connect(final boolean force) throws IOException {
         if(!connected || force) {
             channel.configureBlocking(false);
@@ -139,11 +249,83 @@ public final class NioSender implements Sender {
                 Thread.yield();
             sendBufferSize = channel.socket().getSendBufferSize();
             recvBufferSize = addr.recvBufferSize;
+            if(flowControl) {
+                // credits from a previous connection don't carry over. Ask the receiver for new ones.
+                credits = 0;
+                grants.clear();
+                final ByteBuffer request = ByteBuffer.allocate(2).putShort(NioUtils.FLOW_CONTROL_FRAME);
+                request.flip();
+                while(request.hasRemaining())
+                    channel.write(request);
+            }
             connected = true;
             owner.idleSenders.putIfAbsent(this, this);
         }
     }
 
+    /**
+     * The next message to be sent without removing it.
+     */
+    Object peekNext() {
+        final Object ret = pushedBack;
+        return ret != null ? ret : messages.peek();
+    }
+
+    /**
+     * Remove and return the next message to be sent.
+     */
+    Object pollNext() {
+        final Object ret = pushedBack;
+        if(ret != null) {
+            pushedBack = null;
+            return ret;
+        }
+        return messages.poll();
+    }
+
+    /**
+     * Put a message that was just taken with {@link #pollNext()} back so that it's the next one
+     * sent. Unlike adding it to the queue this can't fail when the queue is full.
+     */
+    void pushBack(final Object message) {
+        if(pushedBack != null)
+            throw new IllegalStateException("Only the last message taken can be pushed back.");
+        pushedBack = message;
+    }
+
+    /**
+     * Whether or not there's something at the head of the queue that can be sent now.
+     */
+    boolean readyToSend() {
+        final Object peek = peekNext();
+        return peek != null && (peek instanceof StopMessage || hasCredit(1));
+    }
+
+    /**
+     * Whether or not the receiver has granted enough credits to send the given number of messages.
+     * This is always true when the destination isn't flow controlled.
+     */
+    boolean hasCredit(final int numMessages) {
+        if(!flowControl || credits >= numMessages)
+            return true;
+        try {
+            if(channel.read(grants) < 0)
+                return true; // the receiver closed the connection. Let the write find out and reconnect.
+        } catch(final IOException ioe) {
+            return true;
+        }
+        grants.flip();
+        while(grants.remaining() >= 4)
+            credits += grants.getInt();
+        grants.compact();
+        return credits >= numMessages;
+    }
+
+    void useCredits(final int numMessages) {
+        if(flowControl)
+            credits -= numMessages;
+    }
+
     SocketChannel makeChannel() {
         final SocketChannel ret = channel;
         try {
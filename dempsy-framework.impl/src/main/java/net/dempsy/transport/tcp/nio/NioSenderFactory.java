@@ -1,6 +1,5 @@
 package net.dempsy.transport.tcp.nio;
 
-import static net.dempsy.transport.tcp.nio.internal.NioUtils.dontInterrupt;
 import static net.dempsy.util.Functional.chain;
 
 import java.io.IOException;
@@ -22,6 +21,7 @@ import net.dempsy.Infrastructure;
 import net.dempsy.Manager;
 import net.dempsy.monitoring.NodeStatsCollector;
 import net.dempsy.serialization.Serializer;
+import net.dempsy.threading.WaitStrategy;
 import net.dempsy.transport.MessageTransportException;
 import net.dempsy.transport.NodeAddress;
 import net.dempsy.transport.SenderFactory;
@@ -40,12 +40,81 @@ public class NioSenderFactory implements SenderFactory {
     public static final String CONFIG_KEY_SENDER_MAX_QUEUED = "send_max_queued";
     public static final String DEFAULT_SENDER_MAX_QUEUED = "1000";
 
+    /**
+     * What to do when a message is sent to a destination whose queue already has
+     * {@link #CONFIG_KEY_SENDER_MAX_QUEUED} messages waiting. Messages that are dropped
+     * are counted as {@link NodeStatsCollector#messageNotSent()}.
+     */
+    public static enum OverflowPolicy {
+        /**
+         * The sending thread waits for room in the queue.
+         */
+        block,
+        /**
+         * The message being sent is dropped.
+         */
+        drop_newest,
+        /**
+         * The oldest message still in the queue is dropped to make room for the one being sent.
+         */
+        drop_oldest
+    }
+
+    public static final String CONFIG_KEY_SENDER_OVERFLOW_POLICY = "send_overflow_policy";
+    public static final String DEFAULT_SENDER_OVERFLOW_POLICY = OverflowPolicy.block.name();
+
+    /**
+     * When set to true, a message going to several nodes is serialized once and the
+     * serialized payload is shared between the destinations. Only the routing information
+     * is serialized per destination. This is only used for destinations whose receiver
+     * supports it.
+     */
+    public static final String CONFIG_KEY_SENDER_SHARE_PAYLOAD = "send_share_payload";
+    public static final String DEFAULT_SENDER_SHARE_PAYLOAD = "false";
+
+    /**
+     * When set to true, consecutive messages queued to the same destination are written
+     * in a single frame so the receiver can dispatch them as one job. This is only used
+     * for destinations whose receiver supports it. The number of messages in a frame is
+     * limited by {@link #CONFIG_KEY_SENDER_BATCH_MAX_MESSAGES} and by the mtu.
+     */
+    public static final String CONFIG_KEY_SENDER_BATCH_FRAMES = "send_batch_frames";
+    public static final String DEFAULT_SENDER_BATCH_FRAMES = "false";
+
+    /**
+     * When set to true, a message is written with its routing information (the containers and
+     * the key) in a header ahead of the payload so the receiver can route, or shed, the message
+     * before the payload is deserialized. This is only used for destinations whose receiver
+     * supports it.
+     */
+    public static final String CONFIG_KEY_SENDER_ROUTING_HEADER = "send_routing_header";
+    public static final String DEFAULT_SENDER_ROUTING_HEADER = "false";
+
+    /**
+     * When set to true, messages are only sent to a destination as fast as its receiver grants
+     * credits for them, which it does based on the room it has to queue them. Messages held back
+     * wait in the sender's queue so, with the {@link OverflowPolicy#block} policy, a slow
+     * destination blocks the callers sending to it rather than having its receiver throw the
+     * messages away. This is only used for destinations whose receiver supports it.
+     */
+    public static final String CONFIG_KEY_SENDER_FLOW_CONTROL = "send_flow_control";
+    public static final String DEFAULT_SENDER_FLOW_CONTROL = "false";
+
+    public static final String CONFIG_KEY_SENDER_BATCH_MAX_MESSAGES = "send_batch_max_messages";
+    public static final String DEFAULT_SENDER_BATCH_MAX_MESSAGES = "64";
+
     public static final String CONFIG_KEY_SENDER_TCP_MTU = "tcp_mtu";
     public static final String DEFAULT_SENDER_TCP_MTU = "1400";
 
     public static final String CONFIG_KEY_SENDER_STOP_TIMEOUT_MILLIS = "sender_stop_timeout_millis";
     public static final String DEFAULT_SENDER_STOP_TIMEOUT_MILLIS = "3000";
 
+    /**
+     * How a sending thread waits when there's nothing to send. See {@link WaitStrategy#fromName(String)}.
+     */
+    public static final String CONFIG_KEY_SENDER_WAIT_STRATEGY = "send_wait_strategy";
+    public static final String DEFAULT_SENDER_WAIT_STRATEGY = WaitStrategy.BACKOFF_PARK;
+
     private final ConcurrentHashMap<TcpAddress, NioSender> senders = new ConcurrentHashMap<>();
 
     final ConcurrentHashMap<NioSender, NioSender> idleSenders = new ConcurrentHashMap<>();
@@ -56,10 +125,17 @@ public class NioSenderFactory implements SenderFactory {
     final AtomicBoolean isRunning = new AtomicBoolean(true);
     NodeStatsCollector statsCollector;
     String nodeId;
-    int maxNumberOfQueuedOutgoing;
+    int maxNumberOfQueuedOutgoing = Integer.parseInt(DEFAULT_SENDER_MAX_QUEUED);
+    OverflowPolicy overflowPolicy = OverflowPolicy.valueOf(DEFAULT_SENDER_OVERFLOW_POLICY);
+    boolean sharePayload = Boolean.parseBoolean(DEFAULT_SENDER_SHARE_PAYLOAD);
+    boolean batchFrames = Boolean.parseBoolean(DEFAULT_SENDER_BATCH_FRAMES);
+    int batchMaxMessages = Integer.parseInt(DEFAULT_SENDER_BATCH_MAX_MESSAGES);
+    boolean routingHeader = Boolean.parseBoolean(DEFAULT_SENDER_ROUTING_HEADER);
+    boolean flowControl = Boolean.parseBoolean(DEFAULT_SENDER_FLOW_CONTROL);
     // boolean blocking;
     int mtu = Integer.parseInt(DEFAULT_SENDER_TCP_MTU);
     int stopTimeout = Integer.parseInt(DEFAULT_SENDER_STOP_TIMEOUT_MILLIS);
+    WaitStrategy waitStrategy = WaitStrategy.fromName(DEFAULT_SENDER_WAIT_STRATEGY);
     // =======================================
 
     private Sending[] sendings;
@@ -140,19 +216,68 @@ public class NioSenderFactory implements SenderFactory {
 
         maxNumberOfQueuedOutgoing = Integer.parseInt(infra.getConfigValue(NioSender.class, CONFIG_KEY_SENDER_MAX_QUEUED, DEFAULT_SENDER_MAX_QUEUED));
 
+        overflowPolicy = OverflowPolicy
+            .valueOf(infra.getConfigValue(NioSender.class, CONFIG_KEY_SENDER_OVERFLOW_POLICY, DEFAULT_SENDER_OVERFLOW_POLICY));
+
         stopTimeout = Integer
             .parseInt(infra.getConfigValue(NioSender.class, CONFIG_KEY_SENDER_STOP_TIMEOUT_MILLIS, DEFAULT_SENDER_STOP_TIMEOUT_MILLIS));
 
+        sharePayload = Boolean
+            .parseBoolean(infra.getConfigValue(NioSender.class, CONFIG_KEY_SENDER_SHARE_PAYLOAD, DEFAULT_SENDER_SHARE_PAYLOAD));
+
+        batchFrames = Boolean
+            .parseBoolean(infra.getConfigValue(NioSender.class, CONFIG_KEY_SENDER_BATCH_FRAMES, DEFAULT_SENDER_BATCH_FRAMES));
+
+        batchMaxMessages = Integer
+            .parseInt(infra.getConfigValue(NioSender.class, CONFIG_KEY_SENDER_BATCH_MAX_MESSAGES, DEFAULT_SENDER_BATCH_MAX_MESSAGES));
+
+        routingHeader = Boolean
+            .parseBoolean(infra.getConfigValue(NioSender.class, CONFIG_KEY_SENDER_ROUTING_HEADER, DEFAULT_SENDER_ROUTING_HEADER));
+
+        flowControl = Boolean
+            .parseBoolean(infra.getConfigValue(NioSender.class, CONFIG_KEY_SENDER_FLOW_CONTROL, DEFAULT_SENDER_FLOW_CONTROL));
+
+        waitStrategy = WaitStrategy
+            .fromName(infra.getConfigValue(NioSender.class, CONFIG_KEY_SENDER_WAIT_STRATEGY, DEFAULT_SENDER_WAIT_STRATEGY));
+
+        statsCollector.setMessagesOutPendingGauge(() -> getNumberQueuedOutgoing());
+
         sendings = new Sending[numSenderThreads];
         sendingsThreads = new Thread[numSenderThreads];
 
         // now start the sending threads.
         for(int i = 0; i < sendings.length; i++)
-            chain(sendingsThreads[i] = new Thread(sendings[i] = new Sending(sendingsRunning, nodeId, idleSenders, statsCollector),
+            chain(sendingsThreads[i] = new Thread(sendings[i] = new Sending(sendingsRunning, nodeId, idleSenders, statsCollector, waitStrategy),
                 "nio-sender-" + i + "-" + nodeId), t -> t.start());
 
     }
 
+    /**
+     * The total number of messages queued for all destinations.
+     */
+    public long getNumberQueuedOutgoing() {
+        long ret = 0;
+        for(final NioSender s: senders.values())
+            ret += s.getNumberQueued();
+        return ret;
+    }
+
+    /**
+     * Called by a {@link NioSender} when it queues a message so an idle sending thread doesn't
+     * wait out its whole park. Only the threads that are actually parked are signaled. A thread that's
+     * just about to park when the message is queued will see it once its (bounded) park times out.
+     */
+    void wakeSendingThreads() {
+        final Sending[] curSendings = sendings;
+        final Thread[] threads = sendingsThreads;
+        if(curSendings != null && threads != null) {
+            for(int i = 0; i < curSendings.length; i++) {
+                if(curSendings[i] != null && curSendings[i].parked.get())
+                    waitStrategy.signal(threads[i]);
+            }
+        }
+    }
+
     void imDone(final TcpAddress tcp) {
         senders.remove(tcp);
     }
@@ -163,13 +288,17 @@ public class NioSenderFactory implements SenderFactory {
         final String nodeId;
         final Map<NioSender, NioSender> idleSenders;
         final NodeStatsCollector statsCollector;
+        final WaitStrategy waitStrategy;
+        // set by the wait strategy while this thread is parked.
+        final AtomicBoolean parked = new AtomicBoolean(false);
 
         Sending(final AtomicBoolean isRunning, final String nodeId, final Map<NioSender, NioSender> idleSenders,
-            final NodeStatsCollector statsCollector) throws MessageTransportException {
+            final NodeStatsCollector statsCollector, final WaitStrategy waitStrategy) throws MessageTransportException {
             this.isRunning = isRunning;
             this.nodeId = nodeId;
             this.idleSenders = idleSenders;
             this.statsCollector = statsCollector;
+            this.waitStrategy = waitStrategy;
             try {
                 this.selector = Selector.open();
             } catch(final IOException e) {
@@ -216,15 +345,10 @@ public class NioSenderFactory implements SenderFactory {
                             // otherwise there's no data to be written and (last we knew) no data
                             // to be serialized which results in (eventually) all keys being removed.
                             else { // nothing to serialize, do we have any new senders that need handling?
-                                if(!checkForNewSenders()) { // if we didn't do anything then sleep/yield based on how long we've been bored.
-                                    numNothing++;
-                                    if(numNothing > 1000) {
-                                        dontInterrupt(() -> Thread.sleep(1), ie -> {
-                                            if(isRunning.get())
-                                                LOGGER.error(nodeId + " sender interrupted", ie);
-                                        });
-                                    } else
-                                        Thread.yield();
+                                if(!checkForNewSenders()) { // if we didn't do anything then wait based on how long we've been bored.
+                                    if(numNothing < Integer.MAX_VALUE)
+                                        numNothing++;
+                                    waitStrategy.idle(numNothing, parked);
                                 } else // otherwise we DID do something
                                     numNothing = 0;
                             }
@@ -292,7 +416,7 @@ public class NioSenderFactory implements SenderFactory {
             try { // if we fail here we need to put the senders back or we'll loose them forever.
                   // move any NioSenders with data from working and onto newSenders
                 for(final NioSender s: cfnsCurSenders) {
-                    if(s.messages.peek() != null) {
+                    if(s.peekNext() != null) {
                         // try to get it
                         cfnsNewSenders[pos++] = idleSenders.remove(s);
                         // removing them means putting them on the newSenders set so we can track them.
@@ -306,8 +430,8 @@ public class NioSenderFactory implements SenderFactory {
                 for(int i = 0; i < pos; i++) {
                     final NioSender cur = cfnsNewSenders[i];
                     if(cur != null) {
-                        // ... if the new sender has messages ...
-                        if(cur.messages.peek() != null) {
+                        // ... if the new sender has messages it can send ...
+                        if(cur.readyToSend()) {
                             // ... register the channel for writing and attach the SenderHolder
                             new SenderHolder(cur, LOGGER).register(selector);
                             cfnsNewSenders[i] = null; // clear it out, anything not cleared out will be readded to idleSenders
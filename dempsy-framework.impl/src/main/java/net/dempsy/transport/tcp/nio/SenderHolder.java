@@ -8,13 +8,15 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.Arrays;
 import java.util.LinkedList;
 
 import org.slf4j.Logger;
 
 import net.dempsy.monitoring.NodeStatsCollector;
 import net.dempsy.serialization.Serializer;
+import net.dempsy.transport.RoutedMessage;
+import net.dempsy.transport.SharedPayload;
+import net.dempsy.transport.tcp.nio.NioSender.SharedFrame;
 import net.dempsy.transport.tcp.nio.NioSender.StopMessage;
 import net.dempsy.transport.tcp.nio.internal.NioUtils;
 import net.dempsy.transport.tcp.nio.internal.NioUtils.ReturnableBufferOutput;
@@ -23,24 +25,62 @@ import net.dempsy.util.SafeString;
 public class SenderHolder {
     public final NioSender sender;
     private final Logger LOGGER;
-    private boolean previouslyWroteOddNumBufs = false;
+    private boolean midMessage = false;
 
     private int numBytesToWrite = 0;
-    private final LinkedList<ReturnableBufferOutput> serializedMessages = new LinkedList<>();
+    private final LinkedList<Segment> serializedMessages = new LinkedList<>();
+
+    /**
+     * A piece of a message frame waiting to be written. It's either backed by a buffer that this
+     * holder owns or by a payload shared with other destinations.
+     */
+    private static class Segment {
+        final ByteBuffer bb;
+        final ReturnableBufferOutput owned;
+        final SharedPayload shared;
+        // the number of messages that are complete once this segment is written. Zero means
+        // this segment isn't the end of a frame.
+        final int numMessages;
+
+        Segment(final ReturnableBufferOutput owned, final int numMessages) {
+            this.bb = owned.getFloppedBb();
+            this.owned = owned;
+            this.shared = null;
+            this.numMessages = numMessages;
+        }
+
+        Segment(final ReturnableBufferOutput sharedBuffer, final SharedPayload shared) {
+            // each destination needs its own position and limit over the shared bytes.
+            this.bb = ByteBuffer.wrap(sharedBuffer.getBuffer(), 0, sharedBuffer.getPosition());
+            this.owned = null;
+            this.shared = shared;
+            this.numMessages = 1;
+        }
+
+        // called once the segment has been completely written or abandoned.
+        void done() {
+            if(owned != null)
+                owned.close();
+            if(shared != null)
+                shared.release();
+        }
+    }
 
     public SenderHolder(final NioSender sender, final Logger l) {
         this.sender = sender;
         this.LOGGER = l;
     }
 
-    private final void add(final ReturnableBufferOutput ob) {
-        numBytesToWrite += ob.getPosition();
-        serializedMessages.add(ob);
+    // queue a newly serialized segment. This is where the messages it completes are charged against the credits.
+    private final void add(final Segment seg) {
+        sender.useCredits(seg.numMessages);
+        requeue(seg);
     }
 
-    private final void addBack(final ReturnableBufferOutput ob, final int remaining) {
-        numBytesToWrite += remaining;
-        serializedMessages.add(ob);
+    // queue a segment that's already been charged for, like one that was only partially written.
+    private final void requeue(final Segment seg) {
+        numBytesToWrite += seg.bb.remaining();
+        serializedMessages.add(seg);
     }
 
     public final void register(final Selector selector) throws ClosedChannelException {
@@ -48,13 +88,13 @@ public class SenderHolder {
     }
 
     public final boolean shouldClose() {
-        final Object peek = sender.messages.peek();
+        final Object peek = sender.peekNext();
         return(peek != null && (peek instanceof StopMessage));
     }
 
     public final boolean readyToSerialize() {
-        final Object peek = sender.messages.peek();
-        return peek != null && !(peek instanceof StopMessage);
+        final Object peek = sender.peekNext();
+        return peek != null && !(peek instanceof StopMessage) && sender.hasCredit(1);
     }
 
     public final boolean readyToWrite(final boolean considerMtu) {
@@ -69,15 +109,6 @@ public class SenderHolder {
         prepareToWriteBestEffort();
     }
 
-    private static ByteBuffer[] removeFirst(final ByteBuffer[] src, final boolean andSecond) {
-        final LinkedList<ByteBuffer> tmp = new LinkedList<>(Arrays.asList(src));
-        if(tmp.size() > 0)
-            tmp.removeFirst();
-        if(andSecond && tmp.size() > 0)
-            tmp.removeFirst();
-        return tmp.toArray(new ByteBuffer[tmp.size()]);
-    }
-
     public boolean close(final SelectionKey key) {
         final SocketChannel channel = (SocketChannel)key.channel();
         if(closeQuietly(channel, LOGGER, sender.nodeId + " failed to close previous channel to " + sender.addr)) {
@@ -97,27 +128,31 @@ public class SenderHolder {
             // ==================================================
             // collect up the ByteBuffers to send.
             final int numBb = serializedMessages.size();
-            final ReturnableBufferOutput[] toSendRbos = new ReturnableBufferOutput[numBb];
-            ByteBuffer[] toSend = new ByteBuffer[numBb];
-            int curIndex = 0;
-
-            for(final ReturnableBufferOutput c: serializedMessages) {
-                toSend[curIndex] = c.getFloppedBb();
-                toSendRbos[curIndex] = c;
-                curIndex++;
-            }
+            final Segment[] toSendSegs = serializedMessages.toArray(new Segment[numBb]);
+            final ByteBuffer[] toSend = new ByteBuffer[numBb];
+            for(int i = 0; i < numBb; i++)
+                toSend[i] = toSendSegs[i].bb;
 
+            int firstToKeep = 0;
             final SocketChannel channel = (SocketChannel)key.channel();
             try {
                 channel.write(toSend); // okay, let's see what we have now.
             } catch(final IOException ioe) {
                 LOGGER.warn("The connection from " + sender.nodeId + " to " + sender.addr, ioe);
 
-                if(previouslyWroteOddNumBufs || (toSend[0].hasRemaining() && toSend[0].position() > 0)) { // this means we were in the MIDDLE of a message.
-                    statsCollector.messageNotSent();
-                    toSend = removeFirst(toSend, !previouslyWroteOddNumBufs);
+                if(midMessage || (toSend[0].hasRemaining() && toSend[0].position() > 0)) { // this means we were in the MIDDLE of a message.
+                    // the rest of the frame can't be sent on a new connection so drop through the end of it.
+                    while(firstToKeep < numBb) {
+                        final Segment seg = toSendSegs[firstToKeep++];
+                        seg.done();
+                        if(seg.numMessages > 0) {
+                            for(int i = 0; i < seg.numMessages; i++)
+                                statsCollector.messageNotSent();
+                            break;
+                        }
+                    }
                 }
-                previouslyWroteOddNumBufs = false;
+                midMessage = false;
 
                 // now let's retry the connection
                 final SocketChannel oldChannel = sender.makeChannel(); // remake the channel
@@ -134,32 +169,27 @@ public class SenderHolder {
 
             numBytesToWrite = 0;
             serializedMessages.clear();
-            int numBufsCompletelyWritten = 0;
-            for(int i = 0; i < toSend.length; i++) {
-                final ByteBuffer curBb = toSend[i];
-                final ReturnableBufferOutput curRob = toSendRbos[i];
-                final int remaining = curBb.remaining();
-                if(remaining != 0)
-                    addBack(curRob, remaining);
-                else
-                    numBufsCompletelyWritten++;
+            int numMessageDelivered = 0;
+            for(int i = firstToKeep; i < numBb; i++) {
+                final Segment seg = toSendSegs[i];
+                if(seg.bb.hasRemaining())
+                    requeue(seg);
+                else {
+                    seg.done();
+                    // how many messages did we write?
+                    numMessageDelivered += seg.numMessages;
+                    midMessage = seg.numMessages == 0;
+                }
             }
 
-            // how many messages did we write?
-            if(previouslyWroteOddNumBufs)
-                numBufsCompletelyWritten++;
-
-            previouslyWroteOddNumBufs = (numBufsCompletelyWritten & 0x1) == 0x1; // is numBufsCompletelyWritten now an odd number?
-
-            final int numMessageDelivered = numBufsCompletelyWritten >> 1;
             for(int i = 0; i < numMessageDelivered; i++)
                 statsCollector.messageSent(null);
 
             return !(readyToWrite(false) || readyToSerialize());
         } else {
-            final Object peek = sender.messages.peek();
-            if(peek != null)
-                return(peek instanceof StopMessage); // we're "done" if the next message is a StopMessage.
+            final Object peek = sender.peekNext();
+            if(peek != null) // we're "done" if the next message is a StopMessage or we need to wait for credits to send it.
+                return(peek instanceof StopMessage) || !sender.hasCredit(1);
             else
                 return true; // we're done if there's no message left.
         }
@@ -183,17 +213,170 @@ public class SenderHolder {
         if(shouldClose())
             return false;
 
-        final Object toSer = sender.messages.poll();
-        if(toSer != null) {
-            final ReturnableBufferOutput header = NioUtils.getReturnableBufferOutput();
-            final ReturnableBufferOutput data = NioUtils.getReturnableBufferOutput();
-            serialize(sender.serializer, toSer, header, data, sender.addr.messageSizeLimit);
-            add(header);
-            add(data);
-            return true;
+        final Object toSer = sender.pollNext();
+        if(toSer instanceof SharedFrame)
+            serializeShared((SharedFrame)toSer);
+        else if(toSer != null) {
+            if(sender.batchMaxMessages > 1 && batchable(sender.peekNext()))
+                serializeBatch(toSer);
+            else
+                serializeComplete(toSer);
+        }
+        return toSer != null;
+    }
+
+    private static boolean batchable(final Object message) {
+        return message != null && !(message instanceof StopMessage) && !(message instanceof SharedFrame);
+    }
+
+    // Serialize consecutive messages from the queue into a single frame. See NioUtils.BATCH_FRAME.
+    private void serializeBatch(final Object first) throws IOException {
+        final ReturnableBufferOutput data = NioUtils.getReturnableBufferOutput();
+        data.reset();
+        data.writeShort(NioUtils.BATCH_FRAME);
+        data.writeInt(0); // placeholder for the frame size
+        data.writeInt(0); // placeholder for the number of messages
+
+        final int maxBytes = sender.getMaxBatchSize();
+        int count = 0;
+        Object toSer = first;
+        Object next = null; // a message that was polled but can't be part of this batch.
+        IOException failed = null;
+        while(toSer != null) {
+            final int start = data.getPosition();
+            try {
+                data.writeInt(0); // placeholder for the message size
+                sender.serializer.serialize(toSer, data);
+            } catch(final IOException | RuntimeException e) {
+                if(count == 0) {
+                    data.close();
+                    throw e;
+                }
+                // keep the messages already in the frame and report the failure once they're queued.
+                data.setPosition(start);
+                failed = (e instanceof IOException) ? (IOException)e : new IOException(e);
+                break;
+            }
+            ByteBuffer.wrap(data.getBuffer()).putInt(start, data.getPosition() - start - 4);
+            count++;
+
+            if(count >= sender.batchMaxMessages || data.getPosition() >= maxBytes || !batchable(sender.peekNext())
+                || !sender.hasCredit(count + 1))
+                break;
+
+            // the queue can be changed by other threads (e.g. when dropping the oldest message on overflow)
+            // so what we poll may not be what we peeked.
+            toSer = sender.pollNext();
+            if(!batchable(toSer)) {
+                next = toSer;
+                break;
+            }
+        }
+
+        // the frame size doesn't include the 2 byte marker or itself.
+        final int size = data.getPosition() - 6;
+        if(size > sender.addr.messageSizeLimit)
+            LOGGER.warn("A batch of " + count + " messages is too large to be sent to the destination " + sender.addr);
+        ByteBuffer.wrap(data.getBuffer()).putInt(2, size).putInt(6, count);
+        add(new Segment(data, count));
+
+        if(next instanceof SharedFrame)
+            serializeShared((SharedFrame)next);
+        else if(next instanceof StopMessage) // it needs to stay at the head of the queue.
+            sender.pushBack(next);
+
+        if(failed != null)
+            throw failed;
+    }
+
+    private void serializeComplete(final Object toSer) throws IOException {
+        if(sender.routingHeader && toSer instanceof RoutedMessage) {
+            serializeRouted((RoutedMessage)toSer);
+            return;
+        }
+
+        final ReturnableBufferOutput header = NioUtils.getReturnableBufferOutput();
+        final ReturnableBufferOutput data = NioUtils.getReturnableBufferOutput();
+        serialize(sender.serializer, toSer, header, data, sender.addr.messageSizeLimit);
+        add(new Segment(header, 0));
+        add(new Segment(data, 1));
+    }
+
+    // Serialize the message with the routing information in a header ahead of the payload. See NioUtils.ROUTED_FRAME.
+    private void serializeRouted(final RoutedMessage toSer) throws IOException {
+        final ReturnableBufferOutput data = NioUtils.getReturnableBufferOutput();
+        try {
+            data.reset();
+            data.writeShort(NioUtils.ROUTED_FRAME);
+            data.writeInt(0); // placeholder for the frame size
+            final int[] containers = toSer.containers == null ? new int[0] : toSer.containers;
+            data.writeInt(containers.length);
+            for(final int container: containers)
+                data.writeInt(container);
+            final int keyStart = data.getPosition();
+            data.writeInt(0); // placeholder for the key size
+            sender.serializer.serialize(new RoutedMessage(null, toSer.key, null), data);
+            ByteBuffer.wrap(data.getBuffer()).putInt(keyStart, data.getPosition() - keyStart - 4);
+            sender.serializer.serialize(new RoutedMessage(null, null, toSer.message), data);
+        } catch(final IOException | RuntimeException e) {
+            data.close();
+            throw e;
         }
-        return false;
 
+        // the frame size doesn't include the 2 byte marker or itself.
+        final int size = data.getPosition() - 6;
+        if(size > sender.addr.messageSizeLimit)
+            LOGGER.warn("The message " + SafeString.objectDescription(toSer.message) + " is too large to be sent to the destination " + sender.addr);
+        ByteBuffer.wrap(data.getBuffer()).putInt(2, size);
+        add(new Segment(data, 1));
+    }
+
+    private void serializeShared(final SharedFrame frame) throws IOException {
+        final SharedPayload shared = frame.payload;
+        final ReturnableBufferOutput payload;
+        try {
+            payload = shared.serialized(sender.addr.serializerId, () -> serializePayload(shared.message));
+        } catch(final IOException | RuntimeException e) {
+            shared.release();
+            throw e;
+        }
+
+        if(payload == null) {
+            // the payload was serialized with a different serializer so this destination can't share it.
+            shared.release();
+            serializeComplete(frame.routing);
+            return;
+        }
+
+        final ReturnableBufferOutput header = NioUtils.getReturnableBufferOutput();
+        try {
+            header.reset();
+            header.writeShort(NioUtils.SHARED_PAYLOAD_FRAME);
+            header.writeInt(0); // placeholder for the frame size
+            header.writeInt(0); // placeholder for the routing size
+            sender.serializer.serialize(new RoutedMessage(frame.routing.containers, frame.routing.key, null), header);
+        } catch(final IOException | RuntimeException e) {
+            header.close();
+            shared.release();
+            throw e;
+        }
+
+        // the frame size doesn't include the 2 byte marker or itself.
+        final int routingSize = header.getPosition() - NioUtils.SHARED_PAYLOAD_FRAME_HEADER_SIZE;
+        final int size = 4 + routingSize + payload.getPosition();
+        if(size > sender.addr.messageSizeLimit)
+            LOGGER.warn("The message " + SafeString.objectDescription(shared.message) + " is too large to be sent to the destination " + sender.addr);
+        ByteBuffer.wrap(header.getBuffer()).putInt(2, size).putInt(6, routingSize);
+
+        add(new Segment(header, 0));
+        add(new Segment(payload, shared));
+    }
+
+    private ReturnableBufferOutput serializePayload(final Object message) throws IOException {
+        final ReturnableBufferOutput data = NioUtils.getReturnableBufferOutput();
+        data.reset();
+        sender.serializer.serialize(new RoutedMessage(null, null, message), data);
+        return data;
     }
 
     private void serialize(final Serializer ser, final Object obj, final ReturnableBufferOutput header, final ReturnableBufferOutput data,
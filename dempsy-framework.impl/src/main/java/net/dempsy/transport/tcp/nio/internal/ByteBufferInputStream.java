@@ -0,0 +1,68 @@
+package net.dempsy.transport.tcp.nio.internal;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link InputStream} over a region of a {@link ByteBuffer} that doesn't copy it first. This lets a
+ * message be deserialized directly out of a direct buffer. The buffer's own position and limit are left alone.
+ */
+public class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer bb;
+    private int pos;
+    private final int end;
+    private int mark;
+
+    public ByteBufferInputStream(final ByteBuffer bb, final int start, final int end) {
+        this.bb = bb.duplicate(); // so the bulk reads can move its position.
+        this.pos = start;
+        this.end = end;
+        this.mark = start;
+    }
+
+    @Override
+    public int read() {
+        return pos < end ? (bb.get(pos++) & 0xff) : -1;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+        if(len == 0)
+            return 0;
+        final int remaining = end - pos;
+        if(remaining <= 0)
+            return -1;
+        final int toRead = Math.min(len, remaining);
+        bb.position(pos);
+        bb.get(b, off, toRead);
+        pos += toRead;
+        return toRead;
+    }
+
+    @Override
+    public long skip(final long n) {
+        final int toSkip = (int)Math.max(0, Math.min(n, end - pos));
+        pos += toSkip;
+        return toSkip;
+    }
+
+    @Override
+    public int available() {
+        return end - pos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(final int readlimit) {
+        mark = pos;
+    }
+
+    @Override
+    public synchronized void reset() {
+        pos = mark;
+    }
+}
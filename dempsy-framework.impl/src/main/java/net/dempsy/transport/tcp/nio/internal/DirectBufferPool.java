@@ -0,0 +1,48 @@
+package net.dempsy.transport.tcp.nio.internal;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A pool of equally sized direct buffers carved out of a single direct slab. Each NioReceiver
+ * Reader has its own. Buffers are acquired by the reader thread and released by whichever thread
+ * deserializes the message read into it.
+ */
+public class DirectBufferPool {
+    private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer slab;
+    public final int bufferSize;
+
+    public DirectBufferPool(final int bufferSize, final int numBuffers) {
+        this.bufferSize = bufferSize;
+        slab = ByteBuffer.allocateDirect(bufferSize * numBuffers);
+        for(int i = 0; i < numBuffers; i++) {
+            slab.limit((i + 1) * bufferSize);
+            slab.position(i * bufferSize);
+            pool.offer(slab.slice());
+        }
+    }
+
+    /**
+     * Get a buffer with its position at zero and its limit set to the given size. If the size is larger
+     * than the pooled buffers, or the pool is empty, then a heap buffer is allocated just for this
+     * message.
+     */
+    public ByteBuffer acquire(final int size) {
+        ByteBuffer ret = size <= bufferSize ? pool.poll() : null;
+        if(ret == null)
+            ret = ByteBuffer.allocate(size);
+        ret.clear();
+        ret.limit(size);
+        return ret;
+    }
+
+    /**
+     * Return a buffer obtained from {@link #acquire(int)}. Buffers that didn't come from the pool are
+     * simply dropped.
+     */
+    public void release(final ByteBuffer bb) {
+        if(bb.isDirect())
+            pool.offer(bb);
+    }
+}
@@ -22,6 +22,25 @@ public class NioUtils {
     private static ConcurrentLinkedQueue<ReturnableBufferOutput> bufferPool = new ConcurrentLinkedQueue<>();
     public static final int MAX_BUFFER_POOL_SIZE = 100;
 
+    // =============================================================================
+    // A frame normally starts with a short size, or -1 followed by an int size. A frame
+    // starting with SHARED_PAYLOAD_FRAME is followed by an int size, an int size of the
+    // serialized routing information, the routing information and then the payload.
+    // A frame starting with BATCH_FRAME is followed by an int size, an int count of the
+    // messages and then, for each message, an int size followed by the message.
+    // A frame starting with ROUTED_FRAME is followed by an int size, an int count of the
+    // containers, the containers as ints, an int size of the serialized key, the key and
+    // then the payload. The receiver can route the message without touching the payload.
+    // A connection starting with FLOW_CONTROL_FRAME, which has no size or body, asks the
+    // receiver for credits. The receiver then writes each grant back as an int.
+    // =============================================================================
+    public static final short SHARED_PAYLOAD_FRAME = -2;
+    public static final int SHARED_PAYLOAD_FRAME_HEADER_SIZE = 10;
+    public static final short BATCH_FRAME = -3;
+    public static final int BATCH_FRAME_HEADER_SIZE = 10;
+    public static final short ROUTED_FRAME = -4;
+    public static final short FLOW_CONTROL_FRAME = -5;
+
     public static ReturnableBufferOutput getReturnableBufferOutput() {
         ReturnableBufferOutput ret = bufferPool.poll();
         if(ret == null)
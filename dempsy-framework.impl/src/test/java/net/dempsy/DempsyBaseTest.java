@@ -28,7 +28,10 @@ import net.dempsy.config.Node;
 import net.dempsy.serialization.util.ClassTracker;
 import net.dempsy.threading.DefaultThreadingModel;
 import net.dempsy.threading.OrderedPerContainerThreadingModel;
+import net.dempsy.threading.OrderedPerKeyThreadingModel;
 import net.dempsy.threading.ThreadingModel;
+import net.dempsy.threading.VirtualThreadThreadingModel;
+import net.dempsy.threading.WeightedFairThreadingModel;
 import net.dempsy.transport.blockingqueue.BlockingQueueAddress;
 import net.dempsy.util.SystemPropertyManager;
 
@@ -147,7 +150,7 @@ public abstract class DempsyBaseTest {
         return new Combos(
             new String[] {"simple","managed","group"},
             // the non-locking container is broken
-            new String[] {"locking","altnonlocking","altnonlockingbulk"},
+            new String[] {"locking","altnonlocking","altnonlockingbulk","mpsc","longkey"},
             new String[] {"local","zookeeper"},
             new String[] {"bq","passthrough","nio"},
             new String[] {"json","java","kryo"},
@@ -175,6 +178,17 @@ public abstract class DempsyBaseTest {
                 {"ordered",(Function<String, ThreadingModel>)(testName) -> new OrderedPerContainerThreadingModel(testName)
                     .setMaxNumberOfQueuedLimitedTasks(TM_QUEUE_DEPTH_WHEN_LIMITED)
                 },
+                {"keyed",(Function<String, ThreadingModel>)(testName) -> new OrderedPerKeyThreadingModel(testName)
+                    .setMaxNumberOfQueuedLimitedTasks(TM_QUEUE_DEPTH_WHEN_LIMITED)
+                },
+                {"virtual",(Function<String, ThreadingModel>)(testName) -> new VirtualThreadThreadingModel(testName)
+                    .setMaxNumberOfQueuedLimitedTasks(TM_QUEUE_DEPTH_WHEN_LIMITED)
+                },
+                {"fair",(Function<String, ThreadingModel>)(testName) -> new WeightedFairThreadingModel(testName)
+                    .setAdditionalThreads(TM_ADDITIONAL_THREADS)
+                    .setCoresFactor(TM_CORES_FACTOR)
+                    .setMaxNumberOfQueuedLimitedTasks(TM_QUEUE_DEPTH_WHEN_LIMITED)
+                },
             });
     }
 
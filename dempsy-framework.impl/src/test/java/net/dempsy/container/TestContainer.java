@@ -24,6 +24,7 @@ import static net.dempsy.utils.test.ConditionPoll.poll;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -52,6 +53,8 @@ import org.junit.runners.Parameterized.Parameters;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
 import net.dempsy.DempsyException;
+import net.dempsy.Infrastructure;
+import net.dempsy.KeyspaceChangeListener;
 import net.dempsy.NodeManager;
 import net.dempsy.cluster.local.LocalClusterSessionFactory;
 import net.dempsy.config.ClusterId;
@@ -59,6 +62,8 @@ import net.dempsy.config.Node;
 import net.dempsy.container.Container.Operation;
 import net.dempsy.container.altnonlocking.NonLockingAltContainer;
 import net.dempsy.container.locking.LockingContainer;
+import net.dempsy.container.longkey.LongKeyContainer;
+import net.dempsy.container.mpsc.MpscContainer;
 import net.dempsy.container.mocks.ContainerTestMessage;
 import net.dempsy.container.mocks.OutputMessage;
 import net.dempsy.lifecycle.annotation.Activation;
@@ -76,8 +81,13 @@ import net.dempsy.messages.Adaptor;
 import net.dempsy.messages.Dispatcher;
 import net.dempsy.messages.KeyedMessage;
 import net.dempsy.messages.KeyedMessageWithType;
+import net.dempsy.messages.KeySource;
 import net.dempsy.monitoring.ClusterStatsCollector;
+import net.dempsy.monitoring.ClusterStatsCollector.MessageStage;
+import net.dempsy.monitoring.basic.BasicClusterStatsCollector;
 import net.dempsy.monitoring.basic.BasicNodeStatsCollector;
+import net.dempsy.router.RoutingStrategy.ContainerAddress;
+import net.dempsy.router.RoutingStrategy.ShardedInbound;
 import net.dempsy.transport.blockingqueue.BlockingQueueReceiver;
 import net.dempsy.util.SystemPropertyManager;
 
@@ -101,6 +111,8 @@ public class TestContainer {
             // the NonLockingContainer is broken
             // {NonLockingContainer.class.getPackage().getName()},
             {NonLockingAltContainer.class.getPackage().getName()},
+            {MpscContainer.class.getPackage().getName()},
+            {LongKeyContainer.class.getPackage().getName()},
         });
     }
 
@@ -396,6 +408,70 @@ public class TestContainer {
         assertEquals(1, ((ClusterMetricGetters)container.statCollector).getDispatchedMessageCount());
     }
 
+    @Test
+    public void testMpThrowsExceptionOnQueuedMessage() throws Exception {
+        // only the mpsc container hands messages that arrive while the Mp is busy to the thread that's working it.
+        if(!(container instanceof MpscContainer))
+            return;
+
+        final TestProcessor mp = createAndGet("foo");
+        mp.latch = new CountDownLatch(1);
+
+        final KeyedMessageWithType toFoo = ke.extract(new ContainerTestMessage("foo")).get(0);
+        final Runnable sendOne = () -> container.dispatch(toFoo, Operation.handle, true);
+        final Thread owner = new Thread(sendOne);
+        owner.start();
+        assertTrue(poll(mp, o -> o.invocationCount == 2));
+
+        // these are queued behind the blocked message. The first one throws from the handler.
+        justThrowMe = new RuntimeException("JustThrowMe!");
+        container.dispatch(ke.extract(new MyMessage("foo")).get(0), Operation.handle, true);
+        sendOne.run();
+
+        mp.latch.countDown();
+        owner.join(10000);
+        assertFalse(owner.isAlive());
+
+        assertTrue(poll(mp, o -> o.invocationCount == 3));
+        assertTrue(poll(container, c -> c.getMessageWorkingCount() == 0));
+        assertEquals(1, ((ClusterMetricGetters)container.statCollector).getMessageFailedCount());
+
+        // the mailbox has to have been released.
+        sendOne.run();
+        assertEquals(4, mp.invocationCount);
+        assertEquals(0, container.getMessageWorkingCount());
+    }
+
+    @Test
+    public void testEndToEndRecordedOnDelivery() throws Exception {
+        if(!container.containerInternallyQueuesMessages())
+            return;
+
+        final TestProcessor mp = createAndGet("foo");
+        mp.latch = new CountDownLatch(1);
+
+        final KeyedMessageWithType toFoo = ke.extract(new ContainerTestMessage("foo")).get(0);
+        final Thread owner = new Thread(() -> container.dispatch(toFoo, Operation.handle, null, true, System.nanoTime(), Container.NOT_TIMED));
+        owner.start();
+        assertTrue(poll(mp, o -> o.invocationCount == 2));
+
+        // this one is queued behind the blocked message so it hasn't been delivered when the dispatch returns.
+        final long queuedAt = System.nanoTime();
+        container.dispatch(toFoo, Operation.handle, null, true, queuedAt, Container.NOT_TIMED);
+        final BasicClusterStatsCollector sc = (BasicClusterStatsCollector)statsCollector;
+        assertEquals(0, sc.getMessageStageLatencyCount(MessageStage.END_TO_END));
+
+        Thread.sleep(50);
+        mp.latch.countDown();
+        owner.join(10000);
+        assertFalse(owner.isAlive());
+
+        assertTrue(poll(mp, o -> o.invocationCount == 3));
+        assertTrue(poll(sc, o -> o.getMessageStageLatencyCount(MessageStage.END_TO_END) == 2));
+        // both include the time the Mp was blocked.
+        assertTrue(sc.getMessageStageLatencyTotalNanos(MessageStage.END_TO_END) >= 2 * 50_000_000L);
+    }
+
     @Test
     public void testConfiguration() throws Exception {
         // this assertion is superfluous, since we deref container in setUp()
@@ -535,6 +611,43 @@ public class TestContainer {
         }
     }
 
+    @Test
+    public void testChunkedInvokeOutput() throws Exception {
+        cache = new ConcurrentHashMap<>();
+        outputMessages = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        // enough Mps that every chunk gets several keys and the last one is short.
+        final int numChunks = Runtime.getRuntime().availableProcessors() * container.outputChunksPerCore;
+        final int numInstances = (3 * numChunks) + 1;
+        for(int i = 0; i < numInstances; i++)
+            container.dispatch(ke.extract(new ContainerTestMessage("foo" + i)).get(0), Operation.handle, true);
+        assertTrue(poll(container, c -> c.getProcessorCount() == numInstances));
+        assertTrue(poll(cache, c -> c.size() == numInstances));
+
+        try(NodeManager nman = addOutputCatchStage();) {
+            // the pass waits for every chunk to complete.
+            container.outputPass();
+            for(int i = 0; i < numInstances; i++)
+                assertEquals("output count for foo" + i, 1, cache.get("foo" + i).outputCount);
+            assertTrue(poll(outputMessages, o -> o.size() == numInstances));
+        }
+    }
+
+    @Test
+    public void testOutputDoesntCreateMp() throws Exception {
+        final TestProcessor mp = createAndGet("foo");
+        mp.evict.set(true);
+        container.evict();
+        assertTrue(poll(container, c -> c.getProcessorCount() == 0));
+
+        // an output pass can reach a key after its Mp was evicted. It should be skipped rather than recreated.
+        container.dispatch(new KeyedMessage("foo", new Object()), Operation.output, true);
+        assertEquals(0, container.getProcessorCount());
+        assertNull(container.getMp("foo"));
+        assertEquals(0, mp.outputCount);
+        assertEquals(1, mp.activationCount);
+    }
+
     @Test
     public void testEvictable() throws Exception {
         final TestProcessor mp = createAndGet("foo");
@@ -552,6 +665,29 @@ public class TestContainer {
         assertEquals("Clone count, 2nd message", tmpCloneCount + 1, prototype.cloneCount.intValue());
     }
 
+    @Test
+    public void testMaxMessageProcessors() throws Exception {
+        cache = new ConcurrentHashMap<>();
+        container.setMaxMessageProcessors(2);
+        final TestAdaptor adaptor = context.getBean(TestAdaptor.class);
+
+        adaptor.dispatcher.dispatchAnnotated(new ContainerTestMessage("foo1"));
+        adaptor.dispatcher.dispatchAnnotated(new ContainerTestMessage("foo2"));
+        assertTrue(poll(o -> container.getProcessorCount() == 2));
+        // the first two need to have last been used before the millisecond the hand starts its sweep.
+        final long created = System.currentTimeMillis();
+        assertTrue(poll(o -> System.currentTimeMillis() > created));
+
+        // a third Mp takes the container over the cap so one of the first two is passivated.
+        adaptor.dispatcher.dispatchAnnotated(new ContainerTestMessage("foo3"));
+        assertTrue(poll(cache, c -> c.get("foo3") != null));
+        final BasicClusterStatsCollector sc = (BasicClusterStatsCollector)statsCollector;
+        assertTrue(poll(o -> sc.getMessageProcessorsForcedPassivation() == 1));
+        assertEquals(2, container.getProcessorCount());
+        // the passivate count is shared by all of the clones.
+        assertEquals(1, context.getBean(TestProcessor.class).passivateCount.get());
+    }
+
     @Test
     public void testEvictableWithPassivateException() throws Exception {
         final TestProcessor mp = createAndGet("foo");
@@ -685,4 +821,90 @@ public class TestContainer {
         assertEquals(1, mp.invocationCount);
         assertEquals(2, mp2.invocationCount);
     }
+
+    @Test
+    public void testPreInstantiation() throws Exception {
+        final Set<String> keys = Set.of("foo", "bar", "baz");
+        final KeySource<String> keySource = () -> keys;
+
+        final Node node = new Node.Builder("test-app").defaultRoutingStrategyId("net.dempsy.router.simple").containerTypeId(containerId)
+            .receiver(new BlockingQueueReceiver(new ArrayBlockingQueue<>(16))).nodeStatsCollector(new BasicNodeStatsCollector())
+            .cluster("pre-instantiated").mp(new MessageProcessor<OutputCatcher>(new OutputCatcher())).keySource(keySource)
+            .build();
+        node.validate();
+
+        final NodeManager nman = track(new NodeManager()).node(node).collaborator(track(sessionFactory.createSession())).start();
+        final Container preInstContainer = nman.getContainers().get(0);
+
+        // all of the Mps should be created without sending a single message
+        assertTrue(poll(preInstContainer, c -> c.getProcessorCount() == keys.size()));
+        keys.forEach(k -> assertNotNull(preInstContainer.getMp(k)));
+    }
+
+    @Test
+    public void testShrinkingShardsEvictsReleasedKeys() throws Exception {
+        cache = new ConcurrentHashMap<>();
+        final int totalShards = 4;
+        final Set<Integer> ownedShards = ConcurrentHashMap.newKeySet();
+        final AtomicInteger knownShards = new AtomicInteger(0);
+
+        // like the managed inbound, this doesn't know the number of shards until it's been assigned some.
+        final ShardedInbound sharded = new ShardedInbound() {
+            @Override
+            public void setContainerDetails(final ClusterId clusterId, final ContainerAddress address, final KeyspaceChangeListener listener) {}
+
+            @Override
+            public boolean doesMessageKeyBelongToNode(final Object messageKey) {
+                return ownedShards.contains(determineShard(messageKey));
+            }
+
+            @Override
+            public int getTotalShards() {
+                return knownShards.get();
+            }
+
+            @Override
+            public int determineShard(final Object messageKey) {
+                return Math.abs(messageKey.hashCode() % totalShards);
+            }
+
+            @Override
+            public boolean doesShardBelongToNode(final int shard) {
+                return ownedShards.contains(shard);
+            }
+
+            @Override
+            public void start(final Infrastructure infra) {}
+
+            @Override
+            public void stop() {}
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+        };
+
+        for(int i = 0; i < totalShards; i++)
+            ownedShards.add(i);
+        container.setInbound(sharded);
+
+        // these Mps are created before the inbound knows how many shards there are.
+        final List<String> keys = new ArrayList<>();
+        for(int i = 0; i < 20; i++)
+            keys.add("key-" + i);
+        for(final String key: keys)
+            container.dispatch(ke.extract(new ContainerTestMessage(key)).get(0), Operation.handle, true);
+        assertTrue(poll(container, c -> c.getProcessorCount() == keys.size()));
+
+        knownShards.set(totalShards);
+        ownedShards.remove(1);
+        ownedShards.remove(3);
+        container.keyspaceChanged(true, false);
+
+        assertTrue(poll(container, c -> keys.stream().allMatch(k -> (c.getMp(k) == null) != sharded.doesMessageKeyBelongToNode(k))));
+        final long remaining = keys.stream().filter(k -> sharded.doesMessageKeyBelongToNode(k)).count();
+        assertTrue(remaining > 0 && remaining < keys.size());
+        assertEquals(remaining, container.getProcessorCount());
+    }
 }
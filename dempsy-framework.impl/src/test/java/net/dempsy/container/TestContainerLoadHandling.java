@@ -46,6 +46,7 @@ import net.dempsy.config.ClusterId;
 import net.dempsy.container.Container.Operation;
 import net.dempsy.container.altnonlocking.NonLockingAltContainer;
 import net.dempsy.container.locking.LockingContainer;
+import net.dempsy.container.mpsc.MpscContainer;
 import net.dempsy.container.mocks.DummyInbound;
 import net.dempsy.container.mocks.MockInputMessage;
 import net.dempsy.container.mocks.MockOutputMessage;
@@ -83,6 +84,7 @@ public class TestContainerLoadHandling {
             // the NonLockingContainer is broken
             // {NonLockingContainer.class.getPackage().getName()},
             {NonLockingAltContainer.class.getPackage().getName()},
+            {MpscContainer.class.getPackage().getName()},
         });
     }
 
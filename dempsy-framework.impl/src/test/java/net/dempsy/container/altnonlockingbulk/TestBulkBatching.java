@@ -0,0 +1,162 @@
+package net.dempsy.container.altnonlockingbulk;
+
+import static net.dempsy.util.Functional.uncheck;
+import static net.dempsy.utils.test.ConditionPoll.poll;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import net.dempsy.config.ClusterId;
+import net.dempsy.container.Container;
+import net.dempsy.container.Container.Operation;
+import net.dempsy.container.mocks.DummyInbound;
+import net.dempsy.container.nonlocking.TestInstanceManager.DummyDispatcher;
+import net.dempsy.lifecycle.annotation.BulkMessageHandler;
+import net.dempsy.lifecycle.annotation.MessageHandler;
+import net.dempsy.lifecycle.annotation.MessageKey;
+import net.dempsy.lifecycle.annotation.MessageProcessor;
+import net.dempsy.lifecycle.annotation.MessageType;
+import net.dempsy.lifecycle.annotation.Mp;
+import net.dempsy.lifecycle.annotation.utils.KeyExtractor;
+import net.dempsy.messages.KeyedMessageWithType;
+import net.dempsy.monitoring.ClusterStatsCollector;
+import net.dempsy.monitoring.basic.BasicClusterStatsCollector;
+import net.dempsy.threading.DefaultThreadingModel;
+import net.dempsy.util.TestInfrastructure;
+
+public class TestBulkBatching {
+
+    @MessageType
+    public static class Value {
+        public final int value;
+
+        public Value(final int value) {
+            this.value = value;
+        }
+
+        @MessageKey
+        public Integer getKey() {
+            return 1;
+        }
+    }
+
+    @Mp
+    public static class BatchingMp implements Cloneable {
+        public static CountDownLatch block = null;
+        public static List<Integer> handled = null;
+        public static List<Integer> batchSizes = null;
+
+        @MessageHandler
+        public void handle(final Value message) throws InterruptedException {
+            handled.add(message.value);
+            block.await();
+        }
+
+        @BulkMessageHandler
+        public void handle(final List<Value> messages) {
+            batchSizes.add(messages.size());
+            messages.forEach(m -> handled.add(m.value));
+        }
+
+        @Override
+        public Object clone() throws CloneNotSupportedException {
+            return super.clone();
+        }
+    }
+
+    private final BasicClusterStatsCollector statsCollector = new BasicClusterStatsCollector();
+    private DefaultThreadingModel tm = null;
+    private Container container = null;
+
+    @After
+    public void tearDown() throws Exception {
+        if(container != null)
+            container.close();
+        if(tm != null)
+            tm.close();
+    }
+
+    @SuppressWarnings("resource")
+    private Container setupContainer(final Map<String, String> configuration) {
+        container = new NonLockingAltBulkContainer().setMessageProcessor(new MessageProcessor<BatchingMp>(new BatchingMp()))
+            .setClusterId(new ClusterId("test", "test"));
+        container.setDispatcher(new DummyDispatcher());
+        container.setInbound(new DummyInbound());
+
+        tm = new DefaultThreadingModel(TestBulkBatching.class.getName());
+        tm.start(TestBulkBatching.class.getName());
+
+        container.start(new TestInfrastructure(tm) {
+            @Override
+            public ClusterStatsCollector getClusterStatsCollector(final ClusterId clusterId) {
+                return statsCollector;
+            }
+
+            @Override
+            public Map<String, String> getConfiguration() {
+                return configuration;
+            }
+        });
+        return container;
+    }
+
+    private static KeyedMessageWithType km(final Object message) throws Exception {
+        return new KeyExtractor().extract(message).get(0);
+    }
+
+    @Test
+    public void testMaxBatchSize() throws Exception {
+        BatchingMp.block = new CountDownLatch(1);
+        BatchingMp.handled = new CopyOnWriteArrayList<>();
+        BatchingMp.batchSizes = new CopyOnWriteArrayList<>();
+
+        final Container container = setupContainer(
+            Map.of(NonLockingAltBulkContainer.class.getPackageName() + "." + NonLockingAltBulkContainer.CONFIG_KEY_MAX_BATCH_SIZE, "2"));
+
+        // the first message holds the Mp busy so the rest queue up.
+        final Thread busy = new Thread(() -> uncheck(() -> container.dispatch(km(new Value(0)), Operation.handle, true)));
+        busy.start();
+        assertTrue(poll(o -> BatchingMp.handled.size() == 1));
+
+        for(int i = 1; i <= 5; i++)
+            container.dispatch(km(new Value(i)), Operation.handle, true);
+
+        BatchingMp.block.countDown();
+        busy.join(10000);
+
+        // the 5 queued messages are delivered no more than 2 at a time and in order.
+        assertEquals(List.of(0, 1, 2, 3, 4, 5), BatchingMp.handled);
+        assertEquals(List.of(2, 2), BatchingMp.batchSizes);
+        assertEquals(2, statsCollector.getBatchesDelivered());
+        assertEquals(4, statsCollector.getMessagesBatched());
+    }
+
+    @Test
+    public void testNoLingerWithNothingQueued() throws Exception {
+        BatchingMp.block = new CountDownLatch(0);
+        BatchingMp.handled = new CopyOnWriteArrayList<>();
+        BatchingMp.batchSizes = new CopyOnWriteArrayList<>();
+
+        final String prefix = NonLockingAltBulkContainer.class.getPackageName() + ".";
+        final Container container = setupContainer(Map.of(
+            prefix + NonLockingAltBulkContainer.CONFIG_KEY_MAX_BATCH_SIZE, "10",
+            prefix + NonLockingAltBulkContainer.CONFIG_KEY_MAX_LINGER_MICROS, "10000000"));
+
+        // nothing else is arriving so delivering a message shouldn't wait out the 10 second linger.
+        final long start = System.nanoTime();
+        for(int i = 0; i < 3; i++)
+            container.dispatch(km(new Value(i)), Operation.handle, true);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+        assertEquals(List.of(0, 1, 2), BatchingMp.handled);
+        assertEquals(0, BatchingMp.batchSizes.size());
+    }
+}
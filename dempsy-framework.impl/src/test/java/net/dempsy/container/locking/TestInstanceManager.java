@@ -23,7 +23,12 @@ import static org.junit.Assert.assertTrue;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -33,6 +38,7 @@ import net.dempsy.container.ClusterMetricGetters;
 import net.dempsy.container.Container;
 import net.dempsy.container.Container.Operation;
 import net.dempsy.container.ContainerException;
+import net.dempsy.container.DeliverLazyMessageJob;
 import net.dempsy.container.locking.LockingContainer.InstanceWrapper;
 import net.dempsy.container.mocks.DummyInbound;
 import net.dempsy.lifecycle.annotation.Activation;
@@ -51,6 +57,7 @@ import net.dempsy.monitoring.NodeStatsCollector;
 import net.dempsy.monitoring.basic.BasicClusterStatsCollector;
 import net.dempsy.monitoring.basic.BasicNodeStatsCollector;
 import net.dempsy.threading.DefaultThreadingModel;
+import net.dempsy.transport.LazyPayload;
 import net.dempsy.util.TestInfrastructure;
 import net.dempsy.utils.test.CloseableRule;
 
@@ -252,8 +259,13 @@ public class TestInstanceManager {
         tm = null;
     });
 
-    @SuppressWarnings("resource")
     public LockingContainer setupContainer(final MessageProcessorLifecycle<?> prototype) throws ContainerException {
+        return setupContainer(prototype, new HashMap<>());
+    }
+
+    @SuppressWarnings("resource")
+    public LockingContainer setupContainer(final MessageProcessorLifecycle<?> prototype, final Map<String, String> configuration)
+        throws ContainerException {
         dispatcher = new DummyDispatcher();
         statsCollector = new BasicClusterStatsCollector();
         nodeStats = new BasicNodeStatsCollector();
@@ -276,6 +288,11 @@ public class TestInstanceManager {
             public NodeStatsCollector getNodeStatsCollector() {
                 return nodeStats;
             }
+
+            @Override
+            public Map<String, String> getConfiguration() {
+                return configuration;
+            }
         });
         return container;
     }
@@ -585,4 +602,180 @@ public class TestInstanceManager {
             assertEquals(1, ((ClusterMetricGetters)statsCollector).getMessageFailedCount());
         }
     }
+
+    @Mp
+    public static class BlockingMP implements Cloneable {
+        public static CountDownLatch entered;
+        public static CountDownLatch release;
+        public static final List<Integer> handled = new ArrayList<>();
+
+        @MessageHandler
+        public void handle(final MessageOne message) throws InterruptedException {
+            if(handled.isEmpty()) {
+                entered.countDown();
+                release.await();
+            }
+            // the lock on the Mp guarantees this is never called concurrently.
+            handled.add(message.getKey());
+        }
+
+        @Override
+        public Object clone() throws CloneNotSupportedException {
+            return super.clone();
+        }
+    }
+
+    @Test
+    public void testHandoffCollision() throws Exception {
+        BlockingMP.entered = new CountDownLatch(1);
+        BlockingMP.release = new CountDownLatch(1);
+        BlockingMP.handled.clear();
+
+        final Map<String, String> configuration = new HashMap<>();
+        configuration.put(LockingContainer.class.getPackageName() + "." + LockingContainer.CONFIG_KEY_COLLISION_STRATEGY,
+            LockingContainer.COLLISION_STRATEGY_HANDOFF);
+
+        try(final LockingContainer dispatcher = setupContainer(new MessageProcessor<BlockingMP>(new BlockingMP()), configuration);) {
+            final Thread holder = new Thread(() -> {
+                try {
+                    dispatcher.dispatch(km(new MessageOne(0)), Operation.handle, true);
+                } catch(final Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }, "testHandoffCollision-holder");
+            holder.start();
+            assertTrue(BlockingMP.entered.await(10, TimeUnit.SECONDS));
+
+            // the Mp is busy so these return without blocking and are left for the lock holder to deliver.
+            for(int i = 1; i <= 3; i++)
+                dispatcher.dispatch(km(new MessageOne(0)), Operation.handle, true);
+            assertTrue(BlockingMP.handled.isEmpty());
+            assertEquals(3, ((ClusterMetricGetters)statsCollector).getMessageCollisionCount());
+
+            BlockingMP.release.countDown();
+            holder.join(10000);
+            assertEquals(4, BlockingMP.handled.size());
+        }
+    }
+
+    @Test
+    public void testHandoffsCountTowardMaxPending() throws Exception {
+        BlockingMP.entered = new CountDownLatch(1);
+        BlockingMP.release = new CountDownLatch(1);
+        BlockingMP.handled.clear();
+
+        final Map<String, String> configuration = new HashMap<>();
+        configuration.put(LockingContainer.class.getPackageName() + "." + LockingContainer.CONFIG_KEY_COLLISION_STRATEGY,
+            LockingContainer.COLLISION_STRATEGY_HANDOFF);
+
+        try(final LockingContainer dispatcher = setupContainer(new MessageProcessor<BlockingMP>(new BlockingMP()), configuration);) {
+            dispatcher.setMaxPendingMessagesPerContainer(2);
+            final Thread holder = new Thread(() -> {
+                try {
+                    dispatcher.dispatch(km(new MessageOne(0)), Operation.handle, true);
+                } catch(final Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }, "testHandoffsCountTowardMaxPending-holder");
+            holder.start();
+            assertTrue(BlockingMP.entered.await(10, TimeUnit.SECONDS));
+
+            // only 2 can wait on the busy Mp. The rest are discarded.
+            for(int i = 1; i <= 5; i++)
+                dispatcher.dispatch(km(new MessageOne(0)), Operation.handle, true);
+            assertEquals(5, ((ClusterMetricGetters)statsCollector).getMessageCollisionCount());
+            assertEquals(3, ((ClusterMetricGetters)statsCollector).getMessageDiscardedCount());
+
+            BlockingMP.release.countDown();
+            holder.join(10000);
+            assertEquals(3, BlockingMP.handled.size());
+
+            // once they're delivered they're no longer pending.
+            for(int i = 1; i <= 2; i++)
+                dispatcher.dispatch(km(new MessageOne(0)), Operation.handle, true);
+            assertEquals(5, BlockingMP.handled.size());
+            assertEquals(3, ((ClusterMetricGetters)statsCollector).getMessageDiscardedCount());
+        }
+    }
+
+    @Test
+    public void testExpiredMessagesAreDiscarded() throws Exception {
+        final CombinedMP prototype = new CombinedMP();
+        try(final LockingContainer manager = setupContainer(new MessageProcessor<CombinedMP>(prototype));) {
+            manager.setMaxMessageAgeMillis(1000);
+
+            final long now = System.nanoTime();
+            final long stale = now - TimeUnit.SECONDS.toNanos(5);
+            manager.dispatch(km(new MessageOne(123)), Operation.handle, null, true, stale, stale);
+            assertEquals(1, statsCollector.getMessageExpiredCount());
+            assertEquals(0, ((ClusterMetricGetters)statsCollector).getDispatchedMessageCount());
+
+            final KeyedMessageWithType fresh = km(new MessageOne(123));
+            manager.dispatch(fresh, Operation.handle, null, true, now, now);
+            final CombinedMP instance = (CombinedMP)manager.getInstanceForKey(fresh.key, fresh.message).getInstance();
+            assertEquals(1, instance.messages.size());
+            assertEquals(1, statsCollector.getMessageExpiredCount());
+        }
+    }
+
+    @Test
+    public void testExpiredLazyMessageIsNeverDeserialized() throws Exception {
+        final CombinedMP prototype = new CombinedMP();
+        try(final LockingContainer manager = setupContainer(new MessageProcessor<CombinedMP>(prototype));) {
+            manager.setMaxMessageAgeMillis(1);
+
+            final KeyedMessageWithType msg = km(new MessageOne(123));
+            final CountingPayload payload = new CountingPayload(msg.message);
+
+            final DeliverLazyMessageJob job = new DeliverLazyMessageJob(new Container[] {manager}, nodeStats, new int[] {0}, msg.key, payload, true);
+            Thread.sleep(10);
+            job.executeAllContainers();
+
+            assertEquals(1, statsCollector.getMessageExpiredCount());
+            assertEquals(0, payload.deserialized.get());
+            assertEquals(1, payload.discarded.get());
+            assertEquals(0, ((ClusterMetricGetters)statsCollector).getDispatchedMessageCount());
+        }
+    }
+
+    @Test
+    public void testLazyMessageWithNoDeliveriesReleasesPayload() throws Exception {
+        final CombinedMP prototype = new CombinedMP();
+        try(final LockingContainer manager = setupContainer(new MessageProcessor<CombinedMP>(prototype));) {
+            final KeyedMessageWithType msg = km(new MessageOne(123));
+
+            final CountingPayload nowhere = new CountingPayload(msg.message);
+            new DeliverLazyMessageJob(new Container[] {manager}, nodeStats, new int[0], msg.key, nowhere, true).executeAllContainers();
+            assertEquals(0, nowhere.deserialized.get());
+            assertEquals(1, nowhere.discarded.get());
+
+            // the payload is released exactly once, by deserializing it, when there's somewhere for it to go.
+            final CountingPayload delivered = new CountingPayload(msg.message);
+            new DeliverLazyMessageJob(new Container[] {manager}, nodeStats, new int[] {0}, msg.key, delivered, true).executeAllContainers();
+            assertEquals(1, delivered.deserialized.get());
+            assertEquals(0, delivered.discarded.get());
+            assertEquals(1, ((ClusterMetricGetters)statsCollector).getDispatchedMessageCount());
+        }
+    }
+
+    private static class CountingPayload implements LazyPayload {
+        final AtomicInteger deserialized = new AtomicInteger(0);
+        final AtomicInteger discarded = new AtomicInteger(0);
+        final Object message;
+
+        CountingPayload(final Object message) {
+            this.message = message;
+        }
+
+        @Override
+        public Object get() {
+            deserialized.incrementAndGet();
+            return message;
+        }
+
+        @Override
+        public void discard() {
+            discarded.incrementAndGet();
+        }
+    }
 }
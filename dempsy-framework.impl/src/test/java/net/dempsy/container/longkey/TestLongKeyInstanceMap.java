@@ -0,0 +1,72 @@
+package net.dempsy.container.longkey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import net.dempsy.container.ContainerException;
+
+public class TestLongKeyInstanceMap {
+
+    @Test
+    public void testPutGetRemove() {
+        final LongKeyInstanceMap<String> ut = new LongKeyInstanceMap<>();
+        assertNull(ut.putIfAbsent(1L, "one"));
+        assertEquals("one", ut.putIfAbsent(1L, "uno"));
+        assertEquals("one", ut.get(1L));
+        assertNull(ut.get(2L));
+
+        // integral keys with the same value are the same key.
+        assertEquals("one", ut.get(1));
+
+        assertEquals("one", ut.remove(1L));
+        assertNull(ut.get(1L));
+        assertNull(ut.remove(1L));
+        assertEquals(0, ut.size());
+    }
+
+    @Test
+    public void testGrowAndReuseAfterRemove() {
+        final LongKeyInstanceMap<Long> ut = new LongKeyInstanceMap<>();
+        for(long i = -5000; i < 5000; i++)
+            assertNull(ut.putIfAbsent(i, i));
+        assertEquals(10000, ut.size());
+
+        // leave lots of tombstones behind and make sure the chains through them still work.
+        for(long i = -5000; i < 5000; i += 2)
+            assertEquals(Long.valueOf(i), ut.remove(i));
+        assertEquals(5000, ut.size());
+        for(long i = -5000; i < 5000; i++)
+            assertEquals(i % 2 == 0 ? null : Long.valueOf(i), ut.get(i));
+
+        for(int round = 0; round < 10; round++) {
+            for(long i = -5000; i < 5000; i += 2)
+                assertNull(ut.putIfAbsent(i, i));
+            for(long i = -5000; i < 5000; i += 2)
+                assertEquals(Long.valueOf(i), ut.remove(i));
+        }
+        assertEquals(5000, ut.size());
+    }
+
+    @Test
+    public void testKeySetReturnsOriginalKeys() {
+        final LongKeyInstanceMap<String> ut = new LongKeyInstanceMap<>();
+        ut.putIfAbsent(Integer.valueOf(-1), "a");
+        ut.putIfAbsent(Long.valueOf(Long.MAX_VALUE), "b");
+        ut.putIfAbsent(Long.valueOf(Long.MIN_VALUE), "c");
+
+        final Set<Object> keys = new HashSet<>(ut.keySet());
+        assertEquals(Set.of(Integer.valueOf(-1), Long.MAX_VALUE, Long.MIN_VALUE), keys);
+        assertSame("c", ut.get(Long.MIN_VALUE));
+    }
+
+    @Test(expected = ContainerException.class)
+    public void testNonIntegralKey() {
+        new LongKeyInstanceMap<String>().get("hello");
+    }
+}
@@ -16,11 +16,16 @@
 
 package net.dempsy.container.nonlocking;
 
+import static net.dempsy.util.Functional.uncheck;
+import static net.dempsy.utils.test.ConditionPoll.poll;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -247,12 +252,17 @@ public class TestInstanceManager {
             tm.close();
     });
 
-    @SuppressWarnings("resource")
     public Container setupContainer(final MessageProcessorLifecycle<?> prototype) throws ContainerException {
+        return setupContainer(prototype, false);
+    }
+
+    @SuppressWarnings("resource")
+    public Container setupContainer(final MessageProcessorLifecycle<?> prototype, final boolean conflate) throws ContainerException {
         dispatcher = new DummyDispatcher();
         statsCollector = new BasicClusterStatsCollector();
 
-        manager = new NonLockingAltContainer().setMessageProcessor(prototype).setClusterId(new ClusterId("test", "test"));
+        manager = new NonLockingAltContainer().setMessageProcessor(prototype).setClusterId(new ClusterId("test", "test"))
+            .setConflateMessages(conflate);
         manager.setDispatcher(dispatcher);
         manager.setInbound(new DummyInbound());
 
@@ -336,4 +346,57 @@ public class TestInstanceManager {
             assertEquals(1, ((ClusterMetricGetters)statsCollector).getMessageFailedCount());
         }
     }
+
+    @MessageType
+    public static class Update {
+        public final int value;
+
+        public Update(final int value) {
+            this.value = value;
+        }
+
+        @MessageKey
+        public Integer getKey() {
+            return 1;
+        }
+    }
+
+    @Mp
+    public static class ConflatingMP implements Cloneable {
+        public static CountDownLatch block = null;
+        public static List<Integer> handled = null;
+
+        @MessageHandler
+        public void handle(final Update message) throws InterruptedException {
+            handled.add(message.value);
+            block.await();
+        }
+
+        @Override
+        public Object clone() throws CloneNotSupportedException {
+            return super.clone();
+        }
+    }
+
+    @Test
+    public void testConflation() throws Exception {
+        ConflatingMP.block = new CountDownLatch(1);
+        ConflatingMP.handled = new CopyOnWriteArrayList<>();
+        try(final Container manager = setupContainer(new MessageProcessor<ConflatingMP>(new ConflatingMP()), true);) {
+            // the first message holds the Mp busy ...
+            final Thread busy = new Thread(() -> uncheck(() -> manager.dispatch(km(new Update(0)), Operation.handle, true)));
+            busy.start();
+            assertTrue(poll(o -> ConflatingMP.handled.size() == 1));
+
+            // ... so these are queued and each replaces the previous.
+            for(int i = 1; i <= 3; i++)
+                manager.dispatch(km(new Update(i)), Operation.handle, true);
+
+            ConflatingMP.block.countDown();
+            busy.join(10000);
+
+            assertEquals(List.of(0, 3), ConflatingMP.handled);
+            assertEquals(2, ((ClusterMetricGetters)statsCollector).getMessageDiscardedCount());
+        }
+    }
 }
@@ -31,6 +31,7 @@ import net.dempsy.monitoring.StatsCollector;
 public class BasicClusterStatsCollector implements ClusterStatsCollector, ClusterMetricGetters {
     private final AtomicLong messagesCollisions = new AtomicLong();
     private final AtomicLong messagesDiscarded = new AtomicLong();
+    private final AtomicLong messagesExpired = new AtomicLong();
     private final AtomicLong messagesDispatched = new AtomicLong();
     private final AtomicLong messagesProcessed = new AtomicLong();
     private final AtomicLong messagesFailed = new AtomicLong();
@@ -38,6 +39,18 @@ public class BasicClusterStatsCollector implements ClusterStatsCollector, Cluste
     private final AtomicLong numberOfMPs = new AtomicLong();
     private final AtomicLong mpsCreated = new AtomicLong();
     private final AtomicLong mpsDeleted = new AtomicLong();
+    private final AtomicLong mpsForcedPassivation = new AtomicLong();
+    private final AtomicLong batchesDelivered = new AtomicLong();
+    private final AtomicLong messagesBatched = new AtomicLong();
+    private final AtomicLong[] stageLatencyCounts = new AtomicLong[MessageStage.values().length];
+    private final AtomicLong[] stageLatencyTotals = new AtomicLong[MessageStage.values().length];
+
+    {
+        for(int i = 0; i < stageLatencyCounts.length; i++) {
+            stageLatencyCounts[i] = new AtomicLong();
+            stageLatencyTotals[i] = new AtomicLong();
+        }
+    }
 
     private final AtomicLong preInstantiationDuration = new AtomicLong();
     private final AtomicLong outputInvokeDuration = new AtomicLong();
@@ -97,6 +110,15 @@ public class BasicClusterStatsCollector implements ClusterStatsCollector, Cluste
         messagesDiscarded.incrementAndGet();
     }
 
+    @Override
+    public void messageExpired(final Object message) {
+        messagesExpired.incrementAndGet();
+    }
+
+    public long getMessageExpiredCount() {
+        return messagesExpired.get();
+    }
+
     @Override
     public void messageDispatched(final int num) {
         messagesDispatched.getAndAdd(num);
@@ -127,6 +149,43 @@ public class BasicClusterStatsCollector implements ClusterStatsCollector, Cluste
         numberOfMPs.decrementAndGet();
     }
 
+    @Override
+    public void messageProcessorForcedPassivation(final Object key) {
+        mpsForcedPassivation.incrementAndGet();
+    }
+
+    public long getMessageProcessorsForcedPassivation() {
+        return mpsForcedPassivation.get();
+    }
+
+    @Override
+    public void messageBatchDelivered(final int batchSize) {
+        batchesDelivered.incrementAndGet();
+        messagesBatched.addAndGet(batchSize);
+    }
+
+    public long getBatchesDelivered() {
+        return batchesDelivered.get();
+    }
+
+    public long getMessagesBatched() {
+        return messagesBatched.get();
+    }
+
+    @Override
+    public void messageStageLatency(final MessageStage stage, final long nanos) {
+        stageLatencyCounts[stage.ordinal()].incrementAndGet();
+        stageLatencyTotals[stage.ordinal()].addAndGet(nanos);
+    }
+
+    public long getMessageStageLatencyCount(final MessageStage stage) {
+        return stageLatencyCounts[stage.ordinal()].get();
+    }
+
+    public long getMessageStageLatencyTotalNanos(final MessageStage stage) {
+        return stageLatencyTotals[stage.ordinal()].get();
+    }
+
     @Override
     public void stop() {
         // no-op
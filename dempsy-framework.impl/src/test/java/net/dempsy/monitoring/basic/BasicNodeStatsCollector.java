@@ -16,6 +16,8 @@
 
 package net.dempsy.monitoring.basic;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.LongSupplier;
 
@@ -39,6 +41,9 @@ public class BasicNodeStatsCollector implements NodeStatsCollector, NodeMetricGe
 
     private LongSupplier currentMessagesPendingGauge = null;
     private LongSupplier currentMessagesOutPendingGauge = null;
+    private final Map<String, LongSupplier> currentMessagesOutPendingGauges = new ConcurrentHashMap<>();
+    private LongSupplier currentThreadPoolSizeGauge = null;
+    private LongSupplier lastThreadPoolResizeGauge = null;
 
     @Override
     public void setNodeId(final String nodeId) {}
@@ -106,6 +111,24 @@ public class BasicNodeStatsCollector implements NodeStatsCollector, NodeMetricGe
         this.currentMessagesOutPendingGauge = currentMessagesOutPendingGauge;
     }
 
+    @Override
+    public void setMessagesOutPendingGauge(final String destination, final LongSupplier currentMessagesOutPendingGauge) {
+        if(currentMessagesOutPendingGauge == null)
+            currentMessagesOutPendingGauges.remove(destination);
+        else
+            currentMessagesOutPendingGauges.put(destination, currentMessagesOutPendingGauge);
+    }
+
+    @Override
+    public synchronized void setThreadPoolSizeGauge(final LongSupplier currentThreadPoolSizeGauge) {
+        this.currentThreadPoolSizeGauge = currentThreadPoolSizeGauge;
+    }
+
+    @Override
+    public synchronized void setThreadPoolResizeGauge(final LongSupplier lastThreadPoolResizeGauge) {
+        this.lastThreadPoolResizeGauge = lastThreadPoolResizeGauge;
+    }
+
     @Override
     public synchronized long getMessagesPending() {
         return currentMessagesPendingGauge == null ? 0 : currentMessagesPendingGauge.getAsLong();
@@ -116,4 +139,17 @@ public class BasicNodeStatsCollector implements NodeStatsCollector, NodeMetricGe
         return currentMessagesOutPendingGauge == null ? 0 : currentMessagesOutPendingGauge.getAsLong();
     }
 
+    public long getMessagesOutPending(final String destination) {
+        final LongSupplier gauge = currentMessagesOutPendingGauges.get(destination);
+        return gauge == null ? 0 : gauge.getAsLong();
+    }
+
+    public synchronized long getThreadPoolSize() {
+        return currentThreadPoolSizeGauge == null ? 0 : currentThreadPoolSizeGauge.getAsLong();
+    }
+
+    public synchronized long getLastThreadPoolResize() {
+        return lastThreadPoolResizeGauge == null ? 0 : lastThreadPoolResizeGauge.getAsLong();
+    }
+
 }
@@ -12,6 +12,7 @@ import com.codahale.metrics.SharedMetricRegistries;
 import com.codahale.metrics.Timer;
 
 import net.dempsy.config.ClusterId;
+import net.dempsy.monitoring.ClusterStatsCollector.MessageStage;
 import net.dempsy.monitoring.StatsCollector.TimerContext;
 
 public class TestDropwizardClusterStatsCollector {
@@ -48,6 +49,7 @@ public class TestDropwizardClusterStatsCollector {
         collector.messageCollision(null);
         collector.messageProcessorCreated(null);
         collector.messageProcessorDeleted(null);
+        collector.messageExpired(null);
 
         // Verify the metrics were created and have the correct values
         verifyMeter(DropwizardClusterStatsCollector.MESSAGES_DISPATCHED, 1);
@@ -56,6 +58,7 @@ public class TestDropwizardClusterStatsCollector {
         verifyMeter(DropwizardClusterStatsCollector.MESSAGES_COLLISION, 1);
         verifyMeter(DropwizardClusterStatsCollector.MESSAGES_PROCESSOR_CREATED, 1);
         verifyMeter(DropwizardClusterStatsCollector.MESSAGES_PROCESSOR_DELETED, 1);
+        verifyMeter(DropwizardClusterStatsCollector.MESSAGES_EXPIRED, 1);
 
         // Lets call this one a couple more times to make sure the meter increments correctly.
         collector.messageDispatched(1);
@@ -106,6 +109,27 @@ public class TestDropwizardClusterStatsCollector {
         verifyTimer(collector.evictionPassStarted(), DropwizardClusterStatsCollector.EVICTION_PASS_STARTED_TIMER);
     }
 
+    @Test
+    public void verifyMessageStageLatencies() {
+        collector.messageStageLatency(MessageStage.DESERIALIZE, 1000);
+        collector.messageStageLatency(MessageStage.QUEUE, 2000);
+        collector.messageStageLatency(MessageStage.HANDLER, 3000);
+        collector.messageStageLatency(MessageStage.HANDLER, 5000);
+        collector.messageStageLatency(MessageStage.END_TO_END, 10000);
+
+        verifyStageLatency(DropwizardClusterStatsCollector.MESSAGE_DESERIALIZE_LATENCY, 1, 1000);
+        verifyStageLatency(DropwizardClusterStatsCollector.MESSAGE_QUEUE_LATENCY, 1, 2000);
+        verifyStageLatency(DropwizardClusterStatsCollector.MESSAGE_HANDLER_LATENCY, 2, 5000);
+        verifyStageLatency(DropwizardClusterStatsCollector.MESSAGE_END_TO_END_LATENCY, 1, 10000);
+    }
+
+    private void verifyStageLatency(final String key, final long expectedCount, final long expectedMaxNanos) {
+        final Timer t = SharedMetricRegistries.getDefault().getTimers().get(collector.getName(key));
+        Assert.assertNotNull(t);
+        Assert.assertEquals(expectedCount, t.getCount());
+        Assert.assertEquals(expectedMaxNanos, t.getSnapshot().getMax());
+    }
+
     private void verifyTimer(final TimerContext tc, final String key) throws InterruptedException {
         // Make sure the timer is registered as a metric
         final Timer t = SharedMetricRegistries.getDefault().getTimers().get(collector.getName(key));
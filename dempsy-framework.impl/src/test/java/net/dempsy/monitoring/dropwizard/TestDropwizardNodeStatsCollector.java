@@ -66,9 +66,30 @@ public class TestDropwizardNodeStatsCollector {
     public void verifyGaugesGetSet() {
         collector.setMessagesPendingGauge(() -> 1L);
         collector.setMessagesOutPendingGauge(() -> 2L);
+        collector.setThreadPoolSizeGauge(() -> 3L);
+        collector.setThreadPoolResizeGauge(() -> -1L);
 
         verifyGauge(DropwizardNodeStatsCollector.MESSAGES_PENDING_GAUGE, 1);
         verifyGauge(DropwizardNodeStatsCollector.MESSAGES_OUT_PENDING_GAUGE, 2);
+        verifyGauge(DropwizardNodeStatsCollector.THREAD_POOL_SIZE_GAUGE, 3);
+        verifyGauge(DropwizardNodeStatsCollector.THREAD_POOL_RESIZE_GAUGE, -1);
+    }
+
+    @Test
+    public void verifyDestinationGaugesGetSetAndRemoved() {
+        collector.setMessagesOutPendingGauge("dest1", () -> 4L);
+        collector.setMessagesOutPendingGauge("dest2", () -> 5L);
+
+        final String dest1 = collector.getName(DropwizardNodeStatsCollector.MESSAGES_OUT_PENDING_GAUGE, "dest1");
+        final String dest2 = collector.getName(DropwizardNodeStatsCollector.MESSAGES_OUT_PENDING_GAUGE, "dest2");
+        Assert.assertEquals(4L, SharedMetricRegistries.getDefault().getGauges().get(dest1).getValue());
+        Assert.assertEquals(5L, SharedMetricRegistries.getDefault().getGauges().get(dest2).getValue());
+
+        collector.setMessagesOutPendingGauge("dest1", null);
+        Assert.assertFalse(SharedMetricRegistries.getDefault().getNames().contains(dest1));
+
+        collector.close();
+        Assert.assertFalse(SharedMetricRegistries.getDefault().getNames().contains(dest2));
     }
 
     private void verifyGauge(final String key, final long expectedValue) {
@@ -88,6 +109,8 @@ public class TestDropwizardNodeStatsCollector {
 
         collector.setMessagesPendingGauge(() -> 1L);
         collector.setMessagesOutPendingGauge(() -> 2L);
+        collector.setThreadPoolSizeGauge(() -> 3L);
+        collector.setThreadPoolResizeGauge(() -> 0L);
 
         // Make sure metrics exist in default registry
         SortedSet<String> metricsInRegistry = SharedMetricRegistries.getDefault().getNames();
@@ -1,8 +1,12 @@
 package net.dempsy.output;
 
 import static net.dempsy.utils.test.ConditionPoll.poll;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -66,6 +70,38 @@ public class TestOutputSchedulers {
         }
     }
 
+    @Test
+    public void testStaggeredSchedule() throws Exception {
+        final List<Integer> slicesInvoked = Collections.synchronizedList(new ArrayList<>());
+        final Container slicedContainer = new NonLockingAltContainer() {
+            @Override
+            public void invokeOutput(final int slice, final int numSlices) {
+                assertEquals(4, numSlices);
+                slicesInvoked.add(slice);
+            }
+        };
+
+        try(final StaggeredOutputSchedule staggeredOutputSchedule = new StaggeredOutputSchedule(1, TimeUnit.SECONDS, 4);) {
+            staggeredOutputSchedule.setOutputInvoker(slicedContainer);
+            staggeredOutputSchedule.start(new TestInfrastructure(null));
+            assertTrue(poll(slicesInvoked, si -> si.size() >= 6));
+        }
+
+        // every slice is invoked in order, wrapping around each interval.
+        for(int i = 0; i < 6; i++)
+            assertEquals(i % 4, slicesInvoked.get(i).intValue());
+    }
+
+    @Test
+    public void testOutputSliceIsStable() throws Exception {
+        for(int i = 0; i < 1000; i++) {
+            final String key = "key-" + i;
+            final int slice = OutputInvoker.outputSlice(key, 10);
+            assertTrue(slice >= 0 && slice < 10);
+            assertEquals(slice, OutputInvoker.outputSlice(new String(key), 10));
+        }
+    }
+
     /**
      * Test cron schedule.
      *
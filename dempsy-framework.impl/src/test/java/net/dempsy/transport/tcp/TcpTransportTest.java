@@ -7,8 +7,15 @@ import static net.dempsy.utils.test.ConditionPoll.poll;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.net.Inet4Address;
+import java.net.InetAddress;
 import java.net.NetworkInterface;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -33,19 +40,28 @@ import org.slf4j.LoggerFactory;
 import net.dempsy.Infrastructure;
 import net.dempsy.ServiceTracker;
 import net.dempsy.TestWordCount;
+import net.dempsy.container.ContainerJob;
+import net.dempsy.container.ContainerJobMetadata;
+import net.dempsy.container.MessageDeliveryJob;
+import net.dempsy.monitoring.basic.BasicNodeStatsCollector;
 import net.dempsy.serialization.Serializer;
 import net.dempsy.serialization.jackson.JsonSerializer;
 import net.dempsy.serialization.kryo.KryoSerializer;
 import net.dempsy.threading.DefaultThreadingModel;
 import net.dempsy.threading.ThreadingModel;
 import net.dempsy.transport.DisruptableRecevier;
+import net.dempsy.transport.LazyPayload;
 import net.dempsy.transport.Listener;
 import net.dempsy.transport.Receiver;
 import net.dempsy.transport.RoutedMessage;
 import net.dempsy.transport.Sender;
 import net.dempsy.transport.SenderFactory;
+import net.dempsy.transport.SharedPayload;
+import net.dempsy.transport.tcp.nio.NioAddress;
 import net.dempsy.transport.tcp.nio.NioReceiver;
 import net.dempsy.transport.tcp.nio.NioSenderFactory;
+import net.dempsy.transport.tcp.nio.NioSenderFactory.OverflowPolicy;
+import net.dempsy.transport.tcp.nio.internal.NioUtils;
 import net.dempsy.util.TestInfrastructure;
 
 @RunWith(Parameterized.class)
@@ -203,6 +219,422 @@ public class TcpTransportTest {
         }
     }
 
+    @Test
+    public void testSharedPayload() throws Exception {
+        final String huge = TestWordCount.readBible();
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + ".testSharedPayload"));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm));
+
+            final AbstractTcpReceiver<?, ?> r1 = tr.track(receiver.get()).numHandlers(2).useLocalHost(true).maxMessageSize(1024 * 1024 * 1024);
+            final AbstractTcpReceiver<?, ?> r2 = tr.track(receiver.get()).numHandlers(2).useLocalHost(true).maxMessageSize(1024 * 1024 * 1024);
+            final TcpAddress addr1 = r1.getAddress(infra);
+            final TcpAddress addr2 = r2.getAddress(infra);
+            final AtomicReference<RoutedMessage> rm1 = new AtomicReference<>(null);
+            final AtomicReference<RoutedMessage> rm2 = new AtomicReference<>(null);
+            r1.start((Listener<RoutedMessage>)msg -> {
+                rm1.set(msg);
+                return true;
+            }, infra);
+            r2.start((Listener<RoutedMessage>)msg -> {
+                rm2.set(msg);
+                return true;
+            }, infra);
+
+            try(final SenderFactory sf = senderFactory.get();) {
+                sf.start(new TestInfrastructure(tm) {
+                    @Override
+                    public Map<String, String> getConfiguration() {
+                        final Map<String, String> ret = new HashMap<>();
+                        ret.put(sf.getClass().getPackage().getName() + "." + NioSenderFactory.CONFIG_KEY_SENDER_SHARE_PAYLOAD, "true");
+                        return ret;
+                    }
+                });
+
+                final SharedPayload shared = new SharedPayload(huge, 2);
+                sf.getSender(addr1).send(new RoutedMessage(new int[] {1}, "Hello1", huge), shared);
+                sf.getSender(addr2).send(new RoutedMessage(new int[] {2,3}, "Hello2", huge), shared);
+
+                assertTrue(poll(o -> rm1.get() != null && rm2.get() != null));
+                assertEquals(huge, rm1.get().message);
+                assertEquals("Hello1", rm1.get().key);
+                assertTrue(Arrays.equals(new int[] {1}, rm1.get().containers));
+                assertEquals(huge, rm2.get().message);
+                assertEquals("Hello2", rm2.get().key);
+                assertTrue(Arrays.equals(new int[] {2,3}, rm2.get().containers));
+            }
+        }
+    }
+
+    @Test
+    public void testBatchedFrames() throws Exception {
+        final int numMessages = 1000;
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + ".testBatchedFrames"));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm));
+
+            final AbstractTcpReceiver<?, ?> r = tr.track(receiver.get()).numHandlers(2).useLocalHost(true).maxMessageSize(1024 * 1024 * 1024);
+            final TcpAddress addr = r.getAddress(infra);
+            final List<Object> received = Collections.synchronizedList(new ArrayList<>());
+            final AtomicLong numBatches = new AtomicLong();
+            r.start(new Listener<RoutedMessage>() {
+                @Override
+                public boolean onMessage(final RoutedMessage msg) {
+                    received.add(msg.message);
+                    return true;
+                }
+
+                @Override
+                public boolean onMessages(final int count, final Supplier<List<RoutedMessage>> supplier) {
+                    numBatches.incrementAndGet();
+                    final List<RoutedMessage> msgs = supplier.get();
+                    assertEquals(count, msgs.size());
+                    msgs.forEach(m -> received.add(m.message));
+                    return true;
+                }
+            }, infra);
+
+            try(final SenderFactory sf = senderFactory.get();) {
+                sf.start(new TestInfrastructure(tm) {
+                    @Override
+                    public Map<String, String> getConfiguration() {
+                        final Map<String, String> ret = new HashMap<>();
+                        ret.put(sf.getClass().getPackage().getName() + "." + NioSenderFactory.CONFIG_KEY_SENDER_BATCH_FRAMES, "true");
+                        return ret;
+                    }
+                });
+
+                final Sender sender = sf.getSender(addr);
+                for(int i = 0; i < numMessages; i++)
+                    sender.send(new RoutedMessage(new int[] {0}, "Hello", "Hello" + i));
+
+                assertTrue(poll(o -> received.size() == numMessages));
+                // a single connection preserves the order.
+                assertEquals(IntStream.range(0, numMessages).mapToObj(i -> "Hello" + i).collect(Collectors.toList()), received);
+                assertTrue(numBatches.get() > 0);
+            }
+        }
+    }
+
+    @Test
+    public void testRoutingHeader() throws Exception {
+        final int numMessages = 100;
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + ".testRoutingHeader"));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm));
+
+            final AbstractTcpReceiver<?, ?> r = tr.track(receiver.get()).numHandlers(2).useLocalHost(true).maxMessageSize(1024 * 1024 * 1024);
+            final TcpAddress addr = r.getAddress(infra);
+            final List<Object> received = Collections.synchronizedList(new ArrayList<>());
+            final AtomicLong numDiscarded = new AtomicLong();
+            final AtomicLong numNotLazy = new AtomicLong();
+            r.start(new Listener<RoutedMessage>() {
+                @Override
+                public boolean onMessage(final RoutedMessage msg) {
+                    numNotLazy.incrementAndGet();
+                    return true;
+                }
+
+                @Override
+                public boolean onMessage(final int[] containers, final Object key, final LazyPayload payload) {
+                    assertTrue(Arrays.equals(new int[] {1,2}, containers));
+                    // shed the messages with odd keys without ever deserializing them.
+                    if(((Integer)key).intValue() % 2 == 1) {
+                        payload.discard();
+                        numDiscarded.incrementAndGet();
+                    } else
+                        received.add(payload.get());
+                    return true;
+                }
+            }, infra);
+
+            try(final SenderFactory sf = senderFactory.get();) {
+                sf.start(new TestInfrastructure(tm) {
+                    @Override
+                    public Map<String, String> getConfiguration() {
+                        final Map<String, String> ret = new HashMap<>();
+                        ret.put(sf.getClass().getPackage().getName() + "." + NioSenderFactory.CONFIG_KEY_SENDER_ROUTING_HEADER, "true");
+                        return ret;
+                    }
+                });
+
+                final Sender sender = sf.getSender(addr);
+                for(int i = 0; i < numMessages; i++)
+                    sender.send(new RoutedMessage(new int[] {1,2}, Integer.valueOf(i), "Hello" + i));
+
+                assertTrue(poll(o -> received.size() + numDiscarded.get() == numMessages));
+                assertEquals(IntStream.range(0, numMessages).filter(i -> i % 2 == 0).mapToObj(i -> "Hello" + i).collect(Collectors.toList()), received);
+                assertEquals(numMessages / 2, numDiscarded.get());
+                assertEquals(0, numNotLazy.get());
+            }
+        }
+    }
+
+    @Test
+    public void testFlowControl() throws Exception {
+        final int numMessages = 1000;
+        final int maxPending = 50;
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final DefaultThreadingModel tm = tr
+                .track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + ".testFlowControl", 1, maxPending))
+                .start("testFlowControl");
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm));
+
+            final AbstractTcpReceiver<?, ?> r = tr.track(receiver.get()).numHandlers(2).useLocalHost(true).maxMessageSize(1024 * 1024 * 1024);
+            final TcpAddress addr = r.getAddress(infra);
+            final CountDownLatch release = new CountDownLatch(1);
+            final AtomicLong processed = new AtomicLong();
+            final AtomicLong rejected = new AtomicLong();
+            r.start((Listener<RoutedMessage>)msg -> {
+                tm.submitLimited(new MessageDeliveryJob() {
+                    @Override
+                    public boolean containersCalculated() {
+                        return true;
+                    }
+
+                    @Override
+                    public ContainerJobMetadata[] containerData() {
+                        return null;
+                    }
+
+                    @Override
+                    public void calculateContainers() {}
+
+                    @Override
+                    public void rejected(final boolean stopping) {
+                        rejected.incrementAndGet();
+                    }
+
+                    @Override
+                    public void executeAllContainers() {
+                        dontInterrupt(() -> release.await());
+                        processed.incrementAndGet();
+                    }
+
+                    @Override
+                    public List<ContainerJob> individuate() {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    @Override
+                    public void individuatedJobsComplete() {}
+                });
+                return true;
+            }, infra);
+
+            try(final SenderFactory sf = senderFactory.get();) {
+                sf.start(new TestInfrastructure(tm) {
+                    @Override
+                    public Map<String, String> getConfiguration() {
+                        final Map<String, String> ret = new HashMap<>();
+                        ret.put(sf.getClass().getPackage().getName() + "." + NioSenderFactory.CONFIG_KEY_SENDER_FLOW_CONTROL, "true");
+                        ret.put(sf.getClass().getPackage().getName() + "." + NioSenderFactory.CONFIG_KEY_SENDER_MAX_QUEUED, "20");
+                        return ret;
+                    }
+                });
+
+                final Sender sender = sf.getSender(addr);
+                final AtomicLong sent = new AtomicLong();
+                final Thread producer = chain(new Thread(() -> {
+                    for(int i = 0; i < numMessages; i++) {
+                        final int cur = i;
+                        dontInterrupt(() -> sender.send(new RoutedMessage(new int[] {0}, "Hello", "Hello" + cur)));
+                        sent.incrementAndGet();
+                    }
+                }, "testFlowControl-producer"), t -> t.start());
+
+                // the receiver can't keep up so the producer should be held back rather than the messages thrown away.
+                assertTrue(poll(o -> tm.getNumberLimitedPending() >= maxPending - 1));
+                Thread.sleep(100);
+                assertTrue(sent.get() < numMessages);
+                assertEquals(0, rejected.get());
+
+                release.countDown();
+                assertTrue(poll(o -> processed.get() == numMessages));
+                producer.join();
+                assertEquals(0, rejected.get());
+            }
+        }
+    }
+
+    @Test
+    public void testFlowControlWithPartialWrites() throws Exception {
+        // each of these is larger than the socket's send buffer so it takes several writes to send one.
+        final int numMessages = 10;
+        final String huge = TestWordCount.readBible();
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + ".testFlowControlWithPartialWrites"));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm) {
+                @Override
+                public Map<String, String> getConfiguration() {
+                    final Map<String, String> ret = new HashMap<>();
+                    // a small window means an overcharged sender would run out of credits the receiver thinks it has.
+                    ret.put(NioReceiver.class.getPackage().getName() + "." + NioReceiver.CONFIG_KEY_RECEIVER_FLOW_CONTROL_WINDOW, "2");
+                    return ret;
+                }
+            });
+
+            final AbstractTcpReceiver<?, ?> r = tr.track(receiver.get()).numHandlers(2).useLocalHost(true).maxMessageSize(1024 * 1024 * 1024);
+            final TcpAddress addr = r.getAddress(infra);
+            final AtomicLong received = new AtomicLong();
+            r.start((Listener<RoutedMessage>)msg -> {
+                received.incrementAndGet();
+                return true;
+            }, infra);
+
+            try(final SenderFactory sf = senderFactory.get();) {
+                sf.start(new TestInfrastructure(tm) {
+                    @Override
+                    public Map<String, String> getConfiguration() {
+                        final Map<String, String> ret = new HashMap<>();
+                        ret.put(sf.getClass().getPackage().getName() + "." + NioSenderFactory.CONFIG_KEY_SENDER_FLOW_CONTROL, "true");
+                        return ret;
+                    }
+                });
+
+                final Sender sender = sf.getSender(addr);
+                for(int i = 0; i < numMessages; i++)
+                    sender.send(new RoutedMessage(new int[] {0}, "Hello", huge));
+
+                // a message is only charged one credit no matter how many writes it takes.
+                assertTrue(poll(o -> received.get() == numMessages));
+            }
+        }
+    }
+
+    @Test
+    public void testOverflowBlock() throws Exception {
+        // the sender waits for room so nothing is lost.
+        runOverflowPolicy("testOverflowBlock", OverflowPolicy.block, 5, 10, 5, 0,
+            IntStream.range(0, 10).mapToObj(i -> "Hello" + i).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testOverflowDropNewest() throws Exception {
+        runOverflowPolicy("testOverflowDropNewest", OverflowPolicy.drop_newest, 5, 10, 10, 5,
+            IntStream.range(0, 5).mapToObj(i -> "Hello" + i).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testOverflowDropOldest() throws Exception {
+        runOverflowPolicy("testOverflowDropOldest", OverflowPolicy.drop_oldest, 5, 10, 10, 5,
+            IntStream.range(5, 10).mapToObj(i -> "Hello" + i).collect(Collectors.toList()));
+    }
+
+    /**
+     * The destination is a plain socket that asks for flow control but doesn't grant any credits until
+     * all of the messages have been sent so nothing leaves the sender's queue until then.
+     */
+    private void runOverflowPolicy(final String testName, final OverflowPolicy policy, final int maxQueued, final int numMessages,
+        final long expectedSentBeforeGrant, final long expectedNotSent, final List<String> expectedDelivered) throws Exception {
+        final Serializer serializer = new JsonSerializer();
+        try(final ServiceTracker tr = new ServiceTracker();
+            final ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());) {
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + "." + testName));
+            final TcpAddress addr = new NioAddress(InetAddress.getLoopbackAddress(), server.getLocalPort(), serializer.getClass().getPackage().getName(),
+                -1, 1024 * 1024, false, false, false, true);
+
+            try(final SenderFactory sf = senderFactory.get();) {
+                final TestInfrastructure infra = new TestInfrastructure(tm) {
+                    @Override
+                    public Map<String, String> getConfiguration() {
+                        final Map<String, String> ret = new HashMap<>();
+                        ret.put(sf.getClass().getPackage().getName() + "." + NioSenderFactory.CONFIG_KEY_SENDER_FLOW_CONTROL, "true");
+                        ret.put(sf.getClass().getPackage().getName() + "." + NioSenderFactory.CONFIG_KEY_SENDER_MAX_QUEUED, "" + maxQueued);
+                        ret.put(sf.getClass().getPackage().getName() + "." + NioSenderFactory.CONFIG_KEY_SENDER_OVERFLOW_POLICY, policy.name());
+                        return ret;
+                    }
+                };
+                final BasicNodeStatsCollector stats = (BasicNodeStatsCollector)infra.getNodeStatsCollector();
+                sf.start(infra);
+
+                final Sender sender = sf.getSender(addr);
+                try(final Socket socket = server.accept();) {
+                    final DataInputStream in = new DataInputStream(socket.getInputStream());
+                    assertEquals(NioUtils.FLOW_CONTROL_FRAME, in.readShort());
+
+                    final AtomicLong sent = new AtomicLong();
+                    final Thread producer = chain(new Thread(() -> {
+                        for(int i = 0; i < numMessages; i++) {
+                            final int cur = i;
+                            dontInterrupt(() -> sender.send(new RoutedMessage(new int[] {0}, "Hello", "Hello" + cur)));
+                            sent.incrementAndGet();
+                        }
+                    }, testName + "-producer"), t -> t.start());
+
+                    assertTrue(poll(o -> stats.getMessagesOutPending(addr.getGuid()) == maxQueued));
+                    assertTrue(poll(o -> sent.get() == expectedSentBeforeGrant));
+                    Thread.sleep(100);
+                    assertEquals(expectedSentBeforeGrant, sent.get());
+                    assertEquals(maxQueued, stats.getMessagesOutPending(addr.getGuid()));
+                    assertEquals(expectedNotSent, stats.getMessagesNotSentCount());
+
+                    // let everything through.
+                    final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    out.writeInt(numMessages);
+                    out.flush();
+
+                    final List<Object> delivered = new ArrayList<>();
+                    for(int i = 0; i < expectedDelivered.size(); i++) {
+                        final short shortSize = in.readShort();
+                        final byte[] frame = new byte[shortSize == -1 ? in.readInt() : shortSize];
+                        in.readFully(frame);
+                        delivered.add(serializer.deserialize(new ByteArrayInputStream(frame), RoutedMessage.class).message);
+                    }
+                    assertEquals(expectedDelivered, delivered);
+
+                    producer.join(10000);
+                    assertTrue(!producer.isAlive());
+                    assertEquals(expectedNotSent, stats.getMessagesNotSentCount());
+                    assertTrue(poll(o -> stats.getMessagesOutPending(addr.getGuid()) == 0));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDirectBuffers() throws Exception {
+        final int numMessages = 100;
+        final String huge = TestWordCount.readBible();
+        try(final ServiceTracker tr = new ServiceTracker();) {
+            final ThreadingModel tm = tr.track(new DefaultThreadingModel(TcpTransportTest.class.getSimpleName() + ".testDirectBuffers"));
+            final Infrastructure infra = tr.track(new TestInfrastructure(tm) {
+                @Override
+                public Map<String, String> getConfiguration() {
+                    final Map<String, String> ret = new HashMap<>();
+                    final String pkg = NioReceiver.class.getPackage().getName() + ".";
+                    ret.put(pkg + NioReceiver.CONFIG_KEY_RECEIVER_DIRECT_BUFFERS, "true");
+                    ret.put(pkg + NioReceiver.CONFIG_KEY_RECEIVER_DIRECT_BUFFER_SIZE, "1024");
+                    // fewer buffers than messages in flight so some are read into heap buffers.
+                    ret.put(pkg + NioReceiver.CONFIG_KEY_RECEIVER_DIRECT_BUFFER_COUNT, "4");
+                    return ret;
+                }
+            });
+
+            final AbstractTcpReceiver<?, ?> r = tr.track(receiver.get()).numHandlers(2).useLocalHost(true).maxMessageSize(1024 * 1024 * 1024);
+            final TcpAddress addr = r.getAddress(infra);
+            final List<Object> received = Collections.synchronizedList(new ArrayList<>());
+            r.start((Listener<RoutedMessage>)msg -> {
+                received.add(msg.message);
+                return true;
+            }, infra);
+
+            try(final SenderFactory sf = senderFactory.get();) {
+                sf.start(new TestInfrastructure(tm));
+                final Sender sender = sf.getSender(addr);
+                for(int i = 0; i < numMessages; i++)
+                    sender.send(new RoutedMessage(new int[] {0}, "Hello", "Hello" + i));
+                // larger than a pooled buffer
+                sender.send(new RoutedMessage(new int[] {0}, "Hello", huge));
+
+                assertTrue(poll(o -> received.size() == numMessages + 1));
+                final List<Object> expected = IntStream.range(0, numMessages).mapToObj(i -> "Hello" + i).collect(Collectors.toList());
+                expected.add(huge);
+                assertEquals(expected, received);
+            }
+        }
+    }
+
     private static final String NUM_SENDER_THREADS = "2";
 
     private void runMultiMessage(final String testName, final int numThreads, final int numMessagePerThread, final String message,